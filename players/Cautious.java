@@ -0,0 +1,401 @@
+/*
+ * @(#)Cautious.java	Oct 17, 2026, 6:33:57 AM
+ *
+ */
+package players;
+
+import java.util.*;
+import dk.dtu.imm.cse.agent.act.afc.*;
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * This file was generated by automatically by the AgentC Compiler.
+ *
+ * (c) Henrik Lauritzen, 2002
+ */
+public class Cautious extends dk.dtu.imm.cse.agent.act.demo.DemoAcme {
+
+	public static final Double C_INITIAL_RELATION = Double.valueOf(1.0);
+	public static final Double C_EIGHTH = Double.valueOf(0.125);
+	public static final Double C_NEGONE = Double.valueOf(-1.0);
+	public static final Double C_NEGHALF = Double.valueOf(-0.5);
+	public static final Double C_NEGQUART = Double.valueOf(-0.25);
+	public static final Double C_ZERO = Double.valueOf(0.0);
+	public static final Double C_QUART = Double.valueOf(0.25);
+	public static final Double C_HALF = Double.valueOf(0.5);
+	public static final Double C_ONE = Double.valueOf(1.0);
+	private static final BitSet K_0 = Util.toBitSet(new int[] {2});
+	private static final Map K_1 = Util.toIndexMap(new Object[] {ACCEPT, REJECT});
+	private static final BitSet K_2 = Util.toBitSet(new int[] {1, 2});
+	private static final Double K_3 = Double.valueOf(0.4);
+	private static final Double K_4 = Double.valueOf(0.2);
+	private static final Map K_5 = Util.toIndexMap(new Object[] {PLAYER_ELIMINATED, UNIT_ATTACKED, SUPPORT_CENTRE_ATTACKED, SUPPORT_CENTRE_CONQUERED});
+	private static final Double K_6 = Double.valueOf(-0.75);
+	private static final Double K_7 = Double.valueOf(-1.5);
+	private static final BitSet K_8 = Util.toBitSet(new int[] {0, 1, 2});
+
+
+	public Cautious(Object id) {
+		super(id);
+	}
+
+	public Cautious(Object id, Actuator a, Messenger m, Investigator i) {
+		super(id);
+		init(a, m, i);
+	}
+
+
+	protected void initKnowledgeBase(KnowledgeBase kb) {
+		kb.add(1, "relation", new Object[] {getId(), RED, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), BLUE, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), GREEN, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), YELLOW, C_INITIAL_RELATION});
+	}
+
+	public int getMaxAttitude() {
+		return 2;
+	}
+
+	public Object init(Map msg) {
+		KnowledgeBase kBase = getKnowledgeBase();
+		kBase.remove(1, "relation", new Object[] {getId(), getId(), null}, K_0);
+		return null;
+	}
+
+	public Object negotiate(Map msg) {
+		Object tempObj;
+		if (msg == null) {
+			return inquire(msg);
+		}
+		tempObj = msg == null ? null : K_1.get(msg.get("contents"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		}
+		return handleNewMessage(msg);
+	}
+
+	public Object giveOrders(Map msg) {
+		FactCursor cursor4 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		xeqAction("resetFriends", Util.NO_OBJECTS);
+		for (boolean matched2 = false; ; ) {
+			do {
+				cursor4 = kBase.matchCursor(1, "relation", new Object[] {getId(), null, null}, K_2, cursor4);
+				while (cursor4.next()) {
+					Object v0_P = cursor4.getTerm(1);
+					Object v1_R = cursor4.getTerm(2);
+					if ((compareValues(v1_R, C_NEGQUART) < 0)) continue;
+					matched2 = true;
+					xeqAction("registerFriend", new Object[] {v0_P});
+				}
+			} while (false);
+			break;
+		}
+		for (boolean matched2 = false; ; ) {
+			do {
+				if (xeqAction("attack", new Object[] {query("add", new Object[] {K_3, query("random", new Object[] {K_4})})})) continue;
+				matched2 = true;
+				xeqAction("defend", Util.NO_OBJECTS);
+			} while (false);
+			break;
+		}
+		return null;
+	}
+
+	public Object updateStatus(Map msg) {
+		KnowledgeBase kBase = getKnowledgeBase();
+		Object tempObj;
+		if (msg == null) {
+			kBase.remove(0, "finishInquiries", Util.NO_OBJECTS);
+			return null;
+		}
+		tempObj = msg == null ? null : K_5.get(msg.get("type"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v2_X = tempObj;
+
+				kBase.remove(1, "relation", new Object[] {getId(), v2_X, null}, K_0);
+				return null;
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v3_X = tempObj;
+
+				adjustRelation(msg, v3_X, C_NEGHALF);
+				kBase.add(0, "attack", new Object[] {v3_X});
+				return null;
+			}
+			break;
+		case 2:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v4_X = tempObj;
+
+				adjustRelation(msg, v4_X, K_6);
+				kBase.add(0, "attack", new Object[] {v4_X});
+				return null;
+			}
+			break;
+		case 3:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v5_X = tempObj;
+
+				adjustRelation(msg, v5_X, K_7);
+				kBase.add(0, "attack", new Object[] {v5_X});
+				return null;
+			}
+			break;
+		}
+		return null;
+	}
+
+	public Object inquire(Map msg) {
+		FactCursor cursor4 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		Map tempMap;
+		Fact tempFact;
+		for (boolean matched2 = false; ; ) {
+			do {
+				if (!kBase.contains(0, "finishInquiries", Util.NO_OBJECTS)) continue;
+				matched2 = true;
+				return null;
+			} while (false);
+			break;
+		}
+		for (boolean matched2 = false; ; ) {
+			do {
+				cursor4 = kBase.matchCursor(1, "relation", new Object[] {getId(), null, null}, K_2, cursor4);
+				while (cursor4.next()) {
+					Object v6_p = cursor4.getTerm(1);
+					matched2 = true;
+					for (boolean matched5 = false; ; ) {
+						do {
+							tempFact = new Fact(0, "attack", new Object[] {v6_p});
+							if (!kBase.contains(tempFact)) continue;
+							Object v7_a = tempFact;
+							matched5 = true;
+							kBase.remove((Fact)v7_a);
+							tempMap = new HashMap(6);
+							tempMap.put("to", v6_p);
+							tempMap.put("type", REQUEST);
+							tempMap.put("contents", new Fact(2, "relation", new Object[] {getId(), C_ZERO, C_ONE}));
+							send(tempMap);
+						} while (false);
+						if (matched5) break;
+						matched5 = true;
+						adjustRelation(msg, v6_p, C_EIGHTH);
+						break;
+					}
+				}
+			} while (false);
+			break;
+		}
+		kBase.add(0, "finishInquiries", Util.NO_OBJECTS);
+		return null;
+	}
+
+	public Object handleReply(Map msg) {
+		Object tempObj;
+		while (msg != null) {
+			if (!msg.containsKey("type")) break;
+			tempObj = msg.get("type");
+			if (!isEqual(tempObj, REJECT)) break;
+			if (!msg.containsKey("from")) break;
+			tempObj = msg.get("from");
+			Object v8_X = tempObj;
+
+			adjustRelation(msg, v8_X, C_NEGQUART);
+			return null;
+		}
+		return null;
+	}
+
+	public Object handleNewMessage(Map msg) {
+		FactCursor cursor6 = null;
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		Object tempObj;
+		Map tempMap;
+		Fact tempFact;
+		while (msg != null) {
+			if (!msg.containsKey("type")) break;
+			tempObj = msg.get("type");
+			if (!isEqual(tempObj, REQUEST)) break;
+			if (!msg.containsKey("from")) break;
+			tempObj = msg.get("from");
+			Object v9_P = tempObj;
+			if (!msg.containsKey("contents")) break;
+			tempObj = msg.get("contents");
+			if (!(tempObj instanceof Fact)) break;
+			tempFact = (Fact)tempObj;
+			if (!tempFact.matches(2, "relation", new Object[] {null, null, null}, K_8)) break;
+			Object v10_p = tempFact.getTerm(0);
+			Object v11_l = tempFact.getTerm(1);
+			Object v12_u = tempFact.getTerm(2);
+			Object v13_c = tempFact;
+
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v9_P, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v14_R = cursor5.getTerm(2);
+						if ((compareValues(v14_R, C_ZERO) < 0)) continue;
+						cursor6 = kBase.matchCursor(1, "relation", new Object[] {getId(), v10_p, null}, K_0, cursor6);
+						while (cursor6.next()) {
+							Object v15_r = cursor6.getTerm(2);
+							matched3 = true;
+							for (boolean matched7 = false; ; ) {
+								do {
+									if ((compareValues(v15_r, v11_l) > 0)) continue;
+									matched7 = true;
+									ensureMinimumRelation(msg, v10_p, v11_l);
+									tempMap = new HashMap(6);
+									tempMap.put("to", v9_P);
+									tempMap.put("type", ACCEPT);
+									tempMap.put("contents", v13_c);
+									send(tempMap);
+								} while (false);
+								if (matched7) break;
+								matched7 = true;
+								ensureMaximumRelation(msg, v10_p, v12_u);
+								ensureMinimumRelation(msg, v10_p, C_ZERO);
+								tempMap = new HashMap(6);
+								tempMap.put("to", v9_P);
+								tempMap.put("type", ACCEPT);
+								tempMap.put("contents", v13_c);
+								send(tempMap);
+								break;
+							}
+						}
+					}
+				} while (false);
+				if (matched3) break;
+				matched3 = true;
+				tempMap = new HashMap(6);
+				tempMap.put("to", v9_P);
+				tempMap.put("type", REJECT);
+				tempMap.put("contents", v13_c);
+				send(tempMap);
+				break;
+			}
+			break;
+		}
+		return null;
+	}
+
+	public Object adjustRelation(Map msg, Object v16_player, Object v17_delta) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v16_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v18_X = cursor5.getTerm(2);
+						Object v19_old = cursor5.getFact();
+						matched3 = true;
+						kBase.remove((Fact)v19_old);
+						Object v20_y = query("add", new Object[] {v18_X, v17_delta});
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v20_y, C_ONE) <= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v16_player, C_ONE});
+								return C_ONE;
+							} while (false);
+							if (matched6) break;
+							do {
+								if ((compareValues(v20_y, C_NEGONE) >= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v16_player, C_NEGONE});
+								return C_NEGONE;
+							} while (false);
+							if (matched6) break;
+							matched6 = true;
+							kBase.add(1, "relation", new Object[] {getId(), v16_player, v20_y});
+							return v20_y;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMinimumRelation(Map msg, Object v21_player, Object v22_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v21_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v23_r = cursor5.getTerm(2);
+						Object v24_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v23_r, v22_value) >= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v24_old);
+								kBase.add(1, "relation", new Object[] {getId(), v21_player, v22_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMaximumRelation(Map msg, Object v25_player, Object v26_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v25_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v27_r = cursor5.getTerm(2);
+						Object v28_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v27_r, v26_value) <= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v28_old);
+								kBase.add(1, "relation", new Object[] {getId(), v25_player, v26_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+}
\ No newline at end of file
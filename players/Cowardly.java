@@ -0,0 +1,404 @@
+/*
+ * @(#)Cowardly.java	Oct 17, 2026, 6:33:57 AM
+ *
+ */
+package players;
+
+import java.util.*;
+import dk.dtu.imm.cse.agent.act.afc.*;
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * This file was generated by automatically by the AgentC Compiler.
+ *
+ * (c) Henrik Lauritzen, 2002
+ */
+public class Cowardly extends dk.dtu.imm.cse.agent.act.demo.DemoAcme {
+
+	public static final Double C_INITIAL_RELATION = Double.valueOf(0.75);
+	public static final Double C_NEGONE = Double.valueOf(-1.0);
+	public static final Double C_NEGHALF = Double.valueOf(-0.5);
+	public static final Double C_NEGQUART = Double.valueOf(-0.25);
+	public static final Double C_ZERO = Double.valueOf(0.0);
+	public static final Double C_QUART = Double.valueOf(0.25);
+	public static final Double C_HALF = Double.valueOf(0.5);
+	public static final Double C_ONE = Double.valueOf(1.0);
+	private static final BitSet K_0 = Util.toBitSet(new int[] {2});
+	private static final Map K_1 = Util.toIndexMap(new Object[] {ACCEPT, REJECT});
+	private static final BitSet K_2 = Util.toBitSet(new int[] {1, 2});
+	private static final Double K_3 = Double.valueOf(0.5);
+	private static final Double K_4 = Double.valueOf(0.15);
+	private static final BitSet K_5 = Util.toBitSet(new int[] {0});
+	private static final Map K_6 = Util.toIndexMap(new Object[] {PLAYER_ELIMINATED, UNIT_ATTACKED, SUPPORT_CENTRE_ATTACKED, SUPPORT_CENTRE_CONQUERED});
+	private static final Double K_7 = Double.valueOf(-0.75);
+	private static final BitSet K_8 = Util.toBitSet(new int[] {0, 1, 2});
+
+
+	public Cowardly(Object id) {
+		super(id);
+	}
+
+	public Cowardly(Object id, Actuator a, Messenger m, Investigator i) {
+		super(id);
+		init(a, m, i);
+	}
+
+
+	protected void initKnowledgeBase(KnowledgeBase kb) {
+		kb.add(1, "relation", new Object[] {getId(), RED, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), BLUE, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), GREEN, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), YELLOW, C_INITIAL_RELATION});
+	}
+
+	public int getMaxAttitude() {
+		return 2;
+	}
+
+	public Object init(Map msg) {
+		KnowledgeBase kBase = getKnowledgeBase();
+		kBase.remove(1, "relation", new Object[] {getId(), getId(), null}, K_0);
+		return null;
+	}
+
+	public Object negotiate(Map msg) {
+		Object tempObj;
+		if (msg == null) {
+			return inquire(msg);
+		}
+		tempObj = msg == null ? null : K_1.get(msg.get("contents"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		}
+		return handleNewMessage(msg);
+	}
+
+	public Object giveOrders(Map msg) {
+		FactCursor cursor4 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		xeqAction("resetFriends", Util.NO_OBJECTS);
+		kBase.add(2, "makeNewEnemy", Util.NO_OBJECTS);
+		for (boolean matched2 = false; ; ) {
+			do {
+				cursor4 = kBase.matchCursor(1, "relation", new Object[] {getId(), null, null}, K_2, cursor4);
+				while (cursor4.next()) {
+					Object v0_P = cursor4.getTerm(1);
+					Object v1_R = cursor4.getTerm(2);
+					matched2 = true;
+					for (boolean matched5 = false; ; ) {
+						do {
+							if ((compareValues(v1_R, C_ZERO) >= 0)) continue;
+							matched5 = true;
+							kBase.remove(2, "makeNewEnemy", Util.NO_OBJECTS);
+						} while (false);
+						if (matched5) break;
+						matched5 = true;
+						xeqAction("registerFriend", new Object[] {v0_P});
+						break;
+					}
+				}
+			} while (false);
+			break;
+		}
+		for (boolean matched2 = false; ; ) {
+			do {
+				if (!kBase.contains(2, "makeNewEnemy", Util.NO_OBJECTS)) continue;
+				matched2 = true;
+				xeqAction("unregisterFriend", new Object[] {query("weakestOpponent", Util.NO_OBJECTS)});
+			} while (false);
+			break;
+		}
+		for (boolean matched2 = false; ; ) {
+			do {
+				if (xeqAction("attack", new Object[] {query("add", new Object[] {K_3, query("random", new Object[] {K_4})})})) continue;
+				matched2 = true;
+				xeqAction("defend", Util.NO_OBJECTS);
+			} while (false);
+			break;
+		}
+		return null;
+	}
+
+	public Object updateStatus(Map msg) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		Object tempObj;
+		if (msg == null) {
+			kBase.remove(1, "stronger", new Object[] {null}, K_5);
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), null, null}, K_2, cursor5);
+					while (cursor5.next()) {
+						Object v2_P = cursor5.getTerm(1);
+						Object v3_R = cursor5.getTerm(2);
+						Object v4_x = cursor5.getFact();
+						if ((compareValues(query("strengthOf", new Object[] {v2_P}), query("strengthOf", new Object[] {getId()})) < 0)) continue;
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v3_R, C_ZERO) >= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v4_x);
+								kBase.add(1, "relation", new Object[] {getId(), v2_P, query("add", new Object[] {v3_R, C_QUART})});
+							} while (false);
+							break;
+						}
+						kBase.add(1, "stronger", new Object[] {v2_P});
+					}
+				} while (false);
+				break;
+			}
+			return null;
+		}
+		tempObj = msg == null ? null : K_6.get(msg.get("type"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v5_X = tempObj;
+
+				kBase.remove(1, "relation", new Object[] {getId(), v5_X, null}, K_0);
+				return null;
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v6_X = tempObj;
+
+				adjustRelation(msg, v6_X, C_NEGHALF);
+				return null;
+			}
+			break;
+		case 2:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v7_X = tempObj;
+
+				adjustRelation(msg, v7_X, K_7);
+				return null;
+			}
+			break;
+		case 3:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v8_X = tempObj;
+
+				adjustRelation(msg, v8_X, C_NEGONE);
+				return null;
+			}
+			break;
+		}
+		return null;
+	}
+
+	public Object inquire(Map msg) {
+		FactCursor cursor4 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		Map tempMap;
+		for (boolean matched2 = false; ; ) {
+			do {
+				cursor4 = kBase.matchCursor(1, "stronger", new Object[] {null}, K_5, cursor4);
+				while (cursor4.next()) {
+					Object v9_P = cursor4.getTerm(0);
+					Object v10_x = cursor4.getFact();
+					matched2 = true;
+					kBase.remove((Fact)v10_x);
+					tempMap = new HashMap(6);
+					tempMap.put("to", v9_P);
+					tempMap.put("type", REQUEST);
+					tempMap.put("contents", new Fact(2, "relation", new Object[] {getId(), C_ZERO, C_ONE}));
+					send(tempMap);
+				}
+			} while (false);
+			break;
+		}
+		return null;
+	}
+
+	public Object handleReply(Map msg) {
+		return null;
+	}
+
+	public Object handleNewMessage(Map msg) {
+		FactCursor cursor7 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		Object tempObj;
+		Map tempMap;
+		Fact tempFact;
+		while (msg != null) {
+			if (!msg.containsKey("type")) break;
+			tempObj = msg.get("type");
+			if (!isEqual(tempObj, REQUEST)) break;
+			if (!msg.containsKey("from")) break;
+			tempObj = msg.get("from");
+			Object v11_P = tempObj;
+			if (!msg.containsKey("contents")) break;
+			tempObj = msg.get("contents");
+			if (!(tempObj instanceof Fact)) break;
+			tempFact = (Fact)tempObj;
+			if (!tempFact.matches(2, "relation", new Object[] {null, null, null}, K_8)) break;
+			Object v12_p = tempFact.getTerm(0);
+			Object v13_l = tempFact.getTerm(1);
+			Object v14_u = tempFact.getTerm(2);
+			Object v15_c = tempFact;
+
+			for (boolean matched3 = false; ; ) {
+				do {
+					if ((compareValues(query("strengthOf", new Object[] {v11_P}), query("strengthOf", new Object[] {getId()})) < 0)) continue;
+					matched3 = true;
+					for (boolean matched5 = false; ; ) {
+						do {
+							cursor7 = kBase.matchCursor(1, "relation", new Object[] {getId(), v12_p, null}, K_0, cursor7);
+							while (cursor7.next()) {
+								Object v16_r = cursor7.getTerm(2);
+								Object v17_y = cursor7.getFact();
+								matched5 = true;
+								for (boolean matched8 = false; ; ) {
+									do {
+										if ((compareValues(query("strengthOf", new Object[] {v12_p}), query("strengthOf", new Object[] {v11_P})) <= 0)) continue;
+										matched8 = true;
+										for (boolean matched10 = false; ; ) {
+											do {
+												if ((compareValues(v14_u, v16_r) <= 0)) continue;
+												matched10 = true;
+												kBase.remove((Fact)v17_y);
+												kBase.add(1, "relation", new Object[] {getId(), v12_p, v14_u});
+											} while (false);
+											break;
+										}
+									} while (false);
+									if (matched8) break;
+									matched8 = true;
+									kBase.remove((Fact)v17_y);
+									kBase.add(1, "relation", new Object[] {getId(), v12_p, v13_l});
+									break;
+								}
+							}
+						} while (false);
+						break;
+					}
+				} while (false);
+				break;
+			}
+			tempMap = new HashMap(6);
+			tempMap.put("to", v11_P);
+			tempMap.put("type", ACCEPT);
+			tempMap.put("contents", v15_c);
+			send(tempMap);
+			break;
+		}
+		return null;
+	}
+
+	public Object adjustRelation(Map msg, Object v18_player, Object v19_delta) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v18_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v20_X = cursor5.getTerm(2);
+						Object v21_old = cursor5.getFact();
+						matched3 = true;
+						kBase.remove((Fact)v21_old);
+						Object v22_y = query("add", new Object[] {v20_X, v19_delta});
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v22_y, C_ONE) <= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v18_player, C_ONE});
+								return C_ONE;
+							} while (false);
+							if (matched6) break;
+							do {
+								if ((compareValues(v22_y, C_NEGONE) >= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v18_player, C_NEGONE});
+								return C_NEGONE;
+							} while (false);
+							if (matched6) break;
+							matched6 = true;
+							kBase.add(1, "relation", new Object[] {getId(), v18_player, v22_y});
+							return v22_y;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMinimumRelation(Map msg, Object v23_player, Object v24_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v23_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v25_r = cursor5.getTerm(2);
+						Object v26_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v25_r, v24_value) >= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v26_old);
+								kBase.add(1, "relation", new Object[] {getId(), v23_player, v24_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMaximumRelation(Map msg, Object v27_player, Object v28_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v27_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v29_r = cursor5.getTerm(2);
+						Object v30_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v29_r, v28_value) <= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v30_old);
+								kBase.add(1, "relation", new Object[] {getId(), v27_player, v28_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+}
\ No newline at end of file
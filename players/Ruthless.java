@@ -0,0 +1,355 @@
+/*
+ * @(#)Ruthless.java	Oct 17, 2026, 6:33:57 AM
+ *
+ */
+package players;
+
+import java.util.*;
+import dk.dtu.imm.cse.agent.act.afc.*;
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * This file was generated by automatically by the AgentC Compiler.
+ *
+ * (c) Henrik Lauritzen, 2002
+ */
+public class Ruthless extends dk.dtu.imm.cse.agent.act.demo.DemoAcme {
+
+	public static final Double C_INITIAL_RELATION = Double.valueOf(0.25);
+	public static final Double C_NEGONE = Double.valueOf(-1.0);
+	public static final Double C_NEGHALF = Double.valueOf(-0.5);
+	public static final Double C_NEGQUART = Double.valueOf(-0.25);
+	public static final Double C_ZERO = Double.valueOf(0.0);
+	public static final Double C_QUART = Double.valueOf(0.25);
+	public static final Double C_HALF = Double.valueOf(0.5);
+	public static final Double C_ONE = Double.valueOf(1.0);
+	private static final BitSet K_0 = Util.toBitSet(new int[] {2});
+	private static final Map K_1 = Util.toIndexMap(new Object[] {ACCEPT, REJECT});
+	private static final Integer K_2 = Integer.valueOf(-1);
+	private static final BitSet K_3 = Util.toBitSet(new int[] {1, 2});
+	private static final Double K_4 = Double.valueOf(0.5);
+	private static final Double K_5 = Double.valueOf(0.2);
+	private static final Map K_6 = Util.toIndexMap(new Object[] {PLAYER_ELIMINATED, UNIT_ATTACKED, SUPPORT_CENTRE_ATTACKED, SUPPORT_CENTRE_CONQUERED});
+	private static final Double K_7 = Double.valueOf(-0.75);
+	private static final BitSet K_8 = Util.toBitSet(new int[] {0, 1, 2});
+
+
+	public Ruthless(Object id) {
+		super(id);
+	}
+
+	public Ruthless(Object id, Actuator a, Messenger m, Investigator i) {
+		super(id);
+		init(a, m, i);
+	}
+
+
+	protected void initKnowledgeBase(KnowledgeBase kb) {
+		kb.add(1, "relation", new Object[] {getId(), RED, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), BLUE, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), GREEN, C_INITIAL_RELATION});
+		kb.add(1, "relation", new Object[] {getId(), YELLOW, C_INITIAL_RELATION});
+	}
+
+	public int getMaxAttitude() {
+		return 2;
+	}
+
+	public Object init(Map msg) {
+		KnowledgeBase kBase = getKnowledgeBase();
+		kBase.remove(1, "relation", new Object[] {getId(), getId(), null}, K_0);
+		return null;
+	}
+
+	public Object negotiate(Map msg) {
+		Object tempObj;
+		if (msg == null) {
+			return inquire(msg);
+		}
+		tempObj = msg == null ? null : K_1.get(msg.get("contents"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				return handleReply(msg);
+			}
+			break;
+		}
+		return handleNewMessage(msg);
+	}
+
+	public Object giveOrders(Map msg) {
+		FactCursor cursor4 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		xeqAction("resetFriends", Util.NO_OBJECTS);
+		Object v0_minRelation = C_ONE;
+		Object v1_minPlayer = K_2;
+		for (boolean matched2 = false; ; ) {
+			do {
+				cursor4 = kBase.matchCursor(1, "relation", new Object[] {getId(), null, null}, K_3, cursor4);
+				while (cursor4.next()) {
+					Object v2_P = cursor4.getTerm(1);
+					Object v3_R = cursor4.getTerm(2);
+					matched2 = true;
+					for (boolean matched5 = false; ; ) {
+						do {
+							if ((compareValues(v3_R, v0_minRelation) >= 0)) continue;
+							matched5 = true;
+							v0_minRelation = v3_R;
+							v1_minPlayer = v2_P;
+						} while (false);
+						break;
+					}
+					for (boolean matched5 = false; ; ) {
+						do {
+							if ((compareValues(query("strengthOf", new Object[] {v2_P}), query("strengthOf", new Object[] {getId()})) <= 0)) continue;
+							if ((compareValues(v3_R, C_ZERO) <= 0)) continue;
+							matched5 = true;
+							xeqAction("registerFriend", new Object[] {v2_P});
+						} while (false);
+						break;
+					}
+				}
+			} while (false);
+			break;
+		}
+		xeqAction("unregisterFriend", new Object[] {v1_minPlayer});
+		for (boolean matched2 = false; ; ) {
+			do {
+				if (xeqAction("attack", new Object[] {query("add", new Object[] {K_4, query("random", new Object[] {K_5})})})) continue;
+				matched2 = true;
+				xeqAction("defend", Util.NO_OBJECTS);
+			} while (false);
+			break;
+		}
+		return null;
+	}
+
+	public Object updateStatus(Map msg) {
+		KnowledgeBase kBase = getKnowledgeBase();
+		Object tempObj;
+		if (msg == null) {
+			kBase.remove(0, "updateRelations", Util.NO_OBJECTS);
+		}
+		tempObj = msg == null ? null : K_6.get(msg.get("type"));
+		switch (tempObj == null ? -1 : ((Integer)tempObj).intValue()) {
+		case 0:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v4_X = tempObj;
+
+				kBase.remove(1, "relation", new Object[] {getId(), v4_X, null}, K_0);
+				return null;
+			}
+			break;
+		case 1:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v5_X = tempObj;
+
+				adjustRelation(msg, v5_X, C_NEGHALF);
+				return null;
+			}
+			break;
+		case 2:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v6_X = tempObj;
+
+				adjustRelation(msg, v6_X, K_7);
+				return null;
+			}
+			break;
+		case 3:
+			while (msg != null) {
+				if (!msg.containsKey("contents")) break;
+				tempObj = msg.get("contents");
+				Object v7_X = tempObj;
+
+				adjustRelation(msg, v7_X, C_NEGONE);
+				return null;
+			}
+			break;
+		}
+		return null;
+	}
+
+	public Object inquire(Map msg) {
+		return null;
+	}
+
+	public Object handleReply(Map msg) {
+		return null;
+	}
+
+	public Object handleNewMessage(Map msg) {
+		Object tempObj;
+		Map tempMap;
+		Fact tempFact;
+		while (msg != null) {
+			if (!msg.containsKey("type")) break;
+			tempObj = msg.get("type");
+			if (!isEqual(tempObj, REQUEST)) break;
+			if (!msg.containsKey("from")) break;
+			tempObj = msg.get("from");
+			Object v8_P = tempObj;
+			if (!msg.containsKey("contents")) break;
+			tempObj = msg.get("contents");
+			if (!(tempObj instanceof Fact)) break;
+			tempFact = (Fact)tempObj;
+			if (!tempFact.matches(2, "relation", new Object[] {null, null, null}, K_8)) break;
+			Object v9_p = tempFact.getTerm(0);
+			Object v10_l = tempFact.getTerm(1);
+			Object v11_u = tempFact.getTerm(2);
+			Object v12_c = tempFact;
+
+			for (boolean matched3 = false; ; ) {
+				do {
+					if ((compareValues(query("strengthOf", new Object[] {v8_P}), query("strengthOf", new Object[] {getId()})) <= 0)) continue;
+					matched3 = true;
+					for (boolean matched5 = false; ; ) {
+						do {
+							if ((compareValues(query("strengthOf", new Object[] {v9_p}), query("strengthOf", new Object[] {getId()})) >= 0)) continue;
+							matched5 = true;
+							ensureMinimumRelation(msg, v9_p, v10_l);
+						} while (false);
+						if (matched5) break;
+						matched5 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v11_u, C_HALF) <= 0)) continue;
+								matched6 = true;
+								ensureMinimumRelation(msg, v9_p, C_HALF);
+							} while (false);
+							if (matched6) break;
+							matched6 = true;
+							adjustRelation(msg, v9_p, v11_u);
+							break;
+						}
+						break;
+					}
+					tempMap = new HashMap(6);
+					tempMap.put("to", v8_P);
+					tempMap.put("type", ACCEPT);
+					tempMap.put("contents", v12_c);
+					send(tempMap);
+				} while (false);
+				if (matched3) break;
+				matched3 = true;
+				tempMap = new HashMap(6);
+				tempMap.put("to", v8_P);
+				tempMap.put("type", REJECT);
+				tempMap.put("contents", v12_c);
+				send(tempMap);
+				break;
+			}
+			break;
+		}
+		return null;
+	}
+
+	public Object adjustRelation(Map msg, Object v13_player, Object v14_delta) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v13_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v15_X = cursor5.getTerm(2);
+						Object v16_old = cursor5.getFact();
+						matched3 = true;
+						kBase.remove((Fact)v16_old);
+						Object v17_y = query("add", new Object[] {v15_X, v14_delta});
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v17_y, C_ONE) <= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v13_player, C_ONE});
+								return C_ONE;
+							} while (false);
+							if (matched6) break;
+							do {
+								if ((compareValues(v17_y, C_NEGONE) >= 0)) continue;
+								matched6 = true;
+								kBase.add(1, "relation", new Object[] {getId(), v13_player, C_NEGONE});
+								return C_NEGONE;
+							} while (false);
+							if (matched6) break;
+							matched6 = true;
+							kBase.add(1, "relation", new Object[] {getId(), v13_player, v17_y});
+							return v17_y;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMinimumRelation(Map msg, Object v18_player, Object v19_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v18_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v20_r = cursor5.getTerm(2);
+						Object v21_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v20_r, v19_value) >= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v21_old);
+								kBase.add(1, "relation", new Object[] {getId(), v18_player, v19_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Object ensureMaximumRelation(Map msg, Object v22_player, Object v23_value) {
+		FactCursor cursor5 = null;
+		KnowledgeBase kBase = getKnowledgeBase();
+		synchronized (kBase.getLock()) {
+			for (boolean matched3 = false; ; ) {
+				do {
+					cursor5 = kBase.matchCursor(1, "relation", new Object[] {getId(), v22_player, null}, K_0, cursor5);
+					while (cursor5.next()) {
+						Object v24_r = cursor5.getTerm(2);
+						Object v25_old = cursor5.getFact();
+						matched3 = true;
+						for (boolean matched6 = false; ; ) {
+							do {
+								if ((compareValues(v24_r, v23_value) <= 0)) continue;
+								matched6 = true;
+								kBase.remove((Fact)v25_old);
+								kBase.add(1, "relation", new Object[] {getId(), v22_player, v23_value});
+							} while (false);
+							break;
+						}
+					}
+				} while (false);
+				break;
+			}
+		}
+		return null;
+	}
+
+}
\ No newline at end of file
@@ -19,6 +19,8 @@ package dk.dtu.imm.cse.agent.act.acc;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
 
 import dk.dtu.imm.cse.agent.act.afc.*;
 
@@ -26,7 +28,8 @@ import dk.dtu.imm.cse.agent.act.afc.*;
 /**
  * This is the AgentC compiler implementation. The compiler takes 
  *  an AgentC specification as input and produces as output the 
- *  source code for a Java class implementing an {@link Acme ACME}
+ *  source code for a Java class implementing an {@link Acme ACME}, or
+ *  the class file itself.
  *
  * @author  Henrik Lauritzen
  */
@@ -83,27 +86,7 @@ public class Acc implements AccConstants {
 	 */
 	public static StringBuffer compile(InputStream in, String pack, 
 			String name, String superclass, Collection ifs) throws ParseException {
-		// create the parser
-		AgentCparser p = new AgentCparser(in);
-		ParseTree tree = new ParseTree();
-
-		// include inherited defs and procedures from the superclass
-		if (superclass != null) {			
-			tree.setSuperclass(superclass);
-		}
-		// include initial declarations specified by the interfaces to
-		// be implemented
-		if (ifs != null) {
-			for (Iterator i = ifs.iterator(); i.hasNext(); ) {
-				tree.addInterfaceDecl((String)i.next());
-			}			
-		}
-				
-		// first pass: parse the program
-		p.program(tree);
-			
-		// second pass: verify (+classify) constants and variables
-		checkSemantics(tree);
+		ParseTree tree = parse(in, superclass, ifs);
 		
 		// third pass: generate code		
 		StringBuffer result = generateCode(pack, name, superclass, ifs, tree);
@@ -111,6 +94,133 @@ public class Acc implements AccConstants {
 		return result;
 	}
 		
+
+	/**
+	 * Compiles a number of AgentC programs which share some modules, e.g.
+	 *  a library of common procedures. Each shared module is parsed once,
+	 *  and is included in every program as if its source code followed 
+	 *  the source code of the program. The programs are compiled 
+	 *  concurrently on a fork-join pool.
+	 * @param sources maps the class names of the generated classes to
+	 *  the input streams from which to obtain the source code of the 
+	 *  programs
+	 * @param shared the input streams from which to obtain the source code
+	 *  of the shared modules, in the order in which they are included
+	 * @param pack the package name of the generated classes, or null
+	 * @param superclass the class which the generated classes should extend
+	 * @param ifs a collection of the names of the interfaces to be 
+	 *   implemented by the generated classes
+	 * @return a map of the class names to StringBuffer instances containing
+	 *  the source code of the classes, in the iteration order of
+	 *  <code>sources</code>
+	 * @exception ParseException if an error occurs during compilation. If
+	 *  it occurs in a program, the message starts with its class name.
+	 */
+	public static Map compileAll(Map sources, List shared, 
+			final String pack, final String superclass, final Collection ifs)
+			throws ParseException {
+		// parse the shared modules
+		final List modules = new ArrayList(shared.size());
+		for (Iterator i = shared.iterator(); i.hasNext(); ) {
+			ParseTree module = newTree(superclass, ifs);
+			new AgentCparser((InputStream)i.next()).program(module);
+			modules.add(module);
+		}
+		
+		// compile the programs, one task for each
+		final List tasks = new ArrayList(sources.size());
+		for (Iterator i = sources.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			final String name = (String)e.getKey();
+			final InputStream in = (InputStream)e.getValue();
+			tasks.add(new RecursiveTask() {
+				protected Object compute() {
+					try {
+						ParseTree tree = newTree(superclass, ifs);
+						new AgentCparser(in).program(tree);
+						for (Iterator j = modules.iterator(); j.hasNext(); ) {
+							tree.include((ParseTree)j.next());
+						}
+						checkSemantics(tree);
+						return generateCode(pack, name, superclass, ifs, 
+								tree);
+					}
+					catch (ParseException e) {
+						return e;
+					}
+				}
+			});
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		}
+		finally {
+			pool.shutdown();
+		}
+		
+		Map result = new LinkedHashMap();
+		Iterator t = tasks.iterator();
+		for (Iterator i = sources.keySet().iterator(); i.hasNext(); ) {
+			Object name = i.next();
+			Object code = ((ForkJoinTask)t.next()).join();
+			if (code instanceof ParseException) {
+				throw new ParseException(name + ": " + 
+						((ParseException)code).getMessage());
+			}
+			result.put(name, code);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Compiles an AgentC program given as an input stream directly into
+	 *  a Java class file, without generating and compiling source code.
+	 *  The parameters are the same as for 
+	 *  {@link #compile(InputStream, String, String, String, Collection)}.
+	 * @return the contents of the class file
+	 * @exception ParseException if an error occurs during compilation.
+	 */
+	public static byte[] compileClass(InputStream in, String pack, 
+			String name, String superclass, Collection ifs) throws ParseException {
+		ParseTree tree = parse(in, superclass, ifs);
+		return BytecodeGenerator.generateCode(pack, name, superclass, ifs, 
+				tree);
+	}
+	
+	
+	/**
+	 * Compiles an AgentC program as 
+	 *  {@link #compileClass(InputStream, String, String, String, Collection)},
+	 *  and loads the resulting class into the running VM. The class is
+	 *  defined by a new {@link AccClassLoader}, whose parent is the loader
+	 *  of the superclass, so a program may be recompiled and reloaded.
+	 * @return the class of the ACME
+	 * @exception ParseException if an error occurs during compilation.
+	 */
+	public static Class loadClass(InputStream in, String pack, 
+			String name, String superclass, Collection ifs) throws ParseException {
+		byte[] code = compileClass(in, pack, name, superclass, ifs);
+
+		ClassLoader parent;
+		try {
+			parent = superclass == null ? Acc.class.getClassLoader() :
+					Class.forName(superclass).getClassLoader();
+		}
+		catch (ClassNotFoundException e) {
+			// already reported by compileClass()
+			throw new InternalError();
+		}
+		return new AccClassLoader(parent).define(
+				pack == null ? name : pack + "." + name, code);
+	}
+	
 	
 	// ------------------------------ protected ------------------------------
 	
@@ -146,27 +256,39 @@ public class Acc implements AccConstants {
 	 *  {@link System#in}.
 	 * <li><code>-cls <em>class</em></code> specifies the class name of the
 	 *  generated code. By default, the name "AccOutput" will be used.
-	 *   However, if an output specification having the suffix ".java" is
-	 *   given, the class name is taken from this specification.
+	 *   However, if an output specification having the suffix ".java" or
+	 *   ".class" is given, the class name is taken from this specification.
 	 * <li><code>-pck <em>package</em></code> specifies the package name
 	 *  to be used in the generated code. By default, no package declaration
 	 *  will be generated.
-	 *  However, if an output specification having the suffix ".java" and
-	 *  a path prefix is given, that prefix will be used to set the package name.
+	 *  However, if an output specification having the suffix ".java" or
+	 *  ".class" and a path prefix is given, that prefix will be used to set
+	 *  the package name.
+	 * <li><code>-d <em>directory</em></code> selects the batch mode, in
+	 *  which every input file is a separate program. The class name of
+	 *  each program is taken from the name of its input file, and the 
+	 *  generated code is saved in the given directory. The programs are
+	 *  compiled concurrently.
+	 * <li><code>-shared <em>module</em></code> specifies a file which is
+	 *  included at the end of every program in the batch mode. The file
+	 *  is only parsed once.
 	 * </ul>
+	 * If the output specification has the suffix ".class", a class file is
+	 *  generated directly instead of Java source code.
 	 */
 	public static void main(String[] args) {
 		List inputs = new ArrayList();
 		InputStream in = System.in;
 		String outName = null;
+		boolean binary = false;
 		PrintStream out = System.out;
 
 		String cls = "AccOutput";
 		String pck = null;
 		String ext = null;
 		List interfaces = new ArrayList();
-		
-		Acc acc = new Acc();
+		String outDir = null;
+		List shared = new ArrayList();
 		
 		try {
 			// decode the arguments
@@ -175,10 +297,11 @@ public class Acc implements AccConstants {
 				for (; i < args.length; i++) {
 					if ("-o".equals(args[i])) {
 						outName = args[++i];
-						if (outName.endsWith(".java")) {
+						binary = outName.endsWith(".class");
+						if (binary || outName.endsWith(".java")) {
 							int idx = outName.lastIndexOf(File.separatorChar);
 							cls = outName.substring(idx < 0 ? 0 : idx + 1, 
-									outName.length() - 5);
+									outName.lastIndexOf('.'));
 							if (idx >= 0) {
 								String p = outName.substring(0, idx);
 								pck = p.replace(File.separatorChar, '.');
@@ -197,6 +320,12 @@ public class Acc implements AccConstants {
 					else if ("-ext".equals(args[i])) {
 						ext = args[++i];
 					}
+					else if ("-d".equals(args[i])) {
+						outDir = args[++i];
+					}
+					else if ("-shared".equals(args[i])) {
+						shared.add(args[++i]);
+					}
 					else if (args[i].charAt(0) != '-') {
 						inputs.add(args[i]);
 					}
@@ -213,6 +342,11 @@ public class Acc implements AccConstants {
 				return;
 			}
 
+			if (outDir != null) {
+				compileBatch(inputs, shared, outDir, pck, ext, interfaces);
+				return;
+			}
+			
 			if (inputs.size() > 0) {
 				InputStream in1 = null, in2 = null;
 				
@@ -240,12 +374,19 @@ public class Acc implements AccConstants {
 				}
 			}
 
-			StringBuffer result = acc.compile(in, pck, cls, ext, interfaces);
+			Object result = binary ?
+					(Object)Acc.compileClass(in, pck, cls, ext, interfaces) :
+					Acc.compile(in, pck, cls, ext, interfaces);
 			
 			if (outName != null) {
 				out = new PrintStream(new FileOutputStream(outName, false));
 			}
-			out.print(result.toString());			
+			if (binary) {
+				out.write((byte[])result);
+			}
+			else {
+				out.print(result.toString());			
+			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -278,6 +419,11 @@ public class Acc implements AccConstants {
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+	
+	// matches the names of the cursor variables in the generated code
+	private final static Pattern CURSOR_REGEX = 
+			Pattern.compile("\\b" + MATCH_CURSOR_NAME + "\\d+\\b");
+	
 	// ------------------------------ instance -----------------------------
 		
 	// =======================================================================
@@ -286,8 +432,93 @@ public class Acc implements AccConstants {
 		
 	// ------------------------------- class -------------------------------
 
+	// compile each of the given input files into a class in the given
+	// directory, including the shared modules in each of them
+	private static void compileBatch(List inputs, List shared, String outDir, 
+			String pck, String ext, Collection interfaces) 
+			throws IOException, ParseException {
+		List streams = new ArrayList();
+		try {
+			List modules = new ArrayList();
+			for (Iterator i = shared.iterator(); i.hasNext(); ) {
+				InputStream in = new BufferedInputStream(
+						new FileInputStream((String)i.next()));
+				streams.add(in);
+				modules.add(in);
+			}
+			Map sources = new LinkedHashMap();
+			for (Iterator i = inputs.iterator(); i.hasNext(); ) {
+				String file = (String)i.next();
+				String name = new File(file).getName();
+				int idx = name.lastIndexOf('.');
+				InputStream in = new BufferedInputStream(
+						new FileInputStream(file));
+				streams.add(in);
+				sources.put(idx < 0 ? name : name.substring(0, idx), in);
+			}
+			
+			Map result = compileAll(sources, modules, pck, ext, interfaces);
+			for (Iterator i = result.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry e = (Map.Entry)i.next();
+				Writer out = new FileWriter(new File(outDir, 
+						e.getKey() + ".java"));
+				try {
+					out.write(e.getValue().toString());
+				}
+				finally {
+					out.close();
+				}
+			}
+		}
+		finally {
+			for (Iterator i = streams.iterator(); i.hasNext(); ) {
+				((InputStream)i.next()).close();
+			}
+		}
+	}
+	
+	
+	// create an empty parse tree for a program
+	private static ParseTree newTree(String superclass, Collection ifs) 
+			throws ParseException {
+		ParseTree tree = new ParseTree();
+
+		// include inherited defs and procedures from the superclass
+		if (superclass != null) {			
+			tree.setSuperclass(superclass);
+		}
+		// include initial declarations specified by the interfaces to
+		// be implemented
+		if (ifs != null) {
+			for (Iterator i = ifs.iterator(); i.hasNext(); ) {
+				tree.addInterfaceDecl((String)i.next());
+			}			
+		}
+		return tree;
+	}
+	
+	
+	// parse a program and check its semantics (also used by the
+	// AgentCInterpreter)
+	static ParseTree parse(InputStream in, String superclass,
+			Collection ifs) throws ParseException {
+		// create the parser
+		AgentCparser p = new AgentCparser(in);
+		ParseTree tree = newTree(superclass, ifs);
+				
+		// first pass: parse the program
+		p.program(tree);
+			
+		// second pass: verify (+classify) constants and variables
+		checkSemantics(tree);
+		return tree;
+	}
+	
+	
 	// check the variables and constants in the abstract syntax
 	private static void checkSemantics(ParseTree tree) throws ParseException {
+		Variable.resetNumbering();
+		
 		// check the initial facts
 		List facts = tree.getFacts();
 		for (int i = 0, max = facts.size(); i < max; i++) {
@@ -312,6 +543,7 @@ public class Acc implements AccConstants {
 					((AbstractSyntax)rules.get(i)).checkSymbols(tree, scope, 
 							AbstractSyntax.SCOPE_DEFUSE);
 				}
+				MessageSwitch.group(tree, rules);
 			}
 			else {
 				// illegal empty forward declaration
@@ -390,8 +622,12 @@ public class Acc implements AccConstants {
 			b.append("\tpublic static final ").append(l.getJavaType());
 			b.append(' ').append(java.text.MessageFormat.format(
 					CONST_PATTERN, new String[] { name })).append(" = ");
-			b.append(l.toJavaExpression()).append(";\n");
+			b.append(l.toJavaInitializer()).append(";\n");
 		}
+		
+		// the fields declared by the generated code are inserted here
+		AccUtils.takeFields();
+		int fieldOffset = b.length();
 
 		// generate the constructors
 		b.append("\n\n\tpublic ").append(cls).append("(Object id) {\n");
@@ -474,12 +710,26 @@ public class Acc implements AccConstants {
 				b.insert(variableOffset, "\t\tKnowledgeBase " + 
 						TEMP_KB_NAME + " = getKnowledgeBase();\n");
 			}
-			if (s.indexOf(TEMP_BS_NAME) >= 0) {
-				b.insert(variableOffset, "\t\tBitSet " + TEMP_BS_NAME + 
-						" = new BitSet();\n");
+			
+			// declare the cursors used by IF statements, one for each
+			// level of nesting
+			Set cursors = new TreeSet();
+			Matcher cm = CURSOR_REGEX.matcher(s);
+			while (cm.find()) {
+				cursors.add(cm.group());
+			}
+			for (Iterator i = cursors.iterator(); i.hasNext(); ) {
+				b.insert(variableOffset, "\t\tFactCursor " + i.next() + 
+						" = null;\n");
 			}
 		}
 
+		// insert the fields declared by the generated code
+		StringBuffer fields = new StringBuffer();
+		for (Iterator i = AccUtils.takeFields().iterator(); i.hasNext(); ) {
+			fields.append('\t').append(i.next()).append('\n');
+		}
+		b.insert(fieldOffset, fields);
 		
 		// done!
 		b.append("}");
@@ -504,10 +754,13 @@ public class Acc implements AccConstants {
 		StringBuffer buf = new StringBuffer("Usage: acc [-options] [inputs]\n\n");
 		buf.append("with the following possible options:\n\n");
 		buf.append("\t-o <output>\twrites the output class to the path <output>\n");
+		buf.append("\t\t\t(a class file if <output> ends with .class)\n");
 		buf.append("\t-cls <class>\tmakes <class> the class name of the output class\n");
 		buf.append("\t-pck <package>\tmakes <package> the package of the output class\n");
 		buf.append("\t-impl <intf>\tmakes the output class implement <intf>\n");
-		return buf.append("\t-ext <class>\tmakes the output class extend <class>");
+		buf.append("\t-ext <class>\tmakes the output class extend <class>\n");
+		buf.append("\t-d <dir>\tcompiles each input separately into <dir>\n");
+		return buf.append("\t-shared <module>\tincludes <module> in each input (with -d)");
 	}
 	
 	// ------------------------------ instance -----------------------------
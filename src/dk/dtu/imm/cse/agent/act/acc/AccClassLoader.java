@@ -0,0 +1,108 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.util.*;
+
+
+/**
+ * A class loader which defines the classes generated by 
+ *  {@link Acc#compileClass(java.io.InputStream, String, String, String,
+ *  java.util.Collection)} or by the {@link AgentCompiler}. Classes are 
+ *  either defined at once, or added and defined when they are loaded.
+ *  Since a class can only be defined once by a loader, a new loader must
+ *  be used when a program is reloaded.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class AccClassLoader extends ClassLoader {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new loader.
+	 * @param parent the loader which defines the superclass and the 
+	 *  interfaces of the generated classes
+	 */
+	public AccClassLoader(ClassLoader parent) {
+		super(parent);
+	}
+	
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Defines a class.
+	 * @param name the fully qualified name of the class
+	 * @param code the contents of the class file
+	 * @return the new class
+	 * @exception ClassFormatError if the class file is invalid
+	 */
+	public Class define(String name, byte[] code) {
+		return defineClass(name, code, 0, code.length);
+	}
+
+
+	/**
+	 * Adds a class, which will be defined when it is first loaded.
+	 * @param name the fully qualified name of the class
+	 * @param code the contents of the class file
+	 */
+	public synchronized void addClass(String name, byte[] code) {
+		_classes.put(name, code);
+	}
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	protected synchronized Class findClass(String name) 
+			throws ClassNotFoundException {
+		byte[] code = (byte[])_classes.remove(name);
+		if (code == null) {
+			throw new ClassNotFoundException(name);
+		}
+		return define(name, code);
+	}
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// maps the names of the added classes to their class files
+	private Map _classes = new HashMap();
+}
@@ -117,11 +117,6 @@ public interface AccConstants {
 	 */
 	public String TEMP_MAP_NAME = "tempMap";
 	
-	
-	/**
-	 * The name used for the temporary BitSet variable in the generated ACME
-	 */
-	public String TEMP_BS_NAME = "tempBitSet";
 
 	
 	/**
@@ -152,24 +147,25 @@ public interface AccConstants {
 	
 	
 	/**
-	 * The name used for the List variables used to hold matched facts 
-	 * in code generated for  an IF ... statement.
+	 * The name used for the FactCursor variables used to traverse matched
+	 * facts in code generated for an IF ... statement.
 	 */
-	public String MATCH_LIST_NAME = "match";
-
+	public String MATCH_CURSOR_NAME = "cursor";
+	
 	
 	/**
-	 * The name used for loop index variables in code generated for
-	 * an IF ... statement.
+	 * The prefix of the names of the JoinPlan fields used to choose between
+	 * the evaluation orders of an IF ... statement.
 	 */
-	public String LOOP_INDEX_NAME = "i";
-
-
+	public String JOIN_PLAN_NAME = "joinPlan";
+	
+	
 	/**
-	 * The name used for loop bound variables in code generated for
-	 * an IF ... statement.
+	 * The prefix of the names of the static fields holding the constant
+	 * values (boxed numbers, term arrays and facts) used by the generated
+	 * code.
 	 */
-	public String LOOP_BOUND_NAME = "max";
+	public String POOL_NAME = "K_";
 	
 	// =======================================================================
 	// Methods
@@ -18,6 +18,7 @@
 package dk.dtu.imm.cse.agent.act.acc;
 
 import java.util.*;
+import dk.dtu.imm.cse.agent.act.util.Util;
 
 
 /**
@@ -184,6 +185,21 @@ public class AccUtils implements AccConstants {
 	 */
 	public static StringBuffer translateTerms(StringBuffer buf, List terms,
 			String vardefReplacement) {
+		return translateTerms(buf, terms, vardefReplacement, false);
+	}
+	
+	
+	/**
+	 * Generate code to produce a Java expression which represents a
+	 * list of AgentC terms, as {@link #translateTerms(StringBuffer, List,
+	 * String)}. In addition, the array may be pooled.
+	 * @param pool whether an array of {@link #isConstant constant} terms
+	 *  should be {@link #declareConstant pooled}. This may only be done if
+	 *  the array is handled by the knowledge base and by Fact instances, 
+	 *  which do not modify it.
+	 */
+	public static StringBuffer translateTerms(StringBuffer buf, List terms,
+			String vardefReplacement, boolean pool) {
 		if (buf == null) {
 			buf = new StringBuffer();
 		}
@@ -193,6 +209,10 @@ public class AccUtils implements AccConstants {
 			// avoid instantiating empty arrays in the code
 			return buf.append("Util.NO_OBJECTS");
 		}
+		else if (pool && isConstant(terms)) {
+			return buf.append(declareConstant("Object[]",
+					translateTerms(null, terms, null, false).toString()));
+		}
 		else {
 			buf.append("new Object[] {");
 			for (int i = 0; i < l; i++) {
@@ -285,6 +305,172 @@ public class AccUtils implements AccConstants {
 	}
 	
 	
+	/**
+	 * Decode a string literal, as accepted by the AgentC parser.
+	 * @param literal the literal, including the quotes
+	 * @return the value of the literal
+	 */
+	public static String decodeStringLiteral(String literal) {
+		StringBuffer buf = new StringBuffer(literal.length());
+		for (int i = 1, max = literal.length() - 1; i < max; i++) {
+			char c = literal.charAt(i);
+			if (c != '\\') {
+				buf.append(c);
+				continue;
+			}
+			
+			switch (c = literal.charAt(++i)) {
+			case 'n':
+				buf.append('\n');
+				break;
+			case 't':
+				buf.append('\t');
+				break;
+			case 'b':
+				buf.append('\b');
+				break;
+			case 'r':
+				buf.append('\r');
+				break;
+			case 'f':
+				buf.append('\f');
+				break;
+			default:
+				if (c < '0' || c > '7') {
+					buf.append(c);
+					break;
+				}
+				
+				// an octal escape has up to 3 digits, and at most 0377
+				int value = c - '0';
+				int digits = c <= '3' ? 2 : 1;
+				while (digits-- > 0 && i + 1 < max && 
+						literal.charAt(i + 1) >= '0' && 
+						literal.charAt(i + 1) <= '7') {
+					value = value * 8 + literal.charAt(++i) - '0';
+				}
+				buf.append((char)value);
+			}
+		}
+		return buf.toString();
+	}
+	
+	
+	/**
+	 * Determines the numeric type of a literal or a constant, which is
+	 * known at compile time.
+	 * @param tree the parse tree containing the defs
+	 * @param e a value
+	 * @return TYPE_INT if the value is an Integer, TYPE_DOUBLE if it is a
+	 *  Double, or -1 if it is not a number or is not constant
+	 */
+	public static int getNumericType(ParseTree tree, Value e) {
+		if (e instanceof Constant) {
+			e = (Literal)tree.getDefs().get(((Constant)e).getName());
+		}
+		if (!(e instanceof Literal)) {
+			return -1;
+		}
+		
+		Object value = ((Literal)e).getRuntimeValue();
+		return value instanceof Integer ? TYPE_INT : 
+				value instanceof Double ? TYPE_DOUBLE : -1;
+	}
+	
+	
+	/**
+	 * Determines whether every term of a list is a constant, i.e. a
+	 * {@link Literal} or a {@link Constant}, whose value is the same
+	 * whenever the code is executed.
+	 */
+	public static boolean isConstant(List terms) {
+		for (int i = 0, max = terms.size(); i < max; i++) {
+			Object t = terms.get(i);
+			if (!(t instanceof Constant || (t instanceof Literal && 
+					((Literal)t).getType() != TYPE_EXTERNAL))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Declares a field of the class being generated by the current thread.
+	 * The declarations are collected while the code for the procedures is
+	 * generated, and are added to the class by {@link Acc}.
+	 * @param modifiers the modifiers and the type of the field, e.g.
+	 *  <code>"private final JoinPlan"</code>
+	 * @param prefix the prefix of the field name, to which a unique number
+	 *  is appended
+	 * @param initializer a Java expression giving the initial value of the
+	 *  field
+	 * @return the name of the field
+	 */
+	public static String declareField(String modifiers, String prefix, 
+			String initializer) {
+		Fields f = (Fields)_fields.get();
+		String name = prefix + f._count++;
+		f._declarations.add(modifiers + " " + name + " = " + 
+				initializer + ";");
+		return name;
+	}
+	
+	
+	/**
+	 * Declares a static field holding a constant value, so that the value
+	 * is only created once. The same field is returned for equal
+	 * declarations.
+	 * @param type the Java type of the field
+	 * @param initializer a Java expression which creates the value; it
+	 *  must not depend on the instance, nor have side effects.
+	 * @return the name of the field
+	 */
+	public static String declareConstant(String type, String initializer) {
+		Fields f = (Fields)_fields.get();
+		String key = type + " " + initializer;
+		String name = (String)f._constants.get(key);
+		if (name == null) {
+			name = declareField("private static final " + type, POOL_NAME,
+					initializer);
+			f._constants.put(key, name);
+		}
+		return name;
+	}
+	
+	
+	/**
+	 * Declares a static field holding a BitSet, for use as the variable 
+	 * positions of a match. Since the generated code never modifies the 
+	 * BitSet, the field is shared by all executions, and by all matches
+	 * using the same positions.
+	 * @param indices the positions of the variables (Integers), in
+	 *  increasing order
+	 * @return the name of the field
+	 */
+	public static String declareBitSet(List indices) {
+		if (indices.size() == 0) {
+			return declareConstant("BitSet", "new BitSet(0)");
+		}
+		StringBuffer b = new StringBuffer("Util.toBitSet(new int[] {");
+		Util.toString(b, indices, ", ");
+		return declareConstant("BitSet", b.append("})").toString());
+	}
+	
+	
+	/**
+	 * Retreives and forgets the fields {@link #declareField declared} by the
+	 * current thread.
+	 * @return a list of declarations (Strings), in the order in which they
+	 *  were made
+	 */
+	public static List takeFields() {
+		Fields f = (Fields)_fields.get();
+		_fields.set(new Fields());
+		return f._declarations;
+	}
+	
+	
 	// ------------------------------ protected ------------------------------
 	
 	// ***********************************************************************
@@ -294,6 +480,14 @@ public class AccUtils implements AccConstants {
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+	
+	// the field declarations made by the generated code of each thread
+	private static ThreadLocal _fields = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Fields();
+		}
+	};
+	
 	// ------------------------------ instance -----------------------------
 		
 	// =======================================================================
@@ -309,4 +503,15 @@ public class AccUtils implements AccConstants {
 	// Inner classes
 	// =======================================================================
 	
+	// the fields declared for a generated class
+	private final static class Fields {
+		// the declarations, in order
+		List _declarations = new ArrayList();
+		
+		// maps the type and initializer of each constant to its name
+		Map _constants = new HashMap();
+		
+		// the number of fields declared
+		int _count = 0;
+	}
 }
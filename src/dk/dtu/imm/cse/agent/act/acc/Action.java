@@ -66,6 +66,31 @@ public class Action implements Condition, Statement {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return true iff the action is DO, false iff it is XEQ
+	 */
+	public boolean isDo() {
+		return _isDo;
+	}
+	
+	
+	/**
+	 * @return the name of the action
+	 */
+	public String getName() {
+		return _name;
+	}
+	
+	
+	/**
+	 * @return the list of terms. <strong>N.B.</strong>: this list should
+	 *  not be modified.
+	 */
+	public List getTerms() {
+		return _terms;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
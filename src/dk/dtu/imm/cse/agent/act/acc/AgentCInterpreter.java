@@ -0,0 +1,1271 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.io.*;
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.afc.*;
+import dk.dtu.imm.cse.agent.act.util.Util;
+
+
+/**
+ * Executes AgentC programs without generating any code. The checked parse
+ *  tree of a program is translated once into a tree of executable nodes,
+ *  in which the variables have been resolved to slots in an array (the
+ *  frame of a procedure invocation), the constants to their values and
+ *  the procedure calls to the called procedures. The nodes are then
+ *  shared by every {@link Agent} running the program.
+ * <p>
+ * The semantics are those of the code generated by the {@link Acc}, and
+ *  the branches of an IF statement are evaluated in the order preferred
+ *  by the {@link ConditionPlanner}. The alternative orders which the
+ *  generated source may choose at run time have the same effect, so an
+ *  interpreted agent behaves like a compiled one. Since an interpreted
+ *  agent is an instance of {@link Agent}, the programs must extend
+ *  {@link Acme} directly; the constants of interfaces may be used, but
+ *  procedures can not be inherited.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class AgentCInterpreter implements AccConstants {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Parses and checks an AgentC program, and prepares it for execution.
+	 * @param in the input stream from which to obtain the source code
+	 * @param ifs a collection of the names of the interfaces whose
+	 *  constants are used by the program, or null
+	 * @exception ParseException if an error occurs during compilation, or
+	 *  if the program calls an inherited procedure.
+	 */
+	public AgentCInterpreter(InputStream in, Collection ifs)
+			throws ParseException {
+		_tree = Acc.parse(in, null, ifs);
+
+		for (Iterator i = _tree.getAttitudes().values().iterator();
+				i.hasNext(); ) {
+			_maxAttitude = Math.max(_maxAttitude,
+					((Integer)i.next()).intValue());
+		}
+
+		// declare the procedures before translating them, so the calls
+		// can be resolved
+		for (Iterator i = _tree.getProcedures().keySet().iterator();
+				i.hasNext(); ) {
+			ParseTree.ProcedureSignature sig =
+					(ParseTree.ProcedureSignature)i.next();
+			if (!_tree.isExternalProcedure(sig)) {
+				_procedures.put(sig.getName() + "/" +
+						sig.getParameters().size(), new Procedure());
+			}
+		}
+		for (Iterator i = _tree.getProcedures().entrySet().iterator();
+				i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			ParseTree.ProcedureSignature sig =
+					(ParseTree.ProcedureSignature)e.getKey();
+			if (!_tree.isExternalProcedure(sig)) {
+				translateProcedure(sig, (List)e.getValue());
+			}
+		}
+
+		// the initial facts may only contain constants and SELF
+		List facts = _tree.getFacts();
+		_facts = new Expr[facts.size()];
+		for (int i = 0; i < _facts.length; i++) {
+			_facts[i] = translateValue((Value)facts.get(i));
+		}
+
+		// the parse tree is no longer needed
+		_tree = null;
+		_slots = null;
+	}
+
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates an agent running the program. The agent must be
+	 *  {@link Acme#init initialized} before it is used.
+	 * @param id the ID of the agent
+	 */
+	public Agent newAgent(Object id) {
+		return new Agent(this, id);
+	}
+
+
+	/**
+	 * Creates and initializes an agent running the program.
+	 * @param id the ID of the agent
+	 */
+	public Agent newAgent(Object id, Actuator a, Messenger m,
+			Investigator i) {
+		Agent result = new Agent(this, id);
+		result.init(a, m, i);
+		return result;
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the results of executing a node
+	private final static int NONE = 0;
+	private final static int MATCHED = 1;
+	private final static int RETURNED = 2;
+
+	// ------------------------------ instance -----------------------------
+
+	// the maximal attitude ID
+	private int _maxAttitude = 0;
+
+	// maps the names and arities of the procedures ("name/arity") to
+	// Procedure instances
+	private Map _procedures = new HashMap();
+
+	// the initial facts
+	private Expr[] _facts;
+
+	// the parse tree, while the program is translated
+	private ParseTree _tree;
+
+	// maps the numbers of the variables of the procedure being translated
+	// to their slots, and counts its cursors
+	private Map _slots;
+	private int _cursors;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// execute the nodes of a block
+	private static int execAll(Node[] block, Frame f) {
+		for (int i = 0; i < block.length; i++) {
+			if (block[i].exec(f) == RETURNED) {
+				return RETURNED;
+			}
+		}
+		return NONE;
+	}
+
+
+	// evaluate an array of expressions
+	private static Object[] evalAll(Expr[] exprs, Frame f) {
+		if (exprs.length == 0) {
+			return Util.NO_OBJECTS;
+		}
+		Object[] result = new Object[exprs.length];
+		for (int i = 0; i < exprs.length; i++) {
+			result[i] = exprs[i].eval(f);
+		}
+		return result;
+	}
+
+
+	// ------------------------------ instance -----------------------------
+
+	// translate a procedure
+	private void translateProcedure(ParseTree.ProcedureSignature sig,
+			List block) throws ParseException {
+		_slots = new HashMap();
+		_cursors = 0;
+		List params = sig.getParameters();
+		for (int i = 0, max = params.size(); i < max; i++) {
+			getSlot((Variable)params.get(i));
+		}
+
+		Procedure p = (Procedure)_procedures.get(sig.getName() + "/" +
+				params.size());
+		p._arity = params.size();
+		p._body = translateBlock(block);
+		p._vars = _slots.size();
+		p._cursors = _cursors;
+	}
+
+
+	// translate a list of statements
+	private Node[] translateBlock(List block) throws ParseException {
+		Node[] result = new Node[block.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = translateStatement((Statement)block.get(i));
+		}
+		return result;
+	}
+
+
+	// translate a statement
+	private Node translateStatement(Statement s) throws ParseException {
+		if (s instanceof IfStatement) {
+			IfStatement ifs = (IfStatement)s;
+			List conditions = ifs.getConditions();
+			List blocks = ifs.getBlocks();
+			Node[] branches = new Node[blocks.size()];
+			for (int i = 0; i < branches.length; i++) {
+				Node body = new Body(translateBlock((List)blocks.get(i)));
+				List l = (List)conditions.get(i);
+				branches[i] = l == null ? body :
+						translateConditions(l, 0, body);
+			}
+			return new If(branches);
+		}
+		else if (s instanceof MessageRule) {
+			return translateMessageRule((MessageRule)s);
+		}
+		else if (s instanceof MessageSwitch) {
+			MessageSwitch ms = (MessageSwitch)s;
+			List cases = ms.getCases();
+			Node[][] rules = new Node[cases.size()][];
+			for (int i = 0; i < rules.length; i++) {
+				rules[i] = translateBlock((List)cases.get(i));
+			}
+			return new Switch(ms.getKey(), Util.toIndexMap(
+					ms.getValues().toArray()), rules);
+		}
+		else if (s instanceof LockedStatement) {
+			return new Locked(translateBlock(
+					((LockedStatement)s).getBlock()));
+		}
+		else if (s instanceof MentalUpdateStatement) {
+			MentalUpdateStatement m = (MentalUpdateStatement)s;
+			if (m.getValue() instanceof Sentence) {
+				Sentence st = (Sentence)m.getValue();
+				List idxs = st.getVardefIndices();
+				return new Update(m.isAdopt(), st.getAttitude(),
+						st.getName(), translateTerms(st.getTerms(), true),
+						idxs.size() == 0 ? null : toBitSet(idxs), null);
+			}
+			return new Update(m.isAdopt(), 0, null, null, null,
+					translateValue(m.getValue()));
+		}
+		else if (s instanceof SayStatement) {
+			Map pattern = ((SayStatement)s).getPattern();
+			if (pattern == null) {
+				return new Say(new String[0], new Expr[0]);
+			}
+			String[] keys = new String[pattern.size()];
+			Expr[] values = new Expr[keys.length];
+			Iterator it = pattern.entrySet().iterator();
+			for (int i = 0; i < keys.length; i++) {
+				Map.Entry e = (Map.Entry)it.next();
+				keys[i] = "" + e.getKey();
+				values[i] = translateValue((Value)e.getValue());
+			}
+			return new Say(keys, values);
+		}
+		else if (s instanceof LetStatement) {
+			LetStatement l = (LetStatement)s;
+			return new Let(getSlot(l.getVariable()),
+					translateValue(l.getBinding()));
+		}
+		else if (s instanceof Assignment) {
+			Assignment a = (Assignment)s;
+			return new Let(getSlot(a.getVariable()),
+					translateValue(a.getBinding()));
+		}
+		else if (s instanceof ReturnStatement) {
+			Expression e = ((ReturnStatement)s).getExpression();
+			return new Return(e == null ? null : translateValue(e));
+		}
+		else if (s instanceof Action) {
+			return new Evaluate(null, translateTest((Action)s));
+		}
+		else if (s instanceof ProcedureCall) {
+			return new Evaluate(translateValue((ProcedureCall)s), null);
+		}
+		else {
+			throw new IllegalArgumentException(s.getClass().getName());
+		}
+	}
+
+
+	// translate the conditions of a branch, starting at the given index,
+	// which precede the body
+	private Node translateConditions(List conditions, int index, Node body)
+			throws ParseException {
+		if (index == conditions.size()) {
+			return body;
+		}
+
+		Condition c = (Condition)conditions.get(index);
+		if (!(c instanceof Sentence)) {
+			return new Filter(translateTest(c),
+					translateConditions(conditions, index + 1, body));
+		}
+
+		Sentence s = (Sentence)c;
+		int alias = s.getAlias() == null ? -1 : getSlot(s.getAlias());
+		if (s.isSimple()) {
+			Node next = translateConditions(conditions, index + 1, body);
+			if (alias < 0) {
+				return new Filter(translateTest(c), next);
+			}
+			return new Contains(s.getAttitude(), s.getName(),
+					translateTerms(s.getTerms(), true), alias, next);
+		}
+
+		// the sentence is matched, binding the variable defs
+		List idxs = s.getVardefIndices();
+		int cursor = _cursors++;
+		return new Match(s.getAttitude(), s.getName(),
+				translateTerms(s.getTerms(), true), toBitSet(idxs), cursor,
+				toArray(idxs), getSlots(s, idxs), alias,
+				translateConditions(conditions, index + 1, body));
+	}
+
+
+	// translate a condition which is evaluated as a test
+	private Test translateTest(Condition c) throws ParseException {
+		if (c instanceof NotCondition) {
+			return new Not(translateTest(((NotCondition)c).getCondition()));
+		}
+		else if (c instanceof Comparison) {
+			Comparison cmp = (Comparison)c;
+			return new Compare(translateValue(cmp.getLeft()),
+					cmp.getComparator(), translateValue(cmp.getRight()));
+		}
+		else if (c instanceof Action) {
+			Action a = (Action)c;
+			return new Act(a.isDo(), a.getName(),
+					translateExprs(a.getTerms()));
+		}
+		else if (c instanceof Sentence && ((Sentence)c).isSimple()) {
+			Sentence s = (Sentence)c;
+			return new Holds(s.getAttitude(), s.getName(),
+					translateTerms(s.getTerms(), true));
+		}
+		else {
+			throw new IllegalArgumentException(c.toString());
+		}
+	}
+
+
+	// translate a WHEN rule
+	private Node translateMessageRule(MessageRule r) throws ParseException {
+		Map guard = r.getGuard();
+		Node[] block = translateBlock(r.getBlock());
+		if (guard == null) {
+			return new When(null, block);
+		}
+
+		Guard[] entries = new Guard[guard.size()];
+		Iterator it = guard.entrySet().iterator();
+		for (int i = 0; i < entries.length; i++) {
+			Map.Entry e = (Map.Entry)it.next();
+			Guard g = entries[i] = new Guard();
+			g._key = (String)e.getKey();
+			Value v = (Value)e.getValue();
+			if (v instanceof Sentence) {
+				Sentence s = (Sentence)v;
+				g._kind = Guard.FACT;
+				g._category = s.getAttitude();
+				g._name = s.getName();
+				g._terms = translateTerms(s.getTerms(), true);
+				g._alias = s.getAlias() == null ? -1 : getSlot(s.getAlias());
+				if (!s.isSimple()) {
+					List idxs = s.getVardefIndices();
+					g._bits = toBitSet(idxs);
+					g._indices = toArray(idxs);
+					g._slots = getSlots(s, idxs);
+				}
+			}
+			else if ((v instanceof Variable) && ((Variable)v).isWildcard()) {
+				g._kind = Guard.PRESENT;
+			}
+			else if ((v instanceof Variable) && ((Variable)v).isDef()) {
+				g._kind = Guard.BIND;
+				g._alias = getSlot((Variable)v);
+			}
+			else {
+				g._kind = Guard.EQUAL;
+				g._value = translateValue(v);
+			}
+		}
+		return new When(entries, block);
+	}
+
+
+	// translate a value
+	private Expr translateValue(Value v) throws ParseException {
+		if (v instanceof Variable) {
+			return new Var(getSlot((Variable)v));
+		}
+		else if (v instanceof Literal) {
+			return new Const(((Literal)v).getRuntimeValue());
+		}
+		else if (v instanceof Constant) {
+			return new Const(((Literal)_tree.getDefs().get(
+					((Constant)v).getName())).getRuntimeValue());
+		}
+		else if (v instanceof SelfRef) {
+			return new Self();
+		}
+		else if (v instanceof Query) {
+			Query q = (Query)v;
+			return new Ask(q.getName(), translateExprs(q.getTerms()));
+		}
+		else if (v instanceof ProcedureCall) {
+			ProcedureCall p = (ProcedureCall)v;
+			List params = p.getParameters();
+			Procedure proc = (Procedure)_procedures.get(p.getName() + "/" +
+					params.size());
+			if (proc == null) {
+				AccUtils.throwParseException(p.getInitialToken(),
+						"Inherited procedures can not be interpreted");
+			}
+			return new Call(proc, translateExprs(params));
+		}
+		else if (v instanceof Sentence) {
+			Sentence s = (Sentence)v;
+			Terms terms = translateTerms(s.getTerms(), true);
+			if (terms._constant != null) {
+				// a ground fact is created once
+				return new Const(new Fact(s.getAttitude(), s.getName(),
+						terms._constant));
+			}
+			return new NewFact(s.getAttitude(), s.getName(), terms);
+		}
+		else {
+			throw new IllegalArgumentException(v.getClass().getName());
+		}
+	}
+
+
+	// translate a list of values
+	private Expr[] translateExprs(List values) throws ParseException {
+		Expr[] result = new Expr[values.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = translateValue((Value)values.get(i));
+		}
+		return result;
+	}
+
+
+	// translate the terms of a sentence, replacing the variable defs by
+	// null
+	// pool: whether an array of constant terms may be shared
+	private Terms translateTerms(List terms, boolean pool)
+			throws ParseException {
+		Expr[] exprs = new Expr[terms.size()];
+		for (int i = 0; i < exprs.length; i++) {
+			Value v = (Value)terms.get(i);
+			if (!(v instanceof Variable) || !((Variable)v).isDef()) {
+				exprs[i] = translateValue(v);
+			}
+		}
+
+		Terms result = new Terms(exprs);
+		if (exprs.length == 0) {
+			result._constant = Util.NO_OBJECTS;
+		}
+		else if (pool && AccUtils.isConstant(terms)) {
+			result._constant = result.eval(null);
+		}
+		return result;
+	}
+
+
+	// return the slot of a variable, or -1 for a wildcard
+	private int getSlot(Variable v) {
+		int number = v.getNumber();
+		if (number < 0) {
+			return -1;
+		}
+		Integer key = Integer.valueOf(number);
+		Integer slot = (Integer)_slots.get(key);
+		if (slot == null) {
+			slot = Integer.valueOf(_slots.size());
+			_slots.put(key, slot);
+		}
+		return slot.intValue();
+	}
+
+
+	// return the slots of the variable defs of a sentence
+	private int[] getSlots(Sentence s, List idxs) {
+		int[] result = new int[idxs.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getSlot((Variable)s.getTerm(
+					((Integer)idxs.get(i)).intValue()));
+		}
+		return result;
+	}
+
+
+	// convert a list of Integers to an array
+	private static int[] toArray(List l) {
+		int[] result = new int[l.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ((Integer)l.get(i)).intValue();
+		}
+		return result;
+	}
+
+
+	// make a BitSet of a list of positions
+	private static BitSet toBitSet(List l) {
+		return Util.toBitSet(toArray(l));
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	/**
+	 * An ACME which runs an interpreted program.
+	 */
+	public static class Agent extends Acme {
+
+		/**
+		 * Creates an agent.
+		 * @param program the program run by the agent
+		 * @param id the ID of the agent
+		 */
+		protected Agent(AgentCInterpreter program, Object id) {
+			super(id);
+			_program = program;
+		}
+
+
+		/**
+		 * Runs a procedure of the program, like the corresponding method
+		 *  of a generated ACME.
+		 * @param name the name of the procedure
+		 * @param msg the message to be matched in the rules, or null
+		 * @param params the parameters of the procedure
+		 * @return the value returned by the procedure
+		 * @exception IllegalArgumentException if the program does not
+		 *  contain the procedure
+		 * @see Acme
+		 */
+		public Object call(String name, Map msg, Object[] params) {
+			Procedure p = (Procedure)_program._procedures.get(name + "/" +
+					params.length);
+			if (p == null) {
+				throw new IllegalArgumentException("Unknown procedure \"" +
+						name + "\"(" + params.length + ")");
+			}
+			return p.invoke(this, msg, params);
+		}
+
+
+		public int getMaxAttitude() {
+			return _program._maxAttitude;
+		}
+
+
+		protected void initKnowledgeBase(KnowledgeBase kb) {
+			Frame f = new Frame(this, null, 0, 0);
+			Expr[] facts = _program._facts;
+			for (int i = 0; i < facts.length; i++) {
+				kb.add((Fact)facts[i].eval(f));
+			}
+		}
+
+		// the program run by the agent
+		private AgentCInterpreter _program;
+	}
+
+
+	// the state of a procedure invocation
+	private final static class Frame {
+		Frame(Agent agent, Map msg, int vars, int cursors) {
+			_agent = agent;
+			_kb = agent.getKnowledgeBase();
+			_msg = msg;
+			_vars = new Object[vars];
+			_cursors = new FactCursor[cursors];
+		}
+
+		final Agent _agent;
+		final KnowledgeBase _kb;
+		final Map _msg;
+
+		// the values of the variables, and the cursors of the matches
+		final Object[] _vars;
+		final FactCursor[] _cursors;
+
+		// the value returned by the procedure
+		Object _result;
+	}
+
+
+	// a translated procedure
+	private final static class Procedure {
+		Object invoke(Agent agent, Map msg, Object[] params) {
+			Frame f = new Frame(agent, msg, _vars, _cursors);
+			System.arraycopy(params, 0, f._vars, 0, _arity);
+			return execAll(_body, f) == RETURNED ? f._result : null;
+		}
+
+		int _arity;
+		Node[] _body;
+		int _vars;
+		int _cursors;
+	}
+
+
+	// ------------------------------ values -------------------------------
+
+	// a value
+	private abstract static class Expr {
+		abstract Object eval(Frame f);
+	}
+
+
+	private final static class Var extends Expr {
+		Var(int slot) {
+			_slot = slot;
+		}
+
+		Object eval(Frame f) {
+			return f._vars[_slot];
+		}
+
+		private final int _slot;
+	}
+
+
+	private final static class Const extends Expr {
+		Const(Object value) {
+			_value = value;
+		}
+
+		Object eval(Frame f) {
+			return _value;
+		}
+
+		private final Object _value;
+	}
+
+
+	private final static class Self extends Expr {
+		Object eval(Frame f) {
+			return f._agent.getId();
+		}
+	}
+
+
+	private final static class Ask extends Expr {
+		Ask(String name, Expr[] terms) {
+			_name = name;
+			_terms = terms;
+		}
+
+		Object eval(Frame f) {
+			return f._agent.query(_name, evalAll(_terms, f));
+		}
+
+		private final String _name;
+		private final Expr[] _terms;
+	}
+
+
+	private final static class Call extends Expr {
+		Call(Procedure p, Expr[] params) {
+			_procedure = p;
+			_params = params;
+		}
+
+		Object eval(Frame f) {
+			return _procedure.invoke(f._agent, f._msg, evalAll(_params, f));
+		}
+
+		private final Procedure _procedure;
+		private final Expr[] _params;
+	}
+
+
+	private final static class NewFact extends Expr {
+		NewFact(int category, String name, Terms terms) {
+			_category = category;
+			_name = name;
+			_terms = terms;
+		}
+
+		Object eval(Frame f) {
+			return new Fact(_category, _name, _terms.eval(f));
+		}
+
+		private final int _category;
+		private final String _name;
+		private final Terms _terms;
+	}
+
+
+	// the terms of a sentence, in which null is used for the variable defs
+	private final static class Terms {
+		Terms(Expr[] terms) {
+			_terms = terms;
+		}
+
+		Object[] eval(Frame f) {
+			if (_constant != null) {
+				return _constant;
+			}
+			Object[] result = new Object[_terms.length];
+			for (int i = 0; i < result.length; i++) {
+				if (_terms[i] != null) {
+					result[i] = _terms[i].eval(f);
+				}
+			}
+			return result;
+		}
+
+		private final Expr[] _terms;
+
+		// the terms, if they are constant
+		Object[] _constant;
+	}
+
+
+	// ------------------------------ tests --------------------------------
+
+	// a condition which is evaluated without binding any variables
+	private abstract static class Test {
+		abstract boolean test(Frame f);
+	}
+
+
+	private final static class Not extends Test {
+		Not(Test t) {
+			_test = t;
+		}
+
+		boolean test(Frame f) {
+			return !_test.test(f);
+		}
+
+		private final Test _test;
+	}
+
+
+	private final static class Compare extends Test {
+		Compare(Expr left, int comparator, Expr right) {
+			_left = left;
+			_comparator = comparator;
+			_right = right;
+		}
+
+		boolean test(Frame f) {
+			Object l = _left.eval(f);
+			Object r = _right.eval(f);
+			switch (_comparator) {
+			case COMP_EQ:
+				return f._agent.isEqual(l, r);
+			case COMP_NE:
+				return !f._agent.isEqual(l, r);
+			case COMP_LT:
+				return Acme.compareValues(l, r) < 0;
+			case COMP_LE:
+				return Acme.compareValues(l, r) <= 0;
+			case COMP_GE:
+				return Acme.compareValues(l, r) >= 0;
+			default:
+				return Acme.compareValues(l, r) > 0;
+			}
+		}
+
+		private final Expr _left;
+		private final int _comparator;
+		private final Expr _right;
+	}
+
+
+	private final static class Act extends Test {
+		Act(boolean isDo, String name, Expr[] terms) {
+			_isDo = isDo;
+			_name = name;
+			_terms = terms;
+		}
+
+		boolean test(Frame f) {
+			Object[] terms = evalAll(_terms, f);
+			return _isDo ? f._agent.doAction(_name, terms) :
+					f._agent.xeqAction(_name, terms);
+		}
+
+		private final boolean _isDo;
+		private final String _name;
+		private final Expr[] _terms;
+	}
+
+
+	// a test of whether a ground fact holds
+	private final static class Holds extends Test {
+		Holds(int category, String name, Terms terms) {
+			_category = category;
+			_name = name;
+			_terms = terms;
+		}
+
+		boolean test(Frame f) {
+			return f._kb.contains(_category, _name, _terms.eval(f));
+		}
+
+		private final int _category;
+		private final String _name;
+		private final Terms _terms;
+	}
+
+
+	// ----------------------------- statements ----------------------------
+
+	// a statement or a step of an IF branch. The result of exec() is
+	// RETURNED if a RETURN statement was executed, or otherwise MATCHED if
+	// the body of a branch was executed, or NONE.
+	private abstract static class Node {
+		abstract int exec(Frame f);
+	}
+
+
+	private final static class If extends Node {
+		If(Node[] branches) {
+			_branches = branches;
+		}
+
+		int exec(Frame f) {
+			for (int i = 0; i < _branches.length; i++) {
+				int r = _branches[i].exec(f);
+				if (r != NONE) {
+					return r == RETURNED ? RETURNED : NONE;
+				}
+			}
+			return NONE;
+		}
+
+		private final Node[] _branches;
+	}
+
+
+	// the body of a branch
+	private final static class Body extends Node {
+		Body(Node[] block) {
+			_block = block;
+		}
+
+		int exec(Frame f) {
+			return execAll(_block, f) == RETURNED ? RETURNED : MATCHED;
+		}
+
+		private final Node[] _block;
+	}
+
+
+	// a condition which is tested before the rest of a branch
+	private final static class Filter extends Node {
+		Filter(Test test, Node next) {
+			_test = test;
+			_next = next;
+		}
+
+		int exec(Frame f) {
+			return _test.test(f) ? _next.exec(f) : NONE;
+		}
+
+		private final Test _test;
+		private final Node _next;
+	}
+
+
+	// a simple sentence having an alias
+	private final static class Contains extends Node {
+		Contains(int category, String name, Terms terms, int alias,
+				Node next) {
+			_category = category;
+			_name = name;
+			_terms = terms;
+			_alias = alias;
+			_next = next;
+		}
+
+		int exec(Frame f) {
+			Fact fact = new Fact(_category, _name, _terms.eval(f));
+			if (!f._kb.contains(fact)) {
+				return NONE;
+			}
+			f._vars[_alias] = fact;
+			return _next.exec(f);
+		}
+
+		private final int _category;
+		private final String _name;
+		private final Terms _terms;
+		private final int _alias;
+		private final Node _next;
+	}
+
+
+	// a sentence which is matched, executing the rest of the branch for
+	// every match
+	private final static class Match extends Node {
+		Match(int category, String name, Terms terms, BitSet vars,
+				int cursor, int[] indices, int[] slots, int alias,
+				Node next) {
+			_category = category;
+			_name = name;
+			_terms = terms;
+			_bits = vars;
+			_cursor = cursor;
+			_indices = indices;
+			_slots = slots;
+			_alias = alias;
+			_next = next;
+		}
+
+		int exec(Frame f) {
+			FactCursor c = f._kb.matchCursor(_category, _name,
+					_terms.eval(f), _bits, f._cursors[_cursor]);
+			f._cursors[_cursor] = c;
+
+			int result = NONE;
+			Object[] vars = f._vars;
+			while (c.next()) {
+				for (int i = 0; i < _slots.length; i++) {
+					if (_slots[i] >= 0) {
+						vars[_slots[i]] = c.getTerm(_indices[i]);
+					}
+				}
+				if (_alias >= 0) {
+					vars[_alias] = c.getFact();
+				}
+
+				int r = _next.exec(f);
+				if (r == RETURNED) {
+					return RETURNED;
+				}
+				result |= r;
+			}
+			return result;
+		}
+
+		private final int _category;
+		private final String _name;
+		private final Terms _terms;
+		private final BitSet _bits;
+		private final int _cursor;
+		private final int[] _indices;
+		private final int[] _slots;
+		private final int _alias;
+		private final Node _next;
+	}
+
+
+	// a WHEN rule
+	private final static class When extends Node {
+		When(Guard[] guard, Node[] block) {
+			_guard = guard;
+			_block = block;
+		}
+
+		int exec(Frame f) {
+			Map msg = f._msg;
+			if (_guard == null) {
+				return msg == null ? execAll(_block, f) : NONE;
+			}
+			if (msg == null) {
+				return NONE;
+			}
+
+			for (int i = 0; i < _guard.length; i++) {
+				if (!_guard[i].matches(f, msg)) {
+					return NONE;
+				}
+			}
+			return execAll(_block, f);
+		}
+
+		private final Guard[] _guard;
+		private final Node[] _block;
+	}
+
+
+	// a sequence of WHEN rules dispatched on a key
+	private final static class Switch extends Node {
+		Switch(String key, Map cases, Node[][] rules) {
+			_key = key;
+			_cases = cases;
+			_rules = rules;
+		}
+
+		int exec(Frame f) {
+			if (f._msg == null) {
+				return NONE;
+			}
+			Integer idx = (Integer)_cases.get(f._msg.get(_key));
+			return idx == null ? NONE : execAll(_rules[idx.intValue()], f);
+		}
+
+		private final String _key;
+		private final Map _cases;
+		private final Node[][] _rules;
+	}
+
+
+	// an entry of the guard of a WHEN rule
+	private final static class Guard {
+		boolean matches(Frame f, Map msg) {
+			if (!msg.containsKey(_key)) {
+				return false;
+			}
+
+			switch (_kind) {
+			case PRESENT:
+				return true;
+			case BIND:
+				f._vars[_alias] = msg.get(_key);
+				return true;
+			case EQUAL:
+				return f._agent.isEqual(msg.get(_key), _value.eval(f));
+			default:
+				break;
+			}
+
+			Object obj = msg.get(_key);
+			if (!(obj instanceof Fact)) {
+				return false;
+			}
+			Fact fact = (Fact)obj;
+			if (_bits != null) {
+				if (!fact.matches(_category, _name, _terms.eval(f), _bits)) {
+					return false;
+				}
+				for (int i = 0; i < _slots.length; i++) {
+					if (_slots[i] >= 0) {
+						f._vars[_slots[i]] = fact.getTerm(_indices[i]);
+					}
+				}
+			}
+			else if (!fact.equals(_category, _name, _terms.eval(f))) {
+				return false;
+			}
+			if (_alias >= 0) {
+				f._vars[_alias] = fact;
+			}
+			return true;
+		}
+
+		// the kinds of guards: the key must be present, its value must be
+		// bound to a variable, or be equal to a value, or match a sentence
+		final static int PRESENT = 0;
+		final static int BIND = 1;
+		final static int EQUAL = 2;
+		final static int FACT = 3;
+
+		String _key;
+		int _kind;
+
+		// the value compared by an EQUAL guard
+		Expr _value;
+
+		// the sentence matched by a FACT guard; _bits is null if it is
+		// simple
+		int _category;
+		String _name;
+		Terms _terms;
+		BitSet _bits;
+		int[] _indices;
+		int[] _slots;
+
+		// the slot of the variable bound by a BIND guard, or of the alias
+		// of a FACT guard (-1 if none)
+		int _alias = -1;
+	}
+
+
+	private final static class Locked extends Node {
+		Locked(Node[] block) {
+			_block = block;
+		}
+
+		int exec(Frame f) {
+			synchronized (f._kb.getLock()) {
+				return execAll(_block, f);
+			}
+		}
+
+		private final Node[] _block;
+	}
+
+
+	// an ADOPT or DROP statement, of a sentence or of a value
+	private final static class Update extends Node {
+		Update(boolean adopt, int category, String name, Terms terms,
+				BitSet vars, Expr value) {
+			_adopt = adopt;
+			_category = category;
+			_name = name;
+			_terms = terms;
+			_bits = vars;
+			_value = value;
+		}
+
+		int exec(Frame f) {
+			KnowledgeBase kb = f._kb;
+			if (_value != null) {
+				Fact fact = (Fact)_value.eval(f);
+				if (_adopt) {
+					kb.add(fact);
+				}
+				else {
+					kb.remove(fact);
+				}
+			}
+			else if (_bits != null) {
+				// only a DROP may contain variable defs
+				kb.remove(_category, _name, _terms.eval(f), _bits);
+			}
+			else {
+				Object[] terms = _terms.eval(f);
+				if (_adopt) {
+					kb.add(_category, _name, terms);
+				}
+				else {
+					kb.remove(_category, _name, terms);
+				}
+			}
+			return NONE;
+		}
+
+		private final boolean _adopt;
+		private final int _category;
+		private final String _name;
+		private final Terms _terms;
+		private final BitSet _bits;
+		private final Expr _value;
+	}
+
+
+	private final static class Say extends Node {
+		Say(String[] keys, Expr[] values) {
+			_keys = keys;
+			_values = values;
+		}
+
+		int exec(Frame f) {
+			if (_keys.length == 0) {
+				// nothing is said
+				return NONE;
+			}
+			Map msg = new HashMap(2 * _keys.length);
+			for (int i = 0; i < _keys.length; i++) {
+				msg.put(_keys[i], _values[i].eval(f));
+			}
+			f._agent.send(msg);
+			return NONE;
+		}
+
+		private final String[] _keys;
+		private final Expr[] _values;
+	}
+
+
+	// a LET statement or an assignment
+	private final static class Let extends Node {
+		Let(int slot, Expr value) {
+			_slot = slot;
+			_value = value;
+		}
+
+		int exec(Frame f) {
+			Object v = _value.eval(f);
+			if (_slot >= 0) {
+				f._vars[_slot] = v;
+			}
+			return NONE;
+		}
+
+		private final int _slot;
+		private final Expr _value;
+	}
+
+
+	private final static class Return extends Node {
+		Return(Expr value) {
+			_value = value;
+		}
+
+		int exec(Frame f) {
+			f._result = _value == null ? null : _value.eval(f);
+			return RETURNED;
+		}
+
+		private final Expr _value;
+	}
+
+
+	// an action or a procedure call, whose result is ignored
+	private final static class Evaluate extends Node {
+		Evaluate(Expr value, Test action) {
+			_value = value;
+			_action = action;
+		}
+
+		int exec(Frame f) {
+			if (_value != null) {
+				_value.eval(f);
+			}
+			else {
+				_action.test(f);
+			}
+			return NONE;
+		}
+
+		private final Expr _value;
+		private final Test _action;
+	}
+}
@@ -0,0 +1,461 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.io.*;
+import java.net.URI;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.tools.*;
+
+import dk.dtu.imm.cse.agent.act.afc.*;
+
+
+/**
+ * Compiles AgentC programs given as strings into loaded {@link Acme}
+ *  classes, without using the file system. The source code generated by
+ *  {@link Acc#compile(InputStream, String, String, String, Collection)}
+ *  is compiled by the {@link JavaCompiler} of the running platform,
+ *  through a file manager which keeps the source and class files in
+ *  memory.
+ * <p>
+ * Compiled classes are cached, keyed by a hash of the class name and the
+ *  AgentC source, so compiling the same program twice returns the same
+ *  class. Many programs may be compiled at once by
+ *  {@link #compileAll(Map)}, which divides them into batches compiled in
+ *  parallel; each batch is handled by a single compiler invocation. The
+ *  methods of an AgentCompiler may be invoked by any number of threads.
+ * <p>
+ * The generated code is compiled against the class path of the running
+ *  VM, which must therefore include the AgentC libraries, the superclass
+ *  and the interfaces of the ACMEs.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class AgentCompiler {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a compiler which compiles batches using one thread per
+	 *  available processor.
+	 * @see #AgentCompiler(String, String, Collection, int)
+	 */
+	public AgentCompiler(String pack, String superclass, Collection ifs) {
+		this(pack, superclass, ifs,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * Creates a compiler.
+	 * @param pack the package of the generated classes, or null
+	 * @param superclass the class which the generated classes should
+	 *  extend, or null if they extend {@link Acme}
+	 * @param ifs a collection of the names of the interfaces to be
+	 *  implemented by the generated classes, or null
+	 * @param threads the number of threads which compile batches
+	 * @exception IllegalStateException if the platform does not provide
+	 *  a Java compiler
+	 */
+	public AgentCompiler(String pack, String superclass, Collection ifs,
+			int threads) {
+		_compiler = ToolProvider.getSystemJavaCompiler();
+		if (_compiler == null) {
+			throw new IllegalStateException("No Java compiler is available");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("" + threads);
+		}
+
+		_pack = pack;
+		_superclass = superclass;
+		_ifs = ifs == null ? Collections.EMPTY_LIST : new ArrayList(ifs);
+		_threads = threads;
+		_executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AgentCompiler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Compiles an AgentC program, unless it has already been compiled.
+	 * @param name the class name of the generated class
+	 * @param source the AgentC source code
+	 * @return the loaded class, a subclass of {@link Acme}
+	 * @exception ParseException if an error occurs during compilation.
+	 */
+	public Class compile(String name, String source) throws ParseException {
+		return (Class)compileAll(Collections.singletonMap(name, source)).
+				get(name);
+	}
+
+
+	/**
+	 * Compiles a number of AgentC programs. The programs which have not
+	 *  already been compiled are divided into batches, which are compiled
+	 *  in parallel.
+	 * @param sources maps the class names of the generated classes to the
+	 *  AgentC source code of the programs (Strings)
+	 * @return a map of the class names to the loaded classes, in the
+	 *  iteration order of <code>sources</code>
+	 * @exception ParseException if an error occurs during compilation.
+	 *  The classes of the remaining programs may still have been cached.
+	 */
+	public Map compileAll(Map sources) throws ParseException {
+		// find the programs which must be compiled
+		Map result = new LinkedHashMap();
+		Map keys = new HashMap();
+		List pending = new ArrayList();
+		for (Iterator i = sources.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			String key = makeKey((String)e.getKey(), (String)e.getValue());
+			keys.put(e.getKey(), key);
+			if (_cache.containsKey(key)) {
+				result.put(e.getKey(), _cache.get(key));
+			}
+			else {
+				result.put(e.getKey(), null);
+				pending.add(e);
+			}
+		}
+
+		if (pending.size() == 1) {
+			// compile a single program in the calling thread
+			cacheAll(compileBatch(pending), keys);
+		}
+		else if (pending.size() > 1) {
+			// divide the programs into batches, one for each thread
+			int count = Math.min(_threads, pending.size());
+			List futures = new ArrayList(count);
+			for (int i = 0; i < count; i++) {
+				final List batch = new ArrayList();
+				for (int j = i; j < pending.size(); j += count) {
+					batch.add(pending.get(j));
+				}
+				futures.add(_executor.submit(new Callable() {
+					public Object call() throws Exception {
+						return compileBatch(batch);
+					}
+				}));
+			}
+
+			// wait for every batch to complete before reporting an error
+			ParseException error = null;
+			for (Iterator i = futures.iterator(); i.hasNext(); ) {
+				try {
+					cacheAll((Map)((Future)i.next()).get(), keys);
+				}
+				catch (ExecutionException e) {
+					Throwable t = e.getCause();
+					if (t instanceof ParseException) {
+						error = error == null ? (ParseException)t : error;
+					}
+					else if (t instanceof RuntimeException) {
+						throw (RuntimeException)t;
+					}
+					else {
+						throw (Error)t;
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ParseException("Interrupted");
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		// a class compiled concurrently by another thread may have
+		// been cached first
+		for (Iterator i = result.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			if (e.getValue() == null) {
+				e.setValue(_cache.get(keys.get(e.getKey())));
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return the number of compiled classes in the cache
+	 */
+	public int getCacheSize() {
+		return _cache.size();
+	}
+
+
+	/**
+	 * Forgets all compiled classes.
+	 */
+	public void clearCache() {
+		_cache.clear();
+	}
+
+
+	/**
+	 * Stops the threads used for compiling batches. The compiler can
+	 *  still be used to compile single programs.
+	 */
+	public void shutdown() {
+		_executor.shutdown();
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+
+	// the Java compiler
+	private JavaCompiler _compiler;
+
+	// the settings given to Acc
+	private String _pack;
+	private String _superclass;
+	private Collection _ifs;
+
+	// the number of threads compiling batches, and the threads
+	private int _threads;
+	private ExecutorService _executor;
+
+	// maps the keys made by makeKey() to the compiled classes
+	private Map _cache = new ConcurrentHashMap();
+
+	// the standard file manager of each thread, which caches the contents
+	// of the class path
+	private ThreadLocal _fileManagers = new ThreadLocal() {
+		protected Object initialValue() {
+			return _compiler.getStandardFileManager(null, null, null);
+		}
+	};
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+
+	// make the cache key of a program: a hash of the class name and the
+	// source code
+	private String makeKey(String name, String source) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(name.getBytes("UTF-8"));
+			md.update((byte)0);
+			byte[] hash = md.digest(source.getBytes("UTF-8"));
+
+			StringBuffer b = new StringBuffer(2 * hash.length);
+			for (int i = 0; i < hash.length; i++) {
+				b.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).
+						append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return b.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every platform provides SHA-256
+			throw new InternalError(e.toString());
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	// add compiled classes to the cache, unless classes having the same
+	// keys were added concurrently
+	private void cacheAll(Map classes, Map keys) {
+		for (Iterator i = classes.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			((ConcurrentMap)_cache).putIfAbsent(keys.get(e.getKey()),
+					e.getValue());
+		}
+	}
+
+
+	// compile a batch of programs using a single compiler invocation
+	// batch: a list of Map.Entry instances mapping class names to sources
+	// returns a map of the class names to the loaded classes
+	private Map compileBatch(List batch) throws ParseException {
+		// translate the programs into Java
+		List units = new ArrayList(batch.size());
+		for (Iterator i = batch.iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			String name = (String)e.getKey();
+			StringBuffer code = Acc.compile(new ByteArrayInputStream(
+					((String)e.getValue()).getBytes()), _pack, name,
+					_superclass, _ifs);
+			units.add(new Source(qualify(name), code.toString()));
+		}
+
+		// compile the Java code into memory
+		MemoryFileManager fm = new MemoryFileManager(
+				(JavaFileManager)_fileManagers.get());
+		DiagnosticCollector diagnostics = new DiagnosticCollector();
+		Boolean ok = _compiler.getTask(null, fm, diagnostics,
+				Arrays.asList(new String[] {"-nowarn", "-proc:none"}),
+				null, units).call();
+		if (!ok.booleanValue()) {
+			StringBuffer b = new StringBuffer("The generated code could " +
+					"not be compiled:");
+			for (Iterator i = diagnostics.getDiagnostics().iterator();
+					i.hasNext(); ) {
+				Diagnostic d = (Diagnostic)i.next();
+				if (d.getKind() == Diagnostic.Kind.ERROR) {
+					b.append('\n').append(d.getMessage(null));
+				}
+			}
+			throw new ParseException(b.toString());
+		}
+
+		// load the classes
+		ClassLoader parent;
+		try {
+			parent = _superclass == null ? Acme.class.getClassLoader() :
+					Class.forName(_superclass).getClassLoader();
+		}
+		catch (ClassNotFoundException e) {
+			// already reported by Acc
+			throw new InternalError();
+		}
+		AccClassLoader loader = new AccClassLoader(parent);
+		for (Iterator i = fm._outputs.iterator(); i.hasNext(); ) {
+			Output o = (Output)i.next();
+			loader.addClass(o._name, o._bytes.toByteArray());
+		}
+
+		Map result = new HashMap();
+		for (Iterator i = batch.iterator(); i.hasNext(); ) {
+			String name = (String)((Map.Entry)i.next()).getKey();
+			try {
+				result.put(name, loader.loadClass(qualify(name)));
+			}
+			catch (ClassNotFoundException e) {
+				throw new InternalError(e.toString());
+			}
+		}
+		return result;
+	}
+
+
+	// return the fully qualified name of a generated class
+	private String qualify(String name) {
+		return _pack == null ? name : _pack + "." + name;
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// the generated source code of a class
+	private final static class Source extends SimpleJavaFileObject {
+		Source(String className, String code) {
+			super(URI.create("string:///" + className.replace('.', '/') +
+					Kind.SOURCE.extension), Kind.SOURCE);
+			_code = code;
+		}
+
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return _code;
+		}
+
+		private String _code;
+	}
+
+
+	// a class file produced by the compiler
+	private final static class Output extends SimpleJavaFileObject {
+		Output(String className, Kind kind) {
+			super(URI.create("bytes:///" + className.replace('.', '/') +
+					kind.extension), kind);
+			_name = className;
+		}
+
+		public OutputStream openOutputStream() {
+			return _bytes;
+		}
+
+		private String _name;
+		private ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+	}
+
+
+	// a file manager which keeps the class files in memory, and otherwise
+	// delegates to a standard file manager
+	private final static class MemoryFileManager
+			extends ForwardingJavaFileManager {
+		MemoryFileManager(JavaFileManager m) {
+			super(m);
+		}
+
+		public JavaFileObject getJavaFileForOutput(Location location,
+				String className, JavaFileObject.Kind kind,
+				FileObject sibling) {
+			Output o = new Output(className, kind);
+			_outputs.add(o);
+			return o;
+		}
+
+		private List _outputs = new ArrayList();
+	}
+}
@@ -64,6 +64,22 @@ public class Assignment implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the variable to be bound
+	 */
+	public Variable getVariable() {
+		return _v;
+	}
+	
+	
+	/**
+	 * @return the value bound to the variable
+	 */
+	public Value getBinding() {
+		return _binding;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -95,6 +111,7 @@ public class Assignment implements Statement, AccConstants {
 		
 		// check the binding in a read-only scope
 		_binding.checkSymbols(tree, scope, SCOPE_USEONLY);
+		_v.addBinding(AccUtils.getNumericType(tree, _binding));
 	}
 	
 	
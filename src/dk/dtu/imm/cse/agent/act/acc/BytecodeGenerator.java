@@ -0,0 +1,1156 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.afc.*;
+
+
+/**
+ * Generates a class file for an ACME directly from a checked parse tree,
+ * as an alternative to the Java source generated by the
+ * <code>generateCode()</code> methods of the syntax tree. The generated
+ * instructions correspond to those which <code>javac</code> produces for
+ * the generated source, and the same constants are pooled in static fields.
+ * <p>
+ * The only difference is that the branches of an IF statement are always
+ * evaluated in the order preferred by the {@link ConditionPlanner}; the
+ * alternative orders chosen at run time by a {@link JoinPlan} are not
+ * generated. The planner only produces alternatives which have the same
+ * effect as the preferred order, so a compiled class behaves like the
+ * class compiled from the generated source.
+ *
+ * @author  Henrik Lauritzen
+ * @see Acc#compileClass(java.io.InputStream, String, String, String,
+ *  Collection)
+ */
+final class BytecodeGenerator implements AccConstants {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	private BytecodeGenerator(String name, Class superclass, Class[] ifs,
+			ParseTree tree) {
+		_this = name;
+		_superclass = superclass;
+		_ifs = ifs;
+		_tree = tree;
+
+		String[] names = new String[ifs.length];
+		for (int i = 0; i < ifs.length; i++) {
+			names[i] = ClassFile.internalName(ifs[i].getName());
+		}
+		_cf = new ClassFile(name,
+				ClassFile.internalName(superclass.getName()), names,
+				ClassFile.ACC_PUBLIC | ClassFile.ACC_SUPER);
+		_clinit = new ClassFile.Code(_cf, 0);
+	}
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	/**
+	 * Generates the class file for a program.
+	 * @param pck the package of the class, or null
+	 * @param cls the name of the class
+	 * @param superclass the name of the superclass, or null if the class
+	 *  extends {@link Acme}
+	 * @param ifs the names of the interfaces implemented by the class
+	 * @param tree the parse tree, whose semantics have been checked
+	 * @return the contents of the class file
+	 */
+	static byte[] generateCode(String pck, String cls, String superclass,
+			Collection ifs, ParseTree tree) throws ParseException {
+		String name = pck == null ? cls :
+				ClassFile.internalName(pck) + "/" + cls;
+		Class[] intfs = new Class[ifs == null ? 0 : ifs.size()];
+		try {
+			Class sclass = superclass == null ? Acme.class :
+					Class.forName(superclass);
+			if (ifs != null) {
+				Iterator it = ifs.iterator();
+				for (int i = 0; i < intfs.length; i++) {
+					intfs[i] = Class.forName((String)it.next());
+				}
+			}
+			return new BytecodeGenerator(name, sclass, intfs, tree).
+					generateClass();
+		}
+		catch (ClassNotFoundException e) {
+			throw new ParseException("The class \"" + e.getMessage() +
+					"\" could not be found");
+		}
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the names and descriptors of the classes used by the generated code
+	private final static String OBJECT = "java/lang/Object";
+	private final static String OBJECT_DESC = "Ljava/lang/Object;";
+	private final static String STRING_DESC = "Ljava/lang/String;";
+	private final static String MAP = "java/util/Map";
+	private final static String MAP_DESC = "Ljava/util/Map;";
+	private final static String BITSET_DESC = "Ljava/util/BitSet;";
+	private final static String TERMS_DESC = "[Ljava/lang/Object;";
+	private final static String FACT =
+			ClassFile.internalName(Fact.class.getName());
+	private final static String FACT_DESC = "L" + FACT + ";";
+	private final static String KB =
+			ClassFile.internalName(KnowledgeBase.class.getName());
+	private final static String KB_DESC = "L" + KB + ";";
+	private final static String CURSOR =
+			ClassFile.internalName(FactCursor.class.getName());
+	private final static String CURSOR_DESC = "L" + CURSOR + ";";
+	private final static String ACME =
+			ClassFile.internalName(Acme.class.getName());
+	private final static String UTIL = ClassFile.internalName(
+			dk.dtu.imm.cse.agent.act.util.Util.class.getName());
+
+	// the descriptor of the triple of a category, name and terms
+	private final static String TRIPLE_DESC = "(I" + STRING_DESC +
+			TERMS_DESC;
+
+	// ------------------------------ instance -----------------------------
+
+	// the name of the generated class, and the classes it extends and
+	// implements
+	private String _this;
+	private Class _superclass;
+	private Class[] _ifs;
+
+	// the parse tree
+	private ParseTree _tree;
+
+	// the class file being generated
+	private ClassFile _cf;
+
+	// the code of the static initializer, which creates the constants
+	private ClassFile.Code _clinit;
+
+	// maps the keys of the pooled constants to the names of their fields
+	private Map _pool = new HashMap();
+
+	// the code being generated
+	private ClassFile.Code _code;
+
+	// the code which was being generated when the code creating a pooled
+	// constant was started, innermost last
+	private List _saved = new ArrayList();
+
+	// the local variables of the current procedure, which map the Java
+	// names of the AgentC variables and the temporary variables to their
+	// indices
+	private Map _locals;
+
+	// the indices of the local variables holding the objects locked by the
+	// enclosing LOCKED statements, innermost last
+	private List _monitors;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------ instance -----------------------------
+
+	// generate the class
+	private byte[] generateClass() {
+		String sname = ClassFile.internalName(_superclass.getName());
+
+		// the constants declared by the program
+		_code = _clinit;
+		for (Iterator i = _tree.getDefs().entrySet().iterator();
+				i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			String name = (String)e.getKey();
+			if (_tree.isExternalDef(name)) {
+				continue;
+			}
+			Literal l = (Literal)e.getValue();
+			String field = java.text.MessageFormat.format(CONST_PATTERN,
+					new Object[] { name });
+			String desc = "Ljava/lang/" + l.getJavaType() + ";";
+			_cf.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC |
+					ClassFile.ACC_FINAL, field, desc);
+			createLiteral(l);
+			_code.field(ClassFile.PUTSTATIC, _this, field, desc);
+		}
+
+		// the constructors
+		_code = new ClassFile.Code(_cf, 2);
+		_code.local(ClassFile.ALOAD, 0);
+		_code.local(ClassFile.ALOAD, 1);
+		_code.invoke(ClassFile.INVOKESPECIAL, sname, "<init>",
+				"(" + OBJECT_DESC + ")V");
+		_code.op(ClassFile.RETURN, 0);
+		_cf.addMethod(ClassFile.ACC_PUBLIC, "<init>",
+				"(" + OBJECT_DESC + ")V", _code);
+
+		String initDesc = "(" +
+				ClassFile.descriptor(Actuator.class) +
+				ClassFile.descriptor(Messenger.class) +
+				ClassFile.descriptor(Investigator.class) + ")V";
+		_code = new ClassFile.Code(_cf, 5);
+		_code.local(ClassFile.ALOAD, 0);
+		_code.local(ClassFile.ALOAD, 1);
+		_code.invoke(ClassFile.INVOKESPECIAL, sname, "<init>",
+				"(" + OBJECT_DESC + ")V");
+		for (int i = 0; i < 4; i++) {
+			_code.local(ClassFile.ALOAD, i == 0 ? 0 : i + 1);
+		}
+		_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "init", initDesc);
+		_code.op(ClassFile.RETURN, 0);
+		_cf.addMethod(ClassFile.ACC_PUBLIC, "<init>",
+				"(" + OBJECT_DESC + initDesc.substring(1), _code);
+
+		// the initial facts
+		_code = new ClassFile.Code(_cf, 2);
+		for (Iterator i = _tree.getFacts().iterator(); i.hasNext(); ) {
+			Sentence s = (Sentence)i.next();
+			_code.local(ClassFile.ALOAD, 1);
+			_code.iconst(s.getAttitude());
+			_code.sconst(s.getName());
+			createTerms(s.getTerms(), false);
+			_code.invoke(ClassFile.INVOKEINTERFACE, KB, "add",
+					TRIPLE_DESC + ")Z");
+			_code.op(ClassFile.POP, -1);
+		}
+		_code.op(ClassFile.RETURN, 0);
+		_cf.addMethod(ClassFile.ACC_PROTECTED, "initKnowledgeBase",
+				"(" + KB_DESC + ")V", _code);
+
+		// the attitude definitions
+		int maxAttitude = 0;
+		for (Iterator i = _tree.getAttitudes().values().iterator();
+				i.hasNext(); ) {
+			maxAttitude = Math.max(maxAttitude,
+					((Integer)i.next()).intValue());
+		}
+		_code = new ClassFile.Code(_cf, 1);
+		_code.iconst(maxAttitude);
+		_code.op(ClassFile.IRETURN, -1);
+		_cf.addMethod(ClassFile.ACC_PUBLIC, "getMaxAttitude", "()I", _code);
+
+		// the procedures
+		for (Iterator it = _tree.getProcedures().entrySet().iterator();
+				it.hasNext(); ) {
+			Map.Entry e = (Map.Entry)it.next();
+			ParseTree.ProcedureSignature sig =
+					(ParseTree.ProcedureSignature)e.getKey();
+			if (!_tree.isExternalProcedure(sig)) {
+				generateProcedure(sig, (List)e.getValue());
+			}
+		}
+
+		// the static initializer, which creates the pooled constants
+		if (_clinit.length() > 0) {
+			_clinit.op(ClassFile.RETURN, 0);
+			_cf.addMethod(ClassFile.ACC_STATIC, "<clinit>", "()V", _clinit);
+		}
+
+		return _cf.toByteArray();
+	}
+
+
+	// generate a procedure
+	private void generateProcedure(ParseTree.ProcedureSignature sig,
+			List block) {
+		List params = sig.getParameters();
+		StringBuffer desc = new StringBuffer("(").append(MAP_DESC);
+		_code = new ClassFile.Code(_cf, 2 + params.size());
+		_locals = new HashMap();
+		_locals.put(MESSAGE_MAP_NAME, Integer.valueOf(1));
+		for (int i = 0, max = params.size(); i < max; i++) {
+			_locals.put(((Variable)params.get(i)).toJavaExpression(),
+					Integer.valueOf(i + 2));
+			desc.append(OBJECT_DESC);
+		}
+		desc.append(')').append(OBJECT_DESC);
+		_monitors = new ArrayList();
+
+		int bsize = block.size();
+		for (int i = 0; i < bsize; i++) {
+			generateStatement((Statement)block.get(i), 2);
+		}
+		if (bsize == 0 ||
+				!(block.get(bsize - 1) instanceof ReturnStatement)) {
+			_code.op(ClassFile.ACONST_NULL, 1);
+			_code.op(ClassFile.ARETURN, -1);
+		}
+
+		// initialize the knowledge base and the cursors at the start of
+		// the procedure, like the declarations of the Java code
+		ClassFile.Code body = _code;
+		_code = new ClassFile.Code(_cf, 0);
+		for (Iterator i = _locals.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			String name = (String)e.getKey();
+			int index = ((Integer)e.getValue()).intValue();
+			if (name.equals(TEMP_KB_NAME)) {
+				_code.local(ClassFile.ALOAD, 0);
+				_code.invoke(ClassFile.INVOKEVIRTUAL, _this,
+						"getKnowledgeBase", "()" + KB_DESC);
+				_code.local(ClassFile.ASTORE, index);
+			}
+			else if (name.startsWith(MATCH_CURSOR_NAME)) {
+				_code.op(ClassFile.ACONST_NULL, 1);
+				_code.local(ClassFile.ASTORE, index);
+			}
+		}
+		body.prepend(_code);
+		_code = body;
+
+		_cf.addMethod(ClassFile.ACC_PUBLIC, sig.getName(), desc.toString(),
+				_code);
+	}
+
+
+	// generate code for a statement
+	private void generateStatement(Statement s, int indentLevel) {
+		if (s instanceof IfStatement) {
+			generateIf((IfStatement)s, indentLevel);
+		}
+		else if (s instanceof MessageRule) {
+			generateMessageRule((MessageRule)s, indentLevel);
+		}
+		else if (s instanceof MessageSwitch) {
+			generateMessageSwitch((MessageSwitch)s, indentLevel);
+		}
+		else if (s instanceof LockedStatement) {
+			generateLocked((LockedStatement)s, indentLevel);
+		}
+		else if (s instanceof MentalUpdateStatement) {
+			generateMentalUpdate((MentalUpdateStatement)s);
+		}
+		else if (s instanceof SayStatement) {
+			generateSay((SayStatement)s);
+		}
+		else if (s instanceof LetStatement) {
+			LetStatement let = (LetStatement)s;
+			generateValue(let.getBinding());
+			storeVariable(let.getVariable());
+		}
+		else if (s instanceof Assignment) {
+			Assignment a = (Assignment)s;
+			generateValue(a.getBinding());
+			storeVariable(a.getVariable());
+		}
+		else if (s instanceof ReturnStatement) {
+			Expression e = ((ReturnStatement)s).getExpression();
+			if (e == null) {
+				_code.op(ClassFile.ACONST_NULL, 1);
+			}
+			else {
+				generateValue(e);
+			}
+
+			// release the locks, innermost first
+			for (int i = _monitors.size() - 1; i >= 0; i--) {
+				_code.local(ClassFile.ALOAD,
+						((Integer)_monitors.get(i)).intValue());
+				_code.op(ClassFile.MONITOREXIT, -1);
+			}
+			_code.op(ClassFile.ARETURN, -1);
+		}
+		else if (s instanceof Action) {
+			generateAction((Action)s);
+			_code.op(ClassFile.POP, -1);
+		}
+		else if (s instanceof ProcedureCall) {
+			generateValue((ProcedureCall)s);
+			_code.op(ClassFile.POP, -1);
+		}
+		else {
+			throw new IllegalArgumentException(s.getClass().getName());
+		}
+	}
+
+
+	// generate code for an IF statement; see IfStatement.generateCode
+	private void generateIf(IfStatement s, int indentLevel) {
+		int matched = _code.newLocal();
+		_code.iconst(0);
+		_code.local(ClassFile.ISTORE, matched);
+
+		ClassFile.Label end = new ClassFile.Label();
+		List conditions = s.getConditions();
+		List blocks = s.getBlocks();
+		for (int i = 0, max = blocks.size(); i < max; i++) {
+			List l = (List)conditions.get(i);
+			List block = (List)blocks.get(i);
+			if (l != null) {
+				// a failed condition continues at the end of the branch
+				ClassFile.Label next = new ClassFile.Label();
+				generateConditions(l.iterator(), block, next,
+						indentLevel + 2, matched);
+				_code.place(next);
+			}
+			else {
+				generateBody(block, indentLevel + 1, matched);
+			}
+
+			// terminate the statement if the branch matched
+			if (i < max - 1) {
+				_code.local(ClassFile.ILOAD, matched);
+				_code.jump(ClassFile.IFNE, end);
+			}
+		}
+		_code.place(end);
+	}
+
+
+	// generate code for the body of a branch
+	private void generateBody(List block, int indentLevel, int matched) {
+		_code.iconst(1);
+		_code.local(ClassFile.ISTORE, matched);
+		for (Iterator i = block.iterator(); i.hasNext(); ) {
+			generateStatement((Statement)i.next(), indentLevel);
+		}
+	}
+
+
+	// generate code for the remaining conditions of a branch, and for its
+	// body; see IfStatement.generateConditionCode
+	// next: the label at which the code continues if a condition fails
+	private void generateConditions(Iterator it, List block,
+			ClassFile.Label next, int indentLevel, int matched) {
+		if (!it.hasNext()) {
+			generateBody(block, indentLevel, matched);
+			return;
+		}
+
+		Condition c = (Condition)it.next();
+		if (!(c instanceof Sentence) || ((Sentence)c).isSimple()) {
+			Variable alias = c instanceof Sentence ?
+					((Sentence)c).getAlias() : null;
+			if (alias == null) {
+				generateJump(c, true, next);
+			}
+			else {
+				// instantiate the fact, and bind it to the alias
+				int fact = getLocal(TEMP_FACT_NAME);
+				generateFact((Sentence)c, false);
+				_code.local(ClassFile.ASTORE, fact);
+				_code.local(ClassFile.ALOAD, getLocal(TEMP_KB_NAME));
+				_code.local(ClassFile.ALOAD, fact);
+				_code.invoke(ClassFile.INVOKEINTERFACE, KB, "contains",
+						"(" + FACT_DESC + ")Z");
+				_code.jump(ClassFile.IFEQ, next);
+				_code.local(ClassFile.ALOAD, fact);
+				storeVariable(alias);
+			}
+			generateConditions(it, block, next, indentLevel, matched);
+			return;
+		}
+
+		// c is a sentence containing variable declarations; match it,
+		// reusing the cursor from a previous match at the same level
+		Sentence s = (Sentence)c;
+		int cursor = getLocal(MATCH_CURSOR_NAME + indentLevel);
+		_code.local(ClassFile.ALOAD, getLocal(TEMP_KB_NAME));
+		generateTriple(s);
+		generateBitSet(s.getVardefIndices());
+		_code.local(ClassFile.ALOAD, cursor);
+		_code.invoke(ClassFile.INVOKEINTERFACE, KB, "matchCursor",
+				TRIPLE_DESC + BITSET_DESC + CURSOR_DESC + ")" +
+				CURSOR_DESC);
+		_code.local(ClassFile.ASTORE, cursor);
+
+		// the iteration loop
+		ClassFile.Label loop = new ClassFile.Label();
+		ClassFile.Label done = new ClassFile.Label();
+		_code.place(loop);
+		_code.local(ClassFile.ALOAD, cursor);
+		_code.invoke(ClassFile.INVOKEINTERFACE, CURSOR, "next", "()Z");
+		_code.jump(ClassFile.IFEQ, done);
+
+		// bind the new variables
+		for (Iterator i = s.getVardefIndices().iterator(); i.hasNext(); ) {
+			int idx = ((Integer)i.next()).intValue();
+			Variable v = (Variable)s.getTerm(idx);
+			if (!v.isWildcard()) {
+				_code.local(ClassFile.ALOAD, cursor);
+				_code.iconst(idx);
+				_code.invoke(ClassFile.INVOKEINTERFACE, CURSOR, "getTerm",
+						"(I)" + OBJECT_DESC);
+				storeVariable(v);
+			}
+		}
+		Variable alias = s.getAlias();
+		if (alias != null) {
+			_code.local(ClassFile.ALOAD, cursor);
+			_code.invoke(ClassFile.INVOKEINTERFACE, CURSOR, "getFact",
+					"()" + FACT_DESC);
+			storeVariable(alias);
+		}
+
+		// a failed condition inside the loop continues with the next match
+		generateConditions(it, block, loop, indentLevel + 1, matched);
+		_code.jump(ClassFile.GOTO, loop);
+		_code.place(done);
+	}
+
+
+	// generate code which jumps to the target iff the Java condition of
+	// c is true; see Condition.toJavaCondition
+	private void generateJump(Condition c, boolean negated,
+			ClassFile.Label target) {
+		if (c instanceof NotCondition) {
+			generateJump(((NotCondition)c).getCondition(), !negated, target);
+		}
+		else if (c instanceof Action) {
+			generateAction((Action)c);
+			_code.jump(negated ? ClassFile.IFEQ : ClassFile.IFNE, target);
+		}
+		else if (c instanceof Sentence) {
+			_code.local(ClassFile.ALOAD, getLocal(TEMP_KB_NAME));
+			generateTriple((Sentence)c);
+			_code.invoke(ClassFile.INVOKEINTERFACE, KB, "contains",
+					TRIPLE_DESC + ")Z");
+			_code.jump(negated ? ClassFile.IFEQ : ClassFile.IFNE, target);
+		}
+		else if (c instanceof Comparison) {
+			Comparison cmp = (Comparison)c;
+			int id = cmp.getComparator();
+			if (id == COMP_EQ || id == COMP_NE) {
+				_code.local(ClassFile.ALOAD, 0);
+				generateValue(cmp.getLeft());
+				generateValue(cmp.getRight());
+				_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "isEqual",
+						"(" + OBJECT_DESC + OBJECT_DESC + ")Z");
+				_code.jump((id == COMP_NE ^ negated) ?
+						ClassFile.IFEQ : ClassFile.IFNE, target);
+			}
+			else {
+				if (negated) {
+					id = id == COMP_LT ? COMP_GE : id == COMP_LE ? COMP_GT :
+							id == COMP_GE ? COMP_LT : COMP_LE;
+				}
+
+				// see Comparison.toJavaCondition
+				int t1 = cmp.getLeftType();
+				int t2 = cmp.getRightType();
+				if (t1 == TYPE_INT && t2 == TYPE_INT) {
+					generateInt(cmp.getLeft());
+					generateInt(cmp.getRight());
+					_code.jump(id == COMP_LT ? ClassFile.IF_ICMPLT :
+							id == COMP_LE ? ClassFile.IF_ICMPLE :
+							id == COMP_GE ? ClassFile.IF_ICMPGE :
+							ClassFile.IF_ICMPGT, target);
+					return;
+				}
+
+				if (t1 >= 0 && t2 >= 0) {
+					generateDouble(cmp.getLeft());
+					generateDouble(cmp.getRight());
+					_code.invoke(ClassFile.INVOKESTATIC, "java/lang/Double",
+							"compare", "(DD)I");
+				}
+				else {
+					generateValue(cmp.getLeft());
+					generateValue(cmp.getRight());
+					_code.invoke(ClassFile.INVOKESTATIC, ACME,
+							"compareValues", "(" + OBJECT_DESC +
+							OBJECT_DESC + ")I");
+				}
+				_code.jump(id == COMP_LT ? ClassFile.IFLT :
+						id == COMP_LE ? ClassFile.IFLE :
+						id == COMP_GE ? ClassFile.IFGE : ClassFile.IFGT,
+						target);
+			}
+		}
+		else {
+			throw new IllegalArgumentException(c.getClass().getName());
+		}
+	}
+
+
+	// generate code for a message rule; see MessageRule.generateCode
+	private void generateMessageRule(MessageRule r, int indentLevel) {
+		Map guard = r.getGuard();
+		ClassFile.Label end = new ClassFile.Label();
+		_code.local(ClassFile.ALOAD, 1);
+		_code.jump(guard == null ? ClassFile.IFNONNULL : ClassFile.IFNULL,
+				end);
+
+		// match every guard condition; a failed match terminates the rule
+		if (guard != null) {
+			for (Iterator i = guard.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry e = (Map.Entry)i.next();
+				String key = (String)e.getKey();
+				Value v = (Value)e.getValue();
+
+				_code.local(ClassFile.ALOAD, 1);
+				_code.sconst(key);
+				_code.invoke(ClassFile.INVOKEINTERFACE, MAP, "containsKey",
+						"(" + OBJECT_DESC + ")Z");
+				_code.jump(ClassFile.IFEQ, end);
+
+				if ((v instanceof Variable) && ((Variable)v).isWildcard()) {
+					continue;
+				}
+
+				int obj = getLocal(TEMP_OBJ_NAME);
+				_code.local(ClassFile.ALOAD, 1);
+				_code.sconst(key);
+				_code.invoke(ClassFile.INVOKEINTERFACE, MAP, "get",
+						"(" + OBJECT_DESC + ")" + OBJECT_DESC);
+				_code.local(ClassFile.ASTORE, obj);
+
+				if (v instanceof Sentence) {
+					Sentence s = (Sentence)v;
+					int fact = getLocal(TEMP_FACT_NAME);
+					_code.local(ClassFile.ALOAD, obj);
+					_code.type(ClassFile.INSTANCEOF, FACT);
+					_code.jump(ClassFile.IFEQ, end);
+					_code.local(ClassFile.ALOAD, obj);
+					_code.type(ClassFile.CHECKCAST, FACT);
+					_code.local(ClassFile.ASTORE, fact);
+
+					_code.local(ClassFile.ALOAD, fact);
+					generateTriple(s);
+					List l = s.getVardefIndices();
+					if (!s.isSimple()) {
+						generateBitSet(l);
+						_code.invoke(ClassFile.INVOKEVIRTUAL, FACT,
+								"matches", TRIPLE_DESC + BITSET_DESC + ")Z");
+					}
+					else {
+						_code.invoke(ClassFile.INVOKEVIRTUAL, FACT,
+								"equals", TRIPLE_DESC + ")Z");
+					}
+					_code.jump(ClassFile.IFEQ, end);
+
+					// bind the new variables, and the alias
+					for (Iterator it = l.iterator(); it.hasNext(); ) {
+						int idx = ((Integer)it.next()).intValue();
+						_code.local(ClassFile.ALOAD, fact);
+						_code.iconst(idx);
+						_code.invoke(ClassFile.INVOKEVIRTUAL, FACT, "getTerm",
+								"(I)" + OBJECT_DESC);
+						storeVariable((Variable)s.getTerm(idx));
+					}
+					if (s.getAlias() != null) {
+						_code.local(ClassFile.ALOAD, fact);
+						storeVariable(s.getAlias());
+					}
+				}
+				else if ((v instanceof Variable) && ((Variable)v).isDef()) {
+					_code.local(ClassFile.ALOAD, obj);
+					storeVariable((Variable)v);
+				}
+				else {
+					_code.local(ClassFile.ALOAD, 0);
+					_code.local(ClassFile.ALOAD, obj);
+					generateValue(v);
+					_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "isEqual",
+							"(" + OBJECT_DESC + OBJECT_DESC + ")Z");
+					_code.jump(ClassFile.IFEQ, end);
+				}
+			}
+		}
+
+		for (Iterator i = r.getBlock().iterator(); i.hasNext(); ) {
+			generateStatement((Statement)i.next(), indentLevel + 1);
+		}
+		_code.place(end);
+	}
+
+
+	// generate code for a sequence of message rules dispatched on a key;
+	// see MessageSwitch.generateCode
+	private void generateMessageSwitch(MessageSwitch s, int indentLevel) {
+		ClassFile.Label end = new ClassFile.Label();
+		_code.local(ClassFile.ALOAD, 1);
+		_code.jump(ClassFile.IFNULL, end);
+
+		// look up the index of the case in a pooled map
+		List exprs = s.getExpressions();
+		Object key = Arrays.asList(new Object[] {"Map", s.getValues()});
+		String field = (String)_pool.get(key);
+		if (field == null) {
+			field = declareConstant(key, MAP_DESC);
+			_code.iconst(exprs.size());
+			_code.type(ClassFile.ANEWARRAY, OBJECT);
+			for (int i = 0, max = exprs.size(); i < max; i++) {
+				_code.op(ClassFile.DUP, 1);
+				_code.iconst(i);
+				generateValue((Value)exprs.get(i));
+				_code.op(ClassFile.AASTORE, -3);
+			}
+			_code.invoke(ClassFile.INVOKESTATIC, UTIL, "toIndexMap",
+					"(" + TERMS_DESC + ")" + MAP_DESC);
+			_code.field(ClassFile.PUTSTATIC, _this, field, MAP_DESC);
+			_code = restoreCode();
+		}
+		_code.field(ClassFile.GETSTATIC, _this, field, MAP_DESC);
+		_code.local(ClassFile.ALOAD, 1);
+		_code.sconst(s.getKey());
+		_code.invoke(ClassFile.INVOKEINTERFACE, MAP, "get",
+				"(" + OBJECT_DESC + ")" + OBJECT_DESC);
+		_code.invoke(ClassFile.INVOKEINTERFACE, MAP, "get",
+				"(" + OBJECT_DESC + ")" + OBJECT_DESC);
+		int obj = getLocal(TEMP_OBJ_NAME);
+		_code.local(ClassFile.ASTORE, obj);
+		_code.local(ClassFile.ALOAD, obj);
+		_code.jump(ClassFile.IFNULL, end);
+		_code.local(ClassFile.ALOAD, obj);
+		_code.type(ClassFile.CHECKCAST, "java/lang/Integer");
+		_code.invoke(ClassFile.INVOKEVIRTUAL, "java/lang/Integer",
+				"intValue", "()I");
+
+		List cases = s.getCases();
+		ClassFile.Label[] targets = new ClassFile.Label[cases.size()];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = new ClassFile.Label();
+		}
+		_code.tableSwitch(end, targets);
+		for (int i = 0; i < targets.length; i++) {
+			_code.place(targets[i]);
+			List rules = (List)cases.get(i);
+			for (int j = 0, max = rules.size(); j < max; j++) {
+				generateMessageRule((MessageRule)rules.get(j),
+						indentLevel + 1);
+			}
+			_code.jump(ClassFile.GOTO, end);
+		}
+		_code.place(end);
+	}
+
+
+	// generate code for a LOCKED statement, which is synchronized on the
+	// lock of the knowledge base
+	private void generateLocked(LockedStatement s, int indentLevel) {
+		int lock = _code.newLocal();
+		_code.local(ClassFile.ALOAD, getLocal(TEMP_KB_NAME));
+		_code.invoke(ClassFile.INVOKEINTERFACE, KB, "getLock",
+				"()" + OBJECT_DESC);
+		_code.op(ClassFile.DUP, 1);
+		_code.local(ClassFile.ASTORE, lock);
+		_code.op(ClassFile.MONITORENTER, -1);
+
+		int start = _code.length();
+		_monitors.add(Integer.valueOf(lock));
+		for (Iterator i = s.getBlock().iterator(); i.hasNext(); ) {
+			generateStatement((Statement)i.next(), indentLevel + 1);
+		}
+		_monitors.remove(_monitors.size() - 1);
+		_code.local(ClassFile.ALOAD, lock);
+		_code.op(ClassFile.MONITOREXIT, -1);
+		int end = _code.length();
+		ClassFile.Label after = new ClassFile.Label();
+		_code.jump(ClassFile.GOTO, after);
+
+		// release the lock if an exception is thrown
+		int handler = _code.length();
+		int exception = _code.newLocal();
+		_code.enterHandler();
+		_code.local(ClassFile.ASTORE, exception);
+		_code.local(ClassFile.ALOAD, lock);
+		_code.op(ClassFile.MONITOREXIT, -1);
+		int handlerEnd = _code.length();
+		_code.local(ClassFile.ALOAD, exception);
+		_code.op(ClassFile.ATHROW, -1);
+		_code.addHandler(start, end, handler);
+		_code.addHandler(handler, handlerEnd, handler);
+		_code.place(after);
+	}
+
+
+	// generate code for an ADOPT or DROP statement; see
+	// MentalUpdateStatement.generateCode
+	private void generateMentalUpdate(MentalUpdateStatement m) {
+		String method = m.isAdopt() ? "add" : "remove";
+		_code.local(ClassFile.ALOAD, getLocal(TEMP_KB_NAME));
+		if (m.getValue() instanceof Sentence) {
+			Sentence s = (Sentence)m.getValue();
+			List vdefs = s.getVardefIndices();
+			generateTriple(s);
+			if (vdefs.size() > 0) {
+				generateBitSet(vdefs);
+				_code.invoke(ClassFile.INVOKEINTERFACE, KB, method,
+						TRIPLE_DESC + BITSET_DESC + ")I");
+			}
+			else {
+				_code.invoke(ClassFile.INVOKEINTERFACE, KB, method,
+						TRIPLE_DESC + ")Z");
+			}
+		}
+		else {
+			generateValue(m.getValue());
+			_code.type(ClassFile.CHECKCAST, FACT);
+			_code.invoke(ClassFile.INVOKEINTERFACE, KB, method,
+					"(" + FACT_DESC + ")Z");
+		}
+		_code.op(ClassFile.POP, -1);
+	}
+
+
+	// generate code for a SAY statement; see SayStatement.generateCode
+	private void generateSay(SayStatement s) {
+		Map pattern = s.getPattern();
+		if (pattern == null) {
+			// nothing is said
+			return;
+		}
+
+		int map = getLocal(TEMP_MAP_NAME);
+		_code.type(ClassFile.NEW, "java/util/HashMap");
+		_code.op(ClassFile.DUP, 1);
+		_code.iconst(2 * pattern.size());
+		_code.invoke(ClassFile.INVOKESPECIAL, "java/util/HashMap", "<init>",
+				"(I)V");
+		_code.local(ClassFile.ASTORE, map);
+		for (Iterator i = pattern.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			_code.local(ClassFile.ALOAD, map);
+			_code.sconst("" + e.getKey());
+			generateValue((Value)e.getValue());
+			_code.invoke(ClassFile.INVOKEINTERFACE, MAP, "put",
+					"(" + OBJECT_DESC + OBJECT_DESC + ")" + OBJECT_DESC);
+			_code.op(ClassFile.POP, -1);
+		}
+		_code.local(ClassFile.ALOAD, 0);
+		_code.local(ClassFile.ALOAD, map);
+		_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "send",
+				"(" + MAP_DESC + ")V");
+	}
+
+
+	// generate code which invokes an action, leaving its boolean result
+	// on the stack
+	private void generateAction(Action a) {
+		_code.local(ClassFile.ALOAD, 0);
+		_code.sconst(a.getName());
+		createTerms(a.getTerms(), false);
+		_code.invoke(ClassFile.INVOKEVIRTUAL, _this,
+				a.isDo() ? "doAction" : "xeqAction",
+				"(" + STRING_DESC + TERMS_DESC + ")Z");
+	}
+
+
+	// generate code which pushes a value; see Value.toJavaExpression
+	private void generateValue(Value v) {
+		if (v instanceof Variable) {
+			_code.local(ClassFile.ALOAD,
+					getLocal(((Variable)v).toJavaExpression()));
+		}
+		else if (v instanceof Literal) {
+			Literal l = (Literal)v;
+			if (l.getType() == TYPE_STRING) {
+				createLiteral(l);
+			}
+			else {
+				// numbers are boxed once, in a pooled constant
+				String desc = "Ljava/lang/" + l.getJavaType() + ";";
+				String field = (String)_pool.get(l);
+				if (field == null) {
+					field = declareConstant(l, desc);
+					createLiteral(l);
+					_code.field(ClassFile.PUTSTATIC, _this, field, desc);
+					_code = restoreCode();
+				}
+				_code.field(ClassFile.GETSTATIC, _this, field, desc);
+			}
+		}
+		else if (v instanceof Constant) {
+			Constant c = (Constant)v;
+			if (c.isExternal()) {
+				// the field is inherited from the superclass or from an
+				// interface
+				_code.field(ClassFile.GETSTATIC, _this, c.getName(),
+						ClassFile.descriptor(getExternalField(c.getName()).
+								getType()));
+			}
+			else {
+				Literal l = (Literal)_tree.getDefs().get(c.getName());
+				_code.field(ClassFile.GETSTATIC, _this,
+						c.toJavaExpression(),
+						"Ljava/lang/" + l.getJavaType() + ";");
+			}
+		}
+		else if (v instanceof SelfRef) {
+			_code.local(ClassFile.ALOAD, 0);
+			_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "getId",
+					"()" + OBJECT_DESC);
+		}
+		else if (v instanceof Query) {
+			Query q = (Query)v;
+			_code.local(ClassFile.ALOAD, 0);
+			_code.sconst(q.getName());
+			createTerms(q.getTerms(), false);
+			_code.invoke(ClassFile.INVOKEVIRTUAL, _this, "query",
+					"(" + STRING_DESC + TERMS_DESC + ")" + OBJECT_DESC);
+		}
+		else if (v instanceof ProcedureCall) {
+			ProcedureCall p = (ProcedureCall)v;
+			List params = p.getParameters();
+			StringBuffer desc = new StringBuffer("(").append(MAP_DESC);
+			_code.local(ClassFile.ALOAD, 0);
+			_code.local(ClassFile.ALOAD, 1);
+			for (int i = 0, max = params.size(); i < max; i++) {
+				generateValue((Value)params.get(i));
+				desc.append(OBJECT_DESC);
+			}
+			_code.invoke(ClassFile.INVOKEVIRTUAL, _this, p.getName(),
+					desc.append(')').append(OBJECT_DESC).toString());
+		}
+		else if (v instanceof Sentence) {
+			generateFact((Sentence)v, true);
+		}
+		else {
+			throw new IllegalArgumentException(v.getClass().getName());
+		}
+	}
+
+
+	// generate code which pushes the int value of an expression of type
+	// TYPE_INT
+	private void generateInt(Expression e) {
+		if (e instanceof Literal && ((Literal)e).getType() == TYPE_INT) {
+			_code.iconst(((Integer)((Literal)e).getValue()).intValue());
+			return;
+		}
+		generateValue(e);
+		_code.type(ClassFile.CHECKCAST, "java/lang/Integer");
+		_code.invoke(ClassFile.INVOKEVIRTUAL, "java/lang/Integer",
+				"intValue", "()I");
+	}
+
+
+	// generate code which pushes the double value of a numeric expression
+	private void generateDouble(Expression e) {
+		if (e instanceof Literal && ((Literal)e).getType() != TYPE_EXTERNAL) {
+			_code.dconst(((Number)((Literal)e).getValue()).doubleValue());
+			return;
+		}
+		generateValue(e);
+		_code.type(ClassFile.CHECKCAST, "java/lang/Number");
+		_code.invoke(ClassFile.INVOKEVIRTUAL, "java/lang/Number",
+				"doubleValue", "()D");
+	}
+
+
+	// generate code which creates the value of a literal
+	private void createLiteral(Literal l) {
+		switch (l.getType()) {
+		case TYPE_INT:
+			_code.iconst(((Integer)l.getValue()).intValue());
+			_code.invoke(ClassFile.INVOKESTATIC, "java/lang/Integer",
+					"valueOf", "(I)Ljava/lang/Integer;");
+			break;
+		case TYPE_DOUBLE:
+			_code.dconst(((Double)l.getValue()).doubleValue());
+			_code.invoke(ClassFile.INVOKESTATIC, "java/lang/Double",
+					"valueOf", "(D)Ljava/lang/Double;");
+			break;
+		case TYPE_STRING:
+			_code.sconst(AccUtils.decodeStringLiteral(l.getSource()));
+			break;
+		default:
+			throw new InternalError();
+		}
+	}
+
+
+	// generate code which pushes the category, name and terms of a sentence,
+	// using null for the variable defs; see Sentence.makeParameterTriple
+	private void generateTriple(Sentence s) {
+		_code.iconst(s.getAttitude());
+		_code.sconst(s.getName());
+
+		List terms = s.getTerms();
+		if (terms.size() == 0 || !AccUtils.isConstant(terms)) {
+			createTerms(terms, true);
+			return;
+		}
+
+		// the array is created once, in a pooled constant
+		Object key = Arrays.asList(new Object[] {"Object[]", terms});
+		String field = (String)_pool.get(key);
+		if (field == null) {
+			field = declareConstant(key, TERMS_DESC);
+			createTerms(terms, false);
+			_code.field(ClassFile.PUTSTATIC, _this, field, TERMS_DESC);
+			_code = restoreCode();
+		}
+		_code.field(ClassFile.GETSTATIC, _this, field, TERMS_DESC);
+	}
+
+
+	// generate code which creates an array of terms
+	// nullDefs: whether the variable defs should be replaced by null
+	private void createTerms(List terms, boolean nullDefs) {
+		int max = terms.size();
+		if (max == 0) {
+			// avoid instantiating empty arrays in the code
+			_code.field(ClassFile.GETSTATIC, UTIL, "NO_OBJECTS", TERMS_DESC);
+			return;
+		}
+
+		_code.iconst(max);
+		_code.type(ClassFile.ANEWARRAY, OBJECT);
+		for (int i = 0; i < max; i++) {
+			Expression e = (Expression)terms.get(i);
+			if (nullDefs && (e instanceof Variable) &&
+					((Variable)e).isDef()) {
+				// the array already contains null
+				continue;
+			}
+			_code.op(ClassFile.DUP, 1);
+			_code.iconst(i);
+			generateValue(e);
+			_code.op(ClassFile.AASTORE, -3);
+		}
+	}
+
+
+	// generate code which pushes the fact represented by a sentence; see
+	// Sentence.toJavaExpression
+	// pool: whether a ground fact should be pooled
+	private void generateFact(Sentence s, boolean pool) {
+		if (!pool || !AccUtils.isConstant(s.getTerms())) {
+			createFact(s);
+			return;
+		}
+
+		// a ground fact is created once, in a pooled constant
+		Object key = Arrays.asList(new Object[] {"Fact",
+				Integer.valueOf(s.getAttitude()), s.getName(), s.getTerms()});
+		String field = (String)_pool.get(key);
+		if (field == null) {
+			field = declareConstant(key, FACT_DESC);
+			createFact(s);
+			_code.field(ClassFile.PUTSTATIC, _this, field, FACT_DESC);
+			_code = restoreCode();
+		}
+		_code.field(ClassFile.GETSTATIC, _this, field, FACT_DESC);
+	}
+
+
+	// generate code which creates the fact represented by a sentence
+	private void createFact(Sentence s) {
+		_code.type(ClassFile.NEW, FACT);
+		_code.op(ClassFile.DUP, 1);
+		generateTriple(s);
+		_code.invoke(ClassFile.INVOKESPECIAL, FACT, "<init>",
+				TRIPLE_DESC + ")V");
+	}
+
+
+	// generate code which pushes a BitSet of the given positions
+	private void generateBitSet(List indices) {
+		Object key = Arrays.asList(new Object[] {"BitSet", indices});
+		String field = (String)_pool.get(key);
+		if (field == null) {
+			field = declareConstant(key, BITSET_DESC);
+			if (indices.size() == 0) {
+				_code.type(ClassFile.NEW, "java/util/BitSet");
+				_code.op(ClassFile.DUP, 1);
+				_code.iconst(0);
+				_code.invoke(ClassFile.INVOKESPECIAL, "java/util/BitSet",
+						"<init>", "(I)V");
+			}
+			else {
+				_code.iconst(indices.size());
+				_code.intArray();
+				for (int i = 0, max = indices.size(); i < max; i++) {
+					_code.op(ClassFile.DUP, 1);
+					_code.iconst(i);
+					_code.iconst(((Integer)indices.get(i)).intValue());
+					_code.op(ClassFile.IASTORE, -3);
+				}
+				_code.invoke(ClassFile.INVOKESTATIC, UTIL, "toBitSet",
+						"([I)" + BITSET_DESC);
+			}
+			_code.field(ClassFile.PUTSTATIC, _this, field, BITSET_DESC);
+			_code = restoreCode();
+		}
+		_code.field(ClassFile.GETSTATIC, _this, field, BITSET_DESC);
+	}
+
+
+	// declare a pooled constant, and prepare to generate the code which
+	// creates it in the static initializer. The code must be followed by
+	// a call to restoreCode()
+	private String declareConstant(Object key, String desc) {
+		String name = POOL_NAME + _pool.size();
+		_pool.put(key, name);
+		_cf.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC |
+				ClassFile.ACC_FINAL, name, desc);
+		_saved.add(_code);
+		_code = _clinit;
+		return name;
+	}
+
+
+	// return the code which was generated before the last call to
+	// declareConstant()
+	private ClassFile.Code restoreCode() {
+		return (ClassFile.Code)_saved.remove(_saved.size() - 1);
+	}
+
+
+	// store the value on the stack in a variable
+	private void storeVariable(Variable v) {
+		_code.local(ClassFile.ASTORE, getLocal(v.isWildcard() ?
+				TEMP_OBJ_NAME : v.toJavaExpression()));
+	}
+
+
+	// return the index of the local variable having the given Java name,
+	// which is allocated if necessary
+	private int getLocal(String name) {
+		Integer index = (Integer)_locals.get(name);
+		if (index == null) {
+			index = Integer.valueOf(_code.newLocal());
+			_locals.put(name, index);
+		}
+		return index.intValue();
+	}
+
+
+	// find a constant field of the superclass or of an interface
+	private Field getExternalField(String name) {
+		List classes = new ArrayList(Arrays.asList(_ifs));
+		classes.add(0, _superclass);
+		for (Iterator i = classes.iterator(); i.hasNext(); ) {
+			for (Class c = (Class)i.next(); c != null;
+					c = c.getSuperclass()) {
+				try {
+					return c.getField(name);
+				}
+				catch (NoSuchFieldException e) {
+				}
+				try {
+					return c.getDeclaredField(name);
+				}
+				catch (NoSuchFieldException e) {
+				}
+			}
+		}
+		throw new IllegalStateException("Unknown constant " + name);
+	}
+}
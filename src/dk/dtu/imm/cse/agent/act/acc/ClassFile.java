@@ -0,0 +1,859 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * A minimal writer of Java class files, which supports the features needed
+ * by the {@link BytecodeGenerator}. The classes are written in the version
+ * 49.0 format, which does not require stack map frames; hence the code of a
+ * method can be written in a single pass.
+ * <p>
+ * Class names are given in the internal form, e.g.
+ * <code>java/lang/Object</code>, and types as descriptors, e.g.
+ * <code>Ljava/lang/Object;</code>.
+ *
+ * @author  Henrik Lauritzen
+ */
+final class ClassFile {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// the access flags
+	final static int ACC_PUBLIC = 0x0001;
+	final static int ACC_PRIVATE = 0x0002;
+	final static int ACC_PROTECTED = 0x0004;
+	final static int ACC_STATIC = 0x0008;
+	final static int ACC_FINAL = 0x0010;
+	final static int ACC_SUPER = 0x0020;
+
+	// the opcodes which are used by the generator
+	final static int NOP = 0x00;
+	final static int ACONST_NULL = 0x01;
+	final static int ICONST_0 = 0x03;
+	final static int BIPUSH = 0x10;
+	final static int SIPUSH = 0x11;
+	final static int LDC = 0x12;
+	final static int LDC_W = 0x13;
+	final static int LDC2_W = 0x14;
+	final static int ILOAD = 0x15;
+	final static int ALOAD = 0x19;
+	final static int ISTORE = 0x36;
+	final static int ASTORE = 0x3a;
+	final static int IASTORE = 0x4f;
+	final static int AASTORE = 0x53;
+	final static int POP = 0x57;
+	final static int DUP = 0x59;
+	final static int IFEQ = 0x99;
+	final static int IFNE = 0x9a;
+	final static int IFLT = 0x9b;
+	final static int IFGE = 0x9c;
+	final static int IFGT = 0x9d;
+	final static int IFLE = 0x9e;
+	final static int IF_ICMPLT = 0xa1;
+	final static int IF_ICMPGE = 0xa2;
+	final static int IF_ICMPGT = 0xa3;
+	final static int IF_ICMPLE = 0xa4;
+	final static int GOTO = 0xa7;
+	final static int TABLESWITCH = 0xaa;
+	final static int IRETURN = 0xac;
+	final static int ARETURN = 0xb0;
+	final static int RETURN = 0xb1;
+	final static int GETSTATIC = 0xb2;
+	final static int PUTSTATIC = 0xb3;
+	final static int INVOKEVIRTUAL = 0xb6;
+	final static int INVOKESPECIAL = 0xb7;
+	final static int INVOKESTATIC = 0xb8;
+	final static int INVOKEINTERFACE = 0xb9;
+	final static int NEW = 0xbb;
+	final static int NEWARRAY = 0xbc;
+	final static int ANEWARRAY = 0xbd;
+	final static int ATHROW = 0xbf;
+	final static int CHECKCAST = 0xc0;
+	final static int INSTANCEOF = 0xc1;
+	final static int MONITORENTER = 0xc2;
+	final static int MONITOREXIT = 0xc3;
+	final static int WIDE = 0xc4;
+	final static int IFNULL = 0xc6;
+	final static int IFNONNULL = 0xc7;
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	/**
+	 * Creates a new, empty class.
+	 * @param name the name of the class
+	 * @param superName the name of the superclass
+	 * @param interfaces the names of the implemented interfaces
+	 * @param access the access flags of the class
+	 */
+	ClassFile(String name, String superName, String[] interfaces,
+			int access) {
+		_access = access;
+		_this = classRef(name);
+		_super = classRef(superName);
+		_interfaces = new int[interfaces.length];
+		for (int i = 0; i < interfaces.length; i++) {
+			_interfaces[i] = classRef(interfaces[i]);
+		}
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * Declares a field.
+	 */
+	void addField(int access, String name, String desc) {
+		try {
+			_fieldCount++;
+			_fields.writeShort(access);
+			_fields.writeShort(utf8(name));
+			_fields.writeShort(utf8(desc));
+			_fields.writeShort(0);
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	/**
+	 * Declares a method.
+	 * @param code the code of the method, which must be complete
+	 */
+	void addMethod(int access, String name, String desc, Code code) {
+		try {
+			byte[] b = code.toByteArray();
+			_methodCount++;
+			_methods.writeShort(access);
+			_methods.writeShort(utf8(name));
+			_methods.writeShort(utf8(desc));
+			_methods.writeShort(1);
+			_methods.writeShort(utf8("Code"));
+			_methods.writeInt(12 + b.length + 8 * code._handlers.size());
+			_methods.writeShort(code._maxStack);
+			_methods.writeShort(code._maxLocals);
+			_methods.writeInt(b.length);
+			_methods.write(b);
+			_methods.writeShort(code._handlers.size());
+			for (Iterator i = code._handlers.iterator(); i.hasNext(); ) {
+				int[] h = (int[])i.next();
+				_methods.writeShort(h[0]);
+				_methods.writeShort(h[1]);
+				_methods.writeShort(h[2]);
+				_methods.writeShort(0);
+			}
+			_methods.writeShort(0);
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	/**
+	 * @return the contents of the class file.
+	 */
+	byte[] toByteArray() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(_poolCount);
+			_poolBytes.writeTo(out);
+			out.writeShort(_access);
+			out.writeShort(_this);
+			out.writeShort(_super);
+			out.writeShort(_interfaces.length);
+			for (int i = 0; i < _interfaces.length; i++) {
+				out.writeShort(_interfaces[i]);
+			}
+			out.writeShort(_fieldCount);
+			_fieldBytes.writeTo(out);
+			out.writeShort(_methodCount);
+			_methodBytes.writeTo(out);
+			out.writeShort(0);
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	/**
+	 * @return the constant pool index of a class.
+	 */
+	int classRef(String name) {
+		return constant("C" + name, 7, utf8(name), -1);
+	}
+
+
+	/**
+	 * @return the constant pool index of a String.
+	 */
+	int stringRef(String value) {
+		return constant("S" + value, 8, utf8(value), -1);
+	}
+
+
+	/**
+	 * @return the constant pool index of an int.
+	 */
+	int intRef(int value) {
+		Object key = "I" + value;
+		Integer index = (Integer)_pool.get(key);
+		if (index != null) {
+			return index.intValue();
+		}
+		try {
+			_pool.put(key, Integer.valueOf(_poolCount));
+			_constants.writeByte(3);
+			_constants.writeInt(value);
+			return _poolCount++;
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	/**
+	 * @return the constant pool index of a double.
+	 */
+	int doubleRef(double value) {
+		long bits = Double.doubleToLongBits(value);
+		Object key = "D" + bits;
+		Integer index = (Integer)_pool.get(key);
+		if (index != null) {
+			return index.intValue();
+		}
+		try {
+			_pool.put(key, Integer.valueOf(_poolCount));
+			_constants.writeByte(6);
+			_constants.writeLong(bits);
+
+			// a double occupies two entries
+			_poolCount += 2;
+			return _poolCount - 2;
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	/**
+	 * @return the constant pool index of a field.
+	 */
+	int fieldRef(String owner, String name, String desc) {
+		return member(9, owner, name, desc);
+	}
+
+
+	/**
+	 * @return the constant pool index of a method of a class.
+	 */
+	int methodRef(String owner, String name, String desc) {
+		return member(10, owner, name, desc);
+	}
+
+
+	/**
+	 * @return the constant pool index of a method of an interface.
+	 */
+	int interfaceMethodRef(String owner, String name, String desc) {
+		return member(11, owner, name, desc);
+	}
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	/**
+	 * @return the internal name of a class.
+	 */
+	static String internalName(String className) {
+		return className.replace('.', '/');
+	}
+
+
+	/**
+	 * @return the descriptor of a type.
+	 */
+	static String descriptor(Class type) {
+		if (type.isArray()) {
+			return internalName(type.getName());
+		}
+		else if (!type.isPrimitive()) {
+			return "L" + internalName(type.getName()) + ";";
+		}
+		else if (type == Integer.TYPE) {
+			return "I";
+		}
+		else if (type == Double.TYPE) {
+			return "D";
+		}
+		else if (type == Boolean.TYPE) {
+			return "Z";
+		}
+		else if (type == Void.TYPE) {
+			return "V";
+		}
+		else if (type == Long.TYPE) {
+			return "J";
+		}
+		else if (type == Float.TYPE) {
+			return "F";
+		}
+		else if (type == Short.TYPE) {
+			return "S";
+		}
+		else if (type == Byte.TYPE) {
+			return "B";
+		}
+		else {
+			return "C";
+		}
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// maps the keys of the constants to their indices
+	private Map _pool = new HashMap();
+
+	// the encoded constant pool, and the index of the next constant
+	private ByteArrayOutputStream _poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream _constants = new DataOutputStream(_poolBytes);
+	private int _poolCount = 1;
+
+	// the access flags, the class, the superclass and the interfaces
+	private int _access;
+	private int _this;
+	private int _super;
+	private int[] _interfaces;
+
+	// the encoded fields and methods, and their numbers
+	private ByteArrayOutputStream _fieldBytes = new ByteArrayOutputStream();
+	private DataOutputStream _fields = new DataOutputStream(_fieldBytes);
+	private int _fieldCount = 0;
+	private ByteArrayOutputStream _methodBytes = new ByteArrayOutputStream();
+	private DataOutputStream _methods = new DataOutputStream(_methodBytes);
+	private int _methodCount = 0;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// return the index of a UTF8 constant
+	private int utf8(String value) {
+		Object key = "U" + value;
+		Integer index = (Integer)_pool.get(key);
+		if (index != null) {
+			return index.intValue();
+		}
+		try {
+			_pool.put(key, Integer.valueOf(_poolCount));
+			_constants.writeByte(1);
+			_constants.writeUTF(value);
+			return _poolCount++;
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	// return the index of a constant consisting of one or two indices
+	private int constant(Object key, int tag, int index1, int index2) {
+		Integer index = (Integer)_pool.get(key);
+		if (index != null) {
+			return index.intValue();
+		}
+		try {
+			_pool.put(key, Integer.valueOf(_poolCount));
+			_constants.writeByte(tag);
+			_constants.writeShort(index1);
+			if (index2 >= 0) {
+				_constants.writeShort(index2);
+			}
+			return _poolCount++;
+		}
+		catch (IOException e) {
+			throw new InternalError(e.toString());
+		}
+	}
+
+
+	// return the index of a field or method
+	private int member(int tag, String owner, String name, String desc) {
+		int nameAndType = constant("N" + name + " " + desc, 12,
+				utf8(name), utf8(desc));
+		return constant(tag + owner + "." + name + " " + desc, tag,
+				classRef(owner), nameAndType);
+	}
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	/**
+	 * The code of a method. The maximal depth of the operand stack is
+	 * tracked as instructions are added; the generator must ensure that
+	 * the stack is empty at every label, except at the start of an
+	 * exception handler.
+	 */
+	final static class Code {
+
+		/**
+		 * Creates empty code.
+		 * @param cf the class which will contain the code
+		 * @param locals the number of local variables used by the
+		 *  parameters
+		 */
+		Code(ClassFile cf, int locals) {
+			_cf = cf;
+			_maxLocals = locals;
+		}
+
+
+		/**
+		 * @return the index of a new local variable.
+		 */
+		int newLocal() {
+			return _maxLocals++;
+		}
+
+
+		/**
+		 * @return the current length of the code.
+		 */
+		int length() {
+			return _length;
+		}
+
+
+		/**
+		 * Places a label at the current position.
+		 */
+		void place(Label l) {
+			l._pos = length();
+			for (Iterator i = l._fixups.iterator(); i.hasNext(); ) {
+				Object fixup = i.next();
+				if (fixup instanceof Integer) {
+					setOffset(((Integer)fixup).intValue(), l._pos);
+				}
+				else {
+					int[] f = (int[])fixup;
+					setSwitchOffset(f[0], f[1], l._pos);
+				}
+			}
+			l._fixups = null;
+			_stack = 0;
+		}
+
+
+		/**
+		 * Adds an exception handler catching any exception.
+		 * @param start the position of the first protected instruction
+		 * @param end the position after the last protected instruction
+		 * @param handler the position of the handler
+		 */
+		void addHandler(int start, int end, int handler) {
+			_handlers.add(new int[] {start, end, handler});
+		}
+
+
+		/**
+		 * Indicates that the code at the current position is the start of
+		 * an exception handler, so that the exception is on the stack.
+		 */
+		void enterHandler() {
+			push(1);
+		}
+
+
+		/**
+		 * Adds the given code, which must not contain any exception
+		 * handlers, at the start of this code.
+		 */
+		void prepend(Code c) {
+			if (c._handlers.size() > 0) {
+				throw new IllegalStateException();
+			}
+
+			// keep the alignment of the switches
+			while (c._length % 4 != 0) {
+				c.write(NOP);
+			}
+
+			// the jumps are relative, but the handlers must be moved
+			for (Iterator i = _handlers.iterator(); i.hasNext(); ) {
+				int[] h = (int[])i.next();
+				for (int j = 0; j < h.length; j++) {
+					h[j] += c._length;
+				}
+			}
+			byte[] b = new byte[c._length + _length];
+			System.arraycopy(c._code, 0, b, 0, c._length);
+			System.arraycopy(_code, 0, b, c._length, _length);
+			_code = b;
+			_length = b.length;
+			_maxStack = Math.max(_maxStack, c._maxStack);
+			_maxLocals = Math.max(_maxLocals, c._maxLocals);
+		}
+
+
+		/**
+		 * Adds an instruction which takes no operands.
+		 * @param delta the change of the stack depth
+		 */
+		void op(int opcode, int delta) {
+			write(opcode);
+			push(delta);
+			if (opcode == ATHROW || (opcode >= IRETURN && opcode <= RETURN)) {
+				_stack = 0;
+			}
+		}
+
+
+		/**
+		 * Pushes an int constant.
+		 */
+		void iconst(int value) {
+			if (value >= -1 && value <= 5) {
+				write(ICONST_0 + value);
+			}
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				write(BIPUSH);
+				write(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				write(SIPUSH);
+				writeShort(value);
+			}
+			else {
+				ldc(_cf.intRef(value));
+				return;
+			}
+			push(1);
+		}
+
+
+		/**
+		 * Pushes a double constant.
+		 */
+		void dconst(double value) {
+			write(LDC2_W);
+			writeShort(_cf.doubleRef(value));
+			push(2);
+		}
+
+
+		/**
+		 * Pushes a String constant.
+		 */
+		void sconst(String value) {
+			ldc(_cf.stringRef(value));
+		}
+
+
+		/**
+		 * Adds an instruction which accesses a local variable.
+		 */
+		void local(int opcode, int index) {
+			if (index > 255) {
+				write(WIDE);
+				write(opcode);
+				writeShort(index);
+			}
+			else if (index <= 3) {
+				// use the short form, e.g. aload_0
+				int base = opcode < ISTORE ?
+						0x1a + (opcode - ILOAD) * 4 :
+						0x3b + (opcode - ISTORE) * 4;
+				write(base + index);
+			}
+			else {
+				write(opcode);
+				write(index);
+			}
+			push(opcode < ISTORE ? 1 : -1);
+		}
+
+
+		/**
+		 * Adds an instruction which refers to a class.
+		 */
+		void type(int opcode, String name) {
+			write(opcode);
+			writeShort(_cf.classRef(name));
+			push(opcode == NEW ? 1 : 0);
+		}
+
+
+		/**
+		 * Adds an instruction which creates an int array, whose length is
+		 * on the stack.
+		 */
+		void intArray() {
+			write(NEWARRAY);
+			write(10); // T_INT
+		}
+
+
+		/**
+		 * Adds an instruction which accesses a static field.
+		 */
+		void field(int opcode, String owner, String name, String desc) {
+			write(opcode);
+			writeShort(_cf.fieldRef(owner, name, desc));
+			int size = desc.equals("D") || desc.equals("J") ? 2 : 1;
+			push(opcode == GETSTATIC ? size : -size);
+		}
+
+
+		/**
+		 * Adds an instruction which invokes a method.
+		 */
+		void invoke(int opcode, String owner, String name, String desc) {
+			int args = argumentSize(desc);
+			char ret = desc.charAt(desc.indexOf(')') + 1);
+			int delta = -args + (ret == 'V' ? 0 :
+					ret == 'D' || ret == 'J' ? 2 : 1);
+			if (opcode != INVOKESTATIC) {
+				delta--;
+			}
+
+			write(opcode);
+			if (opcode == INVOKEINTERFACE) {
+				writeShort(_cf.interfaceMethodRef(owner, name, desc));
+				write(args + 1);
+				write(0);
+			}
+			else {
+				writeShort(_cf.methodRef(owner, name, desc));
+			}
+			push(delta);
+		}
+
+
+		/**
+		 * Adds a jump instruction.
+		 * @param opcode GOTO, an IF_ICMPxx instruction, or an instruction
+		 *  which pops a single value
+		 */
+		void jump(int opcode, Label target) {
+			int pos = length();
+			write(opcode);
+			writeShort(0);
+			if (target._pos >= 0) {
+				setOffset(pos, target._pos);
+			}
+			else {
+				target._fixups.add(Integer.valueOf(pos));
+			}
+			if (opcode == GOTO) {
+				_stack = 0;
+			}
+			else {
+				push(opcode >= IF_ICMPLT && opcode <= IF_ICMPLE ? -2 : -1);
+			}
+		}
+
+
+		/**
+		 * Adds a TABLESWITCH instruction, which pops an index and jumps to
+		 * the corresponding target.
+		 * @param dflt the target if the index is not in the range
+		 *  0 .. targets.length - 1
+		 * @param targets the targets of the indices
+		 */
+		void tableSwitch(Label dflt, Label[] targets) {
+			int pos = length();
+			write(TABLESWITCH);
+			while (length() % 4 != 0) {
+				write(0);
+			}
+			switchTarget(pos, dflt);
+			writeInt(0);
+			writeInt(targets.length - 1);
+			for (int i = 0; i < targets.length; i++) {
+				switchTarget(pos, targets[i]);
+			}
+			_stack = 0;
+		}
+
+
+		// the class which will contain the code
+		private ClassFile _cf;
+
+		// the instructions
+		private byte[] _code = new byte[256];
+		private int _length = 0;
+
+		// the exception handlers (arrays of the start, end and handler
+		// positions)
+		private List _handlers = new ArrayList();
+
+		// the current and maximal depths of the stack
+		private int _stack = 0;
+		private int _maxStack = 0;
+
+		// the number of local variables
+		private int _maxLocals;
+
+
+		// change the depth of the stack
+		private void push(int delta) {
+			_stack += delta;
+			if (_stack > _maxStack) {
+				_maxStack = _stack;
+			}
+		}
+
+
+		// return the instructions
+		private byte[] toByteArray() {
+			byte[] result = new byte[_length];
+			System.arraycopy(_code, 0, result, 0, _length);
+			return result;
+		}
+
+
+		// add a byte
+		private void write(int value) {
+			if (_length == _code.length) {
+				byte[] b = new byte[2 * _length];
+				System.arraycopy(_code, 0, b, 0, _length);
+				_code = b;
+			}
+			_code[_length++] = (byte)value;
+		}
+
+
+		// add a 16-bit value
+		private void writeShort(int value) {
+			write(value >> 8);
+			write(value);
+		}
+
+
+		// add a 32-bit value
+		private void writeInt(int value) {
+			writeShort(value >> 16);
+			writeShort(value);
+		}
+
+
+		// add the offset of a target of the switch at pos
+		private void switchTarget(int pos, Label target) {
+			int slot = length();
+			writeInt(0);
+			if (target._pos >= 0) {
+				setSwitchOffset(pos, slot, target._pos);
+			}
+			else {
+				target._fixups.add(new int[] {pos, slot});
+			}
+		}
+
+
+		// add an instruction which loads a constant
+		private void ldc(int index) {
+			if (index > 255) {
+				write(LDC_W);
+				writeShort(index);
+			}
+			else {
+				write(LDC);
+				write(index);
+			}
+			push(1);
+		}
+
+
+		// set the offset of the jump at pos
+		private void setOffset(int pos, int target) {
+			int offset = target - pos;
+			if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+				throw new IllegalStateException("The code is too large");
+			}
+
+			_code[pos + 1] = (byte)(offset >> 8);
+			_code[pos + 2] = (byte)offset;
+		}
+
+
+		// set the offset stored at slot of the switch at pos
+		private void setSwitchOffset(int pos, int slot, int target) {
+			int offset = target - pos;
+			for (int i = 0; i < 4; i++) {
+				_code[slot + i] = (byte)(offset >> (24 - 8 * i));
+			}
+		}
+
+
+		// return the size of the arguments of a method descriptor
+		private static int argumentSize(String desc) {
+			int size = 0;
+			for (int i = 1; desc.charAt(i) != ')'; i++) {
+				char c = desc.charAt(i);
+				if (c == 'D' || c == 'J') {
+					size += 2;
+					continue;
+				}
+				size++;
+				while (c == '[') {
+					c = desc.charAt(++i);
+				}
+				if (c == 'L') {
+					i = desc.indexOf(';', i);
+				}
+			}
+			return size;
+		}
+	}
+
+
+	/**
+	 * A position in the code, which may be referred before it is placed.
+	 */
+	final static class Label {
+
+		// the position, or -1 if the label has not been placed
+		private int _pos = -1;
+
+		// the positions of the jumps to the label (Integers), and of the
+		// switches and their offsets (int[] {switch, offset})
+		private List _fixups = new ArrayList();
+	}
+}
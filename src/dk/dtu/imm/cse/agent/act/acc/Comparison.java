@@ -65,6 +65,48 @@ public class Comparison implements Condition, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return the left-hand expression
+	 */
+	public Expression getLeft() {
+		return _e1;
+	}
+	
+	
+	/**
+	 * @return the comparison ID (one of the COMP_XXX constants)
+	 */
+	public int getComparator() {
+		return _id;
+	}
+	
+	
+	/**
+	 * @return the right-hand expression
+	 */
+	public Expression getRight() {
+		return _e2;
+	}
+	
+	
+	/**
+	 * @return the numeric type (TYPE_INT or TYPE_DOUBLE) of the left-hand
+	 *  expression, if it is known at compile time, or -1
+	 */
+	public int getLeftType() {
+		return getNumericType(_e1, _type1);
+	}
+	
+	
+	/**
+	 * @return the numeric type (TYPE_INT or TYPE_DOUBLE) of the right-hand
+	 *  expression, if it is known at compile time, or -1
+	 */
+	public int getRightType() {
+		return getNumericType(_e2, _type2);
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -79,14 +121,19 @@ public class Comparison implements Condition, AccConstants {
 		// hence SCOPE_USEONLY.
 		_e1.checkSymbols(tree, scope, SCOPE_USEONLY);
 		_e2.checkSymbols(tree, scope, SCOPE_USEONLY);
+		
+		// the types of the variables are known when the whole procedure
+		// has been checked
+		_type1 = AccUtils.getNumericType(tree, _e1);
+		_type2 = AccUtils.getNumericType(tree, _e2);
 	}
 	
 	
 	public String toJavaCondition(boolean negated) {
-		// the condition requires that the values used are Comparables,
-		// or the generated code will be invalid; however, there is no
-		// way to check this at compile time, since the left-hand
-		// expression may be obtained from a QUERY.
+		// the ordered comparisons require that the values used are numbers
+		// or Comparables; however, this can not be checked at compile
+		// time, since an expression may be obtained from a QUERY. The
+		// numbers whose types are known are compared as primitives.
 		StringBuffer buf = new StringBuffer();
 		if (_id == COMP_EQ || _id == COMP_NE) {
 			if (_id == COMP_NE ^ negated) {
@@ -96,11 +143,27 @@ public class Comparison implements Condition, AccConstants {
 					append(", ").append(_e2.toJavaExpression()).append(')');
 		}
 		else {
-			buf.append("(((Comparable)").
-				append(_e1.toJavaExpression()).append(").compareTo(").
-				append(_e2.toJavaExpression()).append(") ").
-				append(AccUtils.idToJavaOperator(_id, negated)).
-				append(" 0)");
+			int t1 = getLeftType();
+			int t2 = getRightType();
+			String op = AccUtils.idToJavaOperator(_id, negated);
+			if (t1 == TYPE_INT && t2 == TYPE_INT) {
+				buf.append('(').append(toIntExpression(_e1)).append(' ').
+						append(op).append(' ').
+						append(toIntExpression(_e2)).append(')');
+			}
+			else if (t1 >= 0 && t2 >= 0) {
+				// Double.compare() orders the doubles like compareTo()
+				buf.append("(Double.compare(").
+						append(toDoubleExpression(_e1)).append(", ").
+						append(toDoubleExpression(_e2)).append(") ").
+						append(op).append(" 0)");
+			}
+			else {
+				buf.append("(compareValues(").
+						append(_e1.toJavaExpression()).append(", ").
+						append(_e2.toJavaExpression()).append(") ").
+						append(op).append(" 0)");
+			}
 		}
 		return buf.toString();
 	}
@@ -146,12 +209,47 @@ public class Comparison implements Condition, AccConstants {
 	
 	// the right-hand expression
 	private Expression _e2;
+	
+	// the numeric types of the expressions, if they are constants
+	private int _type1 = -1;
+	private int _type2 = -1;
 		
 	// =======================================================================
 	// Private methods
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+	
+	// return the numeric type of an expression, given the type found by
+	// the check
+	private static int getNumericType(Expression e, int type) {
+		return e instanceof Variable ? 
+				((Variable)e).getNumericType() : type;
+	}
+	
+	
+	// return a Java expression giving the int value of an expression of
+	// type TYPE_INT
+	private static String toIntExpression(Expression e) {
+		if (e instanceof Literal && ((Literal)e).getType() == TYPE_INT) {
+			return "" + ((Literal)e).getValue();
+		}
+		return "((Integer)" + e.toJavaExpression() + ").intValue()";
+	}
+	
+	
+	// return a Java expression giving the double value of a numeric
+	// expression
+	private static String toDoubleExpression(Expression e) {
+		if (e instanceof Literal && ((Literal)e).getType() != TYPE_EXTERNAL) {
+			double d = ((Number)((Literal)e).getValue()).doubleValue();
+			if (!Double.isInfinite(d)) {
+				return "" + d;
+			}
+		}
+		return "((Number)" + e.toJavaExpression() + ").doubleValue()";
+	}
+	
 	// ------------------------------ instance -----------------------------
 
 	// ***********************************************************************
@@ -0,0 +1,449 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.util.*;
+
+
+/**
+ * Chooses the order in which the conditions of an IF or ELSIF branch are
+ * evaluated. The generated code evaluates the conditions as a nested-loop
+ * join: a sentence which defines variables becomes a loop over its matches,
+ * and every other condition becomes a test (a filter) inside the loops
+ * preceding it. The planner places each filter directly after the loop
+ * which binds the last of its variables, and orders the loops so that the
+ * most selective pattern (the one having the fewest unbound terms, and then
+ * the most bound terms) is matched first.
+ * <p>
+ * Reordering is only done when it cannot be observed. The body of the
+ * branch is executed once for each binding, so the conditions must be
+ * free from side effects, and the body must neither reveal the order of
+ * the bindings nor affect the conditions while the loops are running.
+ * Specifically, a branch is left in source order if
+ * <ul>
+ * <li>a condition contains an action, a query or a procedure call,</li>
+ * <li>the body contains a SAY statement, a query, a procedure call, an
+ *  action, an assignment or a RETURN statement (at any depth),</li>
+ * <li>the body adopts a fact (at any depth), since the facts are matched
+ *  in the order in which they were adopted, so that code following the
+ *  IF statement would observe the order of the bindings,</li>
+ * <li>the body drops a fact through a variable, or a fact having a
+ *  predicate symbol used in the conditions or in the conditions of an IF
+ *  statement in the body, or</li>
+ * <li>the conditions are not valid in source order, so that the semantical
+ *  check reports the same errors as it would without the planner.</li>
+ * </ul>
+ * An ordering comparison (&lt;, &lt;=, &gt;=, &gt;) may throw an exception
+ * for values which are not mutually comparable. Such a comparison is never
+ * moved ahead of a condition which precedes it in the source and which
+ * shares a variable with it, since that condition may be there to exclude
+ * those values.
+ * <p>
+ * Since the structure of the IF statement is unchanged, the ELSIF
+ * fall-through is unaffected. Only the order in which the bindings of a
+ * branch are produced may differ, and the body cannot observe it.
+ *
+ * @author  Henrik Lauritzen
+ * @see IfStatement
+ */
+final class ConditionPlanner implements AccConstants {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	/**
+	 * The maximal number of evaluation orders produced by 
+	 * {@link #plan(List, List, Map)}.
+	 */
+	final static int MAX_PLANS = 4;
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- private -------------------------------
+
+	private ConditionPlanner() {
+	}
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	/**
+	 * Plans the evaluation order of the conditions of a branch. This must be
+	 * done before the semantical check of the conditions, since the check
+	 * classifies the variables as defs or uses in the order of evaluation.
+	 * <p>
+	 * Besides the preferred order, alternative orders are produced when
+	 * two or more sentences could start the join, so that the choice
+	 * between them may be made at run time, when the sizes of the
+	 * predicates are known. Each alternative starts with a different
+	 * sentence, and orders the remaining conditions as described above.
+	 * The facts which a body drops are the same in every order, and the
+	 * remaining facts keep their order, so every alternative has the same
+	 * effect as the preferred order.
+	 * @param conditions the conditions of the branch, in source order.
+	 *  The list is not modified.
+	 * @param block the statements in the body of the branch
+	 * @param scope the enclosing scope, which maps the names of the bound
+	 *  variables to their definitions
+	 * @return a list of at most {@link #MAX_PLANS} evaluation orders, each of
+	 *  which is a list of the conditions. The first is the preferred order.
+	 *  The value null is returned if the conditions cannot be reordered.
+	 */
+	static List plan(List conditions, List block, Map scope) {
+		int n = conditions.size();
+		if (n < 2) {
+			return null;
+		}
+
+		// collect the variables and predicate symbols of the conditions
+		Condition[] conds = new Condition[n];
+		Set[] vars = new Set[n];
+		boolean[] wildcards = new boolean[n];
+		boolean repeated = false;
+		Set predicates = new HashSet();
+		for (int i = 0; i < n; i++) {
+			conds[i] = (Condition)conditions.get(i);
+			vars[i] = new HashSet();
+			if (conds[i] instanceof Sentence) {
+				Sentence s = (Sentence)conds[i];
+				if (!collectTerms(s, vars[i])) {
+					return null;
+				}
+				wildcards[i] = countWildcards(s) > 0;
+				repeated |= countFree(s, Collections.EMPTY_SET) > 
+						vars[i].size() + countWildcards(s);
+				predicates.add(s.getName());
+			}
+			else if (!collect(conds[i], vars[i], predicates)) {
+				return null;
+			}
+		}
+
+		if (!isInert(block, predicates)) {
+			return null;
+		}
+
+		// only sentences may define variables
+		Set bound = new HashSet(scope.keySet());
+		for (int i = 0; i < n; i++) {
+			if (conds[i] instanceof Sentence) {
+				bound.addAll(vars[i]);
+				addAlias((Sentence)conds[i], bound);
+			}
+			else if (!bound.containsAll(vars[i])) {
+				return null;
+			}
+		}
+
+		List plans = new ArrayList(MAX_PLANS);
+		List preferred = order(conds, vars, wildcards, scope, null);
+		plans.add(preferred);
+		if (repeated) {
+			// the code for an alternative order can not declare a variable
+			// which occurs twice in the sentence defining it
+			return plans;
+		}
+
+		// consider the sentences which would be loops at the start of the
+		// join, in the preferred order
+		bound = scope.keySet();
+		for (int i = 0; i < n && plans.size() < MAX_PLANS; i++) {
+			Condition c = (Condition)preferred.get(i);
+			int idx = Arrays.asList(conds).indexOf(c);
+			if (!(c instanceof Sentence) || 
+					(!wildcards[idx] && bound.containsAll(vars[idx]))) {
+				continue;
+			}
+			List alt = order(conds, vars, wildcards, scope, c);
+			if (!plans.contains(alt)) {
+				plans.add(alt);
+			}
+		}
+		return plans;
+	}
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// order the conditions; the variables of conds[i] are vars[i], and
+	// wildcards[i] tells whether conds[i] has a wildcard term. If first is
+	// not null, it is used as the first loop of the join.
+	private static List order(Condition[] conds, Set[] vars, 
+			boolean[] wildcards, Map scope, Condition first) {
+		int n = conds.length;
+		Set bound = new HashSet(scope.keySet());
+		boolean[] done = new boolean[n];
+		List result = new ArrayList(n);
+		while (result.size() < n) {
+			// take the first filter which is ready, if any
+			int next = -1;
+			for (int i = 0; i < n && next < 0; i++) {
+				if (!done[i] && !wildcards[i] && bound.containsAll(vars[i]) &&
+						(!mayFail(conds[i]) ||
+						precedingDone(conds, vars, done, i))) {
+					next = i;
+				}
+			}
+
+			// otherwise, take the given first loop, or the most selective
+			// loop: the one having the fewest free terms, and then the most
+			// bound terms
+			if (next < 0 && first != null) {
+				next = Arrays.asList(conds).indexOf(first);
+				first = null;
+			}
+			if (next < 0) {
+				int bestFree = Integer.MAX_VALUE;
+				int bestBound = -1;
+				for (int i = 0; i < n; i++) {
+					if (!done[i] && conds[i] instanceof Sentence) {
+						Sentence s = (Sentence)conds[i];
+						int free = countFree(s, bound);
+						int fixed = s.getTerms().size() - free;
+						if (free < bestFree ||
+								(free == bestFree && fixed > bestBound)) {
+							bestFree = free;
+							bestBound = fixed;
+							next = i;
+						}
+					}
+				}
+			}
+
+			done[next] = true;
+			result.add(conds[next]);
+			bound.addAll(vars[next]);
+			if (conds[next] instanceof Sentence) {
+				addAlias((Sentence)conds[next], bound);
+			}
+		}
+		return result;
+	}
+
+
+	// add the names of the variables in the terms of a sentence to the
+	// set. Returns false if a term may have side effects.
+	private static boolean collectTerms(Sentence s, Set vars) {
+		for (Iterator it = s.getTerms().iterator(); it.hasNext(); ) {
+			if (!collect(it.next(), vars, null)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	// add the names of the variables in the syntax to the set, and the
+	// predicate symbols to predicates (if not null). Returns false if the
+	// syntax may have side effects, or if it is not understood.
+	private static boolean collect(Object syntax, Set vars, Set predicates) {
+		if (syntax instanceof Variable) {
+			Variable v = (Variable)syntax;
+			if (!v.isWildcard()) {
+				vars.add(v.getName());
+			}
+			return true;
+		}
+		else if (syntax instanceof Constant || syntax instanceof Literal ||
+				syntax instanceof SelfRef) {
+			return true;
+		}
+		else if (syntax instanceof Comparison) {
+			Comparison c = (Comparison)syntax;
+			return collect(c.getLeft(), vars, predicates) &&
+					collect(c.getRight(), vars, predicates);
+		}
+		else if (syntax instanceof NotCondition) {
+			return collect(((NotCondition)syntax).getCondition(), vars,
+					predicates);
+		}
+		else if (syntax instanceof Sentence) {
+			Sentence s = (Sentence)syntax;
+			if (s.getAlias() != null || countWildcards(s) > 0) {
+				// only allowed directly in the condition list
+				return false;
+			}
+			if (predicates != null) {
+				predicates.add(s.getName());
+			}
+			return collectTerms(s, vars);
+		}
+		return false;
+	}
+
+
+	// add the alias of a sentence (if any) to the set of bound names
+	private static void addAlias(Sentence s, Set bound) {
+		Variable alias = s.getAlias();
+		if (alias != null) {
+			bound.add(alias.getName());
+		}
+	}
+
+
+	// count the wildcard terms of a sentence
+	private static int countWildcards(Sentence s) {
+		int count = 0;
+		for (Iterator it = s.getTerms().iterator(); it.hasNext(); ) {
+			Object t = it.next();
+			if (t instanceof Variable && ((Variable)t).isWildcard()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+
+	// count the terms of a sentence which are not bound
+	private static int countFree(Sentence s, Set bound) {
+		int free = 0;
+		for (Iterator it = s.getTerms().iterator(); it.hasNext(); ) {
+			Object t = it.next();
+			if (t instanceof Variable) {
+				Variable v = (Variable)t;
+				if (v.isWildcard() || !bound.contains(v.getName())) {
+					free++;
+				}
+			}
+		}
+		return free;
+	}
+
+
+	// determine whether a condition is an ordering comparison, which may
+	// throw an exception when evaluated
+	private static boolean mayFail(Condition c) {
+		if (c instanceof NotCondition) {
+			return mayFail(((NotCondition)c).getCondition());
+		}
+		if (c instanceof Comparison) {
+			int id = ((Comparison)c).getComparator();
+			return id != COMP_EQ && id != COMP_NE;
+		}
+		return false;
+	}
+
+
+	// determine whether every condition preceding the condition at idx
+	// which shares a variable with it has been placed
+	private static boolean precedingDone(Condition[] conds, Set[] vars,
+			boolean[] done, int idx) {
+		for (int i = 0; i < idx; i++) {
+			if (!done[i] && !Collections.disjoint(vars[i], vars[idx])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	// determine whether the execution of the statements, once for each
+	// binding of conditions using the given predicate symbols, cannot
+	// reveal the order of the bindings
+	private static boolean isInert(List block, Set predicates) {
+		Set reads = new HashSet(predicates);
+		Set dropped = new HashSet();
+		if (!scan(block, reads, dropped)) {
+			return false;
+		}
+		
+		// the result of dropping facts of a predicate which is read by a
+		// condition depends on the order
+		return Collections.disjoint(reads, dropped);
+	}
+
+
+	// collect the predicate symbols read by the conditions of the
+	// statements, and those of the facts dropped by them. Returns false if
+	// a statement adopts a fact, has an effect outside the knowledge base
+	// (such as a message or an action), or is not understood.
+	private static boolean scan(List block, Set reads, Set dropped) {
+		for (Iterator it = block.iterator(); it.hasNext(); ) {
+			Object stmt = it.next();
+			if (stmt instanceof LetStatement) {
+				if (!isPure(((LetStatement)stmt).getBinding(), reads)) {
+					return false;
+				}
+			}
+			else if (stmt instanceof MentalUpdateStatement) {
+				MentalUpdateStatement u = (MentalUpdateStatement)stmt;
+				Value v = u.getValue();
+				if (u.isAdopt() || !(v instanceof Sentence) ||
+						!isPure(((Sentence)v).getTerms(), reads)) {
+					return false;
+				}
+				dropped.add(((Sentence)v).getName());
+			}
+			else if (stmt instanceof LockedStatement) {
+				if (!scan(((LockedStatement)stmt).getBlock(), reads,
+						dropped)) {
+					return false;
+				}
+			}
+			else if (stmt instanceof IfStatement) {
+				IfStatement s = (IfStatement)stmt;
+				List conditions = s.getConditions();
+				for (int i = 0, max = conditions.size(); i < max; i++) {
+					List l = (List)conditions.get(i);
+					if ((l != null && !isPure(l, reads)) ||
+							!scan((List)s.getBlocks().get(i), reads, dropped)) {
+						return false;
+					}
+				}
+			}
+			else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	// determine whether the evaluation of the syntax cannot modify the
+	// knowledge base or interact with the environment, and add the 
+	// predicate symbols of the sentences in it to reads
+	private static boolean isPure(Object syntax, Set reads) {
+		if (syntax instanceof Variable || syntax instanceof Constant ||
+				syntax instanceof Literal || syntax instanceof SelfRef) {
+			return true;
+		}
+		else if (syntax instanceof Sentence) {
+			reads.add(((Sentence)syntax).getName());
+			return isPure(((Sentence)syntax).getTerms(), reads);
+		}
+		else if (syntax instanceof Comparison) {
+			Comparison c = (Comparison)syntax;
+			return isPure(c.getLeft(), reads) && isPure(c.getRight(), reads);
+		}
+		else if (syntax instanceof NotCondition) {
+			return isPure(((NotCondition)syntax).getCondition(), reads);
+		}
+		else if (syntax instanceof List) {
+			for (Iterator it = ((List)syntax).iterator(); it.hasNext(); ) {
+				if (!isPure(it.next(), reads)) return false;
+			}
+			return true;
+		}
+		return false;
+	}
+}
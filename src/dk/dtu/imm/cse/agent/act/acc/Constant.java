@@ -64,6 +64,15 @@ public class Constant implements Expression, ErrorLocation {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return true iff the constant is defined by the superclass or by an
+	 *  implemented interface, rather than by the program itself.
+	 */
+	public boolean isExternal() {
+		return _external;
+	}
+	
 	
 	/**
 	 * @return the name of the constant referred.
@@ -65,6 +65,25 @@ public class IfStatement implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return the list of condition lists, one for each branch. The last
+	 *  element is null if the statement has an ELSE branch.
+	 *  <strong>N.B.</strong>: this list should not be modified.
+	 */
+	public List getConditions() {
+		return _conditions;
+	}
+	
+	
+	/**
+	 * @return the list of statement blocks, one for each branch.
+	 *  <strong>N.B.</strong>: this list should not be modified.
+	 */
+	public List getBlocks() {
+		return _blocks;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -88,6 +107,21 @@ public class IfStatement implements Statement, AccConstants {
 			
 			// check the condition (may be null in the ELSE branch)
 			if (condition != null) {
+				// choose the order of evaluation before the variables are
+				// classified, since the first occurrence becomes the def.
+				// The alternative orders are chosen between at run time.
+				List plans = ConditionPlanner.plan(condition, block, newScope);
+				if (plans != null) {
+					condition = (List)plans.get(0);
+					_conditions.set(i, condition);
+					if (plans.size() > 1) {
+						if (_plans == null) {
+							_plans = new List[max];
+						}
+						_plans[i] = plans;
+					}
+				}
+				
 				for (Iterator it = condition.iterator(); it.hasNext(); ) {
 					// check each condition; new defs should be allowed
 					// in mental conditions, but not otherwise
@@ -148,8 +182,13 @@ public class IfStatement implements Statement, AccConstants {
 			
 				// generate code to evaluate the condition(s)
 				// and the body
-				generateConditionCode(i, l.iterator(), b, 
-						indentLevel, matchVar);
+				if (_plans != null && _plans[i] != null) {
+					generatePlansCode(i, b, indentLevel, matchVar);
+				}
+				else {
+					generateConditionCode(i, l.iterator(), b, 
+							indentLevel, matchVar);
+				}
 			}
 			else {
 				// simply generate code for the body in the ELSE branch
@@ -257,6 +296,10 @@ public class IfStatement implements Statement, AccConstants {
 	// a list of statement blocks (statement lists)
 	private List _blocks;
 	
+	// the evaluation orders of each branch which is planned at run time,
+	// or null (see ConditionPlanner)
+	private List[] _plans;
+	
 	// =======================================================================
 	// Private methods
 	// =======================================================================
@@ -324,9 +367,6 @@ public class IfStatement implements Statement, AccConstants {
 			return;
 		}
 				
-		// the name of the list of matches currently used in the generated code
-		String currentMatch;
-
 		Condition c = (Condition)it.next();
 		String cond = c.toJavaCondition(true);
 		
@@ -342,44 +382,37 @@ public class IfStatement implements Statement, AccConstants {
 			// c is a sentence containing variable declarations;
 			Sentence s = (Sentence)c;
 			
-			// get the indices of new variables and make code to generate
-			// a bitset of the indices
-			List idxs = s.makeBitsetCode(b, indentLevel);
+			// get the indices of new variables
+			List idxs = s.getVardefIndices();
 
-			// make code to perform the match
+			// make code to perform the match, reusing the cursor
+			// from a previous match at the same level
+			String cursor = MATCH_CURSOR_NAME + indentLevel;
 			AccUtils.indent(b, indentLevel);
-			b.append("List ").
-					append(currentMatch = MATCH_LIST_NAME + indentLevel).
-					append(" = ").append(TEMP_KB_NAME).append(".match(");
+			b.append(cursor).append(" = ").append(TEMP_KB_NAME).
+					append(".matchCursor(");
 			s.makeParameterTriple(b);
-			b.append(", ").append(TEMP_BS_NAME).append(");\n");
+			b.append(", ").append(s.makeBitsetConstant()).append(", ").
+					append(cursor).append(");\n");
 
 			// make the beginning of the iteration loop
-			String itName = LOOP_INDEX_NAME + indentLevel;
-			String boundName = LOOP_BOUND_NAME + indentLevel;
 			AccUtils.indent(b, indentLevel++);
-			b.append("for (int ").append(itName).
-					append(" = 0, ").append(boundName).append(" = ").
-					append(currentMatch).append(".size(); ").append(itName).
-					append(" < ").append(boundName).append("; ").
-					append(itName).append("++) {\n");
+			b.append("while (").append(cursor).append(".next()) {\n");
 
 			// make code to bind the new variables
-			AccUtils.indent(b, indentLevel);
-			b.append(TEMP_FACT_NAME).append(" = (Fact)").append(currentMatch).
-					append(".get(").append(itName).append(");\n");							
 			for (Iterator j = idxs.iterator(); j.hasNext(); ) {
 				int idx = ((Integer)j.next()).intValue();
 				Variable v = (Variable)s.getTerm(idx);
 				if (!v.isWildcard()) {
 					LetStatement.generateCode(indentLevel, b,
 							(Variable)s.getTerm(idx), 
-							TEMP_FACT_NAME + ".getTerm(" + idx + ")");
+							cursor + ".getTerm(" + idx + ")");
 				}
 			}
 			Variable alias = s.getAlias();
 			if (alias != null) {
-				LetStatement.generateCode(indentLevel, b, alias, TEMP_FACT_NAME);
+				LetStatement.generateCode(indentLevel, b, alias, 
+						cursor + ".getFact()");
 			}
 
 			// generate the remaining code inside the loop using the
@@ -392,6 +425,237 @@ public class IfStatement implements Statement, AccConstants {
 		}
 	}
 
+
+	// generate code which chooses one of the evaluation orders of a branch
+	// at run time, and evaluates the conditions in that order. The planner
+	// only produces alternatives having the same effect as the preferred
+	// order, which is the one used by the other back ends.
+	private void generatePlansCode(int block, StringBuffer b, int indentLevel,
+			String matchVar) {
+		List plans = _plans[block];
+		
+		// the variables which are defined by the conditions
+		Set defs = new HashSet();
+		for (Iterator it = ((List)_conditions.get(block)).iterator(); 
+				it.hasNext(); ) {
+			Object c = it.next();
+			if (c instanceof Sentence) {
+				for (Iterator j = ((Sentence)c).getTerms().iterator(); 
+						j.hasNext(); ) {
+					Object t = j.next();
+					if (t instanceof Variable && ((Variable)t).isDef() &&
+							!((Variable)t).isWildcard()) {
+						defs.add(((Variable)t).toJavaExpression());
+					}
+				}
+			}
+		}
+		
+		// describe the first loop of each order to the JoinPlan
+		StringBuffer categories = new StringBuffer();
+		StringBuffer names = new StringBuffer();
+		StringBuffer bound = new StringBuffer();
+		for (int k = 0, max = plans.size(); k < max; k++) {
+			Sentence first = null;
+			for (Iterator it = ((List)plans.get(k)).iterator(); 
+					first == null; ) {
+				Object c = it.next();
+				if (c instanceof Sentence && 
+						countUnbound((Sentence)c, defs) > 0) {
+					first = (Sentence)c;
+				}
+			}
+			if (k > 0) {
+				categories.append(", ");
+				names.append(", ");
+				bound.append(", ");
+			}
+			categories.append(first.getAttitude());
+			names.append(AccUtils.encodeStringLiteral(first.getName()));
+			bound.append(first.getTerms().size() - 
+					countUnbound(first, defs));
+		}
+		String plan = AccUtils.declareField("private final JoinPlan",
+				JOIN_PLAN_NAME, "new JoinPlan(new int[] {" + categories +
+				"}, new String[] {" + names + "}, new int[] {" + bound + "})");
+		
+		// the filters preceding the first loop are the same in every order,
+		// and are evaluated before the choice is made
+		List first = (List)plans.get(0);
+		int prefix = 0;
+		while (!(first.get(prefix) instanceof Sentence) ||
+				countUnbound((Sentence)first.get(prefix), defs) == 0) {
+			generateFilterCode((Condition)first.get(prefix++), defs, b,
+					indentLevel);
+		}
+		
+		// make a case for each order
+		AccUtils.indent(b, indentLevel);
+		b.append("switch (").append(plan).append(".choose(").
+				append(TEMP_KB_NAME).append(")) {\n");
+		for (int k = 0, max = plans.size(); k < max; k++) {
+			AccUtils.indent(b, indentLevel);
+			b.append("case ").append(k).append(": {\n");
+			generateOrderCode(block, ((List)plans.get(k)).listIterator(prefix),
+					new HashSet(defs), b, indentLevel + 1, matchVar);
+			AccUtils.indent(b, indentLevel + 1);
+			b.append("break;\n");
+			AccUtils.indent(b, indentLevel);
+			b.append("}\n");
+		}
+		AccUtils.indent(b, indentLevel);
+		b.append("}\n");
+	}
+	
+	
+	// recursively generate the code for the conditions of a branch in an
+	// order which differs from the one in which the variables were
+	// classified. Hence a variable is bound by the first sentence in the
+	// order which contains it; unbound holds the (Java) names of the
+	// variables which have not been bound yet.
+	private void generateOrderCode(int block, Iterator it, Set unbound,
+			StringBuffer b, int indentLevel, String matchVar) {
+		if (!it.hasNext()) {
+			addBodyCode(block, b, indentLevel, matchVar);
+			return;
+		}
+		
+		Condition c = (Condition)it.next();
+		if (!(c instanceof Sentence) || 
+				countUnbound((Sentence)c, unbound) == 0) {
+			generateFilterCode(c, unbound, b, indentLevel);
+			generateOrderCode(block, it, unbound, b, indentLevel, matchVar);
+			return;
+		}
+		
+		Sentence s = (Sentence)c;
+		List terms = s.getTerms();
+		StringBuffer triple = new StringBuffer();
+		makeParameterTriple(triple, s, unbound);
+		Variable alias = s.getAlias();
+		
+		// make code to perform the match, using the unbound positions as
+		// the variables
+		List idxs = new ArrayList();
+		for (int i = 0, max = terms.size(); i < max; i++) {
+			if (isUnbound(terms.get(i), unbound)) {
+				idxs.add(Integer.valueOf(i));
+			}
+		}
+		String cursor = MATCH_CURSOR_NAME + indentLevel;
+		AccUtils.indent(b, indentLevel);
+		b.append(cursor).append(" = ").append(TEMP_KB_NAME).
+				append(".matchCursor(").append(triple).append(", ").
+				append(AccUtils.declareBitSet(idxs)).append(", ").
+				append(cursor).append(");\n");
+		AccUtils.indent(b, indentLevel++);
+		b.append("while (").append(cursor).append(".next()) {\n");
+		
+		// make code to bind the new variables
+		for (int i = 0, max = terms.size(); i < max; i++) {
+			Object t = terms.get(i);
+			if (isUnbound(t, unbound) && !((Variable)t).isWildcard()) {
+				String name = ((Variable)t).toJavaExpression();
+				AccUtils.indent(b, indentLevel);
+				b.append("Object ").append(name).append(" = ").
+						append(cursor).append(".getTerm(").append(i).
+						append(");\n");
+				unbound.remove(name);
+			}
+		}
+		if (alias != null) {
+			LetStatement.generateCode(indentLevel, b, alias, 
+					cursor + ".getFact()");
+		}
+		
+		generateOrderCode(block, it, unbound, b, indentLevel, matchVar);
+		
+		AccUtils.indent(b, --indentLevel);
+		b.append("}\n");
+	}
+	
+	
+	// generate the code for a condition whose variables are bound, where
+	// unbound holds the (Java) names of the unbound variables
+	private static void generateFilterCode(Condition c, Set unbound, 
+			StringBuffer b, int indentLevel) {
+		if (!(c instanceof Sentence)) {
+			// a comparison or negation
+			AccUtils.indent(b, indentLevel);
+			b.append("if (").append(c.toJavaCondition(true)).
+					append(") continue;\n");
+			return;
+		}
+		
+		Sentence s = (Sentence)c;
+		StringBuffer triple = new StringBuffer();
+		makeParameterTriple(triple, s, unbound);
+		Variable alias = s.getAlias();
+		if (alias != null) {
+			AccUtils.indent(b, indentLevel);
+			b.append(TEMP_FACT_NAME).append(" = new Fact(").
+					append(triple).append(");\n");
+			AccUtils.indent(b, indentLevel);
+			b.append("if (!").append(TEMP_KB_NAME).append(".contains(").
+					append(TEMP_FACT_NAME).append(")) continue;\n");
+			LetStatement.generateCode(indentLevel, b, alias, TEMP_FACT_NAME);
+		}
+		else {
+			AccUtils.indent(b, indentLevel);
+			b.append("if (!").append(TEMP_KB_NAME).append(".contains(").
+					append(triple).append(")) continue;\n");
+		}
+	}
+	
+	
+	// true iff the term is a wildcard, or a variable which is not bound
+	private static boolean isUnbound(Object term, Set unbound) {
+		if (!(term instanceof Variable)) {
+			return false;
+		}
+		Variable v = (Variable)term;
+		return v.isWildcard() || unbound.contains(v.toJavaExpression());
+	}
+	
+	
+	// count the terms of a sentence which are unbound
+	private static int countUnbound(Sentence s, Set unbound) {
+		int count = 0;
+		for (Iterator it = s.getTerms().iterator(); it.hasNext(); ) {
+			if (isUnbound(it.next(), unbound)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	// append the category, name and terms of a sentence, as in
+	// Sentence.makeParameterTriple, using null for the unbound terms
+	private static void makeParameterTriple(StringBuffer b, Sentence s, 
+			Set unbound) {
+		b.append(s.getAttitude()).append(", ").
+				append(AccUtils.encodeStringLiteral(s.getName())).
+				append(", ");
+		List terms = s.getTerms();
+		int max = terms.size();
+		if (max == 0 || AccUtils.isConstant(terms)) {
+			// no term can be unbound
+			AccUtils.translateTerms(b, terms, null, true);
+			return;
+		}
+		b.append("new Object[] {");
+		for (int i = 0; i < max; i++) {
+			Object t = terms.get(i);
+			if (i > 0) {
+				b.append(", ");
+			}
+			b.append(isUnbound(t, unbound) ? 
+					"null" : ((Expression)t).toJavaExpression());
+		}
+		b.append("}");
+	}
+
 	// ***********************************************************************
 
 	// =======================================================================
@@ -64,6 +64,22 @@ public class LetStatement implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the variable to be bound
+	 */
+	public Variable getVariable() {
+		return _v;
+	}
+	
+	
+	/**
+	 * @return the value bound to the variable
+	 */
+	public Value getBinding() {
+		return _binding;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -80,6 +96,7 @@ public class LetStatement implements Statement, AccConstants {
 		// classify the variable as a def and modify the scope accordingly
 		if (!_v.isWildcard()) {
 			_v.classifyAsDef(scope, true);
+			_v.addBinding(AccUtils.getNumericType(tree, _binding));
 		}
 	}
 	
@@ -123,6 +123,25 @@ public class Literal implements Expression, AccConstants {
 	}
 
 	
+	/**
+	 * @return a Java expression which creates the value of the literal.
+	 *  Unlike {@link #toJavaExpression()}, this does not refer to a pooled
+	 *  constant, so it may be used to initialize a field.
+	 */
+	public String toJavaInitializer() {
+		switch (_type) {
+		case TYPE_INT:
+			return "Integer.valueOf(" + _value + ")";
+		case TYPE_DOUBLE:
+			return "Double.valueOf(" + _value + ")";
+		case TYPE_STRING:
+			return _source;
+		default:
+			throw new InternalError();
+		}
+	}
+	
+	
 	/**
 	 * @return a canonical representation for the value of the literal.
 	 */
@@ -130,6 +149,17 @@ public class Literal implements Expression, AccConstants {
 		return _value;
 	}
 	
+	
+	/**
+	 * @return the value of the literal at run time, which differs from
+	 *  the {@link #getValue() canonical value} for string literals, whose
+	 *  escape sequences are decoded.
+	 */
+	public Object getRuntimeValue() {
+		return _type == TYPE_STRING ? 
+				AccUtils.decodeStringLiteral(_source) : _value;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -145,16 +175,9 @@ public class Literal implements Expression, AccConstants {
 
 
 	public String toJavaExpression() {
-		switch (_type) {
-		case TYPE_INT:
-			return "new Integer(" + _value + ")";
-		case TYPE_DOUBLE:
-			return "new Double(" + _value + ")";
-		case TYPE_STRING:
-			return _source;
-		default:
-			throw new InternalError();
-		}
+		// numbers are boxed once, in a pooled constant
+		return _type == TYPE_STRING ? toJavaInitializer() :
+				AccUtils.declareConstant(getJavaType(), toJavaInitializer());
 	}
 	
 	
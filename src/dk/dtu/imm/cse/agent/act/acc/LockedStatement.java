@@ -48,7 +48,7 @@ public class LockedStatement implements Statement, AccConstants {
 	// =======================================================================
 		
 	// ------------------------------- public --------------------------------
-
+	
 	/**
 	 * Creates a new LOCKED { ... } statement.
 	 * @param block the block of enclosed statements
@@ -68,6 +68,15 @@ public class LockedStatement implements Statement, AccConstants {
 	
 	// ------------------------------- public --------------------------------
 	
+	/**
+	 * @return the enclosed statements. <strong>N.B.</strong>: this list
+	 *  should not be modified.
+	 */
+	public List getBlock() {
+		return _block;
+	}
+	
+	
 	/**
 	 * Retreive the last return statement in the block, if the block
 	 * ends with a return statent.
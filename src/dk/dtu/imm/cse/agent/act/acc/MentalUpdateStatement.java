@@ -64,6 +64,22 @@ public class MentalUpdateStatement implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return true iff the statement is ADOPT, false iff it is DROP
+	 */
+	public boolean isAdopt() {
+		return _isAdopt;
+	}
+	
+	
+	/**
+	 * @return the sentence or fact variable to be adopted or dropped
+	 */
+	public Value getValue() {
+		return _v;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -84,8 +100,7 @@ public class MentalUpdateStatement implements Statement, AccConstants {
 		if (_v instanceof Sentence) {
 			Sentence s = (Sentence)_v;
 			
-			// make code to initialize the bitset, if necessary
-			List vdefs = s.makeBitsetCode(b, indentLevel);			
+			List vdefs = s.getVardefIndices();			
 			
 			// make code to add or remove as necessary
 			AccUtils.indent(b, indentLevel);
@@ -95,7 +110,7 @@ public class MentalUpdateStatement implements Statement, AccConstants {
 			if (vdefs.size() > 0) {
 				// INVARIANT: !c.isSimple() && !_isAdopt
 				// add the bitset to the list of parameters
-				b.append(", ").append(TEMP_BS_NAME);
+				b.append(", ").append(s.makeBitsetConstant());
 			}
 		}
 		else {
@@ -70,6 +70,24 @@ public class MessageRule implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the message guard, which maps keys to values, or null if the
+	 *  rule applies when there is no message. <strong>N.B.</strong>: this
+	 *  map should not be modified.
+	 */
+	public Map getGuard() {
+		return _guard;
+	}
+	
+	
+	/**
+	 * @return the block of statements to be executed
+	 */
+	public List getBlock() {
+		return _block;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -152,16 +170,16 @@ public class MessageRule implements Statement, AccConstants {
 					Sentence s = (Sentence)v;
 
 					if (!s.isSimple()) {
-						// construct code to configure the bitset and
 						// save the variable positions						
-						List l = s.makeBitsetCode(b, indentLevel);
+						List l = s.getVardefIndices();
 						
 						// construct code to match the pattern
 						AccUtils.indent(b, indentLevel);
 						b.append("if (!").append(TEMP_FACT_NAME).
 								append(".matches(");
 						s.makeParameterTriple(b);
-						b.append(", ").append(TEMP_BS_NAME).append(")) break;\n");
+						b.append(", ").append(s.makeBitsetConstant()).
+								append(")) break;\n");
 												
 						// construct code for the vardefs
 						for (Iterator it = l.iterator(); it.hasNext(); ) {
@@ -0,0 +1,367 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.util.*;
+
+
+/**
+ * A sequence of WHEN rules which all compare the same key of the message
+ *  to a constant, e.g. <code>WHEN [contents=$ACCEPT] ...
+ *  WHEN [contents=$REJECT] ...</code>. The value of the key is looked up
+ *  once in a map of the constants, which selects the rules that may
+ *  match, instead of trying the rules one after another.
+ * <p>
+ * The sequences are found after the semantical check, by
+ *  {@link #group(ParseTree, List)}. Since a message has only one value
+ *  for the key, the rules of the other cases can never match, so the
+ *  rules of the selected case are executed in their original order, and
+ *  the comparison of the key is removed from their guards.
+ * <p>
+ * Skipping a rule also skips the entries of its guard which precede the
+ *  key, and a rule is therefore only switched on a key if none of these
+ *  entries contains a query or a procedure call.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class MessageSwitch implements Statement, AccConstants {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- private -------------------------------
+
+	// create a switch on the given key over a sequence of rules, which all
+	// compare the key to a constant
+	private MessageSwitch(ParseTree tree, String key, List rules) {
+		_key = key;
+		_rules = rules;
+
+		Map cases = new HashMap();
+		for (int i = 0, max = rules.size(); i < max; i++) {
+			MessageRule r = (MessageRule)rules.get(i);
+			Expression e = (Expression)r.getGuard().get(key);
+			Object value = getConstantValue(tree, e);
+
+			Integer idx = (Integer)cases.get(value);
+			if (idx == null) {
+				idx = Integer.valueOf(_values.size());
+				cases.put(value, idx);
+				_values.add(value);
+				_expressions.add(e);
+				_cases.add(new ArrayList());
+			}
+
+			// the rule is executed without comparing the key
+			LinkedHashMap guard = new LinkedHashMap(r.getGuard());
+			guard.remove(key);
+			((List)_cases.get(idx.intValue())).add(
+					new MessageRule(guard, r.getBlock()));
+		}
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the key of the message which is switched on
+	 */
+	public String getKey() {
+		return _key;
+	}
+
+
+	/**
+	 * @return the values of the key (at run time) selecting each of the
+	 *  cases. <strong>N.B.</strong>: this list should not be modified.
+	 */
+	public List getValues() {
+		return _values;
+	}
+
+
+	/**
+	 * @return the expressions (literals or constants) giving the values of
+	 *  the cases. <strong>N.B.</strong>: this list should not be modified.
+	 */
+	public List getExpressions() {
+		return _expressions;
+	}
+
+
+	/**
+	 * @return the cases, which are lists of the rules to be tried if the
+	 *  key has the corresponding value. The guards of the rules do not
+	 *  contain the key. <strong>N.B.</strong>: this list should not be
+	 *  modified.
+	 */
+	public List getCases() {
+		return _cases;
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	public void checkSymbols(ParseTree tree, Map scope, int scopeType)
+			throws ParseException {
+		// the switch is created from rules which have already been checked
+	}
+
+
+	public StringBuffer generateCode(int indentLevel, StringBuffer b) {
+		// the map from the values to the case indices is created once
+		StringBuffer init = new StringBuffer("Util.toIndexMap(new Object[] {");
+		for (int i = 0, max = _expressions.size(); i < max; i++) {
+			if (i > 0) {
+				init.append(", ");
+			}
+			init.append(((Expression)_expressions.get(i)).toJavaExpression());
+		}
+		String cases = AccUtils.declareConstant("Map",
+				init.append("})").toString());
+
+		AccUtils.indent(b, indentLevel);
+		b.append(TEMP_OBJ_NAME).append(" = ").append(MESSAGE_MAP_NAME).
+				append(" == null ? null : ").append(cases).append(".get(").
+				append(MESSAGE_MAP_NAME).append(".get(").
+				append(AccUtils.encodeStringLiteral(_key)).append("));\n");
+		AccUtils.indent(b, indentLevel);
+		b.append("switch (").append(TEMP_OBJ_NAME).
+				append(" == null ? -1 : ((Integer)").append(TEMP_OBJ_NAME).
+				append(").intValue()) {\n");
+
+		for (int i = 0, max = _cases.size(); i < max; i++) {
+			AccUtils.indent(b, indentLevel);
+			b.append("case ").append(i).append(":\n");
+			List rules = (List)_cases.get(i);
+			for (int j = 0, size = rules.size(); j < size; j++) {
+				((Statement)rules.get(j)).generateCode(indentLevel + 1, b);
+			}
+			AccUtils.indent(b, indentLevel + 1);
+			b.append("break;\n");
+		}
+
+		AccUtils.indent(b, indentLevel);
+		return b.append("}\n");
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer();
+		for (Iterator i = _rules.iterator(); i.hasNext(); ) {
+			buf.append(i.next());
+			if (i.hasNext()) {
+				buf.append('\n');
+			}
+		}
+		return buf.toString();
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Replaces the sequences of WHEN rules in the checked body of a
+	 *  procedure which can be dispatched on the same key by
+	 *  {@link MessageSwitch}es. For each
+	 *  sequence, the key compared to a constant by the most consecutive
+	 *  rules is chosen; at least two rules must compare it, and their
+	 *  guards must not evaluate a query or a procedure call before it.
+	 * @param tree the parse tree containing the defs
+	 * @param block the statements of the body, which are modified
+	 */
+	public static void group(ParseTree tree, List block) {
+		for (int i = 0; i < block.size(); i++) {
+			if (!(block.get(i) instanceof MessageRule)) {
+				continue;
+			}
+			Map guard = ((MessageRule)block.get(i)).getGuard();
+			if (guard == null) {
+				continue;
+			}
+
+			// find the key compared by the most consecutive rules
+			String best = null;
+			int count = 1;
+			for (Iterator it = guard.keySet().iterator(); it.hasNext(); ) {
+				String key = (String)it.next();
+				int n = 0;
+				while (i + n < block.size() &&
+						isSwitchable(tree, block.get(i + n), key)) {
+					n++;
+				}
+				if (n > count) {
+					best = key;
+					count = n;
+				}
+			}
+
+			if (best != null) {
+				List rules = block.subList(i, i + count);
+				MessageSwitch s = new MessageSwitch(tree, best,
+						new ArrayList(rules));
+				rules.clear();
+				block.add(i, s);
+			}
+		}
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+
+	// the key
+	private String _key;
+
+	// the original rules
+	private List _rules;
+
+	// the values and expressions of the cases, and the rules of each case
+	// (Lists of MessageRules)
+	private List _values = new ArrayList();
+	private List _expressions = new ArrayList();
+	private List _cases = new ArrayList();
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// determine whether a statement is a WHEN rule which compares the key to
+	// a constant, and whose guard has no side effects before the key
+	private static boolean isSwitchable(ParseTree tree, Object statement,
+			String key) {
+		if (getConstantValue(tree, statement, key) == null) {
+			return false;
+		}
+		Map guard = ((MessageRule)statement).getGuard();
+		for (Iterator it = guard.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry e = (Map.Entry)it.next();
+			if (key.equals(e.getKey())) {
+				return true;
+			}
+			else if (hasEffects(e.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	// determine whether the evaluation of a guard value may have side
+	// effects, i.e. whether it contains a query or a procedure call
+	private static boolean hasEffects(Object value) {
+		if (value instanceof Query || value instanceof ProcedureCall) {
+			return true;
+		}
+		else if (value instanceof Sentence) {
+			return hasEffects(((Sentence)value).getTerms());
+		}
+		else if (value instanceof List) {
+			for (Iterator it = ((List)value).iterator(); it.hasNext(); ) {
+				if (hasEffects(it.next())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+
+	// return the constant to which a statement, if it is a WHEN rule,
+	// compares a key, or null
+	private static Object getConstantValue(ParseTree tree, Object statement,
+			String key) {
+		if (!(statement instanceof MessageRule)) {
+			return null;
+		}
+		Map guard = ((MessageRule)statement).getGuard();
+		return guard == null ? null : getConstantValue(tree, guard.get(key));
+	}
+
+
+	// return the run time value of a literal or a constant, or null
+	private static Object getConstantValue(ParseTree tree, Object e) {
+		if (e instanceof Literal) {
+			return ((Literal)e).getRuntimeValue();
+		}
+		else if (e instanceof Constant) {
+			Literal l = (Literal)tree.getDefs().get(((Constant)e).getName());
+			return l == null ? null : l.getRuntimeValue();
+		}
+		else {
+			return null;
+		}
+	}
+
+	// ------------------------------ instance -----------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+}
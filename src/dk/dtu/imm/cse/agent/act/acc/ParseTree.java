@@ -199,21 +199,7 @@ public class ParseTree implements AccConstants {
 	 * Add an attitude declaration to the program
 	 */
 	public void addAttitude(Token attitude, int value) throws ParseException {
-		if (value < 0) {
-	  		AccUtils.throwParseException(attitude, "Negative attitude ID");
-		}
-		
-		Integer v = (Integer)_attitudes.get(attitude.image);
-		if (v != null) {
-			if (v.intValue() != value) {
-				AccUtils.throwParseException(attitude,
-					"Attitude " + attitude.image + " redefined from " +
-						v + " to " + value);
-			}
-		}
-		else {
-			_attitudes.put(attitude.image, new Integer(value));
-		}
+		addAttitude(attitude.image, value, attitude);
 	}
 
 	
@@ -221,18 +207,7 @@ public class ParseTree implements AccConstants {
 	 * Add a symbol definition to the program.
 	 */
 	public void addDef(Token name, Literal value) throws ParseException {
-		Literal old = (Literal)_defs.get(name.image);
-		if (old != null) {
-			if (!old.equals(value)) {
-				AccUtils.throwParseException(name,
-					"Constant " + name.image + " redefined from " +
-					old.getValue() + " (" + old.getJavaType() + ") to " +
-					value.getValue() + " (" + value.getJavaType() + ")");
-			}
-		}
-		else {
-			_defs.put(name.image, value);
-		}
+		addDef(name.image, value, name);
 	}
 	
 	
@@ -249,29 +224,42 @@ public class ParseTree implements AccConstants {
 	 */
 	public void addProcedure(Token name, List params, List block) 
 			throws ParseException {		
-		ProcedureSignature sig = new ProcedureSignature(name.image, params);
-		
-		if (_procedures.containsKey(sig)) {
-			if (block == null) {
-				// requirement declaration - do nothing
-			}
-			else {
-				Object p = _procedures.get(sig);
-				if (p != null && p != EXTERNAL_PROCEDURE) {
-					// dissalow redeclaration of procedures, unless
-					// they are inherited and not final.
-					AccUtils.throwParseException(name,
-						"Procedure " + name.image + " illegally redefined");
-				}
-				else if (block != null) {
-					_procedures.put(sig, block);
-				}
-				// else null is already stored 
-			}
+		addProcedure(new ProcedureSignature(name.image, params), block, name);
+	}
+	
+	
+	/**
+	 * Adds copies of the declarations of another program, as if its source
+	 *  code followed the source code of this program. The other program 
+	 *  must have been parsed with the same superclass and interfaces, and 
+	 *  its semantics must not have been checked. Since it is not modified,
+	 *  it may be included in any number of programs, even concurrently.
+	 * @param module the parse tree of the other program
+	 * @exception ParseException if the declarations conflict
+	 */
+	public void include(ParseTree module) throws ParseException {
+		for (Iterator i = module._attitudes.entrySet().iterator(); 
+				i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			addAttitude((String)e.getKey(), 
+					((Integer)e.getValue()).intValue(), null);
 		}
-		else {
-			// add the declaration
-			_procedures.put(sig, block);
+		for (Iterator i = module._defs.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			addDef((String)e.getKey(), (Literal)e.getValue(), null);
+		}
+		_facts.addAll((List)SyntaxCopier.copy(module._facts));
+		for (Iterator i = module._procedures.entrySet().iterator(); 
+				i.hasNext(); ) {
+			Map.Entry e = (Map.Entry)i.next();
+			ProcedureSignature sig = (ProcedureSignature)e.getKey();
+			if (module.isExternalProcedure(sig)) {
+				// inherited by this program as well
+				continue;
+			}
+			addProcedure(new ProcedureSignature(sig._name, 
+					(List)SyntaxCopier.copy(sig._params)), 
+					(List)SyntaxCopier.copy(e.getValue()), null);
 		}
 	}
 	
@@ -377,6 +365,86 @@ public class ParseTree implements AccConstants {
 	// ------------------------------- class -------------------------------
 	// ------------------------------ instance -----------------------------
 
+	// add an attitude declaration
+	// location: the token at which an error is reported, or null
+	private void addAttitude(String attitude, int value, Token location) 
+			throws ParseException {
+		if (value < 0) {
+	  		throwParseException(location, "Negative attitude ID");
+		}
+		
+		Integer v = (Integer)_attitudes.get(attitude);
+		if (v != null) {
+			if (v.intValue() != value) {
+				throwParseException(location,
+					"Attitude " + attitude + " redefined from " +
+						v + " to " + value);
+			}
+		}
+		else {
+			_attitudes.put(attitude, new Integer(value));
+		}
+	}
+
+	
+	// add a symbol definition
+	// location: the token at which an error is reported, or null
+	private void addDef(String name, Literal value, Token location) 
+			throws ParseException {
+		Literal old = (Literal)_defs.get(name);
+		if (old != null) {
+			if (!old.equals(value)) {
+				throwParseException(location,
+					"Constant " + name + " redefined from " +
+					old.getValue() + " (" + old.getJavaType() + ") to " +
+					value.getValue() + " (" + value.getJavaType() + ")");
+			}
+		}
+		else {
+			_defs.put(name, value);
+		}
+	}
+	
+	
+	// add a procedure declaration (block == null) or definition
+	// location: the token at which an error is reported, or null
+	private void addProcedure(ProcedureSignature sig, List block, 
+			Token location) throws ParseException {
+		if (_procedures.containsKey(sig)) {
+			if (block == null) {
+				// requirement declaration - do nothing
+			}
+			else {
+				Object p = _procedures.get(sig);
+				if (p != null && p != EXTERNAL_PROCEDURE) {
+					// dissalow redeclaration of procedures, unless
+					// they are inherited and not final.
+					throwParseException(location,
+						"Procedure " + sig._name + " illegally redefined");
+				}
+				else if (block != null) {
+					_procedures.put(sig, block);
+				}
+				// else null is already stored 
+			}
+		}
+		else {
+			// add the declaration
+			_procedures.put(sig, block);
+		}
+	}
+	
+	
+	// throw a ParseException, at the given token if it is known
+	private static void throwParseException(Token location, String msg)
+			throws ParseException {
+		if (location == null) {
+			throw new ParseException(msg);
+		}
+		AccUtils.throwParseException(location, msg);
+	}
+	
+
 	// add the constant fields from the given class
 	private void addDefsFromFields(Class c, int reqMask, int optMask) 
 			throws IllegalAccessException {
@@ -607,6 +675,15 @@ public class ParseTree implements AccConstants {
 		}
 		
 		
+		/**
+		 * @return the parameters of the procedure (Variables). 
+		 *  <strong>N.B.</strong>: this list should not be modified.
+		 */
+		public List getParameters() {
+			return _params;
+		}
+		
+		
 		private String _name;
 		private List _params;
 	}
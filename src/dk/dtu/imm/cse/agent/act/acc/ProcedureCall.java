@@ -65,6 +65,23 @@ public class ProcedureCall implements Statement, Expression, ErrorLocation {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the name of the called procedure
+	 */
+	public String getName() {
+		return _name.image;
+	}
+	
+	
+	/**
+	 * @return the list of parameters (Expressions). <strong>N.B.</strong>:
+	 *  this list should not be modified.
+	 */
+	public List getParameters() {
+		return _params;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
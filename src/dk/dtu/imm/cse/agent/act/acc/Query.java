@@ -65,6 +65,23 @@ public class Query implements Expression {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the name of the query
+	 */
+	public String getName() {
+		return _name;
+	}
+	
+	
+	/**
+	 * @return the list of terms. <strong>N.B.</strong>: this list should
+	 *  not be modified.
+	 */
+	public List getTerms() {
+		return _terms;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
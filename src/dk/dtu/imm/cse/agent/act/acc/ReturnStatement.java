@@ -63,6 +63,14 @@ public class ReturnStatement implements Statement, ErrorLocation {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the expression to be returned, or null if nothing is returned
+	 */
+	public Expression getExpression() {
+		return _e;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
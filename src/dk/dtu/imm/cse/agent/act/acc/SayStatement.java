@@ -62,6 +62,16 @@ public class SayStatement implements Statement, AccConstants {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return the message pattern, which maps keys to values, or null
+	 *  if nothing is said. <strong>N.B.</strong>: this map should not be
+	 *  modified.
+	 */
+	public Map getPattern() {
+		return _pattern;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
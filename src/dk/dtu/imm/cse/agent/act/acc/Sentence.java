@@ -27,7 +27,8 @@ import dk.dtu.imm.cse.agent.act.afc.*;
  *
  * @author  Henrik Lauritzen
  */
-public class Sentence implements Value, Condition, AccConstants {
+public class Sentence implements Value, Condition, ErrorLocation, 
+		AccConstants {
 
 	// =======================================================================
 	// Class fields
@@ -156,28 +157,14 @@ public class Sentence implements Value, Condition, AccConstants {
 	
 	
 	/**
-	 * Make code to configure the bitset to match the terms of this sentence.
-	 * @param b the buffer to which the generated code should be appended
-	 * @param indentLevel the code indent level
-	 * @return the value produced by {@link #getVardefIndices()}
+	 * Make a constant BitSet indicating the variables to be matched by the
+	 * terms of this sentence.
+	 * @return the name of the field holding the BitSet, as given by
+	 *  {@link AccUtils#declareBitSet(List)} for the value produced by 
+	 *  {@link #getVardefIndices()}.
 	 */
-	public List makeBitsetCode(StringBuffer b, int indentLevel) {		
-		List l = getVardefIndices();
-		if (l.size() == 0) {
-			return l;
-		}
-
-		// construct a BitSet indicating the variables
-		// to be matched
-		AccUtils.indent(b, indentLevel);
-		b.append(TEMP_BS_NAME).append(".clear();\n");							
-		for (Iterator it = l.iterator(); it.hasNext(); ) {
-			AccUtils.indent(b, indentLevel);
-			b.append(TEMP_BS_NAME).append(".set(").
-					append(it.next()).append(");\n");
-		}		
-		
-		return l;
+	public String makeBitsetConstant() {		
+		return AccUtils.declareBitSet(getVardefIndices());
 	}
 	
 	
@@ -193,7 +180,7 @@ public class Sentence implements Value, Condition, AccConstants {
 		b.append(_attitudeId).append(", ").
 				append(AccUtils.encodeStringLiteral(_name)).
 				append(", ");
-		AccUtils.translateTerms(b, _terms, "null");
+		AccUtils.translateTerms(b, _terms, "null", true);
 		return b;
 	}
 	
@@ -223,11 +210,12 @@ public class Sentence implements Value, Condition, AccConstants {
 	 *  the place of variable defs.
 	 */
 	public String toJavaExpression() {
-		StringBuffer b = new StringBuffer("new Fact(").append(_attitudeId).
-				append(", ").append(AccUtils.encodeStringLiteral(_name)).
-				append(", ");
-		AccUtils.translateTerms(b, _terms, "null");
-		return b.append(')').toString();
+		StringBuffer b = new StringBuffer("new Fact(");
+		makeParameterTriple(b).append(')');
+		
+		// a ground fact is created once, in a pooled constant
+		return AccUtils.isConstant(_terms) ?
+				AccUtils.declareConstant("Fact", b.toString()) : b.toString();
 	}
 	
 	
@@ -239,6 +227,11 @@ public class Sentence implements Value, Condition, AccConstants {
 
 	// ------------------------------- public --------------------------------
 
+	public Token getInitialToken() {
+		return _attitude;
+	}
+	
+
 	public void checkSymbols(ParseTree tree, Map scope, int scopeType)
 			throws ParseException {
 
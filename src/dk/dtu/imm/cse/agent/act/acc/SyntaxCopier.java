@@ -0,0 +1,158 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.acc;
+
+import java.util.*;
+
+
+/**
+ * Copies abstract syntax trees whose semantics have not been checked.
+ * The semantical check classifies the variables and reorders the
+ * conditions of the syntax tree, so a tree which is included in several
+ * programs must be copied for each of them. The copy is identical to the
+ * tree produced by parsing the same source again, but it shares the
+ * tokens and the immutable nodes (literals and SELF) with the original.
+ *
+ * @author  Henrik Lauritzen
+ * @see ParseTree#include(ParseTree)
+ */
+final class SyntaxCopier {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- private -------------------------------
+
+	private SyntaxCopier() {
+	}
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	/**
+	 * Copies an unchecked syntax tree.
+	 * @param syntax a syntax tree, or a List or Map of syntax trees (which
+	 *  are copied recursively), or null
+	 * @return the copy
+	 */
+	static Object copy(Object syntax) {
+		if (syntax == null || syntax instanceof Literal ||
+				syntax instanceof SelfRef) {
+			return syntax;
+		}
+		else if (syntax instanceof List) {
+			List l = (List)syntax;
+			List result = new ArrayList(l.size());
+			for (int i = 0, max = l.size(); i < max; i++) {
+				result.add(copy(l.get(i)));
+			}
+			return result;
+		}
+		else if (syntax instanceof Map) {
+			LinkedHashMap result = new LinkedHashMap();
+			for (Iterator i = ((Map)syntax).entrySet().iterator();
+					i.hasNext(); ) {
+				Map.Entry e = (Map.Entry)i.next();
+				result.put(e.getKey(), copy(e.getValue()));
+			}
+			return result;
+		}
+		else if (syntax instanceof Variable) {
+			Variable v = (Variable)syntax;
+			return v.getInitialToken() == null ? new Variable(v.getName()) :
+					new Variable(v.getInitialToken());
+		}
+		else if (syntax instanceof Constant) {
+			Constant c = (Constant)syntax;
+			return new Constant(c.getInitialToken(), c.isExternal());
+		}
+		else if (syntax instanceof Sentence) {
+			Sentence s = (Sentence)syntax;
+			Sentence result = new Sentence(s.getInitialToken(), s.getName(),
+					(List)copy(s.getTerms()));
+			result.setAlias((Variable)copy(s.getAlias()));
+			return result;
+		}
+		else if (syntax instanceof Query) {
+			Query q = (Query)syntax;
+			return new Query(q.getName(), (List)copy(q.getTerms()));
+		}
+		else if (syntax instanceof ProcedureCall) {
+			ProcedureCall p = (ProcedureCall)syntax;
+			return new ProcedureCall(p.getInitialToken(),
+					(List)copy(p.getParameters()));
+		}
+		else if (syntax instanceof Action) {
+			Action a = (Action)syntax;
+			return new Action(a.isDo(), a.getName(),
+					(List)copy(a.getTerms()));
+		}
+		else if (syntax instanceof Comparison) {
+			Comparison c = (Comparison)syntax;
+			return new Comparison((Expression)copy(c.getLeft()),
+					c.getComparator(), (Expression)copy(c.getRight()));
+		}
+		else if (syntax instanceof NotCondition) {
+			return new NotCondition((Condition)copy(
+					((NotCondition)syntax).getCondition()));
+		}
+		else if (syntax instanceof IfStatement) {
+			IfStatement s = (IfStatement)syntax;
+			return new IfStatement((List)copy(s.getConditions()),
+					(List)copy(s.getBlocks()));
+		}
+		else if (syntax instanceof MessageRule) {
+			MessageRule r = (MessageRule)syntax;
+			return new MessageRule((Map)copy(r.getGuard()),
+					(List)copy(r.getBlock()));
+		}
+		else if (syntax instanceof LockedStatement) {
+			return new LockedStatement((List)copy(
+					((LockedStatement)syntax).getBlock()));
+		}
+		else if (syntax instanceof MentalUpdateStatement) {
+			MentalUpdateStatement m = (MentalUpdateStatement)syntax;
+			return new MentalUpdateStatement(m.isAdopt(),
+					(Value)copy(m.getValue()));
+		}
+		else if (syntax instanceof SayStatement) {
+			return new SayStatement((LinkedHashMap)copy(
+					((SayStatement)syntax).getPattern()));
+		}
+		else if (syntax instanceof LetStatement) {
+			LetStatement l = (LetStatement)syntax;
+			return new LetStatement((Variable)copy(l.getVariable()),
+					(Value)copy(l.getBinding()));
+		}
+		else if (syntax instanceof Assignment) {
+			Assignment a = (Assignment)syntax;
+			return new Assignment((Variable)copy(a.getVariable()),
+					(Value)copy(a.getBinding()));
+		}
+		else if (syntax instanceof ReturnStatement) {
+			ReturnStatement r = (ReturnStatement)syntax;
+			return new ReturnStatement(r.getInitialToken(),
+					(Expression)copy(r.getExpression()));
+		}
+		else {
+			throw new IllegalArgumentException(syntax.getClass().getName());
+		}
+	}
+}
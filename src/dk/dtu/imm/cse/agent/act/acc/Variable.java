@@ -112,9 +112,11 @@ public class Variable implements Expression, ErrorLocation {
 					"Attempt to reclassify variable \"" + getName() + "\"");
 		}
 		
-		// configure as a def
+		// configure as a def; only the values bound by LET statements and
+		// assignments are known
 		_def = this;
 		_assignable = assignable;
+		_type = assignable ? UNBOUND : UNKNOWN;
 		
 		// assign a new, unique variable number
 		_id = ((Integer)_numGenerator.get()).intValue();
@@ -164,6 +166,44 @@ public class Variable implements Expression, ErrorLocation {
 	}
 	
 	
+	/**
+	 * @return the number of the def of this variable, which is unique
+	 *  within the program and is also used in the generated variable
+	 *  names, or -1 for a wildcard.
+	 * @exception IllegalStateException if the variable is unclassified
+	 */
+	public int getNumber() {
+		if (_def == null) {
+			throw new IllegalStateException("Unclassified variable");
+		}
+		return _def._id;
+	}
+	
+	
+	/**
+	 * @return the type (TYPE_INT or TYPE_DOUBLE) of every number bound to 
+	 *  the variable, or -1 if the variable may have other values.
+	 */
+	public int getNumericType() {
+		return _def == null || _def._type < 0 ? -1 : _def._type;
+	}
+	
+	
+	/**
+	 * Records that a value is bound to this variable by a LET statement
+	 *  or an assignment.
+	 * @param type the numeric type of the value, as returned by
+	 *  {@link AccUtils#getNumericType}
+	 */
+	void addBinding(int type) {
+		Variable def = _def;
+		if (def == null || def._type == UNKNOWN) {
+			return;
+		}
+		def._type = def._type == UNBOUND || def._type == type ? 
+				type : UNKNOWN;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -246,6 +286,15 @@ public class Variable implements Expression, ErrorLocation {
 	// ------------------------------- public --------------------------------
 	// ------------------------------ protected ------------------------------
 	
+	/**
+	 * Restarts the numbering of the variable defs classified by the current
+	 *  thread, so that the names generated for a program do not depend on
+	 *  the programs compiled before it by the same thread.
+	 */
+	static void resetNumbering() {
+		_numGenerator.set(Integer.valueOf(0));
+	}
+	
 	// ***********************************************************************
 
 	// =======================================================================
@@ -263,6 +312,11 @@ public class Variable implements Expression, ErrorLocation {
 
 	 // the ID used for a wildcard variable
 	 private final static int WILDCARD_ID = -1;
+	 
+	 // the values of _type for a variable which has no values yet, and
+	 // for one whose values are not all numbers of the same type
+	 private final static int UNBOUND = -2;
+	 private final static int UNKNOWN = -1;
 	
 	// ------------------------------ instance -----------------------------
 	
@@ -284,6 +338,9 @@ public class Variable implements Expression, ErrorLocation {
 	// a unique ID used as the variable name
 	private int _id = 0;
 	
+	// the numeric type of the values of a def (or UNBOUND or UNKNOWN)
+	private int _type = UNKNOWN;
+	
 	// =======================================================================
 	// Private methods
 	// =======================================================================
@@ -286,6 +286,38 @@ public abstract class Acme {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * Compare two values for order. This is used by the generated code
+	 *  to evaluate an ordered comparison whose operands are not known to
+	 *  be numbers at compile time. Integers and Doubles are compared
+	 *  numerically, also with each other; other values must be
+	 *  Comparable.
+	 * @return a negative number, zero or a positive number if obj1 is
+	 *  less than, equal to or greater than obj2
+	 * @exception ClassCastException if the values can not be compared
+	 */
+	public static int compareValues(Object obj1, Object obj2) {
+		if (obj1 instanceof Integer) {
+			if (obj2 instanceof Integer) {
+				int i1 = ((Integer)obj1).intValue();
+				int i2 = ((Integer)obj2).intValue();
+				return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+			}
+			else if (obj2 instanceof Double) {
+				return Double.compare(((Integer)obj1).intValue(), 
+						((Double)obj2).doubleValue());
+			}
+		}
+		else if (obj1 instanceof Double) {
+			if (obj2 instanceof Double || obj2 instanceof Integer) {
+				return Double.compare(((Double)obj1).doubleValue(), 
+						((Number)obj2).doubleValue());
+			}
+		}
+		return ((Comparable)obj1).compareTo(obj2);
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// ***********************************************************************
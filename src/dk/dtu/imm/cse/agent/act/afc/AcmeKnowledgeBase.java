@@ -17,10 +17,9 @@
 */
 package dk.dtu.imm.cse.agent.act.afc;
 
+import java.io.*;
 import java.util.*;
 
-import dk.dtu.imm.cse.agent.act.util.*;
-
 
 /**
  * A KnowledgeBase implementation which is optimized to be used as the ACME's
@@ -35,6 +34,21 @@ import dk.dtu.imm.cse.agent.act.util.*;
  * <code>match()</code> is not degraded when the base contains many
  * different kinds of facts, as the main knowledge base most likely will.
  * However, the price is a relatively low iteration performance.
+ * <p>
+ * When many facts share the same predicate symbol, the knowledge base may 
+ * furthermore maintain an index for each term position, mapping the term
+ * values to the facts containing them. A partially bound pattern will then
+ * only be matched against the facts found in the smallest of the index
+ * buckets selected by its bound terms. Indices can be 
+ * {@link #declareIndex(int, String, int) declared} for a single predicate,
+ * or they can be built on demand for every predicate by using the
+ * {@link #INDEX_ON_DEMAND} option.
+ * <p>
+ * By using the {@link #COLUMN_STORAGE} option, the facts sharing a predicate
+ * symbol can instead be stored column by column, so that Integer and Double
+ * terms are kept as raw <code>int</code> and <code>double</code> values.
+ * This reduces the memory used by numeric facts considerably, at the cost
+ * of boxing the terms of every matching fact again.
  *
  * @author  Henrik Lauritzen
  */
@@ -45,6 +59,33 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	// =======================================================================
 
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * An option which causes the knowledge base to build an index for a term
+	 * position the first time a pattern binding that position is
+	 * {@link #match(Fact, BitSet) matched} against a predicate containing 
+	 * at least {@link #INDEX_THRESHOLD} facts.
+	 */
+	public final static int INDEX_ON_DEMAND = 1;
+	
+	
+	/**
+	 * The minimal number of facts which must share a predicate symbol 
+	 * before an index is built on demand.
+	 */
+	public final static int INDEX_THRESHOLD = 32;
+	
+	
+	/**
+	 * An option which causes the facts of each predicate symbol to be 
+	 * stored column by column, keeping Integer and Double terms unboxed.
+	 * A predicate reverts to the ordinary storage when facts of different
+	 * arities are added to it, or when an index is 
+	 * {@link #declareIndex(int, String, int) declared} for it; such 
+	 * predicates are not indexed on demand.
+	 */
+	public final static int COLUMN_STORAGE = 2;
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -76,6 +117,18 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	 *  attitudes 0 through size.
 	 */
 	public AcmeKnowledgeBase(int size) {
+		this(size, 0);
+	}
+	
+	
+	/**
+	 * Constructs an initially empty knowledge base which allows
+	 *  attitudes 0 through size.
+	 * @param options the options to use; 0, or a combination of 
+	 *  {@link #INDEX_ON_DEMAND} and {@link #COLUMN_STORAGE}.
+	 */
+	public AcmeKnowledgeBase(int size, int options) {
+		_options = options;
 		_base = new Map[size];
 		for (int i = 0; i < _base.length; i++) {
 			_base[i] = new HashMap();
@@ -93,8 +146,71 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * Ensures that an index is maintained for the given term position of 
+	 * the facts having the given category and predicate symbol, regardless
+	 * of the number of such facts. 
+	 * @param category the category of the facts to be indexed
+	 * @param name the predicate symbol of the facts to be indexed
+	 * @param position the index of the term to be used as key in the index
+	 * @exception IndexOutOfBoundsException if the category is invalid,
+	 *  or if the position is negative.
+	 */
+	public synchronized void declareIndex(int category, String name, 
+			int position) throws IndexOutOfBoundsException {
+		if (position < 0) {
+			throw new IndexOutOfBoundsException("" + position);
+		}
+		
+		Map m = _base[category];
+		Table t = (Table)m.get(name);
+		if (t == null) {
+			m.put(name, t = new Table());
+		}
+		t.declareIndex(position);
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
+	/**
+	 * Adds a run of term arrays, which are known to be distinct, without
+	 * checking them for duplicates. This is only done if the knowledge base
+	 * holds no facts having the given category and predicate symbol.
+	 * @return true iff the facts were added; if false is returned, the
+	 *  knowledge base is unchanged.
+	 * @see SnapshotReader#readInto(KnowledgeBase)
+	 */
+	synchronized boolean addDistinct(int category, String name, 
+			Object[][] tuples) {
+		Map m = _base[category];
+		Table t = (Table)m.get(name);
+		if (t == null) {
+			m.put(name, t = new Table());
+		}
+		else if (t.size() > 0) {
+			return false;
+		}
+		
+		for (int i = 0; i < tuples.length; i++) {
+			t.addDistinct(tuples[i]);
+		}
+		_size += tuples.length;
+		if (t.isDisposable()) {
+			m.remove(name);
+		}
+		
+		if (isObserved(category, name)) {
+			FactChange[] changes = new FactChange[tuples.length];
+			for (int i = 0; i < tuples.length; i++) {
+				changes[i] = _changes.createChange(FactChange.ADDED, 
+						category, name, tuples[i]);
+			}
+			_changes.fire(changes, changes.length);
+		}
+		return true;
+	}
+	
 	// =======================================================================
 	// Implementations of abstract methods
 	// =======================================================================
@@ -111,11 +227,53 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	}
 	
 	
+	public int size(int category, String name) {
+		if (category < 0 || category >= _base.length) {
+			return 0;
+		}
+		synchronized (this) {
+			Table t = (Table)_base[category].get(name);
+			return t == null ? 0 : t.size();
+		}
+	}
+	
+	
 	public synchronized void clear() {
+		// report the observed facts as removed, in a single batch
+		List removed = null;
+		for (int i = 0; _changes != null && i < _base.length; i++) {
+			for (Iterator j = _base[i].entrySet().iterator(); j.hasNext(); ) {
+				Map.Entry e = (Map.Entry)j.next();
+				String name = (String)e.getKey();
+				if (!_changes.isObserved(i, name)) {
+					continue;
+				}
+				if (removed == null) {
+					removed = new ArrayList();
+				}
+				for (Iterator k = ((Table)e.getValue()).iterator(); 
+						k.hasNext(); ) {
+					removed.add(_changes.createChange(FactChange.REMOVED, i,
+							name, (Object[])k.next()));
+				}
+			}
+		}
+		
 		for (int i = 0; i < _base.length; i++) {
-			_base[i].clear();
+			for (Iterator j = _base[i].values().iterator(); j.hasNext(); ) {
+				Table t = (Table)j.next();
+				t.clear();
+				if (t.isDisposable()) {
+					j.remove();
+				}
+			}
 		}
 		_size = 0;
+		
+		if (removed != null) {
+			_changes.fire((FactChange[])removed.toArray(NO_CHANGES), 
+					removed.size());
+		}
 	}
 	
 
@@ -134,9 +292,10 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 			private int _id = 0;
 			private Iterator _mapIterator = _base[_id].entrySet().iterator();
 			private String _name = null;
-			private Set _set = null;
+			private Table _table = null;
 			private Iterator _setIterator = null;
 			private boolean _removable = false;
+			private Object[] _last = null;
 			
 			private int _current = 0, _max = _size - 1;
 			
@@ -158,14 +317,14 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 					
 					Map.Entry e = (Map.Entry)_mapIterator.next();
 					_name = (String)e.getKey();
-					_set = (Set)e.getValue();
-					_setIterator = _set.iterator();
+					_table = (Table)e.getValue();
+					_setIterator = _table.iterator();
 				}
 				
 				_current++;
 				_removable = true;
-				return new Fact(_id, _name, 
-						((List)_setIterator.next()).toArray());
+				_last = (Object[])_setIterator.next();
+				return new Fact(_id, _name, _last);
 			}
 			
 			
@@ -174,14 +333,16 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 					throw new IllegalStateException();
 				}
 				
-				_setIterator.remove();
-				if (_set.size() == 0) {
+				_table.remove(_last);
+				if (_table.isDisposable()) {
 					_mapIterator.remove();
 				}
 				
 				_size--;
 				_removable = false;
-					
+				if (isObserved(_id, _name)) {
+					_changes.fire(FactChange.REMOVED, _id, _name, _last);
+				}
 			}
 			
 		};
@@ -195,14 +356,16 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	
 	public synchronized boolean add(int category, String name, Object[] terms) {
 		Map m = _base[category];
-		List ts = makeStorageList(terms);
-		Set b = (Set)m.get(name);
+		Table t = (Table)m.get(name);
 
-		if (b == null) {
-			m.put(name, b = new LinkedHashSet());
+		if (t == null) {
+			m.put(name, t = new Table());
 		}		
-		if (b.add(ts)) {
+		if (t.add(terms)) {
 			_size++;
+			if (isObserved(category, name)) {
+				_changes.fire(FactChange.ADDED, category, name, terms);
+			}
 			return true;
 		}
 		else {
@@ -221,8 +384,8 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 			return false;
 		}
 		synchronized (this) {
-			Set b = (Set)_base[category].get(name);
-			return b == null ? false : b.contains(makeLookupList(terms));
+			Table t = (Table)_base[category].get(name);
+			return t == null ? false : t.contains(terms);
 		}
 	}
 	
@@ -239,15 +402,18 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	
 		synchronized (this) {
 			Map m = _base[category];
-			Set b = (Set)m.get(name);
-			if (b == null) {
+			Table t = (Table)m.get(name);
+			if (t == null) {
 				return false;
 			}		
-			if (b.remove(makeLookupList(terms))) {
-				if (b.size() == 0) {
+			if (t.remove(terms)) {
+				if (t.isDisposable()) {
 					m.remove(name);
 				}
 				_size--;
+				if (isObserved(category, name)) {
+					_changes.fire(FactChange.REMOVED, category, name, terms);
+				}
 				return true;
 			}
 			else {
@@ -270,17 +436,30 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 
 		synchronized (this) {
 			Map m = _base[category];
-			Set b = (Set)m.get(name);
-			if (b == null) {
+			Table t = (Table)m.get(name);
+			if (t == null) {
 				return 0;
 			}		
 
-			List matchList = makeLookupList(terms);
-			for (Iterator i = b.iterator(); i.hasNext(); ) {
-				if (Fact.matchTerms((List)i.next(), matchList, vars)) {
-					i.remove();
-					removed++;
+			if (isObserved(category, name)) {
+				// find the matches first, in order to report them
+				Cursor matches = new Cursor(this);
+				matches.reset(category, name);
+				t.match(terms, vars, matches);
+				FactChange[] changes = new FactChange[matches._count];
+				while (matches.next()) {
+					Object[] ts = matches.getCurrent();
+					t.remove(ts);
+					changes[removed++] = _changes.createChange(
+							FactChange.REMOVED, category, name, ts);
 				}
+				_changes.fire(changes, removed);
+			}
+			else {
+				removed = t.removeMatches(terms, vars);
+			}
+			if (t.isDisposable()) {
+				m.remove(name);
 			}
 
 			_size -= removed;
@@ -300,26 +479,65 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 			return Collections.EMPTY_LIST;
 		}
 		
-		List result = new ArrayList();
+		Cursor matches = new Cursor(this);
+		matches.reset(category, name);
 		synchronized (this) {
-			Set lookupSet = (Set)(_base[category].get(name));
-			if (lookupSet == null) {
+			Table t = (Table)(_base[category].get(name));
+			if (t == null) {
 				return Collections.EMPTY_LIST;
 			}
-
-			List matchList = makeLookupList(terms);
-			for (Iterator i = lookupSet.iterator(); i.hasNext(); ) {
-				List ts = (List)i.next();
-				if (Fact.matchTerms(matchList, ts, vars)) {
-					result.add(new Fact(category, name, ts.toArray()));
-				}
-			}
+			t.match(terms, vars, matches);
 		}
 	
+		List result = new ArrayList();
+		while (matches.next()) {
+			result.add(matches.getFact());
+		}
+		return result;
+	}
+	
+	
+	public FactCursor matchCursor(int category, String name, Object[] terms,
+			BitSet vars, FactCursor cursor) {
+		Cursor result = (cursor instanceof Cursor && 
+				((Cursor)cursor)._owner == this) ? 
+				(Cursor)cursor : new Cursor(this);
+		result.reset(category, name);
+		if (category < 0 || category >= _base.length) {
+			return result;
+		}
+		
+		synchronized (this) {
+			Table t = (Table)(_base[category].get(name));
+			if (t == null) {
+				return result;
+			}
+
+			// collect the matching term arrays, so that the knowledge base
+			// may be modified while the cursor is used
+			t.match(terms, vars, result);
+		}
+		
 		return result;
 	}
 	
 	
+	public synchronized void addKnowledgeBaseListener(KnowledgeBaseListener l,
+			int category, String name) {
+		if (_changes == null) {
+			_changes = new ChangeSupport(this);
+		}
+		_changes.addListener(l, category, name);
+	}
+	
+	
+	public synchronized void removeKnowledgeBaseListener(
+			KnowledgeBaseListener l) {
+		if (_changes != null) {
+			_changes.removeListener(l);
+		}
+	}
+	
 	// ------------------------------ protected ------------------------------
 
 	// =======================================================================
@@ -343,41 +561,89 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+	
+	// the candidates for a pattern which cannot match any fact
+	private final static TupleSet EMPTY = new TupleSet();
+	
+	// an empty array of changes
+	private final static FactChange[] NO_CHANGES = new FactChange[0];
+	
 	// ------------------------------ instance -----------------------------
 	
 	// The contents of the knowledge base.
 	// Each index, which corresponds to an attitude id,
 	// contains a map of predicate symbol (String) keys and
-	// Set values, each of which contain term lists (List).
-	private Map[] _base;
+	// Table values, each of which contain term arrays (Object[]).
+	private transient Map[] _base;
+	
+	// the options given at construction time
+	private int _options;
 	
 	// the size of the knowledge base; this needs to be maintained separately
 	// for efficiency reasons.
-	private int _size;
+	private transient int _size;
 	
-	// a shared list instance used for lookup operations
-	private ArrayWrapperList _lookupList = new ArrayWrapperList();
+	// the registered listeners, or null if none have been registered
+	private transient ChangeSupport _changes;
 	
 	// =======================================================================
 	// Private methods
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
 	
-	// wrap an array of terms as a list which can be stored in the base.
-	private static List makeStorageList(Object[] terms) {
-		return (terms == null || terms.length == 0) ? 
-				Collections.EMPTY_LIST : Arrays.asList(terms);
+	// true iff a listener observes the given facts
+	private boolean isObserved(int category, String name) {
+		return _changes != null && _changes.isObserved(category, name);
 	}
 	
-	// ------------------------------ instance -----------------------------
-
-	// wrap an array of terms as a list which can be used to probe the 
-	// knowledge base; in this case, the shared ListWrapper instance
-	// is used in order to avoid creating a new list
-	private List makeLookupList(Object[] terms) {
-		_lookupList.setData(terms);
-		return _lookupList;
+	
+	// the facts are serialized in the snapshot format, followed by the
+	// declared indices
+	private synchronized void writeObject(ObjectOutputStream out) 
+			throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(_base.length);
+		SnapshotWriter w = new SnapshotWriter(out);
+		w.writeAll(this);
+		w.finish();
+		
+		List declared = new ArrayList();
+		for (int i = 0; i < _base.length; i++) {
+			for (Iterator j = _base[i].entrySet().iterator(); j.hasNext(); ) {
+				Map.Entry e = (Map.Entry)j.next();
+				BitSet positions = ((Table)e.getValue())._declared;
+				for (int k = positions == null ? -1 : 
+						positions.nextSetBit(0); k >= 0; 
+						k = positions.nextSetBit(k + 1)) {
+					declared.add(new Object[] {Integer.valueOf(i),
+							e.getKey(), Integer.valueOf(k)});
+				}
+			}
+		}
+		out.writeInt(declared.size());
+		for (Iterator i = declared.iterator(); i.hasNext(); ) {
+			Object[] d = (Object[])i.next();
+			out.writeInt(((Integer)d[0]).intValue());
+			out.writeUTF((String)d[1]);
+			out.writeInt(((Integer)d[2]).intValue());
+		}
+	}
+	
+	
+	private void readObject(ObjectInputStream in) 
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		_base = new Map[in.readInt()];
+		for (int i = 0; i < _base.length; i++) {
+			_base[i] = new HashMap();
+		}
+		new SnapshotReader(in).readInto(this);
+		
+		for (int n = in.readInt(); n > 0; n--) {
+			declareIndex(in.readInt(), in.readUTF().intern(), in.readInt());
+		}
 	}
 	
 	// ***********************************************************************
@@ -386,4 +652,422 @@ public class AcmeKnowledgeBase implements KnowledgeBase {
 	// Inner classes
 	// =======================================================================
 	
+	// the cursor returned by matchCursor(); it holds references to the
+	// matching term arrays, and is reused for subsequent matches.
+	private static final class Cursor implements FactCursor {
+		
+		Cursor(AcmeKnowledgeBase owner) {
+			_owner = owner;
+		}
+		
+		
+		public boolean next() {
+			if (_pos + 1 >= _count) {
+				_pos = _count;
+				return false;
+			}
+			_pos++;
+			return true;
+		}
+		
+		
+		public int getArity() {
+			return getCurrent().length;
+		}
+		
+		
+		public Object getTerm(int idx) {
+			return getCurrent()[idx];
+		}
+		
+		
+		public Fact getFact() {
+			return new Fact(_category, _name, getCurrent());
+		}
+		
+		
+		// prepare the cursor for a new match
+		void reset(int category, String name) {
+			// release the references to the previous matches
+			for (int i = 0; i < _count; i++) {
+				_rows[i] = null;
+			}
+			_category = category;
+			_name = name;
+			_count = 0;
+			_pos = -1;
+		}
+		
+		
+		// add a matching term array
+		void add(Object[] ts) {
+			if (_count == _rows.length) {
+				Object[][] old = _rows;
+				_rows = new Object[old.length * 2][];
+				System.arraycopy(old, 0, _rows, 0, old.length);
+			}
+			_rows[_count++] = ts;
+		}
+		
+		
+		// return the term array at the current position
+		Object[] getCurrent() {
+			if (_pos < 0 || _pos >= _count) {
+				throw new IllegalStateException();
+			}
+			return _rows[_pos];
+		}
+		
+		
+		// the knowledge base which created the cursor
+		final AcmeKnowledgeBase _owner;
+		
+		// the category and name of the matched facts
+		private int _category;
+		private String _name;
+		
+		// the matching term arrays
+		private Object[][] _rows = new Object[8][];
+		
+		// the number of matches, and the current position
+		int _count = 0;
+		private int _pos = -1;
+	}
+	
+	
+	// holds the term arrays stored for a single predicate symbol, along
+	// with the indices maintained for the term positions. When the
+	// COLUMN_STORAGE option is used, the arrays are held by a ColumnSet
+	// instead, until the table is converted to the ordinary storage.
+	// All access must be synchronized on the knowledge base.
+	private final class Table {
+		
+		Table() {
+			if ((_options & COLUMN_STORAGE) == 0) {
+				_terms = new TupleSet();
+			}
+		}
+		
+		
+		// add a term array; returns true iff it was not already present
+		boolean add(Object[] ts) {
+			if (_terms == null) {
+				if (_columns == null || 
+						(_columns.isEmpty() && !_columns.fits(ts))) {
+					_columns = new ColumnSet(ts == null ? 0 : ts.length);
+				}
+				if (_columns.fits(ts)) {
+					return _columns.add(ts);
+				}
+				convert();
+			}
+			
+			if (!_terms.add(ts)) {
+				return false;
+			}
+			index(ts);
+			return true;
+		}
+		
+		
+		// add a term array which is known not to be present
+		void addDistinct(Object[] ts) {
+			if (_terms == null) {
+				if (_columns == null || 
+						(_columns.isEmpty() && !_columns.fits(ts))) {
+					_columns = new ColumnSet(ts == null ? 0 : ts.length);
+				}
+				if (_columns.fits(ts)) {
+					_columns.addDistinct(ts);
+					return;
+				}
+				convert();
+			}
+			
+			_terms.addDistinct(ts);
+			index(ts);
+		}
+		
+		
+		// remove a term array; returns true iff it was present
+		boolean remove(Object[] ts) {
+			if (_terms == null) {
+				return _columns != null && _columns.fits(ts) && 
+						_columns.remove(ts);
+			}
+			if (!_terms.remove(ts)) {
+				return false;
+			}
+			unindex(ts);
+			return true;
+		}
+		
+		
+		// true iff the table contains the term array
+		boolean contains(Object[] ts) {
+			if (_terms == null) {
+				return _columns != null && _columns.fits(ts) && 
+						_columns.contains(ts);
+			}
+			return _terms.contains(ts);
+		}
+		
+		
+		// return the number of term arrays in the table
+		int size() {
+			if (_terms == null) {
+				return _columns == null ? 0 : _columns.size();
+			}
+			return _terms.size();
+		}
+		
+		
+		// return an iterator over the term arrays, which allows the arrays
+		// to be removed from the table during the iteration
+		Iterator iterator() {
+			if (_terms == null) {
+				return _columns == null ? 
+						EMPTY.iterator() : _columns.iterator();
+			}
+			return _terms.iterator();
+		}
+		
+		
+		// add the term arrays matching the pattern to the cursor
+		void match(Object[] pattern, BitSet vars, Cursor result) {
+			if (_terms == null) {
+				if (_columns == null || !_columns.fits(pattern)) {
+					return;
+				}
+				for (int row = 0, max = _columns.getLimit(); row < max; 
+						row++) {
+					if (_columns.isLive(row) && 
+							_columns.matches(row, pattern, vars)) {
+						result.add(_columns.getRow(row));
+					}
+				}
+				return;
+			}
+			
+			for (Iterator i = getCandidates(pattern, vars).iterator(); 
+					i.hasNext(); ) {
+				Object[] ts = (Object[])i.next();
+				if (Fact.matchTerms(pattern, ts, vars)) {
+					result.add(ts);
+				}
+			}
+		}
+		
+		
+		// remove the term arrays matching the pattern; returns the number
+		// of removed arrays
+		int removeMatches(Object[] pattern, BitSet vars) {
+			int removed = 0;
+			if (_terms == null) {
+				if (_columns == null || !_columns.fits(pattern)) {
+					return 0;
+				}
+				// the limit decreases if the set becomes empty
+				for (int row = 0; row < _columns.getLimit(); row++) {
+					if (_columns.isLive(row) && 
+							_columns.matches(row, pattern, vars)) {
+						_columns.removeRow(row);
+						removed++;
+					}
+				}
+				return removed;
+			}
+			
+			// the candidates may be traversed while they are being removed
+			for (Iterator i = getCandidates(pattern, vars).iterator(); 
+					i.hasNext(); ) {
+				Object[] ts = (Object[])i.next();
+				if (Fact.matchTerms(pattern, ts, vars)) {
+					remove(ts);
+					removed++;
+				}
+			}
+			return removed;
+		}
+		
+		
+		// remove every term array, keeping only the declared indices
+		void clear() {
+			if (_terms == null) {
+				_columns = null;
+				return;
+			}
+			_terms.clear();
+			if (_indices == null) {
+				return;
+			}
+			for (int i = 0; i < _indices.length; i++) {
+				if (_declared != null && _declared.get(i)) {
+					_indices[i].clear();
+				}
+				else {
+					_indices[i] = null;
+				}
+			}
+		}
+		
+		
+		// add a term array to the indices
+		private void index(Object[] ts) {
+			if (_indices == null || ts == null) {
+				return;
+			}
+			for (int i = 0, max = Math.min(ts.length, _indices.length); 
+					i < max; i++) {
+				if (_indices[i] != null) {
+					addToBucket(_indices[i], ts[i], ts);
+				}
+			}
+		}
+		
+		
+		// remove a term array from the indices only
+		private void unindex(Object[] ts) {
+			if (_indices == null || ts == null) {
+				return;
+			}
+			for (int i = 0, max = Math.min(ts.length, _indices.length);
+					i < max; i++) {
+				Map index = _indices[i];
+				if (index == null) {
+					continue;
+				}
+				Object key = ts[i];
+				TupleSet bucket = (TupleSet)index.get(key);
+				if (bucket != null) {
+					bucket.remove(ts);
+					if (bucket.isEmpty()) {
+						index.remove(key);
+					}
+				}
+			}
+		}
+		
+		
+		// true iff the table is empty and can be discarded
+		boolean isDisposable() {
+			return size() == 0 && _declared == null;
+		}
+		
+		
+		// ensure that the given position is indexed permanently
+		void declareIndex(int position) {
+			if (_declared == null) {
+				_declared = new BitSet();
+			}
+			_declared.set(position);
+			if (_terms == null) {
+				convert();
+			}
+			buildIndex(position);
+		}
+		
+		
+		// move the term arrays from the column storage to the ordinary
+		// storage, which is used from then on
+		private void convert() {
+			_terms = new TupleSet();
+			if (_columns != null) {
+				for (Iterator i = _columns.iterator(); i.hasNext(); ) {
+					_terms.add((Object[])i.next());
+				}
+				_columns = null;
+			}
+		}
+		
+		
+		// retreive the smallest set of term arrays which may contain
+		// matches for the given pattern. vars == null indicates that
+		// every term is bound.
+		private TupleSet getCandidates(Object[] pattern, BitSet vars) {
+			int max = pattern == null ? 0 : pattern.length;
+			if (_indices == null && 
+					((_options & INDEX_ON_DEMAND) == 0 || 
+					_terms.size() < INDEX_THRESHOLD)) {
+				return _terms;
+			}
+			
+			TupleSet result = _terms;
+			for (int i = 0; i < max; i++) {
+				if (vars != null && vars.get(i)) {
+					continue;
+				}
+				
+				Map index = i < (_indices == null ? 0 : _indices.length) ? 
+						_indices[i] : null;
+				if (index == null) {
+					if ((_options & INDEX_ON_DEMAND) == 0 || 
+							_terms.size() < INDEX_THRESHOLD) {
+						continue;
+					}
+					index = buildIndex(i);
+				}
+				
+				TupleSet bucket = (TupleSet)index.get(pattern[i]);
+				if (bucket == null) {
+					return EMPTY;
+				}
+				if (bucket.size() < result.size()) {
+					result = bucket;
+				}
+			}
+			return result;
+		}
+		
+		
+		// build the index for a term position, if it does not exist already
+		private Map buildIndex(int position) {
+			if (_indices == null) {
+				_indices = new Map[position + 1];
+			}
+			else if (_indices.length <= position) {
+				Map[] old = _indices;
+				_indices = new Map[position + 1];
+				System.arraycopy(old, 0, _indices, 0, old.length);
+			}
+			
+			Map index = _indices[position];
+			if (index == null) {
+				index = _indices[position] = new HashMap();
+				for (Iterator i = _terms.iterator(); i.hasNext(); ) {
+					Object[] ts = (Object[])i.next();
+					if (ts.length > position) {
+						addToBucket(index, ts[position], ts);
+					}
+				}
+			}
+			return index;
+		}
+		
+		
+		// add a term array to the bucket for the given key
+		private void addToBucket(Map index, Object key, Object[] ts) {
+			TupleSet bucket = (TupleSet)index.get(key);
+			if (bucket == null) {
+				// the set is ordered, so that the matches are found in the 
+				// same order as in the unindexed case
+				index.put(key, bucket = new TupleSet());
+			}
+			bucket.add(ts);
+		}
+		
+		
+		// the stored term arrays, or null if the column storage is used
+		private TupleSet _terms;
+		
+		// the term arrays held by the column storage, or null
+		private ColumnSet _columns;
+		
+		// for each term position, null or a map from term value to the 
+		// set of stored term arrays having that value at the position
+		private Map[] _indices;
+		
+		// the positions for which an index has been declared
+		private BitSet _declared;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+
+/**
+ * A ChangeLog is a {@link KnowledgeBaseListener} which retains the latest
+ * changes made to a knowledge base. A consumer which has seen every change
+ * up to a given sequence number can {@link #getChanges(long) retreive}
+ * the changes made since, and apply them to a replica or a derived view
+ * instead of rescanning the knowledge base. When more changes have been
+ * made than the log can hold, the oldest ones are discarded, and a consumer
+ * which has fallen behind must rescan.
+ * <p>
+ * The log is thread-safe.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class ChangeLog implements KnowledgeBaseListener {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new ChangeLog.
+	 * @param capacity the maximal number of changes retained by the log
+	 * @exception IllegalArgumentException if the capacity is not positive.
+	 */
+	public ChangeLog(int capacity) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("" + capacity);
+		}
+		_changes = new FactChange[capacity];
+	}
+		
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return the sequence number of the latest change in the log, or
+	 *  0 if no change has been logged.
+	 */
+	public synchronized long getLastSequence() {
+		return _last;
+	}
+	
+	
+	/**
+	 * Retreive the logged changes having a sequence number above the given
+	 * number.
+	 * @param after the sequence number of the latest change seen by the
+	 *  caller, or 0 to retreive every change.
+	 * @return the changes in order of increasing sequence numbers, or null
+	 *  if any such change has been discarded from the log.
+	 */
+	public synchronized FactChange[] getChanges(long after) {
+		if (after < _discarded) {
+			return null;
+		}
+		
+		// find the first change to be returned, starting from the latest
+		int n = 0;
+		while (n < _count && 
+				_changes[index(_count - n - 1)].getSequence() > after) {
+			n++;
+		}
+		
+		FactChange[] result = new FactChange[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = _changes[index(_count - n + i)];
+		}
+		return result;
+	}
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	public synchronized void factsChanged(KnowledgeBase source, 
+			FactChange[] changes) {
+		for (int i = 0; i < changes.length; i++) {
+			if (_count == _changes.length) {
+				// discard the oldest change
+				_discarded = _changes[_first].getSequence();
+				_first = (_first + 1) % _changes.length;
+				_count--;
+			}
+			_changes[index(_count++)] = changes[i];
+			_last = changes[i].getSequence();
+		}
+	}
+	
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// the logged changes, used as a ring buffer
+	private FactChange[] _changes;
+	
+	// the position of the oldest change, and the number of changes
+	private int _first = 0, _count = 0;
+	
+	// the sequence number of the latest change
+	private long _last = 0;
+	
+	// the sequence number of the latest discarded change
+	private long _discarded = 0;
+	
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// convert a position relative to the oldest change to an array index
+	private int index(int pos) {
+		return (_first + pos) % _changes.length;
+	}
+}
@@ -0,0 +1,189 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.util.*;
+
+
+/**
+ * Maintains the {@link KnowledgeBaseListener listeners} registered on a
+ * knowledge base, assigns sequence numbers to the changes and delivers them.
+ * Every method must be invoked while holding the lock of the knowledge base.
+ *
+ * @author  Henrik Lauritzen
+ */
+final class ChangeSupport {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	ChangeSupport(KnowledgeBase source) {
+		_source = source;
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * Registers a listener.
+	 * @see KnowledgeBase#addKnowledgeBaseListener(KnowledgeBaseListener, 
+	 *  int, String)
+	 */
+	void addListener(KnowledgeBaseListener l, int category, String name) {
+		if (l == null) {
+			throw new NullPointerException();
+		}
+		Registration[] old = _registrations;
+		Registration[] rs = new Registration[old.length + 1];
+		System.arraycopy(old, 0, rs, 0, old.length);
+		rs[old.length] = new Registration(l, category, 
+				name == null ? null : name.intern());
+		_registrations = rs;
+	}
+
+
+	/**
+	 * Removes every registration of a listener.
+	 */
+	void removeListener(KnowledgeBaseListener l) {
+		List rs = new ArrayList(Arrays.asList(_registrations));
+		for (Iterator i = rs.iterator(); i.hasNext(); ) {
+			if (((Registration)i.next())._listener == l) {
+				i.remove();
+			}
+		}
+		_registrations = (Registration[])rs.toArray(NO_REGISTRATIONS);
+	}
+
+
+	/**
+	 * @return true iff a listener is interested in the changes to the facts
+	 *  having the given category and predicate symbol.
+	 */
+	boolean isObserved(int category, String name) {
+		for (int i = 0; i < _registrations.length; i++) {
+			if (_registrations[i].accepts(category, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Creates a change having the next sequence number.
+	 */
+	FactChange createChange(int type, int category, String name, 
+			Object[] terms) {
+		return new FactChange(type, new Fact(category, name, terms), 
+				++_sequence);
+	}
+
+
+	/**
+	 * Delivers a batch of changes to each of the interested listeners.
+	 * @param changes the changes, which must have been created by
+	 *  {@link #createChange(int, int, String, Object[])}
+	 * @param count the number of changes in the array to be delivered
+	 */
+	void fire(FactChange[] changes, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		Registration[] rs = _registrations;
+		FactChange[] batch = new FactChange[count];
+		for (int i = 0; i < rs.length; i++) {
+			int n = 0;
+			for (int j = 0; j < count; j++) {
+				Fact f = changes[j].getFact();
+				if (rs[i].accepts(f.getCategory(), f.getName())) {
+					batch[n++] = changes[j];
+				}
+			}
+			if (n == count) {
+				// the batch is shared by the listeners receiving all changes
+				rs[i]._listener.factsChanged(_source, batch);
+				batch = new FactChange[count];
+			}
+			else if (n > 0) {
+				FactChange[] part = new FactChange[n];
+				System.arraycopy(batch, 0, part, 0, n);
+				rs[i]._listener.factsChanged(_source, part);
+			}
+		}
+	}
+
+
+	/**
+	 * Delivers a single change to each of the interested listeners.
+	 */
+	void fire(int type, int category, String name, Object[] terms) {
+		fire(new FactChange[] {createChange(type, category, name, terms)}, 1);
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// an empty registration array
+	private final static Registration[] NO_REGISTRATIONS = new Registration[0];
+
+	// the knowledge base which is observed
+	private KnowledgeBase _source;
+
+	// the registrations; the array is replaced rather than modified
+	private volatile Registration[] _registrations = NO_REGISTRATIONS;
+
+	// the sequence number of the latest change
+	private long _sequence = 0;
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// a listener along with the facts it is interested in
+	private final static class Registration {
+
+		Registration(KnowledgeBaseListener l, int category, String name) {
+			_listener = l;
+			_category = category;
+			_name = name;
+		}
+
+
+		// true iff the facts are observed through this registration
+		boolean accepts(int category, String name) {
+			return (_category == KnowledgeBase.ANY_CATEGORY || 
+					_category == category) &&
+					(_name == null || _name == name || _name.equals(name));
+		}
+
+
+		// the listener
+		final KnowledgeBaseListener _listener;
+
+		// the category, or KnowledgeBase.ANY_CATEGORY
+		final int _category;
+
+		// the interned predicate symbol, or null for any symbol
+		final String _name;
+	}
+}
@@ -0,0 +1,535 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.util.*;
+
+
+/**
+ * A set of term arrays of a fixed arity, which is stored column by column.
+ * A column in which every term is an Integer or every term is a Double is
+ * stored as an <code>int[]</code> or a <code>double[]</code>, respectively,
+ * and the terms are compared to the raw values without being boxed. Other
+ * columns are stored as <code>Object[]</code>; String terms are interned
+ * when they are stored, so that equal strings are only kept once.
+ * <p>
+ * The type of a column is chosen from the first array added to the empty
+ * set, and a primitive column is widened to an <code>Object[]</code>
+ * column when a term of another type is added to it. The terms read from a
+ * primitive column are boxed again, so the arrays returned by the set are
+ * equal to, but not identical to the arrays which were added.
+ * <p>
+ * Apart from the column layout, the set is organized like a
+ * {@link TupleSet}: the rows are kept in insertion order, hash codes are
+ * cached, and rows may be removed while the set is being traversed.
+ * The set is not synchronized.
+ *
+ * @author  Henrik Lauritzen
+ */
+final class ColumnSet {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	/**
+	 * Constructs an empty set of term arrays of the given arity.
+	 */
+	ColumnSet(int arity) {
+		_kinds = new int[arity];
+		_columns = new Object[arity];
+		clear();
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * @return the arity of the arrays in the set.
+	 */
+	int getArity() {
+		return _kinds.length;
+	}
+
+
+	/**
+	 * @return true iff the given array has the arity of the set.
+	 */
+	boolean fits(Object[] terms) {
+		return (terms == null ? 0 : terms.length) == _kinds.length;
+	}
+
+
+	/**
+	 * @return the number of arrays in the set
+	 */
+	int size() {
+		return _size;
+	}
+
+
+	/**
+	 * @return true iff the set is empty
+	 */
+	boolean isEmpty() {
+		return _size == 0;
+	}
+
+
+	/**
+	 * Removes every array from the set.
+	 */
+	void clear() {
+		for (int i = 0; i < _columns.length; i++) {
+			_columns[i] = null;
+		}
+		_removed = new BitSet();
+		_hashes = NO_SLOTS;
+		_slots = NO_SLOTS;
+		_capacity = 0;
+		_count = 0;
+		_size = 0;
+	}
+
+
+	/**
+	 * @return true iff the set contains an array which is equal to the given
+	 *  array. The array must {@link #fits(Object[]) fit} the set.
+	 */
+	boolean contains(Object[] terms) {
+		return find(terms, TupleSet.hash(terms)) >= 0;
+	}
+
+
+	/**
+	 * Adds an array to the set, unless an equal array is present already.
+	 * @param terms the array to be added, which must {@link
+	 *  #fits(Object[]) fit} the set.
+	 * @return true iff the array was added.
+	 */
+	boolean add(Object[] terms) {
+		int h = TupleSet.hash(terms);
+		if (find(terms, h) >= 0) {
+			return false;
+		}
+		append(terms, h);
+		return true;
+	}
+
+
+	/**
+	 * Adds an array to the set without checking whether an equal array is
+	 * present already. The caller must ensure that this is not the case,
+	 * and that the array fits the set.
+	 */
+	void addDistinct(Object[] terms) {
+		append(terms, TupleSet.hash(terms));
+	}
+
+
+	/**
+	 * Removes the array equal to the given array from the set.
+	 * @return true iff the array was removed.
+	 */
+	boolean remove(Object[] terms) {
+		int slot = find(terms, TupleSet.hash(terms));
+		if (slot < 0) {
+			return false;
+		}
+		removeSlot(slot);
+		return true;
+	}
+
+
+	/**
+	 * @return the number of rows in use, including the rows which have been
+	 *  removed. The valid row numbers are below this limit.
+	 */
+	int getLimit() {
+		return _count;
+	}
+
+
+	/**
+	 * @return true iff the given row holds an array of the set.
+	 */
+	boolean isLive(int row) {
+		return row < _count && !_removed.get(row);
+	}
+
+
+	/**
+	 * Determine whether a live row matches a pattern, comparing the raw
+	 * values of the primitive columns.
+	 * @param vars the positions of the pattern which are variables, or
+	 *  null if every position is bound.
+	 * @see Fact#matchTerms(Object[], Object[], BitSet)
+	 */
+	boolean matches(int row, Object[] pattern, BitSet vars) {
+		for (int i = 0; i < _kinds.length; i++) {
+			if (vars != null && vars.get(i)) {
+				continue;
+			}
+			Object t = pattern[i];
+			switch (_kinds[i]) {
+			case KIND_INT:
+				if (!(t instanceof Integer) || ((Integer)t).intValue() !=
+						((int[])_columns[i])[row]) {
+					return false;
+				}
+				break;
+			case KIND_DOUBLE:
+				if (!(t instanceof Double) ||
+						Double.doubleToLongBits(((Double)t).doubleValue()) !=
+						Double.doubleToLongBits(((double[])_columns[i])[row])) {
+					return false;
+				}
+				break;
+			default:
+				Object v = ((Object[])_columns[i])[row];
+				if (v != t && (v == null || !v.equals(t))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return a new array holding the terms of a live row.
+	 */
+	Object[] getRow(int row) {
+		Object[] result = new Object[_kinds.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getTerm(row, i);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Removes a live row from the set.
+	 */
+	void removeRow(int row) {
+		int mask = _slots.length - 1;
+		int i = _hashes[row] & mask;
+		while (_slots[i] != row + 1) {
+			i = (i + 1) & mask;
+		}
+		removeSlot(i);
+	}
+
+
+	/**
+	 * @return an iterator over new arrays holding the terms of the set, in
+	 *  the order of insertion. The iterator supports removal.
+	 */
+	Iterator iterator() {
+		return new Iterator() {
+			private int _next = 0;
+			private int _last = -1;
+
+
+			public boolean hasNext() {
+				// skip rows which have been removed in the meantime
+				while (_next < _count && _removed.get(_next)) {
+					_next++;
+				}
+				return _next < _count;
+			}
+
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				_last = _next++;
+				return getRow(_last);
+			}
+
+
+			public void remove() {
+				if (_last < 0) {
+					throw new IllegalStateException();
+				}
+				if (isLive(_last)) {
+					removeRow(_last);
+				}
+				_last = -1;
+			}
+		};
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// the column kinds
+	private final static int KIND_INT = 0;
+	private final static int KIND_DOUBLE = 1;
+	private final static int KIND_STRING = 2;
+	private final static int KIND_OBJECT = 3;
+
+	// the initial number of rows
+	private final static int INITIAL_CAPACITY = 4;
+
+	// the hash table used by empty sets; it is never written to
+	private final static int[] NO_SLOTS = new int[1];
+
+	// the kind of each column
+	private int[] _kinds;
+
+	// the columns; each one is an int[], a double[] or an Object[], as
+	// determined by its kind
+	private Object[] _columns;
+
+	// the rows which have been removed
+	private BitSet _removed;
+
+	// the hash codes of the rows
+	private int[] _hashes;
+
+	// the hash table; each slot holds 0, or 1 + a row number.
+	// The length is a power of 2, and at least twice the capacity.
+	private int[] _slots;
+
+	// the number of rows allocated in every column
+	private int _capacity;
+
+	// the number of rows in use, including the removed rows
+	private int _count;
+
+	// the number of arrays in the set
+	private int _size;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// return the kind of column needed to store the given term
+	private static int kindOf(Object term) {
+		if (term instanceof Integer) {
+			return KIND_INT;
+		}
+		else if (term instanceof Double) {
+			return KIND_DOUBLE;
+		}
+		else if (term instanceof String) {
+			return KIND_STRING;
+		}
+		else {
+			return KIND_OBJECT;
+		}
+	}
+
+
+	// choose the column kinds from the first row of an empty set
+	private void chooseKinds(Object[] terms) {
+		for (int i = 0; i < _kinds.length; i++) {
+			_kinds[i] = kindOf(terms[i]);
+			_columns[i] = null;
+		}
+	}
+
+
+	// read a single term, boxing it if necessary
+	private Object getTerm(int row, int col) {
+		switch (_kinds[col]) {
+		case KIND_INT:
+			return Integer.valueOf(((int[])_columns[col])[row]);
+		case KIND_DOUBLE:
+			return Double.valueOf(((double[])_columns[col])[row]);
+		default:
+			return ((Object[])_columns[col])[row];
+		}
+	}
+
+
+	// store a single term, widening the column if necessary
+	private void setTerm(int row, int col, Object term) {
+		int kind = _kinds[col];
+		if (kind != KIND_OBJECT && kindOf(term) != kind) {
+			widen(col);
+			kind = KIND_OBJECT;
+		}
+
+		switch (kind) {
+		case KIND_INT:
+			((int[])_columns[col])[row] = ((Integer)term).intValue();
+			break;
+		case KIND_DOUBLE:
+			((double[])_columns[col])[row] = ((Double)term).doubleValue();
+			break;
+		case KIND_STRING:
+			((Object[])_columns[col])[row] = ((String)term).intern();
+			break;
+		default:
+			((Object[])_columns[col])[row] = term;
+		}
+	}
+
+
+	// convert a column to an Object[] column
+	private void widen(int col) {
+		if (_kinds[col] == KIND_STRING) {
+			_kinds[col] = KIND_OBJECT;
+			return;
+		}
+
+		Object[] widened = new Object[_capacity];
+		for (int row = 0; row < _count; row++) {
+			if (!_removed.get(row)) {
+				widened[row] = getTerm(row, col);
+			}
+		}
+		_columns[col] = widened;
+		_kinds[col] = KIND_OBJECT;
+	}
+
+
+	// add an array which is not in the set
+	private void append(Object[] terms, int h) {
+		if (_count == 0) {
+			chooseKinds(terms);
+		}
+		if (_count == _capacity) {
+			grow();
+		}
+		int row = _count++;
+		for (int i = 0; i < _kinds.length; i++) {
+			setTerm(row, i, terms[i]);
+		}
+		_hashes[row] = h;
+		_slots[probe(h)] = row + 1;
+		_size++;
+	}
+
+
+	// return the slot of the row equal to the given array, or -1
+	private int find(Object[] terms, int h) {
+		int mask = _slots.length - 1;
+		for (int i = h & mask; _slots[i] != 0; i = (i + 1) & mask) {
+			int row = _slots[i] - 1;
+			if (_hashes[row] == h && matches(row, terms, null)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	// return the first free slot in the probe sequence for the hash code
+	private int probe(int h) {
+		int mask = _slots.length - 1;
+		int i = h & mask;
+		while (_slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+
+	// remove the row referenced by the given slot
+	private void removeSlot(int slot) {
+		int row = _slots[slot] - 1;
+		if (--_size == 0) {
+			// release the storage; no traversal can observe the difference
+			clear();
+			return;
+		}
+
+		_removed.set(row);
+		for (int i = 0; i < _kinds.length; i++) {
+			if (_kinds[i] >= KIND_STRING) {
+				((Object[])_columns[i])[row] = null;
+			}
+		}
+
+		// shift the following entries of the probe sequence backwards, so
+		// that no deletion markers are needed
+		int mask = _slots.length - 1;
+		int hole = slot;
+		for (int i = (slot + 1) & mask; _slots[i] != 0; i = (i + 1) & mask) {
+			int home = _hashes[_slots[i] - 1] & mask;
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				_slots[hole] = _slots[i];
+				hole = i;
+			}
+		}
+		_slots[hole] = 0;
+	}
+
+
+	// make room for another row, reclaiming the removed rows first.
+	// The columns are resized to be between 1/4 and 1/2 full.
+	private void grow() {
+		int length = Math.max(_capacity, INITIAL_CAPACITY);
+		while (_size * 2 > length) {
+			length *= 2;
+		}
+		while (length > INITIAL_CAPACITY && _size * 4 < length) {
+			length /= 2;
+		}
+
+		// move the remaining rows to the front, keeping their order
+		int[] oldHashes = _hashes;
+		_hashes = new int[length];
+		_slots = new int[length * 2];
+		for (int col = 0; col < _kinds.length; col++) {
+			Object old = _columns[col];
+			Object column;
+			switch (_kinds[col]) {
+			case KIND_INT:
+				column = new int[length];
+				break;
+			case KIND_DOUBLE:
+				column = new double[length];
+				break;
+			default:
+				column = new Object[length];
+			}
+			if (old != null) {
+				// copy the runs of remaining rows
+				for (int i = 0, j = 0; 
+						(i = _removed.nextClearBit(i)) < _count; ) {
+					int end = _removed.nextSetBit(i);
+					if (end < 0 || end > _count) {
+						end = _count;
+					}
+					System.arraycopy(old, i, column, j, end - i);
+					j += end - i;
+					i = end;
+				}
+			}
+			_columns[col] = column;
+		}
+
+		int j = 0;
+		for (int i = 0; i < _count; i++) {
+			if (!_removed.get(i)) {
+				_hashes[j] = oldHashes[i];
+				_slots[probe(oldHashes[i])] = ++j;
+			}
+		}
+		_removed.clear();
+		_capacity = length;
+		_count = j;
+	}
+}
@@ -0,0 +1,664 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * A KnowledgeBase implementation which is optimized for being read by
+ * many threads at once. The facts having the same category and predicate
+ * symbol are held in an immutable snapshot, which is replaced as a whole
+ * (copy-on-write) whenever one of the facts is added or removed.
+ * Consequently, {@link #contains(Fact)}, {@link #match(Fact, BitSet)},
+ * {@link #size()} and {@link #iterator()} never acquire any lock, and
+ * every invocation observes the state of the predicate between two complete
+ * updates.
+ * <p>
+ * Updates are synchronized on the {@link #getLock() lock}, just as
+ * in the {@link AcmeKnowledgeBase}. This is necessary to keep the
+ * atomicity of AgentC's <code>LOCKED { ... }</code> blocks, which are
+ * compiled into a <code>synchronized</code> statement on the same lock:
+ * while such a block executes, no other thread can modify the knowledge
+ * base, although other threads are still able to read it.
+ * <p>
+ * The price of the lock-free reads is paid by the writers. Every
+ * {@link #add(Fact) addition} or removal copies the term lists of the
+ * affected predicate and rebuilds its hash table, so it costs O(n) time
+ * and space for a predicate holding n facts, and adding n facts to one
+ * predicate costs O(n<sup>2</sup>) in total; the other predicates are not
+ * copied. Furthermore, all updates are serialized by the single lock,
+ * even when they concern different predicates. The implementation is
+ * therefore best suited for knowledge bases which are read much more
+ * often than they are changed, and whose predicates hold few facts each;
+ * a knowledge base which is mostly written should rather be an
+ * {@link AcmeKnowledgeBase}.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class ConcurrentKnowledgeBase implements KnowledgeBase {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Constructs an initially empty knowledge base which allows
+	 *  only one attitude (0).
+	 */
+	public ConcurrentKnowledgeBase() {
+		this(1);
+	}
+
+
+	/**
+	 * Constructs an initially empty knowledge base which allows
+	 *  attitudes 0 through size.
+	 */
+	public ConcurrentKnowledgeBase(int size) {
+		_base = new Map[size];
+		for (int i = 0; i < _base.length; i++) {
+			_base[i] = new ConcurrentHashMap();
+		}
+		_size = 0;
+	}
+
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+
+	public int size() {
+		return _size;
+	}
+
+
+	public int size(int category, String name) {
+		if (category < 0 || category >= _base.length) {
+			return 0;
+		}
+		Predicate p = (Predicate)_base[category].get(name);
+		return p == null ? 0 : p._snapshot._count;
+	}
+
+
+	public synchronized void clear() {
+		// report the observed facts as removed, in a single batch
+		List removed = null;
+		for (int i = 0; _changes != null && i < _base.length; i++) {
+			for (Iterator j = _base[i].entrySet().iterator(); j.hasNext(); ) {
+				Map.Entry e = (Map.Entry)j.next();
+				String name = (String)e.getKey();
+				if (!_changes.isObserved(i, name)) {
+					continue;
+				}
+				if (removed == null) {
+					removed = new ArrayList();
+				}
+				Snapshot s = ((Predicate)e.getValue())._snapshot;
+				for (int k = 0; k < s._count; k++) {
+					removed.add(_changes.createChange(FactChange.REMOVED, i,
+							name, s._tuples[k]));
+				}
+			}
+		}
+		
+		for (int i = 0; i < _base.length; i++) {
+			_base[i].clear();
+		}
+		_size = 0;
+		
+		if (removed != null) {
+			_changes.fire((FactChange[])removed.toArray(
+					new FactChange[removed.size()]), removed.size());
+		}
+	}
+
+
+	public Object getLock() {
+		return this;
+	}
+
+
+	/**
+	 * The iterator traverses the snapshots which are current when each
+	 * predicate is reached, hence it may be used without synchronization.
+	 * Removal is supported, and is delegated to
+	 * {@link #remove(Fact)}.
+	 */
+	public Iterator iterator() {
+		return new Iterator() {
+			private int _id = 0;
+			private Iterator _mapIterator = _base[0].entrySet().iterator();
+			private String _name = null;
+			private Snapshot _snapshot = null;
+			private int _index = 0;
+			private Fact _last = null;
+
+
+			public boolean hasNext() {
+				while (_snapshot == null || _index >= _snapshot._count) {
+					while (!_mapIterator.hasNext()) {
+						if (++_id >= _base.length) {
+							return false;
+						}
+						_mapIterator = _base[_id].entrySet().iterator();
+					}
+
+					Map.Entry e = (Map.Entry)_mapIterator.next();
+					_name = (String)e.getKey();
+					_snapshot = ((Predicate)e.getValue())._snapshot;
+					_index = 0;
+				}
+				return true;
+			}
+
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return _last = new Fact(_id, _name,
+						_snapshot._tuples[_index++].clone());
+			}
+
+
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				ConcurrentKnowledgeBase.this.remove(_last);
+				_last = null;
+			}
+
+		};
+	}
+
+
+	public boolean add(Fact f) {
+		return add(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public synchronized boolean add(int category, String name,
+			Object[] terms) {
+		Map m = _base[category];
+		Object[] ts = makeStorageArray(terms);
+		Predicate p = (Predicate)m.get(name);
+
+		if (p == null) {
+			m.put(name, p = new Predicate());
+		}
+		int hash = TupleSet.hash(ts);
+		if (p._snapshot.indexOf(ts, hash) >= 0) {
+			return false;
+		}
+
+		p._snapshot = p._snapshot.append(ts, hash);
+		_size++;
+		if (isObserved(category, name)) {
+			_changes.fire(FactChange.ADDED, category, name, ts);
+		}
+		return true;
+	}
+
+
+	public boolean contains(Fact f) {
+		return contains(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public boolean contains(int category, String name, Object[] terms) {
+		if (category < 0 || category >= _base.length) {
+			return false;
+		}
+		Predicate p = (Predicate)_base[category].get(name);
+		if (p == null) {
+			return false;
+		}
+		terms = makeStorageArray(terms);
+		return p._snapshot.indexOf(terms, TupleSet.hash(terms)) >= 0;
+	}
+
+
+	public boolean remove(Fact f) {
+		return remove(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public synchronized boolean remove(int category, String name,
+			Object[] terms) {
+		if (category < 0 || category >= _base.length) {
+			return false;
+		}
+
+		Map m = _base[category];
+		Predicate p = (Predicate)m.get(name);
+		if (p == null) {
+			return false;
+		}
+		terms = makeStorageArray(terms);
+		int idx = p._snapshot.indexOf(terms, TupleSet.hash(terms));
+		if (idx < 0) {
+			return false;
+		}
+
+		Object[] ts = p._snapshot._tuples[idx];
+		boolean[] removed = new boolean[p._snapshot._count];
+		removed[idx] = true;
+		replace(m, name, p, removed, 1);
+		if (isObserved(category, name)) {
+			_changes.fire(FactChange.REMOVED, category, name, ts);
+		}
+		return true;
+	}
+
+
+	public int remove(Fact f, BitSet vars) {
+		return remove(f.getCategory(), f.getName(), f.getTermList(), vars);
+	}
+
+
+	public synchronized int remove(int category, String name, Object[] terms,
+			BitSet vars) {
+		if (category < 0 || category >= _base.length) {
+			return 0;
+		}
+
+		Map m = _base[category];
+		Predicate p = (Predicate)m.get(name);
+		if (p == null) {
+			return 0;
+		}
+
+		if (vars == null) {
+			return remove(category, name, terms) ? 1 : 0;
+		}
+		
+		terms = makeStorageArray(terms);
+		Snapshot s = p._snapshot;
+		boolean[] removed = new boolean[s._count];
+		int count = 0;
+		for (int i = 0; i < s._count; i++) {
+			if (Fact.matchTerms(terms, s._tuples[i], vars)) {
+				removed[i] = true;
+				count++;
+			}
+		}
+		if (count > 0) {
+			replace(m, name, p, removed, count);
+		}
+		if (count > 0 && isObserved(category, name)) {
+			FactChange[] changes = new FactChange[count];
+			for (int i = 0, j = 0; j < count; i++) {
+				if (removed[i]) {
+					changes[j++] = _changes.createChange(FactChange.REMOVED,
+							category, name, s._tuples[i]);
+				}
+			}
+			_changes.fire(changes, count);
+		}
+		return count;
+	}
+
+
+	public List match(Fact f, BitSet vars) {
+		return match(f.getCategory(), f.getName(), f.getTermList(), vars);
+	}
+
+
+	public List match(int category, String name, Object[] terms,
+			BitSet vars) {
+		if (category < 0 || category >= _base.length) {
+			return Collections.EMPTY_LIST;
+		}
+		Predicate p = (Predicate)_base[category].get(name);
+		if (p == null) {
+			return Collections.EMPTY_LIST;
+		}
+
+		// the snapshot is immutable, so no lock is required
+		Snapshot s = p._snapshot;
+		if (vars == null) {
+			vars = Snapshot.NO_VARS;
+		}
+		List result = new ArrayList();
+		for (int i = 0; i < s._count; i++) {
+			Object[] ts = s._tuples[i];
+			if (Fact.matchTerms(terms, ts, vars)) {
+				result.add(new Fact(category, name, ts.clone()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The returned cursor traverses the snapshot of the predicate which is
+	 * current at the time of the invocation, and tests each of the facts 
+	 * only when the cursor is advanced.
+	 */
+	public FactCursor matchCursor(int category, String name, Object[] terms,
+			BitSet vars, FactCursor cursor) {
+		Cursor result = (cursor instanceof Cursor) ? 
+				(Cursor)cursor : new Cursor();
+		Predicate p = (category < 0 || category >= _base.length) ? null :
+				(Predicate)_base[category].get(name);
+		result.reset(category, name, terms, vars,
+				p == null ? Snapshot.EMPTY : p._snapshot);
+		return result;
+	}
+
+
+	public synchronized void addKnowledgeBaseListener(KnowledgeBaseListener l,
+			int category, String name) {
+		if (_changes == null) {
+			_changes = new ChangeSupport(this);
+		}
+		_changes.addListener(l, category, name);
+	}
+
+
+	public synchronized void removeKnowledgeBaseListener(
+			KnowledgeBaseListener l) {
+		if (_changes != null) {
+			_changes.removeListener(l);
+		}
+	}
+	
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+
+	// The contents of the knowledge base.
+	// Each index, which corresponds to an attitude id,
+	// contains a concurrent map of predicate symbol (String) keys and
+	// Predicate values.
+	private Map[] _base;
+
+	// the size of the knowledge base; this is only updated while holding
+	// the lock, but may be read without it.
+	private volatile int _size;
+
+	// the registered listeners, or null if none have been registered;
+	// only accessed while holding the lock
+	private transient ChangeSupport _changes;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// ensure that an empty term list is represented by the shared, empty
+	// array
+	private static Object[] makeStorageArray(Object[] terms) {
+		return (terms == null || terms.length == 0) ?
+				dk.dtu.imm.cse.agent.act.util.Util.NO_OBJECTS : terms;
+	}
+
+	// ------------------------------ instance -----------------------------
+
+	// true iff a listener observes the given facts
+	private boolean isObserved(int category, String name) {
+		return _changes != null && _changes.isObserved(category, name);
+	}
+
+
+	// publish a new snapshot without the given term lists
+	private void replace(Map m, String name, Predicate p, boolean[] removed,
+			int count) {
+		Snapshot s = p._snapshot;
+		if (count == s._count) {
+			m.remove(name);
+			p._snapshot = Snapshot.EMPTY;
+		}
+		else {
+			p._snapshot = s.remove(removed, count);
+		}
+		_size -= count;
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// the cursor returned by matchCursor(). Since the snapshots are
+	// immutable, it can be used independently of the knowledge base
+	// which created it.
+	private static final class Cursor implements FactCursor {
+		
+		public boolean next() {
+			while (++_pos < _snapshot._count) {
+				if (Fact.matchTerms(_terms, _snapshot._tuples[_pos], _vars)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		
+		public int getArity() {
+			return getCurrent().length;
+		}
+		
+		
+		public Object getTerm(int idx) {
+			return getCurrent()[idx];
+		}
+		
+		
+		public Fact getFact() {
+			return new Fact(_category, _name, getCurrent().clone());
+		}
+		
+		
+		// prepare the cursor for a new match
+		void reset(int category, String name, Object[] terms, BitSet vars,
+				Snapshot snapshot) {
+			_category = category;
+			_name = name;
+			_terms = terms;
+			// copy the variable positions, since the caller is allowed
+			// to modify the bitset while the cursor is in use
+			_vars.clear();
+			if (vars != null) {
+				_vars.or(vars);
+			}
+			_snapshot = snapshot;
+			_pos = -1;
+		}
+		
+		
+		// return the term list at the current position
+		private Object[] getCurrent() {
+			if (_pos < 0 || _pos >= _snapshot._count) {
+				throw new IllegalStateException();
+			}
+			return _snapshot._tuples[_pos];
+		}
+		
+		
+		// the category and name of the matched facts
+		private int _category;
+		private String _name;
+		
+		// the pattern to be matched
+		private Object[] _terms;
+		private BitSet _vars = new BitSet();
+		
+		// the snapshot being traversed, and the current position in it
+		private Snapshot _snapshot;
+		private int _pos;
+	}
+	
+	
+	// the mutable holder of the current snapshot for a predicate symbol
+	private static final class Predicate implements Serializable {
+		volatile Snapshot _snapshot = Snapshot.EMPTY;
+	}
+
+
+	// An immutable set of term lists kept in insertion order, hashed
+	// by open addressing.
+	private static final class Snapshot implements Serializable {
+
+		static final Snapshot EMPTY = new Snapshot(new Object[0][],
+				new int[0], 0);
+
+
+		// builds a new snapshot from the first count term lists
+		Snapshot(Object[][] tuples, int[] hashes, int count) {
+			_tuples = tuples;
+			_hashes = hashes;
+			_count = count;
+
+			int capacity = 2;
+			while (capacity < count * 2) {
+				capacity <<= 1;
+			}
+			_slots = new int[capacity];
+			for (int i = 0; i < count; i++) {
+				int mask = capacity - 1;
+				int slot = _hashes[i] & mask;
+				while (_slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				_slots[slot] = i + 1;
+			}
+		}
+
+
+		// returns the position of the term list, or -1 if it is absent
+		int indexOf(Object[] terms, int hash) {
+			int mask = _slots.length - 1;
+			for (int slot = hash & mask; _slots[slot] != 0;
+					slot = (slot + 1) & mask) {
+				int idx = _slots[slot] - 1;
+				if (_hashes[idx] == hash &&
+						Fact.matchTerms(_tuples[idx], terms, NO_VARS)) {
+					return idx;
+				}
+			}
+			return -1;
+		}
+
+
+		// returns a new snapshot with an additional term list
+		Snapshot append(Object[] terms, int hash) {
+			Object[][] tuples = new Object[_count + 1][];
+			int[] hashes = new int[_count + 1];
+			System.arraycopy(_tuples, 0, tuples, 0, _count);
+			System.arraycopy(_hashes, 0, hashes, 0, _count);
+			tuples[_count] = terms;
+			hashes[_count] = hash;
+			return new Snapshot(tuples, hashes, _count + 1);
+		}
+
+
+		// returns a new snapshot without the flagged term lists
+		Snapshot remove(boolean[] removed, int count) {
+			int size = _count - count;
+			Object[][] tuples = new Object[size][];
+			int[] hashes = new int[size];
+			for (int i = 0, j = 0; i < _count; i++) {
+				if (!removed[i]) {
+					tuples[j] = _tuples[i];
+					hashes[j++] = _hashes[i];
+				}
+			}
+			return new Snapshot(tuples, hashes, size);
+		}
+
+
+		// the term lists in insertion order
+		final Object[][] _tuples;
+
+		// the hash codes of the term lists
+		final int[] _hashes;
+
+		// the number of term lists
+		final int _count;
+
+		// the hash table; each slot is 0 or the position of a term list + 1
+		final int[] _slots;
+
+		// an empty bitset, which causes every term to be compared
+		static final BitSet NO_VARS = new BitSet(0);
+	}
+}
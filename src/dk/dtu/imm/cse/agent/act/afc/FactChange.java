@@ -0,0 +1,151 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+
+/**
+ * A FactChange describes the addition or removal of a single fact, as
+ * reported to a {@link KnowledgeBaseListener}. Each change is given a
+ * sequence number by the knowledge base, such that later changes have
+ * higher numbers.
+ *
+ * @author  Henrik Lauritzen
+ */
+public final class FactChange implements java.io.Serializable {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * The type of a change which added a fact.
+	 */
+	public final static int ADDED = 1;
+	
+	
+	/**
+	 * The type of a change which removed a fact.
+	 */
+	public final static int REMOVED = 2;
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new FactChange instance.
+	 * @param type either {@link #ADDED} or {@link #REMOVED}
+	 * @param fact the fact which was added or removed
+	 * @param sequence the sequence number of the change
+	 * @exception IllegalArgumentException if the type is invalid.
+	 * @exception NullPointerException if the fact is null.
+	 */
+	public FactChange(int type, Fact fact, long sequence) 
+			throws IllegalArgumentException, NullPointerException {
+		if (type != ADDED && type != REMOVED) {
+			throw new IllegalArgumentException("" + type);
+		}
+		if (fact == null) {
+			throw new NullPointerException();
+		}
+		_type = type;
+		_fact = fact;
+		_sequence = sequence;
+	}
+		
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return either {@link #ADDED} or {@link #REMOVED}.
+	 */
+	public int getType() {
+		return _type;
+	}
+	
+	
+	/**
+	 * @return the fact which was added or removed.
+	 */
+	public Fact getFact() {
+		return _fact;
+	}
+	
+	
+	/**
+	 * @return the sequence number of the change.
+	 */
+	public long getSequence() {
+		return _sequence;
+	}
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	public String toString() {
+		return "#" + _sequence + (_type == ADDED ? " +" : " -") + _fact;
+	}
+	
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// the type of change
+	private int _type;
+	
+	// the added or removed fact
+	private Fact _fact;
+	
+	// the sequence number
+	private long _sequence;
+}
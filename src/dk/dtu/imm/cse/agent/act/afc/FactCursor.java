@@ -0,0 +1,87 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+
+/**
+ * A FactCursor traverses the facts found by
+ * {@link KnowledgeBase#matchCursor(int, String, Object[], java.util.BitSet,
+ * FactCursor) matching} a pattern against a knowledge base. In contrast to
+ * the list returned by {@link KnowledgeBase#match(Fact, java.util.BitSet)},
+ * the cursor does not require a {@link Fact} to be instantiated for every
+ * match, and the cursor instance itself can be reused for a new match.
+ * <p>
+ * The cursor traverses the matches found at the time of its creation; it
+ * is thus allowed to modify the knowledge base during the traversal.
+ * A cursor must only be used by one thread at a time.
+ *
+ * @author  Henrik Lauritzen
+ */
+public interface FactCursor {
+
+	// =======================================================================
+	// Fields
+	// =======================================================================
+
+	// =======================================================================
+	// Methods
+	// =======================================================================
+
+	/**
+	 * Advances the cursor to the next matching fact. This must be invoked
+	 * before the first fact can be accessed.
+	 * @return true iff the cursor was positioned at a new fact, false if
+	 *  there are no more matches.
+	 */
+	public boolean next();
+
+
+	/**
+	 * @return the arity of the current fact.
+	 * @exception IllegalStateException if the cursor is not positioned at a
+	 *  fact.
+	 */
+	public int getArity() throws IllegalStateException;
+
+
+	/**
+	 * Retreive a single term of the current fact.
+	 * @param idx the index of the term to be retreived
+	 * @exception IndexOutOfBoundsException if the index is subzero or
+	 *  is at or above the arity of the fact.
+	 * @exception IllegalStateException if the cursor is not positioned at a
+	 *  fact.
+	 */
+	public Object getTerm(int idx)
+			throws IllegalStateException, IndexOutOfBoundsException;
+
+
+	/**
+	 * @return a new Fact instance which is equal to the current fact.
+	 * @exception IllegalStateException if the cursor is not positioned at a
+	 *  fact.
+	 */
+	public Fact getFact() throws IllegalStateException;
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+}
@@ -0,0 +1,185 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * Reads facts written by a {@link FactEncoder}.
+ * <p>
+ * The decoder does not buffer its input, so it never reads beyond the
+ * data it decodes.
+ *
+ * @author  Henrik Lauritzen
+ */
+final class FactDecoder {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	FactDecoder(InputStream in) {
+		this(in, true);
+	}
+
+
+	/**
+	 * @param shareStrings must match the setting used by the encoder.
+	 * @see FactEncoder#FactEncoder(OutputStream, boolean)
+	 */
+	FactDecoder(InputStream in, boolean shareStrings) {
+		_in = in instanceof DataInputStream ? 
+				(DataInputStream)in : new DataInputStream(in);
+		_strings = shareStrings ? new ArrayList() : null;
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * @return the underlying stream.
+	 */
+	DataInputStream getInput() {
+		return _in;
+	}
+
+
+	/**
+	 * @see FactEncoder#writeVarInt(int)
+	 */
+	int readVarInt() throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = _in.readUnsignedByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new StreamCorruptedException("malformed integer");
+	}
+
+
+	/**
+	 * @see FactEncoder#writeVarLong(long)
+	 */
+	long readVarLong() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = _in.readUnsignedByte();
+			result |= (long)(b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return (result >>> 1) ^ -(result & 1);
+			}
+		}
+		throw new StreamCorruptedException("malformed integer");
+	}
+
+
+	/**
+	 * @see FactEncoder#writeString(String)
+	 */
+	String readString() throws IOException {
+		if (_strings == null) {
+			byte[] bytes = new byte[readVarInt()];
+			_in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+
+		int id = readVarInt();
+		if (id > 0) {
+			if (id > _strings.size()) {
+				throw new StreamCorruptedException("string " + id);
+			}
+			return (String)_strings.get(id - 1);
+		}
+
+		byte[] bytes = new byte[readVarInt()];
+		_in.readFully(bytes);
+		String result = new String(bytes, "UTF-8");
+		_strings.add(result);
+		return result;
+	}
+
+
+	/**
+	 * @see FactEncoder#writeTerm(Object)
+	 */
+	Object readTerm() throws IOException {
+		int tag = _in.readUnsignedByte();
+		switch (tag) {
+		case FactEncoder.TERM_NULL:
+			return null;
+		case FactEncoder.TERM_INT:
+			return Integer.valueOf((int)readVarLong());
+		case FactEncoder.TERM_STRING:
+			return readString();
+		case FactEncoder.TERM_DOUBLE:
+			return Double.valueOf(_in.readDouble());
+		case FactEncoder.TERM_LONG:
+			return Long.valueOf(readVarLong());
+		case FactEncoder.TERM_TRUE:
+			return Boolean.TRUE;
+		case FactEncoder.TERM_FALSE:
+			return Boolean.FALSE;
+		case FactEncoder.TERM_OBJECT:
+			byte[] bytes = new byte[readVarInt()];
+			_in.readFully(bytes);
+			try {
+				return new ObjectInputStream(
+						new ByteArrayInputStream(bytes)).readObject();
+			}
+			catch (ClassNotFoundException e) {
+				throw new InvalidClassException(e.getMessage());
+			}
+		default:
+			throw new StreamCorruptedException("term tag " + tag);
+		}
+	}
+
+
+	/**
+	 * @see FactEncoder#writeTerms(Object[])
+	 */
+	Object[] readTerms() throws IOException {
+		int max = readVarInt();
+		if (max == 0) {
+			return Util.NO_OBJECTS;
+		}
+		Object[] result = new Object[max];
+		for (int i = 0; i < max; i++) {
+			result[i] = readTerm();
+		}
+		return result;
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// the input stream
+	private DataInputStream _in;
+
+	// the strings read so far, or null if the strings are not shared
+	private List _strings;
+}
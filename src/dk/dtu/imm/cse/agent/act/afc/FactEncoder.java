@@ -0,0 +1,198 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Writes facts in the compact binary encoding shared by the
+ * {@link SnapshotWriter snapshot} and journal formats. Integers are
+ * written as variable-length quantities, terms are prefixed by a type tag,
+ * and each distinct string is written once; later occurrences refer to
+ * its position in the string table. An encoder may also be created without
+ * a string table, in which case every term is encoded independently of the
+ * preceding terms, and equal terms of the primitive types are always
+ * encoded as equal bytes.
+ * <p>
+ * The encoder does not buffer its output.
+ *
+ * @author  Henrik Lauritzen
+ * @see FactDecoder
+ */
+final class FactEncoder {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	FactEncoder(OutputStream out) {
+		this(out, true);
+	}
+
+
+	/**
+	 * @param shareStrings if false, the strings are written in full each
+	 *  time.
+	 */
+	FactEncoder(OutputStream out, boolean shareStrings) {
+		_out = out instanceof DataOutputStream ? 
+				(DataOutputStream)out : new DataOutputStream(out);
+		_strings = shareStrings ? new HashMap() : null;
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * @return the underlying stream.
+	 */
+	DataOutputStream getOutput() {
+		return _out;
+	}
+
+
+	/**
+	 * Writes a non-negative integer using 1 to 5 bytes.
+	 */
+	void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			_out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		_out.write(value);
+	}
+
+
+	/**
+	 * Writes a long integer using 1 to 10 bytes; small negative numbers
+	 * are written as compactly as small positive numbers.
+	 */
+	void writeVarLong(long value) throws IOException {
+		value = (value << 1) ^ (value >> 63);
+		while ((value & ~0x7fL) != 0) {
+			_out.write((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		_out.write((int)value);
+	}
+
+
+	/**
+	 * Writes a string, or a reference to it if it has been written before.
+	 */
+	void writeString(String s) throws IOException {
+		if (_strings == null) {
+			byte[] bytes = s.getBytes("UTF-8");
+			writeVarInt(bytes.length);
+			_out.write(bytes);
+			return;
+		}
+
+		Integer id = (Integer)_strings.get(s);
+		if (id != null) {
+			writeVarInt(id.intValue() + 1);
+			return;
+		}
+
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarInt(0);
+		writeVarInt(bytes.length);
+		_out.write(bytes);
+		_strings.put(s, Integer.valueOf(_strings.size()));
+	}
+
+
+	/**
+	 * Writes a single term.
+	 */
+	void writeTerm(Object t) throws IOException {
+		if (t == null) {
+			_out.write(TERM_NULL);
+		}
+		else if (t instanceof Integer) {
+			_out.write(TERM_INT);
+			writeVarLong(((Integer)t).intValue());
+		}
+		else if (t instanceof String) {
+			_out.write(TERM_STRING);
+			writeString((String)t);
+		}
+		else if (t instanceof Double) {
+			_out.write(TERM_DOUBLE);
+			_out.writeDouble(((Double)t).doubleValue());
+		}
+		else if (t instanceof Long) {
+			_out.write(TERM_LONG);
+			writeVarLong(((Long)t).longValue());
+		}
+		else if (t instanceof Boolean) {
+			_out.write(((Boolean)t).booleanValue() ? TERM_TRUE : TERM_FALSE);
+		}
+		else {
+			// fall back to Java serialization
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(buf);
+			out.writeObject(t);
+			out.close();
+			_out.write(TERM_OBJECT);
+			writeVarInt(buf.size());
+			buf.writeTo(_out);
+		}
+	}
+
+
+	/**
+	 * Writes the arity followed by the terms.
+	 * @param terms the terms; null is equivalent to an empty array.
+	 */
+	void writeTerms(Object[] terms) throws IOException {
+		int max = terms == null ? 0 : terms.length;
+		writeVarInt(max);
+		for (int i = 0; i < max; i++) {
+			writeTerm(terms[i]);
+		}
+	}
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// the term tags
+	final static int TERM_NULL = 0;
+	final static int TERM_INT = 1;
+	final static int TERM_LONG = 2;
+	final static int TERM_DOUBLE = 3;
+	final static int TERM_STRING = 4;
+	final static int TERM_TRUE = 5;
+	final static int TERM_FALSE = 6;
+	final static int TERM_OBJECT = 7;
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// the output stream
+	private DataOutputStream _out;
+
+	// maps each string written so far to its position in the string table,
+	// or null if the strings are not shared
+	private Map _strings;
+}
@@ -0,0 +1,197 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+
+/**
+ * A JoinPlan chooses between the evaluation orders which the AgentC compiler
+ * has generated for the conditions of an IF statement. The orders produce
+ * the same set of bindings, but in different orders; the compiler only
+ * generates alternatives when the body of the branch can neither observe
+ * the order nor leave a knowledge base which depends on it, so that
+ * every order has the same effect. Each order starts
+ * with a different pattern, and the order is chosen whose first pattern is
+ * expected to have the fewest matches, based on the
+ * {@link KnowledgeBase#size(int, String) number of facts} having the
+ * predicate symbol of the pattern. Every term of the pattern which is
+ * bound when the join starts is assumed to reduce the matches by a factor
+ * of 4.
+ * <p>
+ * The choice is cached, and it is only reconsidered when the size of one of
+ * the predicates has changed by more than a factor of 2 since the choice
+ * was made. This keeps the generated code from alternating between orders
+ * of similar cost.
+ * <p>
+ * The generated code keeps a JoinPlan for each agent. The plan is not
+ * synchronized; since every order has the same effect, a race can only
+ * result in a poor choice.
+ *
+ * @author  Henrik Lauritzen
+ */
+public final class JoinPlan {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new JoinPlan. The arrays describe the first pattern of each
+	 * evaluation order, and must have the same length.
+	 * @param categories the categories of the patterns
+	 * @param names the predicate symbols of the patterns
+	 * @param bound the number of terms of each pattern which are bound when
+	 *  the join starts
+	 */
+	public JoinPlan(int[] categories, String[] names, int[] bound) {
+		if (categories.length != names.length ||
+				bound.length != names.length || names.length == 0) {
+			throw new IllegalArgumentException();
+		}
+		_categories = categories;
+		_names = names;
+		_bound = bound;
+		_sizes = new int[names.length];
+	}
+
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Chooses an evaluation order.
+	 * @param kb the knowledge base which is about to be matched
+	 * @return the index of the chosen order
+	 */
+	public int choose(KnowledgeBase kb) {
+		int n = _names.length;
+		if (_choice >= 0) {
+			int i = 0;
+			while (i < n && !hasDrifted(_sizes[i],
+					kb.size(_categories[i], _names[i]))) {
+				i++;
+			}
+			if (i == n) {
+				return _choice;
+			}
+		}
+
+		// re-plan using the current sizes
+		int best = 0;
+		long bestCost = Long.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			int size = kb.size(_categories[i], _names[i]);
+			long cost = (long)size >> Math.min(2 * _bound[i], 31);
+			_sizes[i] = size;
+			if (cost < bestCost) {
+				bestCost = cost;
+				best = i;
+			}
+		}
+		_choice = best;
+		return best;
+	}
+
+
+	/**
+	 * @return the index of the order chosen most recently, or -1 if no order
+	 *  has been chosen yet.
+	 */
+	public int getChoice() {
+		return _choice;
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// changes in size up to this amount never cause re-planning, so that
+	// small predicates do not trigger it constantly
+	private final static int SLACK = 16;
+
+	// ------------------------------ instance -----------------------------
+
+	// the categories, predicate symbols and initially bound terms of the
+	// first pattern of each order
+	private final int[] _categories;
+	private final String[] _names;
+	private final int[] _bound;
+
+	// the sizes of the predicates when the current choice was made
+	private final int[] _sizes;
+
+	// the current choice, or -1
+	private int _choice = -1;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// true iff the size has changed by more than a factor of 2
+	private static boolean hasDrifted(int then, int now) {
+		return (long)now > 2L * then + SLACK || (long)then > 2L * now + SLACK;
+	}
+
+	// ------------------------------ instance -----------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+}
@@ -0,0 +1,839 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+/**
+ * A KnowledgeBase decorator which records every change of another
+ * knowledge base in a write-ahead journal, so that the facts survive the
+ * termination of the JVM. On construction, the facts are recovered from the
+ * latest {@link #checkpoint() checkpoint}, which is a snapshot of the whole
+ * knowledge base, and the changes recorded in the journal since then are
+ * replayed.
+ * <p>
+ * Each change is appended to the journal as a record holding a checksum and
+ * the operation, encoded as in the {@link SnapshotWriter snapshot} format.
+ * Operations which do not change the knowledge base are not recorded.
+ * The records are buffered, and are committed in batches: when
+ * a batch is full, when {@link #commit()} is invoked, and at a fixed
+ * interval by a background thread. Depending on the {@link #SYNC_NEVER
+ * synchronization policy}, a commit forces the journal onto the storage
+ * device. A record which was not written completely is ignored on recovery,
+ * along with the records following it.
+ * <p>
+ * The journal is kept in the given file, and the checkpoint in a file
+ * having the suffix <code>.checkpoint</code>. The facts which are
+ * recovered are added to the decorated knowledge base, which should
+ * normally be empty. It must not be modified except through the decorator.
+ * <p>
+ * The decorator shares the {@link #getLock() lock} of the decorated
+ * knowledge base, and the records are appended while holding it, so the
+ * journal reflects the order of the changes. Listeners are registered with
+ * the decorated knowledge base, which is reported as their source.
+ * If the journal cannot be written, the change causing it is applied, but
+ * an IllegalStateException is thrown, and the journal is closed.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class JournaledKnowledgeBase implements KnowledgeBase {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * The synchronization policy by which a commit passes the records to
+	 * the operating system without forcing them onto the storage device.
+	 * The journal survives the termination of the JVM, but not necessarily
+	 * a crash of the operating system.
+	 */
+	public final static int SYNC_NEVER = 0;
+
+	/**
+	 * The synchronization policy by which each commit forces the records
+	 * onto the storage device. A crash loses at most the records of the
+	 * current batch.
+	 */
+	public final static int SYNC_BATCH = 1;
+
+	/**
+	 * The synchronization policy by which each change is committed and
+	 * forced onto the storage device before the operation returns.
+	 */
+	public final static int SYNC_ALWAYS = 2;
+
+	/**
+	 * The default maximum number of records in a batch.
+	 */
+	public final static int DEFAULT_BATCH_SIZE = 1024;
+
+	/**
+	 * The default interval in milliseconds between the commits performed
+	 * by the background thread.
+	 */
+	public final static long DEFAULT_INTERVAL = 100;
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Recovers the facts recorded in a journal file using the
+	 * {@link #SYNC_BATCH} policy and the default batches.
+	 * @see #JournaledKnowledgeBase(KnowledgeBase, File, int, int, long)
+	 */
+	public JournaledKnowledgeBase(KnowledgeBase base, File file)
+			throws IOException {
+		this(base, file, SYNC_BATCH, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL);
+	}
+
+
+	/**
+	 * Recovers the facts recorded in a journal file, or creates a new
+	 * journal.
+	 * @param base the decorated knowledge base
+	 * @param file the journal file
+	 * @param policy the synchronization policy
+	 * @param batchSize the maximum number of records in a batch
+	 * @param interval the interval in milliseconds between the commits of
+	 *  the background thread, or 0 if no background thread is to be used.
+	 * @exception IOException if the facts could not be recovered.
+	 */
+	public JournaledKnowledgeBase(KnowledgeBase base, File file, int policy,
+			int batchSize, long interval) throws IOException {
+		if (base == null) {
+			throw new NullPointerException();
+		}
+		if (policy < SYNC_NEVER || policy > SYNC_ALWAYS || batchSize < 1 ||
+				interval < 0) {
+			throw new IllegalArgumentException();
+		}
+		_base = base;
+		_file = file;
+		_policy = policy;
+		_batchSize = batchSize;
+
+		synchronized (getLock()) {
+			recover();
+		}
+		if (interval > 0) {
+			_flusher = new Flusher(interval);
+			_flusher.start();
+		}
+	}
+
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the decorated knowledge base.
+	 */
+	public KnowledgeBase getBase() {
+		return _base;
+	}
+
+
+	/**
+	 * Commits the records written since the last commit.
+	 * @exception IllegalStateException if the journal is closed.
+	 */
+	public void commit() {
+		synchronized (getLock()) {
+			checkOpen();
+			try {
+				flush(true);
+			}
+			catch (IOException e) {
+				throw failure(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Writes a checkpoint holding every fact of the knowledge base, and
+	 * starts a new, empty journal. The files are replaced by renaming, so
+	 * the previous checkpoint and journal remain valid until the new
+	 * checkpoint is complete.
+	 * @exception IOException if the checkpoint could not be written; the
+	 *  journal is closed in this case.
+	 * @exception IllegalStateException if the journal is closed.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (getLock()) {
+			checkOpen();
+			flush(true);
+			_out.close();
+			_out = null;
+			writeCheckpoint();
+		}
+	}
+
+
+	/**
+	 * Commits the pending records, stops the background thread and closes
+	 * the journal. The knowledge base can still be read, but it cannot be
+	 * changed. Closing a closed journal has no effect.
+	 */
+	public void close() throws IOException {
+		synchronized (getLock()) {
+			if (_out == null) {
+				return;
+			}
+			try {
+				flush(true);
+			}
+			finally {
+				_out.close();
+				_out = null;
+			}
+		}
+		if (_flusher != null) {
+			_flusher.interrupt();
+		}
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	public boolean isEmpty() {
+		return _base.isEmpty();
+	}
+
+
+	public int size() {
+		return _base.size();
+	}
+
+
+	public int size(int category, String name) {
+		return _base.size(category, name);
+	}
+
+
+	public void clear() {
+		synchronized (getLock()) {
+			checkOpen();
+			_base.clear();
+			record(OP_CLEAR, 0, null, null, null);
+		}
+	}
+
+
+	public Object getLock() {
+		return _base.getLock();
+	}
+
+
+	/**
+	 * Removal through the iterator is recorded as a change.
+	 */
+	public Iterator iterator() {
+		final Iterator i = _base.iterator();
+		return new Iterator() {
+			private Fact _last = null;
+
+
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+
+
+			public Object next() {
+				return _last = (Fact)i.next();
+			}
+
+
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				JournaledKnowledgeBase.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+
+
+	public boolean add(Fact f) {
+		return add(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public boolean add(int category, String name, Object[] terms) {
+		synchronized (getLock()) {
+			checkOpen();
+			if (!_base.add(category, name, terms)) {
+				return false;
+			}
+			record(OP_ADD, category, name, terms, null);
+			return true;
+		}
+	}
+
+
+	public boolean contains(Fact f) {
+		return _base.contains(f);
+	}
+
+
+	public boolean contains(int category, String name, Object[] terms) {
+		return _base.contains(category, name, terms);
+	}
+
+
+	public boolean remove(Fact f) {
+		return remove(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public boolean remove(int category, String name, Object[] terms) {
+		synchronized (getLock()) {
+			checkOpen();
+			if (!_base.remove(category, name, terms)) {
+				return false;
+			}
+			record(OP_REMOVE, category, name, terms, null);
+			return true;
+		}
+	}
+
+
+	public int remove(Fact f, BitSet vars) {
+		return remove(f.getCategory(), f.getName(), f.getTermList(), vars);
+	}
+
+
+	public int remove(int category, String name, Object[] terms,
+			BitSet vars) {
+		synchronized (getLock()) {
+			checkOpen();
+			int result = _base.remove(category, name, terms, vars);
+			if (result > 0) {
+				record(OP_REMOVE_MATCHES, category, name, terms,
+						vars == null ? NO_VARS : vars);
+			}
+			return result;
+		}
+	}
+
+
+	public List match(Fact f, BitSet vars) {
+		return _base.match(f, vars);
+	}
+
+
+	public List match(int category, String name, Object[] terms,
+			BitSet vars) {
+		return _base.match(category, name, terms, vars);
+	}
+
+
+	public FactCursor matchCursor(int category, String name, Object[] terms,
+			BitSet vars, FactCursor cursor) {
+		return _base.matchCursor(category, name, terms, vars, cursor);
+	}
+
+
+	public void addKnowledgeBaseListener(KnowledgeBaseListener l,
+			int category, String name) {
+		_base.addKnowledgeBaseListener(l, category, name);
+	}
+
+
+	public void removeKnowledgeBaseListener(KnowledgeBaseListener l) {
+		_base.removeKnowledgeBaseListener(l);
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the identification of the files
+	private final static int JOURNAL_MAGIC = 0x414b424a;
+	private final static int CHECKPOINT_MAGIC = 0x414b4243;
+	private final static int VERSION = 1;
+
+	// the operations
+	private final static int OP_ADD = 1;
+	private final static int OP_REMOVE = 2;
+	private final static int OP_REMOVE_MATCHES = 3;
+	private final static int OP_CLEAR = 4;
+
+	// the maximum length of a record which is accepted on recovery
+	private final static int MAX_RECORD = 1 << 28;
+
+	private final static BitSet NO_VARS = new BitSet(0);
+
+	// ------------------------------ instance -----------------------------
+
+	// the decorated knowledge base
+	private final KnowledgeBase _base;
+
+	// the journal file
+	private final File _file;
+
+	// the synchronization policy and the maximum size of a batch
+	private final int _policy;
+	private final int _batchSize;
+
+	// the generation of the checkpoint and journal; the journal is only
+	// replayed on top of the checkpoint of the same generation
+	private long _generation;
+
+	// the journal stream, or null if closed, and its file descriptor
+	private transient DataOutputStream _out;
+	private transient FileDescriptor _fd;
+
+	// frames the records in the journal stream
+	private transient FactEncoder _frameEncoder;
+
+	// the record being written, and its encoder, whose string table spans
+	// the journal
+	private transient ByteArrayOutputStream _record;
+	private transient FactEncoder _encoder;
+
+	private transient CRC32 _crc = new CRC32();
+
+	// the number of records written since the last commit
+	private transient int _pending;
+
+	// the number of records passed to the operating system, and the number
+	// of those known to be on the storage device
+	private transient long _written;
+	private transient long _synced;
+
+	// the thread performing the periodic commits, or null
+	private transient Flusher _flusher;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	private static IllegalStateException failure(IOException e) {
+		IllegalStateException result = new IllegalStateException(
+				e.toString());
+		result.initCause(e);
+		return result;
+	}
+
+
+	private static void rename(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("cannot rename " + from + " to " + to);
+			}
+		}
+	}
+
+	// ------------------------------ instance -----------------------------
+
+	private File getCheckpointFile() {
+		return new File(_file.getPath() + ".checkpoint");
+	}
+
+
+	private void checkOpen() {
+		if (_out == null) {
+			throw new IllegalStateException("the journal is closed");
+		}
+	}
+
+
+	// load the checkpoint, replay the journal and open it for writing
+	private void recover() throws IOException {
+		_generation = 0;
+		File checkpoint = getCheckpointFile();
+		if (checkpoint.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(checkpoint)));
+			try {
+				if (in.readInt() != CHECKPOINT_MAGIC ||
+						in.readUnsignedByte() != VERSION) {
+					throw new StreamCorruptedException(
+							"not a checkpoint: " + checkpoint);
+				}
+				_generation = in.readLong();
+				new SnapshotReader(in).readInto(_base);
+			}
+			finally {
+				in.close();
+			}
+		}
+
+		// an empty journal of the current generation is reused, otherwise
+		// a new checkpoint is written
+		int replayed = _file.exists() ? replay() : -1;
+		if (replayed == 0) {
+			open(new FileOutputStream(_file, true));
+		}
+		else {
+			writeCheckpoint();
+		}
+	}
+
+
+	// replay the journal; returns the number of records, or -1 if the
+	// journal does not belong to the checkpoint or is damaged
+	private int replay() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_file)));
+		int result = 0;
+		try {
+			if (in.readInt() != JOURNAL_MAGIC ||
+					in.readUnsignedByte() != VERSION ||
+					in.readLong() != _generation) {
+				return -1;
+			}
+			FactDecoder frames = new FactDecoder(in);
+			RecordInput record = new RecordInput();
+			FactDecoder dec = new FactDecoder(record);
+			while (true) {
+				in.mark(1);
+				if (in.read() < 0) {
+					return result;
+				}
+				in.reset();
+				int len = frames.readVarInt();
+				if (len <= 0 || len > MAX_RECORD) {
+					return -1;
+				}
+				int crc = in.readInt();
+				byte[] bytes = new byte[len];
+				in.readFully(bytes);
+				_crc.reset();
+				_crc.update(bytes, 0, len);
+				if ((int)_crc.getValue() != crc) {
+					return -1;
+				}
+				record.reset(bytes);
+				apply(dec);
+				result++;
+			}
+		}
+		catch (EOFException e) {
+			// the last record is incomplete
+			return -1;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+
+	// apply a recorded change to the decorated knowledge base
+	private void apply(FactDecoder dec) throws IOException {
+		int op = dec.getInput().readUnsignedByte();
+		if (op == OP_CLEAR) {
+			_base.clear();
+			return;
+		}
+
+		int category = dec.readVarInt();
+		String name = dec.readString();
+		Object[] terms = dec.readTerms();
+		switch (op) {
+		case OP_ADD:
+			_base.add(category, name, terms);
+			break;
+		case OP_REMOVE:
+			_base.remove(category, name, terms);
+			break;
+		case OP_REMOVE_MATCHES:
+			BitSet vars = new BitSet();
+			for (int n = dec.readVarInt(); n > 0; n--) {
+				vars.set(dec.readVarInt());
+			}
+			_base.remove(category, name, terms, vars);
+			break;
+		default:
+			throw new StreamCorruptedException("operation " + op);
+		}
+	}
+
+
+	// write a checkpoint of the next generation, and start a new journal
+	private void writeCheckpoint() throws IOException {
+		long generation = _generation + 1;
+		File checkpoint = getCheckpointFile();
+		File tmp = new File(checkpoint.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(fos));
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(generation);
+			SnapshotWriter w = new SnapshotWriter(out);
+			w.writeAll(_base);
+			w.finish();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		rename(tmp, checkpoint);
+
+		// the old journal is ignored from now on, since its generation
+		// differs from the checkpoint
+		_generation = generation;
+		tmp = new File(_file.getPath() + ".tmp");
+		fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(fos);
+			out.writeInt(JOURNAL_MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(generation);
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		rename(tmp, _file);
+		open(new FileOutputStream(_file, true));
+	}
+
+
+	// start appending to the journal stream
+	private void open(FileOutputStream fos) throws IOException {
+		_fd = fos.getFD();
+		_out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+		_frameEncoder = new FactEncoder(_out);
+		_record = new ByteArrayOutputStream();
+		_encoder = new FactEncoder(_record);
+		_pending = 0;
+		_written = 0;
+		_synced = 0;
+	}
+
+
+	// append a change to the journal, and commit the batch if it is full
+	private void record(int op, int category, String name, Object[] terms,
+			BitSet vars) {
+		try {
+			_record.reset();
+			_record.write(op);
+			if (op != OP_CLEAR) {
+				_encoder.writeVarInt(category);
+				_encoder.writeString(name);
+				_encoder.writeTerms(terms);
+			}
+			if (vars != null) {
+				_encoder.writeVarInt(vars.cardinality());
+				for (int i = vars.nextSetBit(0); i >= 0;
+						i = vars.nextSetBit(i + 1)) {
+					_encoder.writeVarInt(i);
+				}
+			}
+
+			_crc.reset();
+			byte[] bytes = _record.toByteArray();
+			_crc.update(bytes, 0, bytes.length);
+			_frameEncoder.writeVarInt(bytes.length);
+			_out.writeInt((int)_crc.getValue());
+			_out.write(bytes);
+
+			if (++_pending >= _batchSize || _policy == SYNC_ALWAYS) {
+				flush(true);
+			}
+		}
+		catch (IOException e) {
+			try {
+				_out.close();
+			}
+			catch (IOException e2) {
+			}
+			_out = null;
+			throw failure(e);
+		}
+	}
+
+
+	// pass the pending records to the operating system, and force them
+	// onto the storage device if required by the policy
+	private void flush(boolean sync) throws IOException {
+		if (_pending > 0) {
+			_out.flush();
+			_written += _pending;
+			_pending = 0;
+		}
+		if (sync && _policy != SYNC_NEVER && _synced < _written) {
+			_fd.sync();
+			_synced = _written;
+		}
+	}
+
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		throw new NotSerializableException(getClass().getName());
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// commits the pending records periodically. The records are passed to
+	// the operating system while holding the lock, but are forced onto the
+	// storage device without it, so that the knowledge base can be changed
+	// in the meantime.
+	private final class Flusher extends Thread {
+
+		Flusher(long interval) {
+			super("journal " + _file.getName());
+			setDaemon(true);
+			_interval = interval;
+		}
+
+
+		public void run() {
+			while (true) {
+				try {
+					sleep(_interval);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				FileDescriptor fd;
+				long written;
+				synchronized (getLock()) {
+					if (_out == null) {
+						return;
+					}
+					try {
+						flush(false);
+					}
+					catch (IOException e) {
+						// the next change will report the failure
+						continue;
+					}
+					if (_policy == SYNC_NEVER || _synced == _written) {
+						continue;
+					}
+					fd = _fd;
+					written = _written;
+				}
+
+				try {
+					fd.sync();
+				}
+				catch (SyncFailedException e) {
+					// the descriptor has been closed in the meantime
+					continue;
+				}
+				synchronized (getLock()) {
+					if (_fd == fd && _synced < written) {
+						_synced = written;
+					}
+				}
+			}
+		}
+
+
+		// the interval between the commits
+		private final long _interval;
+	}
+
+
+	// an input stream which reads one record at a time, so that a single
+	// decoder can read the records
+	private static final class RecordInput extends InputStream {
+
+		void reset(byte[] bytes) {
+			_bytes = bytes;
+			_pos = 0;
+		}
+
+
+		public int read() {
+			return _pos < _bytes.length ? _bytes[_pos++] & 0xff : -1;
+		}
+
+
+		public int read(byte[] b, int off, int len) {
+			if (_pos >= _bytes.length) {
+				return -1;
+			}
+			len = Math.min(len, _bytes.length - _pos);
+			System.arraycopy(_bytes, _pos, b, off, len);
+			_pos += len;
+			return len;
+		}
+
+
+		private byte[] _bytes = new byte[0];
+		private int _pos;
+	}
+}
@@ -34,6 +34,12 @@ public interface KnowledgeBase extends java.io.Serializable {
 	// Fields
 	// =======================================================================
 
+	/**
+	 * The category used to register a {@link KnowledgeBaseListener} for
+	 * the facts of every category.
+	 */
+	public final static int ANY_CATEGORY = -1;
+	
 	
 	// =======================================================================
 	// Methods
@@ -54,6 +60,17 @@ public interface KnowledgeBase extends java.io.Serializable {
 	 */
 	public int size();
 	
+	
+	/**
+	 * Counts the facts having a given category and predicate symbol. The
+	 * count is maintained by the knowledge base, so that it may be used
+	 * cheaply to estimate the cost of a {@link #matchCursor match}.
+	 * @return the number of facts having the category and predicate symbol,
+	 *  or 0 if the category is invalid.
+	 * @see #size()
+	 */
+	public int size(int category, String name);
+	
 
 	/**
 	 * @return an Iterator which returns every fact contained in the knowledge
@@ -77,7 +94,12 @@ public interface KnowledgeBase extends java.io.Serializable {
 	/**
 	 * Returns the synchronization lock used by this knowledge base. It
 	 * is required that <em>all operations except {@link #iterator()}</em>
-	 * must be synchronized on this lock.
+	 * must be synchronized on this lock. As an exception, an implementation
+	 * may choose to let the operations which do not modify the knowledge 
+	 * base execute without the lock, provided that they always observe
+	 * the state between two complete modifications; see 
+	 * {@link ConcurrentKnowledgeBase}. Holding the lock will then still 
+	 * prevent any modification by other threads.
 	 */
 	public Object getLock();
 	
@@ -172,6 +194,8 @@ public interface KnowledgeBase extends java.io.Serializable {
 	 *  <code>vars.get(i)</code> determines whether t<sub>i</sub> should
 	 *  have significance in the matching. If vars has the value null this
 	 *  will have the effect that every term will be part of the match.
+	 *  The knowledge base never modifies vars, so the same BitSet may be
+	 *  shared by any number of matches, even concurrent ones.
 	 * @return a list containing Fact instances, all of which match the given
 	 *  fact.
 	 * @exception NullPointerException if the fact is null.
@@ -188,6 +212,44 @@ public interface KnowledgeBase extends java.io.Serializable {
 	public List match(int category, String name, Object[] terms,
 			BitSet vars) throws NullPointerException;
 
+
+	/**
+	 * Finds the same facts as {@link #match(int, String, Object[], BitSet)},
+	 * but returns them through a {@link FactCursor} instead of a list
+	 * of Fact instances. This allows a caller to traverse the matches 
+	 * without instantiating a Fact for each of them.
+	 * @param cursor a cursor previously returned by this method on the same
+	 *  knowledge base, which is no longer used by the caller. The
+	 *  implementation may choose to reuse this instance for the result.
+	 *  The value null may be given if no such cursor exists.
+	 * @return a cursor which is positioned before the first match.
+	 * @see #match(int, String, Object[], BitSet)
+	 */
+	public FactCursor matchCursor(int category, String name, Object[] terms,
+			BitSet vars, FactCursor cursor) throws NullPointerException;
+
+	
+	/**
+	 * Registers a listener to be notified of the facts added to or
+	 * removed from the knowledge base. A listener which is registered
+	 * several times will be notified once for each registration.
+	 * @param l the listener
+	 * @param category the category of the facts to be observed, or
+	 *  {@link #ANY_CATEGORY}
+	 * @param name the predicate symbol of the facts to be observed, or null
+	 *  to observe every predicate symbol
+	 * @exception NullPointerException if the listener is null.
+	 */
+	public void addKnowledgeBaseListener(KnowledgeBaseListener l, 
+			int category, String name) throws NullPointerException;
+	
+	
+	/**
+	 * Removes every registration of a listener.
+	 * @param l the listener
+	 */
+	public void removeKnowledgeBaseListener(KnowledgeBaseListener l);
+
 	// ***********************************************************************
 
 	// =======================================================================
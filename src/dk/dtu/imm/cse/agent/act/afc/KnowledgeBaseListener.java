@@ -0,0 +1,60 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+
+/**
+ * A KnowledgeBaseListener is notified of the facts added to and removed
+ * from a {@link KnowledgeBase}. The listener is
+ * {@link KnowledgeBase#addKnowledgeBaseListener(KnowledgeBaseListener, int,
+ * String) registered} for a single category and predicate symbol, or for
+ * every fact in the base.
+ *
+ * @author  Henrik Lauritzen
+ */
+public interface KnowledgeBaseListener {
+
+	// =======================================================================
+	// Fields
+	// =======================================================================
+
+	// =======================================================================
+	// Methods
+	// =======================================================================
+
+	/**
+	 * Invoked once after each operation which changed the facts observed
+	 * by the listener. The method is invoked while the knowledge base 
+	 * {@link KnowledgeBase#getLock() lock} is held, so the listener sees 
+	 * the batches in the order of the sequence numbers, and it may inspect
+	 * the knowledge base; however, it should not block, and it must not
+	 * modify the knowledge base.
+	 * @param source the knowledge base which was changed
+	 * @param changes the changes made by the operation, in order of
+	 *  increasing sequence numbers. The array may be retained by the
+	 *  listener, but must not be modified.
+	 */
+	public void factsChanged(KnowledgeBase source, FactChange[] changes);
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+	
+}
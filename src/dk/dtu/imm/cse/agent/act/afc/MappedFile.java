@@ -0,0 +1,235 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+/**
+ * A file which is mapped into memory as a sequence of segments, so that it
+ * may grow beyond the 2 GB which can be addressed by a single buffer. The
+ * positions in the file are longs; the callers must arrange their data so
+ * that no item accessed through {@link #segment(long)} crosses the boundary
+ * between two segments.
+ * <p>
+ * The file grows by doubling its length until it reaches the segment size,
+ * and by whole segments thereafter. It is never shrunk, since a mapped
+ * region must not be truncated.
+ * <p>
+ * The file is not synchronized.
+ *
+ * @author  Henrik Lauritzen
+ * @see MappedKnowledgeBase
+ */
+final class MappedFile {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	/**
+	 * Opens or creates a file, and maps its current contents.
+	 * @param segmentSize the size of a segment, which must be a power of
+	 *  two.
+	 */
+	MappedFile(File file, int segmentSize) throws IOException {
+		if (segmentSize < INITIAL_LENGTH ||
+				(segmentSize & (segmentSize - 1)) != 0) {
+			throw new IllegalArgumentException("" + segmentSize);
+		}
+		_segmentSize = segmentSize;
+		_file = new RandomAccessFile(file, "rw");
+		_length = 0;
+		map(_file.length());
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * @return the current length of the file.
+	 */
+	long length() {
+		return _length;
+	}
+
+
+	/**
+	 * @return the size of a segment.
+	 */
+	int getSegmentSize() {
+		return _segmentSize;
+	}
+
+
+	/**
+	 * Grows the file, if necessary, so that it is at least the given length.
+	 */
+	void ensure(long length) throws IOException {
+		if (length <= _length) {
+			return;
+		}
+		long n = Math.max(_length, INITIAL_LENGTH);
+		while (n < length) {
+			n = n < _segmentSize ? n * 2 : n + _segmentSize;
+		}
+		_file.setLength(n);
+		map(n);
+	}
+
+
+	/**
+	 * @return the buffer mapping the segment which contains the position.
+	 *  The buffer must be accessed at {@link #offset(long)}.
+	 */
+	ByteBuffer segment(long pos) {
+		return _segments[(int)(pos / _segmentSize)];
+	}
+
+
+	/**
+	 * @return the offset of the position within its segment.
+	 */
+	int offset(long pos) {
+		return (int)pos & (_segmentSize - 1);
+	}
+
+
+	/**
+	 * Copies bytes out of the file; the range may cross segment boundaries.
+	 */
+	void read(long pos, byte[] dst, int off, int len) {
+		while (len > 0) {
+			ByteBuffer b = segment(pos);
+			int o = offset(pos);
+			int n = Math.min(len, _segmentSize - o);
+			for (int i = 0; i < n; i++) {
+				dst[off + i] = b.get(o + i);
+			}
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+
+	/**
+	 * Copies bytes into the file, which must be long enough already; the
+	 * range may cross segment boundaries.
+	 */
+	void write(long pos, byte[] src, int off, int len) {
+		while (len > 0) {
+			ByteBuffer b = segment(pos);
+			int o = offset(pos);
+			int n = Math.min(len, _segmentSize - o);
+			for (int i = 0; i < n; i++) {
+				b.put(o + i, src[off + i]);
+			}
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+
+	/**
+	 * Sets a range of the file to zero.
+	 */
+	void zero(long pos, long len) {
+		while (len > 0) {
+			ByteBuffer b = segment(pos);
+			int o = offset(pos);
+			int n = (int)Math.min(len, _segmentSize - o);
+			for (int i = 0; i < n; i++) {
+				b.put(o + i, (byte)0);
+			}
+			pos += n;
+			len -= n;
+		}
+	}
+
+
+	/**
+	 * Forces the changes made to the mapped contents onto the storage
+	 * device.
+	 */
+	void force() {
+		for (int i = 0; i < _segments.length; i++) {
+			_segments[i].force();
+		}
+	}
+
+
+	/**
+	 * Closes the file. The mapped regions are released when they are
+	 * garbage collected.
+	 */
+	void close() throws IOException {
+		_segments = NO_SEGMENTS;
+		_length = 0;
+		_file.close();
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// the length of a file when it is first grown
+	private final static int INITIAL_LENGTH = 1 << 16;
+
+	private final static MappedByteBuffer[] NO_SEGMENTS =
+			new MappedByteBuffer[0];
+
+	// the open file
+	private RandomAccessFile _file;
+
+	// the size of a segment; a power of 2
+	private final int _segmentSize;
+
+	// the mapped segments; only the last may be shorter than _segmentSize
+	private MappedByteBuffer[] _segments = NO_SEGMENTS;
+
+	// the length of the file
+	private long _length;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// map the file, which has the given length
+	private void map(long length) throws IOException {
+		FileChannel channel = _file.getChannel();
+		int count = (int)((length + _segmentSize - 1) / _segmentSize);
+		MappedByteBuffer[] segments = new MappedByteBuffer[count];
+		System.arraycopy(_segments, 0, segments, 0,
+				Math.min(count, _segments.length));
+		for (int i = 0; i < count; i++) {
+			long start = (long)i * _segmentSize;
+			long size = Math.min(_segmentSize, length - start);
+			if (segments[i] == null || segments[i].capacity() != size) {
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+						start, size);
+			}
+		}
+		_segments = segments;
+		_length = length;
+	}
+}
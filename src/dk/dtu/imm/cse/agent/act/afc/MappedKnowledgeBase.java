@@ -0,0 +1,1589 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * A KnowledgeBase implementation which keeps the facts in a memory-mapped
+ * file rather than on the heap, so that the knowledge base may grow beyond
+ * the size of the heap, and persists between runs. Only a small descriptor
+ * per predicate symbol is kept on the heap; {@link Fact} instances are only
+ * created for the facts which are actually returned.
+ * <p>
+ * The facts are stored in an append-only log, using the encoding of the
+ * {@link SnapshotWriter snapshot} format without a string table. Each
+ * record carries a checksum, and removing a fact merely marks its record as
+ * dead. For each category and predicate symbol, an open-addressing hash
+ * table of record positions is kept in a separate index file named
+ * <code><i>file</i>.idx</code>, and the records of a predicate are chained
+ * together, so that a pattern is only matched against the records of its
+ * predicate. Facts are compared by their encoded bytes wherever possible.
+ * Dead records are reclaimed by {@link #compact()}.
+ * <p>
+ * The index file is marked as valid by {@link #close()}. When a knowledge
+ * base is opened without having been closed, e.g. after a crash, the log is
+ * scanned up to the first incomplete or damaged record, and the index is
+ * rebuilt from the records before it. The changes are guaranteed to be
+ * on disk only after {@link #force()} or {@link #close()} has returned.
+ * <p>
+ * Every operation is synchronized on the knowledge base itself, which is
+ * also the {@link #getLock() lock}. Terms which are not of the types
+ * <code>Integer, Long, Double, String</code> or <code>Boolean</code> are
+ * stored using Java serialization, and must have hash codes which do not
+ * change between runs. The knowledge base cannot be serialized.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class MappedKnowledgeBase implements KnowledgeBase {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Opens an existing knowledge base, or creates an empty knowledge base
+	 * which allows only one attitude (0).
+	 * @param file the log file
+	 * @exception IOException if the file cannot be opened, or does not
+	 *  contain a knowledge base.
+	 */
+	public MappedKnowledgeBase(File file) throws IOException {
+		this(file, -1, DEFAULT_SEGMENT_SIZE);
+	}
+
+
+	/**
+	 * Opens an existing knowledge base, or creates an empty knowledge base
+	 * which allows attitudes 0 through size.
+	 * @param file the log file
+	 * @exception IOException if the file cannot be opened, or does not
+	 *  contain a knowledge base allowing the same attitudes.
+	 */
+	public MappedKnowledgeBase(File file, int size) throws IOException {
+		this(file, size, DEFAULT_SEGMENT_SIZE);
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ------------------------------- private -------------------------------
+
+	// a size of -1 accepts any number of attitudes
+	MappedKnowledgeBase(File file, int size, int segmentSize)
+			throws IOException {
+		if (size == 0 || size < -1) {
+			throw new IllegalArgumentException("" + size);
+		}
+		_file = file;
+		_segmentSize = segmentSize;
+		open(size);
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * @return the log file.
+	 */
+	public File getFile() {
+		return _file;
+	}
+
+
+	/**
+	 * Forces the changes made so far onto the storage device. The index is
+	 * not marked as valid, hence the facts will be recovered from the log if
+	 * the knowledge base is not closed.
+	 * @exception IllegalStateException if the knowledge base is closed.
+	 */
+	public synchronized void force() {
+		checkOpen();
+		_log.force();
+		_index.force();
+	}
+
+
+	/**
+	 * Rewrites the log without the dead records, and rebuilds the index.
+	 * The facts are kept in the same order. The files are replaced by
+	 * renaming, which may not succeed while other processes have them open.
+	 * @exception IllegalStateException if the knowledge base is closed.
+	 */
+	public synchronized void compact() throws IOException {
+		checkOpen();
+		File tmp = new File(_file.getPath() + ".tmp");
+		File tmpIndex = indexFile(tmp);
+		tmp.delete();
+		tmpIndex.delete();
+
+		MappedKnowledgeBase copy = new MappedKnowledgeBase(tmp,
+				_base.length, _segmentSize);
+		try {
+			for (long pos = nextFact(HEADER_SIZE); pos < _logEnd;
+					pos = nextFact(pos + recordLength(pos))) {
+				Predicate p = predicateOf(pos);
+				copy.add(p._category, p._name, decode(pos));
+			}
+		}
+		finally {
+			copy.close();
+		}
+
+		_log.close();
+		_index.close();
+		_log = null;
+		_index = null;
+		rename(tmp, _file);
+		rename(tmpIndex, indexFile(_file));
+		open(_base.length);
+	}
+
+
+	/**
+	 * Writes the index, marks it as valid and closes the files. The
+	 * knowledge base cannot be used afterwards. Closing a closed knowledge
+	 * base has no effect.
+	 */
+	public synchronized void close() throws IOException {
+		if (_log == null) {
+			return;
+		}
+
+		// the directory of predicates is placed after the tables
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		FactEncoder enc = new FactEncoder(buf, false);
+		DataOutputStream out = enc.getOutput();
+		enc.writeVarInt(_predicates.size());
+		for (Iterator i = _predicates.iterator(); i.hasNext(); ) {
+			Predicate p = (Predicate)i.next();
+			enc.writeVarInt(p._category);
+			enc.writeString(p._name);
+			out.writeLong(p._table);
+			out.writeInt(p._capacity);
+			out.writeInt(p._count);
+			out.writeLong(p._last);
+		}
+		byte[] dir = buf.toByteArray();
+		_index.ensure(_indexEnd + dir.length);
+		_index.write(_indexEnd, dir, 0, dir.length);
+		CRC32 crc = new CRC32();
+		crc.update(dir, 0, dir.length);
+
+		ByteBuffer h = _index.segment(0);
+		h.putInt(I_MAGIC, INDEX_MAGIC);
+		h.putInt(I_VERSION, VERSION);
+		h.putInt(I_SIZE, _size);
+		h.putLong(I_LOG_ID, _logId);
+		h.putLong(I_LOG_END, _logEnd);
+		h.putLong(I_DIRECTORY, _indexEnd);
+		h.putInt(I_DIRECTORY_LENGTH, dir.length);
+		h.putInt(I_DIRECTORY_CRC, (int)crc.getValue());
+		h.putLong(I_END, _indexEnd);
+
+		// the index must not be marked as valid before its contents are
+		// on disk
+		_log.force();
+		_index.force();
+		h.putInt(I_CLEAN, 1);
+		_index.force();
+
+		_log.close();
+		_index.close();
+		_log = null;
+		_index = null;
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	public synchronized boolean isEmpty() {
+		return _size == 0;
+	}
+
+
+	public synchronized int size() {
+		return _size;
+	}
+
+
+	public synchronized int size(int category, String name) {
+		Predicate p = getPredicate(category, name);
+		return p == null ? 0 : p._count;
+	}
+
+
+	public synchronized void clear() {
+		checkOpen();
+
+		// report the observed facts as removed, in a single batch
+		List removed = null;
+		for (Iterator i = _predicates.iterator();
+				_changes != null && i.hasNext(); ) {
+			Predicate p = (Predicate)i.next();
+			if (p._count == 0 || !_changes.isObserved(p._category, p._name)) {
+				continue;
+			}
+			if (removed == null) {
+				removed = new ArrayList();
+			}
+			int n = collect(p, null, null);
+			for (int j = n - 1; j >= 0; j--) {
+				removed.add(_changes.createChange(FactChange.REMOVED,
+						p._category, p._name, decode(_matches[j])));
+			}
+		}
+
+		// start a new epoch, so that the old records are never read again
+		ByteBuffer h = _log.segment(0);
+		h.putInt(H_EPOCH, ++_epoch);
+		h.putInt(H_BASE_EPOCH, _epoch);
+		_logEnd = HEADER_SIZE;
+		h.putInt(HEADER_SIZE, 0);
+		resetIndex();
+
+		if (removed != null) {
+			_changes.fire((FactChange[])removed.toArray(
+					new FactChange[removed.size()]), removed.size());
+		}
+	}
+
+
+	public Object getLock() {
+		return this;
+	}
+
+
+	/**
+	 * The iterator traverses the log in the order of insertion, and must be
+	 * used while holding the lock if the knowledge base is modified by
+	 * other threads. Removal is supported, and is delegated to
+	 * {@link #remove(Fact)}.
+	 */
+	public Iterator iterator() {
+		return new Iterator() {
+			private long _pos = HEADER_SIZE;
+			private Fact _last = null;
+
+
+			public boolean hasNext() {
+				synchronized (MappedKnowledgeBase.this) {
+					checkOpen();
+					_pos = nextFact(_pos);
+					return _pos < _logEnd;
+				}
+			}
+
+
+			public Object next() {
+				synchronized (MappedKnowledgeBase.this) {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Predicate p = predicateOf(_pos);
+					_last = new Fact(p._category, p._name, decode(_pos));
+					_pos += recordLength(_pos);
+					return _last;
+				}
+			}
+
+
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				MappedKnowledgeBase.this.remove(_last);
+				_last = null;
+			}
+
+		};
+	}
+
+
+	public boolean add(Fact f) {
+		return add(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public synchronized boolean add(int category, String name,
+			Object[] terms) {
+		checkOpen();
+		Map m = _base[category];
+		if (name == null) {
+			throw new NullPointerException();
+		}
+		Predicate p = (Predicate)m.get(name);
+		int hash = encodeProbe(terms);
+		if (p != null && find(p, hash, 0) >= 0) {
+			return false;
+		}
+
+		try {
+			if (p == null) {
+				p = createPredicate(category, name.intern());
+			}
+
+			DataOutputStream out = startRecord();
+			out.writeInt(p._id);
+			out.writeInt(hash);
+			out.writeLong(p._last);
+			out.writeByte(_probeCanonical ? CANONICAL : 0);
+			out.write(_probe.array(), 0, _probe.size());
+			long pos = appendRecord(TYPE_FACT);
+
+			p._last = pos;
+			insert(p, hash, pos);
+		}
+		catch (IOException e) {
+			throw failure(e);
+		}
+		p._count++;
+		_size++;
+
+		if (isObserved(category, name)) {
+			_changes.fire(FactChange.ADDED, category, name,
+					terms == null ? Util.NO_OBJECTS : terms.clone());
+		}
+		return true;
+	}
+
+
+	public boolean contains(Fact f) {
+		return contains(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public synchronized boolean contains(int category, String name,
+			Object[] terms) {
+		checkOpen();
+		Predicate p = getPredicate(category, name);
+		return p != null && p._count > 0 &&
+				find(p, encodeProbe(terms), 0) >= 0;
+	}
+
+
+	public boolean remove(Fact f) {
+		return remove(f.getCategory(), f.getName(), f.getTermList());
+	}
+
+
+	public synchronized boolean remove(int category, String name,
+			Object[] terms) {
+		checkOpen();
+		Predicate p = getPredicate(category, name);
+		if (p == null || p._count == 0) {
+			return false;
+		}
+		int slot = find(p, encodeProbe(terms), 0);
+		if (slot < 0) {
+			return false;
+		}
+
+		long pos = getSlot(p, slot);
+		kill(p, slot, pos);
+		if (isObserved(category, name)) {
+			_changes.fire(FactChange.REMOVED, category, name, decode(pos));
+		}
+		return true;
+	}
+
+
+	public int remove(Fact f, BitSet vars) {
+		return remove(f.getCategory(), f.getName(), f.getTermList(), vars);
+	}
+
+
+	public synchronized int remove(int category, String name, Object[] terms,
+			BitSet vars) {
+		checkOpen();
+		if (vars == null) {
+			return remove(category, name, terms) ? 1 : 0;
+		}
+		Predicate p = getPredicate(category, name);
+		if (p == null || p._count == 0) {
+			return 0;
+		}
+
+		int count = collect(p, terms == null ? Util.NO_OBJECTS : terms, vars);
+		boolean observed = isObserved(category, name);
+		FactChange[] changes = observed ? new FactChange[count] : null;
+		for (int i = count - 1; i >= 0; i--) {
+			long pos = _matches[i];
+			kill(p, slotOf(p, pos), pos);
+			if (observed) {
+				changes[count - 1 - i] = _changes.createChange(
+						FactChange.REMOVED, category, name, decode(pos));
+			}
+		}
+		if (observed) {
+			_changes.fire(changes, count);
+		}
+		return count;
+	}
+
+
+	public List match(Fact f, BitSet vars) {
+		return match(f.getCategory(), f.getName(), f.getTermList(), vars);
+	}
+
+
+	public synchronized List match(int category, String name, Object[] terms,
+			BitSet vars) {
+		checkOpen();
+		Predicate p = getPredicate(category, name);
+		if (p == null || p._count == 0) {
+			return Collections.EMPTY_LIST;
+		}
+
+		List result = new ArrayList();
+		for (int i = collect(p, terms == null ? Util.NO_OBJECTS : terms,
+				vars) - 1; i >= 0; i--) {
+			result.add(new Fact(category, name, decode(_matches[i])));
+		}
+		return result;
+	}
+
+
+	/**
+	 * The matching facts are decoded when the cursor is created.
+	 */
+	public synchronized FactCursor matchCursor(int category, String name,
+			Object[] terms, BitSet vars, FactCursor cursor) {
+		checkOpen();
+		Cursor result = (cursor instanceof Cursor) ?
+				(Cursor)cursor : new Cursor();
+		result.reset(category, name);
+		Predicate p = getPredicate(category, name);
+		if (p == null || p._count == 0) {
+			return result;
+		}
+		for (int i = collect(p, terms == null ? Util.NO_OBJECTS : terms,
+				vars) - 1; i >= 0; i--) {
+			result.add(decode(_matches[i]));
+		}
+		return result;
+	}
+
+
+	public synchronized void addKnowledgeBaseListener(KnowledgeBaseListener l,
+			int category, String name) {
+		if (_changes == null) {
+			_changes = new ChangeSupport(this);
+		}
+		_changes.addListener(l, category, name);
+	}
+
+
+	public synchronized void removeKnowledgeBaseListener(
+			KnowledgeBaseListener l) {
+		if (_changes != null) {
+			_changes.removeListener(l);
+		}
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the size of the mapped segments of the files
+	private final static int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	// the identification of the files
+	private final static int MAGIC = 0x414b424d;
+	private final static int INDEX_MAGIC = 0x414b4249;
+	private final static int VERSION = 1;
+
+	// the layout of the log header
+	private final static int H_MAGIC = 0;
+	private final static int H_VERSION = 4;
+	private final static int H_CATEGORIES = 8;
+	private final static int H_EPOCH = 12;
+	private final static int H_BASE_EPOCH = 16;
+	private final static int H_LOG_ID = 24;
+	private final static int HEADER_SIZE = 64;
+
+	// the layout of a record. The length includes the padding to a multiple
+	// of ALIGNMENT bytes, and the checksum covers the type and the bytes
+	// following it. A padding record only has the first three fields.
+	private final static int R_LENGTH = 0;
+	private final static int R_STATE = 4;
+	private final static int R_TYPE = 5;
+	private final static int R_CRC = 6;
+	private final static int R_EPOCH = 10;
+	private final static int R_PAYLOAD = 14;
+	private final static int ALIGNMENT = 8;
+
+	// the record types and states
+	private final static byte TYPE_PAD = 1;
+	private final static byte TYPE_PREDICATE = 2;
+	private final static byte TYPE_FACT = 3;
+	private final static byte LIVE = 1;
+	private final static byte DEAD = 0;
+
+	// the layout of a predicate record
+	private final static int P_ID = R_PAYLOAD;
+	private final static int P_CATEGORY = P_ID + 4;
+	private final static int P_NAME = P_CATEGORY + 4;
+
+	// the layout of a fact record; the flags tell whether the terms are
+	// encoded canonically
+	private final static int F_PREDICATE = R_PAYLOAD;
+	private final static int F_HASH = F_PREDICATE + 4;
+	private final static int F_PREVIOUS = F_HASH + 4;
+	private final static int F_FLAGS = F_PREVIOUS + 8;
+	private final static int F_TERMS = F_FLAGS + 1;
+	private final static byte CANONICAL = 1;
+
+	// the layout of the index header
+	private final static int I_MAGIC = 0;
+	private final static int I_VERSION = 4;
+	private final static int I_CLEAN = 8;
+	private final static int I_SIZE = 12;
+	private final static int I_LOG_ID = 16;
+	private final static int I_LOG_END = 24;
+	private final static int I_DIRECTORY = 32;
+	private final static int I_DIRECTORY_LENGTH = 40;
+	private final static int I_DIRECTORY_CRC = 44;
+	private final static int I_END = 48;
+	private final static int INDEX_HEADER_SIZE = 64;
+
+	// the initial number of slots in the hash table of a predicate
+	private final static int INITIAL_CAPACITY = 16;
+
+	// used when no term is a variable
+	private final static BitSet NO_VARS = new BitSet(0);
+
+	// ------------------------------ instance -----------------------------
+
+	// the log file, and the size of its mapped segments
+	private final File _file;
+	private final int _segmentSize;
+
+	// the mapped log and index files, or null when closed
+	private transient MappedFile _log;
+	private transient MappedFile _index;
+
+	// a random number identifying the log, which is recorded in the index
+	private transient long _logId;
+
+	// the epoch of the records being written. Each record carries the
+	// epoch in which it was written, and the epochs never decrease along
+	// the log; this prevents stale data beyond the end of the log from
+	// being mistaken for records.
+	private transient int _epoch;
+
+	// the position of the terminating zero following the last record
+	private transient long _logEnd;
+
+	// the end of the allocated part of the index file
+	private transient long _indexEnd;
+
+	// For each attitude id, a map of predicate symbol (String) keys and
+	// Predicate values
+	private transient Map[] _base;
+
+	// the predicates, indexed by their ids
+	private transient List _predicates;
+
+	// the number of live facts
+	private transient int _size;
+
+	// the record being written
+	private transient Buffer _record = new Buffer();
+	private transient FactEncoder _recordEncoder =
+			new FactEncoder(_record, false);
+
+	// the encoded terms being searched for, and whether they are canonical
+	private transient Buffer _probe = new Buffer();
+	private transient FactEncoder _probeEncoder =
+			new FactEncoder(_probe, false);
+	private transient Object[] _probeTerms;
+	private transient boolean _probeCanonical;
+
+	// the positions of the records found by collect()
+	private transient long[] _matches = new long[16];
+
+	// used for verifying records
+	private transient CRC32 _crc = new CRC32();
+	private transient byte[] _scratch = new byte[256];
+
+	// the registered listeners, or null if none have been registered
+	private transient ChangeSupport _changes;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	private static File indexFile(File file) {
+		return new File(file.getPath() + ".idx");
+	}
+
+
+	private static void rename(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("cannot rename " + from + " to " + to);
+			}
+		}
+	}
+
+
+	private static IllegalStateException failure(IOException e) {
+		IllegalStateException result = new IllegalStateException(
+				e.toString());
+		result.initCause(e);
+		return result;
+	}
+
+
+	// true iff the terms have an encoding which is equal for equal terms
+	private static boolean isCanonical(Object[] terms) {
+		for (int i = 0; terms != null && i < terms.length; i++) {
+			Object t = terms[i];
+			if (t != null && !(t instanceof Integer || t instanceof String ||
+					t instanceof Double || t instanceof Long ||
+					t instanceof Boolean)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static void putInt(byte[] b, int off, int value) {
+		b[off] = (byte)(value >>> 24);
+		b[off + 1] = (byte)(value >>> 16);
+		b[off + 2] = (byte)(value >>> 8);
+		b[off + 3] = (byte)value;
+	}
+
+
+	// read a variable-length integer written by the FactEncoder
+	private static int readVarInt(ByteBuffer b, int off) {
+		int result = 0;
+		for (int shift = 0; ; shift += 7) {
+			int v = b.get(off++);
+			result |= (v & 0x7f) << shift;
+			if ((v & 0x80) == 0) {
+				return result;
+			}
+		}
+	}
+
+
+	// return the offset following the variable-length integer at off
+	private static int skipVarInt(ByteBuffer b, int off) {
+		while ((b.get(off++) & 0x80) != 0) {
+		}
+		return off;
+	}
+
+
+	// return the offset following the encoded term at off
+	private static int skipTerm(ByteBuffer b, int off) {
+		switch (b.get(off)) {
+		case FactEncoder.TERM_NULL:
+		case FactEncoder.TERM_TRUE:
+		case FactEncoder.TERM_FALSE:
+			return off + 1;
+		case FactEncoder.TERM_INT:
+		case FactEncoder.TERM_LONG:
+			return skipVarInt(b, off + 1);
+		case FactEncoder.TERM_DOUBLE:
+			return off + 9;
+		case FactEncoder.TERM_STRING:
+		case FactEncoder.TERM_OBJECT:
+			return skipVarInt(b, off + 1) + readVarInt(b, off + 1);
+		default:
+			throw new IllegalStateException("term tag " + b.get(off));
+		}
+	}
+
+
+	// return the offset following the encoded terms at off
+	private static int skipTerms(ByteBuffer b, int off) {
+		int n = readVarInt(b, off);
+		off = skipVarInt(b, off);
+		for (int i = 0; i < n; i++) {
+			off = skipTerm(b, off);
+		}
+		return off;
+	}
+
+
+	private static boolean equalBytes(ByteBuffer b1, int off1,
+			ByteBuffer b2, int off2, int len) {
+		for (int i = 0; i < len; i++) {
+			if (b1.get(off1 + i) != b2.get(off2 + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static Object decodeTerm(ByteBuffer b, int off) {
+		try {
+			return new FactDecoder(new BufferInput(b, off), false).readTerm();
+		}
+		catch (IOException e) {
+			throw failure(e);
+		}
+	}
+
+	// ------------------------------ instance -----------------------------
+
+	private void checkOpen() {
+		if (_log == null) {
+			throw new IllegalStateException("closed");
+		}
+	}
+
+
+	// true iff a listener observes the given facts
+	private boolean isObserved(int category, String name) {
+		return _changes != null && _changes.isObserved(category, name);
+	}
+
+
+	// the predicate having the given category and name, or null
+	private Predicate getPredicate(int category, String name) {
+		return (category < 0 || category >= _base.length) ? null :
+				(Predicate)_base[category].get(name);
+	}
+
+
+	// open the files; size is the required number of attitudes, or -1
+	private void open(int size) throws IOException {
+		_log = new MappedFile(_file, _segmentSize);
+		try {
+			_index = new MappedFile(indexFile(_file), _segmentSize);
+			ByteBuffer h;
+			if (_log.length() == 0) {
+				_log.ensure(HEADER_SIZE + ALIGNMENT);
+				h = _log.segment(0);
+				h.putInt(H_MAGIC, MAGIC);
+				h.putInt(H_VERSION, VERSION);
+				h.putInt(H_CATEGORIES, size < 0 ? 1 : size);
+				h.putLong(H_LOG_ID, new Random().nextLong());
+			}
+			else {
+				h = _log.segment(0);
+				if (_log.length() < HEADER_SIZE + ALIGNMENT ||
+						h.getInt(H_MAGIC) != MAGIC) {
+					throw new StreamCorruptedException(
+							"not a knowledge base: " + _file);
+				}
+				if (h.getInt(H_VERSION) != VERSION) {
+					throw new InvalidClassException("unsupported version " +
+							h.getInt(H_VERSION));
+				}
+				if (size >= 0 && h.getInt(H_CATEGORIES) != size) {
+					throw new IOException("the knowledge base has " +
+							h.getInt(H_CATEGORIES) + " attitudes: " + _file);
+				}
+			}
+
+			_base = new Map[h.getInt(H_CATEGORIES)];
+			_predicates = new ArrayList();
+			_logId = h.getLong(H_LOG_ID);
+			_epoch = h.getInt(H_EPOCH);
+			if (!load()) {
+				rebuild(h.getInt(H_BASE_EPOCH));
+			}
+
+			// the index is invalid until closed, and the records written
+			// from now on belong to a new epoch
+			h.putInt(H_EPOCH, ++_epoch);
+			_index.ensure(INDEX_HEADER_SIZE);
+			_index.segment(0).putInt(I_CLEAN, 0);
+			_log.force();
+			_index.force();
+		}
+		catch (IOException e) {
+			_log.close();
+			if (_index != null) {
+				_index.close();
+			}
+			_log = null;
+			_index = null;
+			throw e;
+		}
+	}
+
+
+	// discard every predicate and the contents of the index file
+	private void resetIndex() {
+		for (int i = 0; i < _base.length; i++) {
+			_base[i] = new HashMap();
+		}
+		_predicates.clear();
+		_indexEnd = INDEX_HEADER_SIZE;
+		_size = 0;
+	}
+
+
+	// load the index if it is valid and belongs to the log
+	private boolean load() throws IOException {
+		resetIndex();
+		if (_index.length() < INDEX_HEADER_SIZE) {
+			return false;
+		}
+		ByteBuffer h = _index.segment(0);
+		long logEnd = h.getLong(I_LOG_END);
+		long dir = h.getLong(I_DIRECTORY);
+		int dirLength = h.getInt(I_DIRECTORY_LENGTH);
+		if (h.getInt(I_MAGIC) != INDEX_MAGIC ||
+				h.getInt(I_VERSION) != VERSION || h.getInt(I_CLEAN) != 1 ||
+				h.getLong(I_LOG_ID) != _logId || logEnd < HEADER_SIZE ||
+				logEnd + ALIGNMENT > _log.length() ||
+				dir < INDEX_HEADER_SIZE || dirLength < 0 ||
+				dir + dirLength > _index.length()) {
+			return false;
+		}
+
+		byte[] bytes = new byte[dirLength];
+		_index.read(dir, bytes, 0, dirLength);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, dirLength);
+		if ((int)crc.getValue() != h.getInt(I_DIRECTORY_CRC)) {
+			return false;
+		}
+
+		FactDecoder dec = new FactDecoder(
+				new ByteArrayInputStream(bytes), false);
+		DataInputStream in = dec.getInput();
+		for (int i = dec.readVarInt(); i > 0; i--) {
+			Predicate p = new Predicate(_predicates.size(), dec.readVarInt(),
+					dec.readString().intern());
+			p._table = in.readLong();
+			p._capacity = in.readInt();
+			p._count = in.readInt();
+			p._last = in.readLong();
+			_predicates.add(p);
+			_base[p._category].put(p._name, p);
+		}
+		_size = h.getInt(I_SIZE);
+		_logEnd = logEnd;
+		_indexEnd = h.getLong(I_END);
+		return true;
+	}
+
+
+	// rebuild the index from the valid records of the log, starting in the
+	// given epoch
+	private void rebuild(int epoch) throws IOException {
+		resetIndex();
+		long pos = HEADER_SIZE;
+		while (pos + ALIGNMENT <= _log.length()) {
+			ByteBuffer b = _log.segment(pos);
+			int off = _log.offset(pos);
+			int len = b.getInt(off + R_LENGTH);
+			if (len < ALIGNMENT || len % ALIGNMENT != 0 ||
+					len > b.capacity() - off) {
+				break;
+			}
+			int type = b.get(off + R_TYPE);
+			if (type == TYPE_PAD) {
+				if (off + len != _segmentSize) {
+					break;
+				}
+				pos += len;
+				continue;
+			}
+			if (len < R_PAYLOAD || !verify(b, off, len)) {
+				break;
+			}
+			int e = b.getInt(off + R_EPOCH);
+			if (e < epoch || e > _epoch) {
+				break;
+			}
+			epoch = e;
+			if (type == TYPE_PREDICATE ? !restorePredicate(b, off) :
+					type != TYPE_FACT || !restoreFact(pos, b, off)) {
+				break;
+			}
+			pos += len;
+		}
+
+		// the terminating zero may be missing if the log is full
+		_logEnd = pos;
+		_log.ensure(pos + ALIGNMENT);
+		_log.segment(pos).putInt(_log.offset(pos), 0);
+	}
+
+
+	// true iff the checksum of the record is correct
+	private boolean verify(ByteBuffer b, int off, int len) {
+		if (_scratch.length < len) {
+			_scratch = new byte[len];
+		}
+		for (int i = 0; i < len; i++) {
+			_scratch[i] = b.get(off + i);
+		}
+		_crc.reset();
+		_crc.update(_scratch, R_TYPE, 1);
+		_crc.update(_scratch, R_EPOCH, len - R_EPOCH);
+		return (int)_crc.getValue() == b.getInt(off + R_CRC);
+	}
+
+
+	// register the predicate of a record
+	private boolean restorePredicate(ByteBuffer b, int off)
+			throws IOException {
+		int category = b.getInt(off + P_CATEGORY);
+		if (b.getInt(off + P_ID) != _predicates.size() ||
+				category < 0 || category >= _base.length) {
+			return false;
+		}
+		String name = new FactDecoder(new BufferInput(b, off + P_NAME),
+				false).readString().intern();
+		if (_base[category].containsKey(name)) {
+			return false;
+		}
+		Predicate p = new Predicate(_predicates.size(), category, name);
+		p._capacity = INITIAL_CAPACITY;
+		p._table = allocate(INITIAL_CAPACITY);
+		_predicates.add(p);
+		_base[category].put(name, p);
+		return true;
+	}
+
+
+	// index the fact of a record
+	private boolean restoreFact(long pos, ByteBuffer b, int off)
+			throws IOException {
+		int id = b.getInt(off + F_PREDICATE);
+		if (id < 0 || id >= _predicates.size()) {
+			return false;
+		}
+		Predicate p = (Predicate)_predicates.get(id);
+		if (b.getLong(off + F_PREVIOUS) != p._last) {
+			return false;
+		}
+		p._last = pos;
+		if (b.get(off + R_STATE) != LIVE) {
+			return true;
+		}
+
+		// if the removal of an earlier copy of the fact was lost, the
+		// earlier copy is removed now
+		int hash = b.getInt(off + F_HASH);
+		int slot = find(p, hash, pos);
+		if (slot >= 0) {
+			long old = getSlot(p, slot);
+			_log.segment(old).put(_log.offset(old) + R_STATE, DEAD);
+			setSlot(p, slot, pos);
+		}
+		else {
+			insert(p, hash, pos);
+			p._count++;
+			_size++;
+		}
+		return true;
+	}
+
+
+	// register a new predicate, and write its record
+	private Predicate createPredicate(int category, String name)
+			throws IOException {
+		Predicate p = new Predicate(_predicates.size(), category, name);
+		DataOutputStream out = startRecord();
+		out.writeInt(p._id);
+		out.writeInt(category);
+		_recordEncoder.writeString(name);
+		appendRecord(TYPE_PREDICATE);
+
+		p._capacity = INITIAL_CAPACITY;
+		p._table = allocate(INITIAL_CAPACITY);
+		_predicates.add(p);
+		_base[category].put(name, p);
+		return p;
+	}
+
+
+	// prepare the record buffer for a new record
+	private DataOutputStream startRecord() {
+		_record.reset();
+		for (int i = 0; i < R_PAYLOAD; i++) {
+			_record.write(0);
+		}
+		return _recordEncoder.getOutput();
+	}
+
+
+	// complete the record in the buffer and append it to the log; returns
+	// the position of the record
+	private long appendRecord(byte type) throws IOException {
+		while (_record.size() % ALIGNMENT != 0) {
+			_record.write(0);
+		}
+		int len = _record.size();
+		if (len > _segmentSize) {
+			throw new IllegalArgumentException("fact too large: " + len);
+		}
+		byte[] bytes = _record.array();
+		bytes[R_STATE] = LIVE;
+		bytes[R_TYPE] = type;
+		putInt(bytes, R_EPOCH, _epoch);
+		_crc.reset();
+		_crc.update(bytes, R_TYPE, 1);
+		_crc.update(bytes, R_EPOCH, len - R_EPOCH);
+		putInt(bytes, R_CRC, (int)_crc.getValue());
+
+		// a record must not cross the boundary of a segment
+		long pos = _logEnd;
+		int room = _segmentSize - _log.offset(pos);
+		if (len > room) {
+			ByteBuffer b = _log.segment(pos);
+			int off = _log.offset(pos);
+			b.put(off + R_STATE, DEAD);
+			b.put(off + R_TYPE, TYPE_PAD);
+			b.putInt(off + R_LENGTH, room);
+			pos += room;
+		}
+
+		// the length is written last, and is followed by a terminating zero
+		_log.ensure(pos + len + ALIGNMENT);
+		_log.write(pos + R_STATE, bytes, R_STATE, len - R_STATE);
+		_log.segment(pos + len).putInt(_log.offset(pos + len), 0);
+		_log.segment(pos).putInt(_log.offset(pos) + R_LENGTH, len);
+		_logEnd = pos + len;
+		return pos;
+	}
+
+
+	private int recordLength(long pos) {
+		return _log.segment(pos).getInt(_log.offset(pos) + R_LENGTH);
+	}
+
+
+	// return the position of the first live fact at or after pos, or
+	// the end of the log
+	private long nextFact(long pos) {
+		while (pos < _logEnd) {
+			ByteBuffer b = _log.segment(pos);
+			int off = _log.offset(pos);
+			if (b.get(off + R_TYPE) == TYPE_FACT &&
+					b.get(off + R_STATE) == LIVE) {
+				break;
+			}
+			pos += b.getInt(off + R_LENGTH);
+		}
+		return pos;
+	}
+
+
+	// the predicate of a fact record
+	private Predicate predicateOf(long pos) {
+		return (Predicate)_predicates.get(
+				_log.segment(pos).getInt(_log.offset(pos) + F_PREDICATE));
+	}
+
+
+	// decode the terms of a fact record
+	private Object[] decode(long pos) {
+		try {
+			return new FactDecoder(new BufferInput(_log.segment(pos),
+					_log.offset(pos) + F_TERMS), false).readTerms();
+		}
+		catch (IOException e) {
+			throw failure(e);
+		}
+	}
+
+
+	// encode the terms to be searched for; returns their hash code
+	private int encodeProbe(Object[] terms) {
+		_probe.reset();
+		try {
+			_probeEncoder.writeTerms(terms);
+		}
+		catch (IOException e) {
+			// a term is not serializable
+			IllegalArgumentException result =
+					new IllegalArgumentException(e.toString());
+			result.initCause(e);
+			throw result;
+		}
+		_probeTerms = terms;
+		_probeCanonical = isCanonical(terms);
+		return TupleSet.hash(terms);
+	}
+
+
+	// true iff the terms of the fact record are equal to the terms of
+	// another record, or to the probe if other is 0
+	private boolean equalTerms(long pos, long other) {
+		ByteBuffer b = _log.segment(pos);
+		int off = _log.offset(pos);
+		boolean canonical = b.get(off + F_FLAGS) == CANONICAL;
+		if (other == 0) {
+			if (!canonical || !_probeCanonical) {
+				return TupleSet.equal(decode(pos), _probeTerms);
+			}
+			int n = _probe.size();
+			if (F_TERMS + n > b.getInt(off + R_LENGTH)) {
+				return false;
+			}
+			byte[] bytes = _probe.array();
+			for (int i = 0; i < n; i++) {
+				if (b.get(off + F_TERMS + i) != bytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		ByteBuffer b2 = _log.segment(other);
+		int off2 = _log.offset(other);
+		if (!canonical || b2.get(off2 + F_FLAGS) != CANONICAL) {
+			return TupleSet.equal(decode(pos), decode(other));
+		}
+		int n = skipTerms(b, off + F_TERMS) - off;
+		return n == skipTerms(b2, off2 + F_TERMS) - off2 &&
+				equalBytes(b, off + F_TERMS, b2, off2 + F_TERMS, n - F_TERMS);
+	}
+
+
+	// true iff the terms of the fact record match the pattern, where
+	// encoded holds the encodings of the terms which are not variables
+	private boolean matches(long pos, Object[] terms, byte[][] encoded,
+			BitSet vars) {
+		ByteBuffer b = _log.segment(pos);
+		int off = _log.offset(pos) + F_TERMS;
+		int max = terms == null ? 0 : terms.length;
+		if (readVarInt(b, off) != max) {
+			return false;
+		}
+		off = skipVarInt(b, off);
+		for (int i = 0; i < max; i++) {
+			int end = skipTerm(b, off);
+			byte[] e = encoded[i];
+			if (vars.get(i)) {
+				// a variable matches any term
+			}
+			else if (b.get(off) == FactEncoder.TERM_OBJECT ||
+					e[0] == FactEncoder.TERM_OBJECT) {
+				Object t = decodeTerm(b, off);
+				if (terms[i] == null ? t != null : !terms[i].equals(t)) {
+					return false;
+				}
+			}
+			else if (end - off != e.length) {
+				return false;
+			}
+			else {
+				for (int j = 0; j < e.length; j++) {
+					if (b.get(off + j) != e[j]) {
+						return false;
+					}
+				}
+			}
+			off = end;
+		}
+		return true;
+	}
+
+
+	// store the positions of the live records of the predicate which match
+	// the pattern in _matches, the most recent first; returns the number
+	// of matches. A null pattern, as opposed to an empty one, matches every
+	// fact.
+	private int collect(Predicate p, Object[] terms, BitSet vars) {
+		if (vars == null) {
+			vars = NO_VARS;
+		}
+		int max = terms == null ? 0 : terms.length;
+		int count = 0;
+
+		if (terms != null && (max == 0 || vars.nextSetBit(0) < 0 ||
+				vars.nextSetBit(0) >= max)) {
+			// no variables, so the index can be used
+			int slot = find(p, encodeProbe(terms), 0);
+			if (slot >= 0) {
+				_matches[count++] = getSlot(p, slot);
+			}
+			return count;
+		}
+
+		byte[][] encoded = null;
+		if (terms != null) {
+			encoded = new byte[max][];
+			for (int i = 0; i < max; i++) {
+				if (!vars.get(i)) {
+					_probe.reset();
+					try {
+						_probeEncoder.writeTerm(terms[i]);
+					}
+					catch (IOException e) {
+						// a non-serializable term cannot match
+						return 0;
+					}
+					encoded[i] = _probe.toByteArray();
+				}
+			}
+		}
+
+		for (long pos = p._last; pos != 0; ) {
+			ByteBuffer b = _log.segment(pos);
+			int off = _log.offset(pos);
+			if (b.get(off + R_STATE) == LIVE &&
+					(terms == null || matches(pos, terms, encoded, vars))) {
+				if (count == _matches.length) {
+					long[] old = _matches;
+					_matches = new long[old.length * 2];
+					System.arraycopy(old, 0, _matches, 0, old.length);
+				}
+				_matches[count++] = pos;
+			}
+			pos = b.getLong(off + F_PREVIOUS);
+		}
+		return count;
+	}
+
+
+	// mark the fact record in the given slot as dead
+	private void kill(Predicate p, int slot, long pos) {
+		_log.segment(pos).put(_log.offset(pos) + R_STATE, DEAD);
+		delete(p, slot);
+		p._count--;
+		_size--;
+	}
+
+
+	// allocate a zeroed hash table within a single segment of the index
+	private long allocate(int capacity) throws IOException {
+		int len = capacity * 8;
+		if (len > _segmentSize || len <= 0) {
+			throw new IllegalStateException("too many facts");
+		}
+		long pos = _indexEnd;
+		if (_index.offset(pos) + len > _segmentSize) {
+			pos += _segmentSize - _index.offset(pos);
+		}
+		_index.ensure(pos + len);
+		_index.zero(pos, len);
+		_indexEnd = pos + len;
+		return pos;
+	}
+
+
+	private long getSlot(Predicate p, int slot) {
+		return _index.segment(p._table).getLong(
+				_index.offset(p._table) + slot * 8);
+	}
+
+
+	private void setSlot(Predicate p, int slot, long pos) {
+		_index.segment(p._table).putLong(
+				_index.offset(p._table) + slot * 8, pos);
+	}
+
+
+	private int getHash(long pos) {
+		return _log.segment(pos).getInt(_log.offset(pos) + F_HASH);
+	}
+
+
+	// return the slot of the live record having the same terms as the
+	// record at other, or as the probe if other is 0; or -1
+	private int find(Predicate p, int hash, long other) {
+		int mask = p._capacity - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask) {
+			long pos = getSlot(p, i);
+			if (pos == 0) {
+				return -1;
+			}
+			if (getHash(pos) == hash && equalTerms(pos, other)) {
+				return i;
+			}
+		}
+	}
+
+
+	// return the slot referring to a record
+	private int slotOf(Predicate p, long pos) {
+		int mask = p._capacity - 1;
+		int i = getHash(pos) & mask;
+		while (getSlot(p, i) != pos) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+
+	// add a record to the hash table of its predicate
+	private void insert(Predicate p, int hash, long pos) throws IOException {
+		if ((p._count + 1) * 2 > p._capacity) {
+			long old = p._table;
+			int oldCapacity = p._capacity;
+			p._table = allocate(oldCapacity * 2);
+			p._capacity = oldCapacity * 2;
+			ByteBuffer b = _index.segment(old);
+			int off = _index.offset(old);
+			for (int i = 0; i < oldCapacity; i++) {
+				long r = b.getLong(off + i * 8);
+				if (r != 0) {
+					setSlot(p, probe(p, getHash(r)), r);
+				}
+			}
+		}
+		setSlot(p, probe(p, hash), pos);
+	}
+
+
+	// return the first free slot in the probe sequence for the hash code
+	private int probe(Predicate p, int hash) {
+		int mask = p._capacity - 1;
+		int i = hash & mask;
+		while (getSlot(p, i) != 0) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+
+	// remove an entry of the hash table, shifting the following entries of
+	// the probe sequence backwards
+	private void delete(Predicate p, int slot) {
+		int mask = p._capacity - 1;
+		int hole = slot;
+		for (int i = (slot + 1) & mask; ; i = (i + 1) & mask) {
+			long pos = getSlot(p, i);
+			if (pos == 0) {
+				break;
+			}
+			int home = getHash(pos) & mask;
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				setSlot(p, hole, pos);
+				hole = i;
+			}
+		}
+		setSlot(p, hole, 0);
+	}
+
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		throw new NotSerializableException(getClass().getName());
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// the cursor returned by matchCursor(); it holds the decoded matches
+	private static final class Cursor implements FactCursor {
+
+		public boolean next() {
+			if (_pos + 1 >= _count) {
+				_pos = _count;
+				return false;
+			}
+			_pos++;
+			return true;
+		}
+
+
+		public int getArity() {
+			return getCurrent().length;
+		}
+
+
+		public Object getTerm(int idx) {
+			return getCurrent()[idx];
+		}
+
+
+		public Fact getFact() {
+			return new Fact(_category, _name, getCurrent().clone());
+		}
+
+
+		// prepare the cursor for a new match
+		void reset(int category, String name) {
+			for (int i = 0; i < _count; i++) {
+				_rows[i] = null;
+			}
+			_category = category;
+			_name = name;
+			_count = 0;
+			_pos = -1;
+		}
+
+
+		// add a matching term array
+		void add(Object[] ts) {
+			if (_count == _rows.length) {
+				Object[][] old = _rows;
+				_rows = new Object[old.length * 2][];
+				System.arraycopy(old, 0, _rows, 0, old.length);
+			}
+			_rows[_count++] = ts;
+		}
+
+
+		// return the term array at the current position
+		private Object[] getCurrent() {
+			if (_pos < 0 || _pos >= _count) {
+				throw new IllegalStateException();
+			}
+			return _rows[_pos];
+		}
+
+
+		// the category and name of the matched facts
+		private int _category;
+		private String _name;
+
+		// the matching term arrays
+		private Object[][] _rows = new Object[8][];
+
+		// the number of matches, and the current position
+		private int _count = 0;
+		private int _pos = -1;
+	}
+
+
+	// the descriptor of the facts having the same category and predicate
+	// symbol
+	private static final class Predicate {
+
+		Predicate(int id, int category, String name) {
+			_id = id;
+			_category = category;
+			_name = name;
+		}
+
+
+		// the position of the predicate in _predicates
+		final int _id;
+
+		final int _category;
+		final String _name;
+
+		// the position of the hash table in the index file, and its number
+		// of slots, which is a power of 2
+		long _table;
+		int _capacity;
+
+		// the number of live facts
+		int _count;
+
+		// the position of the most recent fact record, or 0
+		long _last;
+	}
+
+
+	// a byte array output stream which exposes its buffer
+	private static final class Buffer extends ByteArrayOutputStream {
+
+		byte[] array() {
+			return buf;
+		}
+	}
+
+
+	// an input stream reading a mapped buffer from a given offset
+	private static final class BufferInput extends InputStream {
+
+		BufferInput(ByteBuffer buffer, int offset) {
+			_buffer = buffer;
+			_pos = offset;
+		}
+
+
+		public int read() {
+			return _pos < _buffer.capacity() ? _buffer.get(_pos++) & 0xff : -1;
+		}
+
+
+		public int read(byte[] b, int off, int len) {
+			if (_pos >= _buffer.capacity()) {
+				return -1;
+			}
+			len = Math.min(len, _buffer.capacity() - _pos);
+			for (int i = 0; i < len; i++) {
+				b[off + i] = _buffer.get(_pos++);
+			}
+			return len;
+		}
+
+
+		private final ByteBuffer _buffer;
+		private int _pos;
+	}
+}
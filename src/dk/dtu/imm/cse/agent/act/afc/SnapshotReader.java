@@ -0,0 +1,216 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+
+
+/**
+ * Reads a snapshot written by a {@link SnapshotWriter}, either one fact at
+ * a time or directly into a knowledge base.
+ * <p>
+ * The reader does not buffer its input, so it never reads beyond the end
+ * of the snapshot; a buffered stream should be used for efficiency.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class SnapshotReader {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new SnapshotReader, and reads the snapshot header.
+	 * @param in the stream from which the snapshot is read
+	 * @exception StreamCorruptedException if the stream does not contain a
+	 *  snapshot of a supported version.
+	 * @exception IOException if the header could not be read.
+	 */
+	public SnapshotReader(InputStream in) throws IOException {
+		_dec = new FactDecoder(in);
+		if (_dec.getInput().readInt() != SnapshotWriter.MAGIC) {
+			throw new StreamCorruptedException("not a snapshot");
+		}
+		int version = _dec.getInput().readUnsignedByte();
+		if (version != SnapshotWriter.VERSION) {
+			throw new StreamCorruptedException("version " + version);
+		}
+	}
+		
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * Reads the next fact of the snapshot.
+	 * @return the fact, or null at the end of the snapshot.
+	 * @exception IOException if the fact could not be read.
+	 */
+	public Fact read() throws IOException {
+		while (_remaining == 0) {
+			if (!nextRecord()) {
+				return null;
+			}
+		}
+		_remaining--;
+		return new Fact(_category, _name, _dec.readTerms());
+	}
+	
+	
+	/**
+	 * Adds the remaining facts of the snapshot to a knowledge base. 
+	 * When the knowledge base is an {@link AcmeKnowledgeBase}, a run of 
+	 * facts is loaded without checking for duplicates if the base holds
+	 * no facts of that predicate symbol beforehand.
+	 * @return the number of facts added to the knowledge base.
+	 * @exception IOException if the snapshot could not be read.
+	 */
+	public int readInto(KnowledgeBase kb) throws IOException {
+		AcmeKnowledgeBase acme = kb instanceof AcmeKnowledgeBase ? 
+				(AcmeKnowledgeBase)kb : null;
+		int result = 0;
+		
+		while (true) {
+			if (_remaining == 0 && !nextRecord()) {
+				return result;
+			}
+			
+			if (_run && acme != null) {
+				Object[][] tuples = new Object[_remaining][];
+				for (int i = 0; i < tuples.length; i++) {
+					tuples[i] = _dec.readTerms();
+				}
+				_remaining = 0;
+				if (acme.addDistinct(_category, _name, tuples)) {
+					result += tuples.length;
+				}
+				else {
+					for (int i = 0; i < tuples.length; i++) {
+						if (kb.add(_category, _name, tuples[i])) {
+							result++;
+						}
+					}
+				}
+			}
+			else {
+				for (; _remaining > 0; _remaining--) {
+					if (kb.add(_category, _name, _dec.readTerms())) {
+						result++;
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Closes the underlying stream.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public void close() throws IOException {
+		_dec.getInput().close();
+	}
+	
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// the decoder
+	private FactDecoder _dec;
+	
+	// the category and predicate symbol of the current record
+	private int _category;
+	private String _name;
+	
+	// the number of term arrays left in the current record
+	private int _remaining = 0;
+	
+	// whether the current record is a run of distinct facts
+	private boolean _run;
+	
+	// whether the end of the snapshot has been reached
+	private boolean _finished = false;
+	
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// read the header of the next record; returns false at the end
+	private boolean nextRecord() throws IOException {
+		if (_finished) {
+			return false;
+		}
+		
+		int tag = _dec.getInput().readUnsignedByte();
+		switch (tag) {
+		case SnapshotWriter.RECORD_END:
+			_finished = true;
+			return false;
+		case SnapshotWriter.RECORD_FACT:
+			_category = _dec.readVarInt();
+			_name = _dec.readString().intern();
+			_remaining = 1;
+			_run = false;
+			return true;
+		case SnapshotWriter.RECORD_RUN:
+			_category = _dec.readVarInt();
+			_name = _dec.readString().intern();
+			_remaining = _dec.readVarInt();
+			_run = true;
+			return true;
+		default:
+			throw new StreamCorruptedException("record tag " + tag);
+		}
+	}
+}
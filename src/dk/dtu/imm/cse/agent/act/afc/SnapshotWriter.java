@@ -0,0 +1,227 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Writes facts to a stream in a compact binary snapshot format, which can
+ * be read by a {@link SnapshotReader}. Terms of the types Integer, Long,
+ * Double, Boolean and String are stored in a typed encoding, and strings
+ * (predicate symbols as well as terms) are only stored once. Other terms
+ * are stored using Java serialization.
+ * <p>
+ * When a whole knowledge base is {@link #writeAll(KnowledgeBase) written},
+ * the facts sharing a predicate symbol are grouped into runs, which are
+ * known to contain no duplicates. This allows the runs to be loaded 
+ * without checking each fact for duplicates.
+ * <p>
+ * The writer does not buffer its output, so a buffered stream should be
+ * used for efficiency.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class SnapshotWriter {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new SnapshotWriter, and writes the snapshot header.
+	 * @param out the stream to which the snapshot is written
+	 * @exception IOException if the header could not be written.
+	 */
+	public SnapshotWriter(OutputStream out) throws IOException {
+		_enc = new FactEncoder(out);
+		_enc.getOutput().writeInt(MAGIC);
+		_enc.getOutput().write(VERSION);
+	}
+		
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * Writes a single fact.
+	 * @exception IOException if the fact could not be written.
+	 * @exception IllegalStateException if the snapshot has been finished.
+	 */
+	public void write(Fact f) throws IOException, IllegalStateException {
+		write(f.getCategory(), f.getName(), f.getTermList());
+	}
+	
+	
+	/**
+	 * An alternative form of {@link #write(Fact)}.
+	 */
+	public void write(int category, String name, Object[] terms) 
+			throws IOException, IllegalStateException {
+		checkOpen();
+		_enc.getOutput().write(RECORD_FACT);
+		_enc.writeVarInt(category);
+		_enc.writeString(name);
+		_enc.writeTerms(terms);
+	}
+
+
+	/**
+	 * Writes every fact of a knowledge base, grouped into runs by predicate
+	 * symbol. The knowledge base is locked while it is written.
+	 * @return the number of facts written.
+	 * @exception IOException if the facts could not be written.
+	 * @exception IllegalStateException if the snapshot has been finished.
+	 */
+	public int writeAll(KnowledgeBase kb) 
+			throws IOException, IllegalStateException {
+		checkOpen();
+		int result = 0;
+		synchronized (kb.getLock()) {
+			// the facts of a predicate are collected until the predicate
+			// symbol changes, since the run length is written first
+			List run = new ArrayList();
+			int category = -1;
+			String name = null;
+			for (Iterator i = kb.iterator(); i.hasNext(); ) {
+				Fact f = (Fact)i.next();
+				if (f.getCategory() != category || f.getName() != name) {
+					writeRun(category, name, run);
+					category = f.getCategory();
+					name = f.getName();
+				}
+				run.add(f.getTermList());
+				result++;
+			}
+			writeRun(category, name, run);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Marks the end of the snapshot and flushes the stream, which is not
+	 * closed. Nothing may be written afterwards.
+	 * @exception IOException if the end marker could not be written.
+	 */
+	public void finish() throws IOException {
+		if (!_finished) {
+			_finished = true;
+			_enc.getOutput().write(RECORD_END);
+		}
+		_enc.getOutput().flush();
+	}
+	
+	
+	/**
+	 * Finishes the snapshot, and closes the stream.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public void close() throws IOException {
+		finish();
+		_enc.getOutput().close();
+	}
+	
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Package-private
+	// =======================================================================
+
+	// the file identification
+	final static int MAGIC = 0x414b4253;
+	
+	// the version of the format
+	final static int VERSION = 1;
+	
+	// the record tags
+	final static int RECORD_END = 0;
+	final static int RECORD_FACT = 1;
+	final static int RECORD_RUN = 2;
+	
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	// the encoder
+	private FactEncoder _enc;
+	
+	// whether the end marker has been written
+	private boolean _finished = false;
+	
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+	
+	private void checkOpen() throws IllegalStateException {
+		if (_finished) {
+			throw new IllegalStateException("the snapshot is finished");
+		}
+	}
+	
+	
+	// write and clear a run of distinct term arrays
+	private void writeRun(int category, String name, List run) 
+			throws IOException {
+		if (run.isEmpty()) {
+			return;
+		}
+		_enc.getOutput().write(RECORD_RUN);
+		_enc.writeVarInt(category);
+		_enc.writeString(name);
+		_enc.writeVarInt(run.size());
+		for (Iterator i = run.iterator(); i.hasNext(); ) {
+			_enc.writeTerms((Object[])i.next());
+		}
+		run.clear();
+	}
+}
@@ -0,0 +1,361 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.afc;
+
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.util.*;
+
+
+/**
+ * A set of term arrays, which are compared by their contents rather than
+ * by identity. The hash codes are computed directly over the arrays, so
+ * that a set can be probed with an array without wrapping it first.
+ * <p>
+ * The arrays are kept in insertion order in a dense array, along with a
+ * parallel array of their hash codes, and the dense array is indexed by an
+ * open-addressing hash table using linear probing. Since the hash codes are
+ * cached, a probe only compares the terms of arrays having the same hash
+ * code, and the table can be rebuilt without touching the terms. In total,
+ * each array costs one reference, one int and two slots of the hash table.
+ * <p>
+ * Removing an array leaves a hole in the dense array, which is reclaimed
+ * the next time the set grows. Hence arrays may be removed while the set is
+ * being traversed, but they must not be added. An empty set does not
+ * allocate any storage.
+ * <p>
+ * The set is not synchronized, and the stored arrays must not be modified.
+ *
+ * @author  Henrik Lauritzen
+ */
+final class TupleSet {
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	TupleSet() {
+		clear();
+	}
+
+	// =======================================================================
+	// Instance methods
+	// =======================================================================
+
+	/**
+	 * @return the number of arrays in the set
+	 */
+	int size() {
+		return _size;
+	}
+
+
+	/**
+	 * @return true iff the set is empty
+	 */
+	boolean isEmpty() {
+		return _size == 0;
+	}
+
+
+	/**
+	 * Removes every array from the set.
+	 */
+	void clear() {
+		_tuples = NO_TUPLES;
+		_hashes = NO_SLOTS;
+		_slots = NO_SLOTS;
+		_count = 0;
+		_size = 0;
+	}
+
+
+	/**
+	 * @return true iff the set contains an array which is equal to the given
+	 *  array.
+	 */
+	boolean contains(Object[] terms) {
+		return find(terms, hash(terms)) >= 0;
+	}
+
+
+	/**
+	 * Adds an array to the set, unless an equal array is present already.
+	 * @param terms the array to be added; <code>null</code> is equivalent to
+	 *  an empty array.
+	 * @return true iff the array was added.
+	 */
+	boolean add(Object[] terms) {
+		int h = hash(terms);
+		if (find(terms, h) >= 0) {
+			return false;
+		}
+		append(terms, h);
+		return true;
+	}
+
+
+	/**
+	 * Adds an array to the set without checking whether an equal array is
+	 * present already. The caller must ensure that this is not the case.
+	 */
+	void addDistinct(Object[] terms) {
+		append(terms, hash(terms));
+	}
+
+
+	/**
+	 * Removes the array equal to the given array from the set.
+	 * @return true iff the array was removed.
+	 */
+	boolean remove(Object[] terms) {
+		int slot = find(terms, hash(terms));
+		if (slot < 0) {
+			return false;
+		}
+
+		_tuples[_slots[slot] - 1] = null;
+		if (--_size == 0) {
+			// release the storage; no traversal can observe the difference
+			clear();
+			return true;
+		}
+
+		// shift the following entries of the probe sequence backwards, so
+		// that no deletion markers are needed
+		int mask = _slots.length - 1;
+		int hole = slot;
+		for (int i = (slot + 1) & mask; _slots[i] != 0; i = (i + 1) & mask) {
+			int home = _hashes[_slots[i] - 1] & mask;
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				_slots[hole] = _slots[i];
+				hole = i;
+			}
+		}
+		_slots[hole] = 0;
+		return true;
+	}
+
+
+	/**
+	 * @return an iterator over the arrays, in the order of insertion.
+	 *  The iterator supports removal.
+	 */
+	Iterator iterator() {
+		return new Iterator() {
+			private int _next = 0;
+			private Object[] _last = null;
+
+
+			public boolean hasNext() {
+				// skip arrays which have been removed in the meantime
+				_next = advance(_next);
+				return _next < _count;
+			}
+
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				_last = _tuples[_next++];
+				return _last;
+			}
+
+
+			public void remove() {
+				if (_last == null) {
+					throw new IllegalStateException();
+				}
+				TupleSet.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	/**
+	 * Computes the hash code of an array of terms. The hash codes of the
+	 * terms are combined using a large multiplier, and the bits of the
+	 * result are mixed, so that the hash code can be used directly to
+	 * select a slot of an open-addressing hash table. In particular, term
+	 * arrays consisting of small integers do not form long runs of
+	 * occupied slots, as they would using the hash code of a List.
+	 */
+	static int hash(Object[] terms) {
+		int h = 1;
+		if (terms != null) {
+			for (int i = 0; i < terms.length; i++) {
+				h *= 0x9e3779b1;
+				if (terms[i] != null) {
+					h += terms[i].hashCode();
+				}
+			}
+		}
+		
+		// the finalization step of MurmurHash3
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+
+	/**
+	 * Determines whether two arrays of terms are equal. <code>null</code> is
+	 * equal to an empty array.
+	 */
+	static boolean equal(Object[] t1, Object[] t2) {
+		if (t1 == t2) {
+			return true;
+		}
+		int max = t1 == null ? 0 : t1.length;
+		if ((t2 == null ? 0 : t2.length) != max) {
+			return false;
+		}
+		for (int i = 0; i < max; i++) {
+			if (t1[i] == null) {
+				if (t2[i] != null) return false;
+			}
+			else {
+				if (!t1[i].equals(t2[i])) return false;
+			}
+		}
+		return true;
+	}
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// the initial length of the dense array
+	private final static int INITIAL_CAPACITY = 4;
+
+	// the storage used by empty sets; _slots must have a length of at 
+	// least 1, and is never written to
+	private final static Object[][] NO_TUPLES = new Object[0][];
+	private final static int[] NO_SLOTS = new int[1];
+
+	// the arrays in order of insertion; removed arrays are set to null
+	private Object[][] _tuples;
+
+	// the hash codes of the arrays in _tuples
+	private int[] _hashes;
+
+	// the hash table; each slot holds 0, or 1 + an index into _tuples.
+	// The length is a power of 2, and at least twice the length of _tuples.
+	private int[] _slots;
+
+	// the number of used entries of _tuples, including removed entries
+	private int _count;
+
+	// the number of arrays in the set
+	private int _size;
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// add an array which is not in the set
+	private void append(Object[] terms, int h) {
+		if (_count == _tuples.length) {
+			grow();
+		}
+		int idx = _count++;
+		_tuples[idx] = terms == null ? Util.NO_OBJECTS : terms;
+		_hashes[idx] = h;
+		_slots[probe(h)] = idx + 1;
+		_size++;
+	}
+
+
+	// return the slot of the array equal to the given array, or -1
+	private int find(Object[] terms, int h) {
+		int mask = _slots.length - 1;
+		for (int i = h & mask; _slots[i] != 0; i = (i + 1) & mask) {
+			int idx = _slots[i] - 1;
+			if (_hashes[idx] == h && equal(_tuples[idx], terms)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	// return the first free slot in the probe sequence for the hash code
+	private int probe(int h) {
+		int mask = _slots.length - 1;
+		int i = h & mask;
+		while (_slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+
+	// return the index of the first remaining array at or after idx
+	private int advance(int idx) {
+		while (idx < _count && _tuples[idx] == null) {
+			idx++;
+		}
+		return idx;
+	}
+
+
+	// make room for another array, reclaiming the removed entries first.
+	// The dense array is resized to be between 1/4 and 1/2 full.
+	private void grow() {
+		Object[][] old = _tuples;
+		int[] oldHashes = _hashes;
+		int length = Math.max(old.length, INITIAL_CAPACITY);
+		while (_size * 2 > length) {
+			length *= 2;
+		}
+		while (length > INITIAL_CAPACITY && _size * 4 < length) {
+			length /= 2;
+		}
+
+		if (length != old.length) {
+			_tuples = new Object[length][];
+			_hashes = new int[length];
+			_slots = new int[length * 2];
+		}
+		else {
+			Arrays.fill(_slots, 0);
+		}
+
+		// move the remaining arrays to the front, keeping their order
+		int j = 0;
+		for (int i = 0; i < _count; i++) {
+			if (old[i] != null) {
+				_tuples[j] = old[i];
+				_hashes[j] = oldHashes[i];
+				_slots[probe(oldHashes[i])] = ++j;
+			}
+		}
+		for (int i = j; i < _count && i < _tuples.length; i++) {
+			_tuples[i] = null;
+		}
+		_count = j;
+	}
+}
@@ -73,12 +73,27 @@ public class HaplomacyDemo implements DemoProtocol {
 	 * @see #getPostOffice()
 	 */
 	public HaplomacyDemo(DemoAcme[] players, Random random) {
+		this(players, random, new PostOffice());
+	}
+	
+	
+	/**
+	 * Creates a new Haplomacy simulation using the default game board.
+	 * @param players the ACMEs used to control the the four players
+	 * @param random the random number generator to be used for all
+	 *   the ACMEs investigators; if the parameter is null, then 
+	 *   a new random number generator will be created
+	 * @param po the post office used for the communication between the
+	 *   players, e.g. one creating bounded mailboxes
+	 * @see #getPostOffice()
+	 */
+	public HaplomacyDemo(DemoAcme[] players, Random random, PostOffice po) {
 		if ((_playerAcmes = players).length != 4) {
 			throw new IllegalArgumentException();
 		}
 		
 		_game = new HaplomacyGame();
-		_po = new PostOffice();
+		_po = po;
 		
 		_players = new DemoAgent[_playerAcmes.length];
 		for (int i = 0; i < _players.length; i++) {
@@ -111,7 +126,7 @@ public class HaplomacyDemo implements DemoProtocol {
 				_players[i].pause();
 				
 				// this case is used by the ACMEs to find their next strategy
-				_players[i].getMailbox().add(DemoAgent.FINISHED_RESULTS);
+				_players[i].getMailbox().force(DemoAgent.FINISHED_RESULTS);
 			}
 		}
 	}
@@ -274,7 +289,7 @@ public class HaplomacyDemo implements DemoProtocol {
 			if (_phase == PHASE_NEGOTIATING) {
 				// pause the agents, if they are negotiating
 				for (int i = 0; i < _players.length; i++) {
-					_players[i].getMailbox().add(DemoAgent.STOP_NEGOTIATE);
+					_players[i].getMailbox().force(DemoAgent.STOP_NEGOTIATE);
 					_players[i].pause();
 				}
 			}
@@ -300,13 +315,13 @@ public class HaplomacyDemo implements DemoProtocol {
 		if (_phase == PHASE_NEGOTIATING) {
 			// start all the agents with their respective delays
 			for (int i = 0; i < _players.length; i++) {
-				_players[i].getMailbox().add(DemoAgent.START_NEGOTIATE);
+				_players[i].getMailbox().force(DemoAgent.START_NEGOTIATE);
 				_players[i].unpause(negotiateRate);
 			}
 		}
 		else if (_phase == PHASE_ORDERS) {
 			for (int i = 0; i < _players.length; i++) {
-				_players[i].getMailbox().add(DemoAgent.GIVE_ORDERS);
+				_players[i].getMailbox().force(DemoAgent.GIVE_ORDERS);
 			}
 		}
 		else if (_phase == PHASE_ADJUDICATION) {
@@ -331,7 +346,7 @@ public class HaplomacyDemo implements DemoProtocol {
 				sendNotifications(player, result[i][2], SUPPORT_CENTRE_CONQUERED);
 			}
 			for (int i = 0; i < _players.length; i++) {
-				_players[i].getMailbox().add(DemoAgent.FINISHED_RESULTS);
+				_players[i].getMailbox().force(DemoAgent.FINISHED_RESULTS);
 			}
 		}
 		
@@ -567,7 +582,8 @@ public class HaplomacyDemo implements DemoProtocol {
 			message.put(DefaultMessenger.SENDER, SIMULATION);
 			message.put(MESSAGE_TYPE, msg);
 			message.put(MESSAGE_CONTENTS, it.next());
-			_players[receiver.intValue()].getMailbox().add(message);
+			// the results must reach the player, however full its mailbox
+			_players[receiver.intValue()].getMailbox().force(message);
 		}		
 	}
 
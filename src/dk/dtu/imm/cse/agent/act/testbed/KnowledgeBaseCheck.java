@@ -0,0 +1,572 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.testbed;
+
+import java.io.*;
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.afc.*;
+
+
+/**
+ * A differential check of the persistent knowledge bases. The same random
+ * sequence of operations is applied to the knowledge base under test and
+ * to an {@link AcmeKnowledgeBase}, and the results of every operation are
+ * compared. Between the operations, the persistent knowledge base is
+ * reopened, both after having been closed and as after a crash, and its
+ * files are damaged in the ways a crash may leave them; the recovered facts
+ * are then compared with those expected.
+ * <p>
+ * The check is run by the <code>check</code> target of the build file, or
+ * from the command line:
+ * <pre>
+ * java -cp lib/act.jar dk.dtu.imm.cse.agent.act.testbed.KnowledgeBaseCheck
+ *   [<i>steps</i> [<i>seed</i>]]
+ * </pre>
+ * The first difference found is reported by an IllegalStateException, and
+ * the same seed reproduces it.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class KnowledgeBaseCheck {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new check.
+	 * @param steps the number of operations applied to each knowledge base
+	 * @param seed the seed of the random operations
+	 * @param dir the directory in which the files are created
+	 */
+	public KnowledgeBaseCheck(int steps, long seed, File dir) {
+		_steps = steps;
+		_random = new Random(seed);
+		_dir = dir;
+	}
+
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Checks a {@link MappedKnowledgeBase} against an AcmeKnowledgeBase.
+	 * Every few operations, the mapped knowledge base is closed and
+	 * reopened, reopened without having been closed, compacted, or
+	 * reopened after the record of its latest fact has been damaged.
+	 * @return a summary of the check.
+	 * @exception IllegalStateException if a difference is found.
+	 */
+	public String checkMapped() throws IOException {
+		File file = new File(_dir, "mapped.log");
+		MappedKnowledgeBase kb = new MappedKnowledgeBase(file, SIZE);
+		KnowledgeBase ref = new AcmeKnowledgeBase(SIZE);
+		int reopened = 0;
+		int crashed = 0;
+		int compacted = 0;
+		int damaged = 0;
+		try {
+			for (int step = 1; step <= _steps; step++) {
+				compareOperation(kb, ref, true, null);
+				if (step % INTERVAL != 0) {
+					continue;
+				}
+
+				switch (_random.nextInt(4)) {
+				case 0:
+					kb.close();
+					kb = new MappedKnowledgeBase(file, SIZE);
+					reopened++;
+					break;
+				case 1:
+					// the old instance is abandoned, as in a crash
+					kb.force();
+					kb = new MappedKnowledgeBase(file, SIZE);
+					crashed++;
+					break;
+				case 2:
+					kb.compact();
+					compacted++;
+					break;
+				default:
+					// the record of a fact added after the last force is
+					// damaged, so the fact must not be recovered. The log is
+					// compacted first, since a cleared log keeps its old
+					// records beyond the end.
+					kb.compact();
+					Fact extra = new Fact(0, "extra",
+							new Object[] {Integer.valueOf(step)});
+					kb.add(extra);
+					damageLastByte(file);
+					kb = new MappedKnowledgeBase(file, SIZE);
+					if (kb.contains(extra)) {
+						throw new IllegalStateException(
+								"a damaged record was recovered: " + extra);
+					}
+					damaged++;
+				}
+				compareContents(kb, ref, "step " + step);
+			}
+			kb.close();
+			kb = new MappedKnowledgeBase(file, SIZE);
+			compareContents(kb, ref, "final");
+		}
+		finally {
+			kb.close();
+			file.delete();
+			new File(file.getPath() + ".idx").delete();
+		}
+		return "mapped: " + _steps + " operations, reopened " + reopened +
+				", crashed " + crashed + ", compacted " + compacted +
+				", damaged " + damaged;
+	}
+
+
+	/**
+	 * Checks the recovery of a {@link JournaledKnowledgeBase} decorating an
+	 * AcmeKnowledgeBase, whose operations are compared with those of
+	 * another AcmeKnowledgeBase. Every few operations, the journal is
+	 * closed and reopened, checkpointed, or reopened as after a crash:
+	 * without having been committed, after having been cut off at a random
+	 * position, while a checkpoint was being written, or between the
+	 * writing of a checkpoint and the start of its journal. The facts
+	 * recovered after losing part of the journal must be those following
+	 * one of the changes since the last checkpoint; an operation may make
+	 * several changes, each of which is recorded separately. The journal does not
+	 * preserve the order of the facts, so only the set of matches is
+	 * compared.
+	 * @return a summary of the check.
+	 * @exception IllegalStateException if a difference is found.
+	 */
+	public String checkJournaled() throws IOException {
+		File file = new File(_dir, "journal.log");
+		File checkpoint = new File(file.getPath() + ".checkpoint");
+		JournaledKnowledgeBase kb = openJournal(file);
+		KnowledgeBase ref = new AcmeKnowledgeBase(SIZE);
+		int reopened = 0;
+		int checkpoints = 0;
+		int crashed = 0;
+		int torn = 0;
+		int interrupted = 0;
+
+		// the facts following each change since the last checkpoint
+		List states = new ArrayList();
+		states.add(contents(ref));
+		try {
+			for (int step = 1; step <= _steps; step++) {
+				compareOperation(kb, ref, false, states);
+				if (step % INTERVAL != 0) {
+					continue;
+				}
+
+				switch (_random.nextInt(6)) {
+				case 0:
+					kb.close();
+					kb = openJournal(file);
+					reopened++;
+					break;
+				case 1:
+					kb.checkpoint();
+					checkpoints++;
+					break;
+				case 2:
+					// the old instance is abandoned without a commit
+					kb = openJournal(file);
+					ref = recovered(kb, states, "step " + step);
+					crashed++;
+					break;
+				case 3:
+					kb.commit();
+					truncate(file, _random.nextInt((int)file.length() + 1));
+					kb = openJournal(file);
+					ref = recovered(kb, states, "step " + step);
+					torn++;
+					break;
+				case 4:
+					// a part of the next checkpoint has been written
+					kb.commit();
+					byte[] b = readFile(checkpoint);
+					writeFile(new File(checkpoint.getPath() + ".tmp"), b,
+							_random.nextInt(b.length + 1));
+					kb = openJournal(file);
+					interrupted++;
+					break;
+				default:
+					// the checkpoint is written, but the journal of the
+					// previous checkpoint has not been replaced
+					kb.commit();
+					b = readFile(file);
+					kb.checkpoint();
+					writeFile(file, b, b.length);
+					kb = openJournal(file);
+					interrupted++;
+				}
+				compareContents(kb, ref, "step " + step);
+				states.clear();
+				states.add(contents(ref));
+			}
+			kb.close();
+			kb = openJournal(file);
+			compareContents(kb, ref, "final");
+		}
+		finally {
+			kb.close();
+			file.delete();
+			checkpoint.delete();
+			new File(file.getPath() + ".tmp").delete();
+			new File(checkpoint.getPath() + ".tmp").delete();
+		}
+		return "journaled: " + _steps + " operations, reopened " + reopened +
+				", checkpoints " + checkpoints + ", crashed " + crashed +
+				", torn " + torn + ", interrupted " + interrupted;
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Runs the check. The optional arguments are the number of operations
+	 * and the seed.
+	 */
+	public static void main(String[] args) throws IOException {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) :
+				System.currentTimeMillis();
+		File dir = File.createTempFile("kbcheck", "");
+		dir.delete();
+		if (!dir.mkdir()) {
+			throw new IOException("cannot create " + dir);
+		}
+
+		System.out.println("seed " + seed);
+		try {
+			KnowledgeBaseCheck c = new KnowledgeBaseCheck(steps, seed, dir);
+			System.out.println(c.checkMapped());
+			System.out.println(c.checkJournaled());
+		}
+		finally {
+			dir.delete();
+		}
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the number of attitudes of the knowledge bases
+	private final static int SIZE = 2;
+
+	// the number of operations between the reopenings
+	private final static int INTERVAL = 500;
+
+	// ------------------------------ instance -----------------------------
+
+	private final int _steps;
+	private final Random _random;
+	private final File _dir;
+
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------ instance -----------------------------
+
+	// apply a random operation to both knowledge bases, and compare the
+	// results; the order of the matches is only compared if ordered is true.
+	// If states is not null, the facts of ref are added to it after each
+	// change.
+	private void compareOperation(KnowledgeBase kb, KnowledgeBase ref,
+			boolean ordered, List states) {
+		if (_random.nextInt(1000) == 0) {
+			kb.clear();
+			ref.clear();
+			changed(ref, states);
+			return;
+		}
+
+		int category = _random.nextInt(SIZE);
+		String name = "p" + _random.nextInt(4);
+		Object[] terms = new Object[_random.nextInt(3)];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = randomTerm();
+		}
+		BitSet vars = new BitSet();
+		for (int i = 0; i < terms.length; i++) {
+			if (_random.nextInt(3) == 0) {
+				vars.set(i);
+			}
+		}
+		String op = new Fact(category, name, terms) + " " + vars;
+
+		int n = _random.nextInt(20);
+		if (n < 8) {
+			compare(kb.add(category, name, terms),
+					ref.add(category, name, terms), "add " + op);
+			changed(ref, states);
+		}
+		else if (n < 12) {
+			compare(kb.remove(category, name, terms),
+					ref.remove(category, name, terms), "remove " + op);
+			changed(ref, states);
+		}
+		else if (n < 13) {
+			compare(kb.remove(category, name, terms, vars),
+					ref.remove(category, name, terms, vars), "remove " + op);
+			changed(ref, states);
+		}
+		else if (n < 15) {
+			compare(kb.contains(category, name, terms),
+					ref.contains(category, name, terms), "contains " + op);
+			compare(kb.size(category, name), ref.size(category, name),
+					"size " + op);
+		}
+		else if (n < 17) {
+			compareMatches(kb.match(category, name, terms, vars),
+					ref.match(category, name, terms, vars), ordered,
+					"match " + op);
+		}
+		else {
+			// some of the facts are removed during the traversal, which
+			// the cursors must not observe
+			List expected = ref.match(category, name, terms, vars);
+			List found = new ArrayList();
+			FactCursor c = kb.matchCursor(category, name, terms, vars,
+					null);
+			while (c.next()) {
+				Object[] ts = new Object[c.getArity()];
+				for (int i = 0; i < ts.length; i++) {
+					ts[i] = c.getTerm(i);
+				}
+				Fact f = c.getFact();
+				compare(f, new Fact(category, name, ts), "cursor " + op);
+				found.add(f);
+				if (_random.nextInt(4) == 0) {
+					compare(kb.remove(f), ref.remove(f), "remove " + f);
+					changed(ref, states);
+				}
+			}
+			compareMatches(found, expected, ordered, "cursor " + op);
+		}
+	}
+
+
+	private Object randomTerm() {
+		switch (_random.nextInt(6)) {
+		case 0:
+			return Integer.valueOf(_random.nextInt(20));
+		case 1:
+			return Long.valueOf(_random.nextInt(5));
+		case 2:
+			return Double.valueOf(_random.nextInt(4) / 2.0);
+		case 3:
+			return Boolean.valueOf(_random.nextBoolean());
+		case 4:
+			return null;
+		default:
+			return "s" + _random.nextInt(20);
+		}
+	}
+
+
+	// ------------------------------- class -------------------------------
+
+	private static void changed(KnowledgeBase ref, List states) {
+		if (states != null) {
+			states.add(contents(ref));
+		}
+	}
+
+
+	// open a journal which is only committed when a batch is full or on
+	// request
+	private static JournaledKnowledgeBase openJournal(File file)
+			throws IOException {
+		return new JournaledKnowledgeBase(new AcmeKnowledgeBase(SIZE), file,
+				JournaledKnowledgeBase.SYNC_NEVER,
+				JournaledKnowledgeBase.DEFAULT_BATCH_SIZE, 0);
+	}
+
+
+	// check that the facts of a recovered knowledge base follow one of the
+	// given states, and return a reference knowledge base holding them
+	private static KnowledgeBase recovered(KnowledgeBase kb, List states,
+			String when) {
+		Set facts = contents(kb);
+		if (!states.contains(facts)) {
+			throw new IllegalStateException(when + ": the " + facts.size() +
+					" recovered facts do not follow a change since the " +
+					"last checkpoint");
+		}
+		KnowledgeBase result = new AcmeKnowledgeBase(SIZE);
+		for (Iterator it = facts.iterator(); it.hasNext(); ) {
+			result.add((Fact)it.next());
+		}
+		return result;
+	}
+
+
+	// compare the facts of the knowledge bases, disregarding their order
+	private static void compareContents(KnowledgeBase kb, KnowledgeBase ref,
+			String when) {
+		compare(contents(kb), contents(ref), when);
+		compare(kb.size(), ref.size(), when + ": size");
+	}
+
+
+	private static void compareMatches(List found, List expected,
+			boolean ordered, String what) {
+		if (ordered) {
+			compare(found, expected, what);
+		}
+		else {
+			compare(new HashSet(found), new HashSet(expected), what);
+			compare(found.size(), expected.size(), what + ": size");
+		}
+	}
+
+
+	private static Set contents(KnowledgeBase kb) {
+		Set result = new HashSet();
+		for (Iterator it = kb.iterator(); it.hasNext(); ) {
+			result.add(it.next());
+		}
+		return result;
+	}
+
+
+	private static void compare(Object found, Object expected, String what) {
+		if (!expected.equals(found)) {
+			throw new IllegalStateException(what + ": found " + found +
+					", expected " + expected);
+		}
+	}
+
+
+	private static void compare(boolean found, boolean expected,
+			String what) {
+		compare(Boolean.valueOf(found), Boolean.valueOf(expected), what);
+	}
+
+
+	private static void compare(int found, int expected, String what) {
+		compare(Integer.valueOf(found), Integer.valueOf(expected), what);
+	}
+
+
+	private static byte[] readFile(File file) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(file, "r");
+		try {
+			byte[] result = new byte[(int)f.length()];
+			f.readFully(result);
+			return result;
+		}
+		finally {
+			f.close();
+		}
+	}
+
+
+	// write the first len bytes to a file, replacing its contents
+	private static void writeFile(File file, byte[] b, int len)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(b, 0, len);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+
+	private static void truncate(File file, long len) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(file, "rw");
+		try {
+			f.setLength(len);
+		}
+		finally {
+			f.close();
+		}
+	}
+
+
+	// flip the bits of the last nonzero byte of a file; the files grow in
+	// zero-filled chunks, so the byte belongs to the record written last
+	private static void damageLastByte(File file) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(file, "rw");
+		try {
+			byte[] buf = new byte[1 << 16];
+			for (long end = f.length(); end > 0; end -= buf.length) {
+				long start = Math.max(0, end - buf.length);
+				int len = (int)(end - start);
+				f.seek(start);
+				f.readFully(buf, 0, len);
+				for (int i = len - 1; i >= 0; i--) {
+					if (buf[i] != 0) {
+						f.seek(start + i);
+						f.write(buf[i] ^ 0x55);
+						return;
+					}
+				}
+			}
+		}
+		finally {
+			f.close();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.testbed;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import dk.dtu.imm.cse.agent.act.acc.*;
+import dk.dtu.imm.cse.agent.act.afc.*;
+
+
+/**
+ * A check of the dispatch of WHEN rules on a key of the message. A program
+ * whose rules compare the same key to constants is run by the interpreter,
+ * as compiled bytecode and as compiled Java source, and every back end
+ * must evaluate the guards as they are written: in particular, a procedure
+ * call in a guard entry preceding the key must be made even if the key
+ * does not match.
+ * <p>
+ * The check is run by the <code>check</code> target of the build file, or
+ * from the command line:
+ * <pre>
+ * java -cp lib/act.jar dk.dtu.imm.cse.agent.act.testbed.MessageSwitchCheck
+ * </pre>
+ * The first difference found is reported by an IllegalStateException.
+ *
+ * @author  Henrik Lauritzen
+ */
+public class MessageSwitchCheck {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Runs the check.
+	 */
+	public static void main(String[] args) throws Exception {
+		Class compiled = Acc.loadClass(new ByteArrayInputStream(
+				PROGRAM.getBytes()), null, "SwitchCheck", null, null);
+		AgentCompiler compiler = new AgentCompiler(null, null, null, 1);
+		Class generated;
+		try {
+			generated = compiler.compile("SwitchCheckSource", PROGRAM);
+		}
+		finally {
+			compiler.shutdown();
+		}
+		AgentCInterpreter interpreter = new AgentCInterpreter(
+				new ByteArrayInputStream(PROGRAM.getBytes()), null);
+
+		for (int i = 0; i < MESSAGES.length; i++) {
+			Map msg = new HashMap();
+			for (int j = 0; j < MESSAGES[i].length; j += 2) {
+				msg.put(MESSAGES[i][j], MESSAGES[i][j + 1]);
+			}
+			check("interpreted", interpreter, null, msg, EXPECTED[i]);
+			check("compiled", null, compiled, msg, EXPECTED[i]);
+			check("generated", null, generated, msg, EXPECTED[i]);
+		}
+		System.out.println("message switch: " + MESSAGES.length +
+				" messages, 3 back ends");
+	}
+
+	// ------------------------------ protected ------------------------------
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// the rules may be switched on the key "type", except the first, whose
+	// guard calls a procedure before comparing the key
+	private final static String PROGRAM =
+			"ATTITUDES {\n" +
+			"\t#B = 1;\n" +
+			"}\n" +
+			"PROCEDURE side() {\n" +
+			"\tSAY [side = 1];\n" +
+			"\tRETURN 1;\n" +
+			"}\n" +
+			"PROCEDURE msg() {\n" +
+			"\tWHEN [a = CALL side(), type = 1] {\n" +
+			"\t\tRETURN 1;\n" +
+			"\t}\n" +
+			"\tWHEN [type = 2] {\n" +
+			"\t\tRETURN 2;\n" +
+			"\t}\n" +
+			"\tWHEN [type = 3] {\n" +
+			"\t\tRETURN 3;\n" +
+			"\t}\n" +
+			"\tWHEN [b = 1, type = 2] {\n" +
+			"\t\tRETURN 4;\n" +
+			"\t}\n" +
+			"\tRETURN 0;\n" +
+			"}\n";
+
+	// the keys and values of the messages
+	private final static Object[][] MESSAGES = {
+		{"type", Integer.valueOf(1), "a", Integer.valueOf(1)},
+		{"type", Integer.valueOf(1), "a", Integer.valueOf(2)},
+		{"type", Integer.valueOf(2), "a", Integer.valueOf(2)},
+		{"type", Integer.valueOf(3), "a", Integer.valueOf(1)},
+		{"type", Integer.valueOf(4), "a", Integer.valueOf(1)},
+		{"type", Integer.valueOf(2)},
+	};
+
+	// the result of each message, and the number of calls of side()
+	private final static int[][] EXPECTED = {
+		{1, 1},
+		{0, 1},
+		{2, 1},
+		{3, 1},
+		{0, 1},
+		{2, 0},
+	};
+
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+
+	// ------------------------------- class -------------------------------
+
+	// run the msg procedure of a new agent, which is either interpreted or
+	// an instance of a class, and compare the result and the number of
+	// messages sent by side() with those expected
+	private static void check(String backEnd, AgentCInterpreter interpreter,
+			Class c, Map msg, int[] expected) throws Exception {
+		Environment env = new Environment();
+		Object result;
+		if (interpreter != null) {
+			result = interpreter.newAgent("x", env, env, env).call("msg",
+					msg, new Object[0]);
+		}
+		else {
+			Acme a = (Acme)c.getConstructor(new Class[] {Object.class}).
+					newInstance(new Object[] {"x"});
+			a.init(env, env, env);
+			Method method = c.getMethod("msg", new Class[] {Map.class});
+			result = method.invoke(a, new Object[] {msg});
+		}
+
+		if (!Integer.valueOf(expected[0]).equals(result) ||
+				env._said != expected[1]) {
+			throw new IllegalStateException(backEnd + " " + msg +
+					": returned " + result + " after " + env._said +
+					" calls of side(), expected " + expected[0] + " after " +
+					expected[1]);
+		}
+	}
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+
+	// counts the messages sent by an agent, and does nothing else
+	private static final class Environment implements Actuator, Messenger,
+			Investigator {
+		private int _said = 0;
+
+
+		public boolean xeq(String name, Object[] params) {
+			return false;
+		}
+
+
+		public void send(Map msg) {
+			_said++;
+		}
+
+
+		public Object query(String q, Object[] params) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,503 @@
+// Copyright 2002 Henrik Lauritzen.
+/*
+    This file is part of the AgentC Toolkit.
+
+    The AgentC Toolkit is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    The AgentC Toolkit is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with the AgentC Toolkit.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package dk.dtu.imm.cse.agent.act.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * The AgentScheduler executes {@link MessageController}s by a fixed pool
+ *  of worker threads, instead of a thread per controller. A controller is
+ *  only executed when its mailbox has received a message, or when the
+ *  delay given by {@link MessageController#unpause(long)} has elapsed
+ *  without any messages, and it is never executed by two workers at once.
+ * <p>
+ * The workers steal work from each other, so controllers which send 
+ *  messages to each other are usually executed by the same worker.
+ *  The delays are measured by a hierarchical timing wheel, which is
+ *  advanced by a single timer thread; the delays are rounded up to whole
+ *  ticks of the wheel.
+ * <p>
+ * Since the workers are shared, the handlers of the controllers should
+ *  not block, e.g. by sending to a {@link Mailbox#BLOCK blocking} mailbox.
+ *
+ * @author  Henrik Lauritzen
+ * @see MessageController#start(Mailbox, AgentScheduler)
+ */
+public class AgentScheduler {
+
+	// =======================================================================
+	// Class fields
+	// =======================================================================
+
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * The default duration of a tick of the timing wheel, in milliseconds.
+	 */
+	public final static long DEFAULT_TICK = 10L;
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Instance fields
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Constructors
+	// =======================================================================
+		
+	// ------------------------------- public --------------------------------
+
+	/**
+	 * Creates a new scheduler with a worker per processor, using the
+	 *  {@link #DEFAULT_TICK default tick}.
+	 */
+	public AgentScheduler() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_TICK);
+	}
+	
+	
+	/**
+	 * Creates a new scheduler.
+	 * @param workers the number of worker threads
+	 * @param tick the duration of a tick of the timing wheel, in 
+	 *  milliseconds
+	 * @exception IllegalArgumentException if either parameter is not 
+	 *  positive
+	 */
+	public AgentScheduler(int workers, long tick) 
+			throws IllegalArgumentException {
+		if (workers <= 0) {
+			throw new IllegalArgumentException("workers: " + workers);
+		}
+		else if (tick <= 0) {
+			throw new IllegalArgumentException("tick: " + tick);
+		}
+		
+		// the pool executes the agents in FIFO order
+		_pool = new ForkJoinPool(workers, 
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		_timer = new Timer(tick * 1000000L);
+		_timer.start();
+	}
+	
+	// ------------------------------ protected ------------------------------
+	// ------------------------------- private -------------------------------
+
+	// ***********************************************************************
+	
+	// =======================================================================
+	// New instance methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return the number of worker threads
+	 */
+	public int getWorkerCount() {
+		return _pool.getParallelism();
+	}
+	
+	
+	/**
+	 * @return the number of controllers which have been started and have
+	 *  not terminated.
+	 */
+	public int getAgentCount() {
+		return _agents.get();
+	}
+	
+	
+	/**
+	 * Stops the workers and the timer. Controllers which have not
+	 *  terminated will no longer be executed.
+	 */
+	public void shutdown() {
+		_timer.halt();
+		_pool.shutdown();
+	}
+	
+	// ------------------------------ protected ------------------------------
+	
+	// =======================================================================
+	// Implementations of abstract methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Overridden methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+
+	// =======================================================================
+	// Class methods
+	// =======================================================================
+	
+	// ------------------------------- public --------------------------------
+	// ------------------------------ protected ------------------------------
+	
+	// ***********************************************************************
+
+	// =======================================================================
+	// Private fields
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	
+	// the states of an agent
+	private final static int IDLE = 0;
+	private final static int SCHEDULED = 1;
+	
+	// the maximal number of messages handled by an agent before the
+	// worker turns to the other agents
+	private final static int BATCH = 64;
+	
+	// the number of levels of the timing wheel, and the number of slots
+	// (bits) of each level
+	private final static int LEVELS = 4;
+	private final static int BITS = 6;
+	private final static int SLOTS = 1 << BITS;
+	
+	// ------------------------------ instance -----------------------------
+	
+	// the workers and the timer
+	private ForkJoinPool _pool;
+	private Timer _timer;
+	
+	// the number of agents
+	private AtomicInteger _agents = new AtomicInteger();
+	
+		
+	// =======================================================================
+	// Private methods
+	// =======================================================================
+		
+	// ------------------------------- class -------------------------------
+	// ------------------------------ instance -----------------------------
+
+	// start the execution of a controller; this is used by the
+	// MessageController
+	void start(MessageController controller, Mailbox mbox) 
+			throws IllegalStateException {
+		if (_pool.isShutdown()) {
+			throw new IllegalStateException("shut down");
+		}
+		
+		final Agent agent = new Agent(controller, mbox);
+		_agents.incrementAndGet();
+		mbox.setSignal(new Runnable() {
+			public void run() {
+				agent.schedule();
+			}
+		});
+		
+		// handle the messages added before the signal was set
+		if (mbox.size() > 0) {
+			agent.schedule();
+		}
+	}
+
+	// ***********************************************************************
+
+	// =======================================================================
+	// Inner classes
+	// =======================================================================
+	
+	// A controller executed by the scheduler. The agent is run by a worker
+	// when it is SCHEDULED, and only the worker changes the state back to
+	// IDLE.
+	private final class Agent implements Runnable {
+		Agent(MessageController controller, Mailbox mbox) {
+			_controller = controller;
+			_mbox = mbox;
+		}
+		
+		// the controller and its mailbox
+		final MessageController _controller;
+		final Mailbox _mbox;
+		
+		// whether the agent is IDLE or SCHEDULED
+		final AtomicInteger _state = new AtomicInteger(IDLE);
+		
+		// the tick at which the agent times out if it remains idle, or 0,
+		// and whether the agent has timed out
+		final AtomicLong _deadline = new AtomicLong();
+		volatile boolean _timeout = false;
+		
+		// whether the agent is (about to be) in the timing wheel, and the
+		// tick of its slot there; the latter is used by the timer only
+		final AtomicBoolean _armed = new AtomicBoolean();
+		long _due;
+		
+		
+		// schedule the agent, unless it is already scheduled or running
+		void schedule() {
+			if (_state.get() == IDLE && _state.compareAndSet(IDLE, SCHEDULED)) {
+				_pool.execute(this);
+			}
+		}
+		
+		
+		// handle the messages, or the timeout, as a worker
+		public void run() {
+			// the agent is busy, so it cannot time out
+			_deadline.set(0L);
+			
+			boolean alive = false;
+			try {
+				int count = 0;
+				for (Map msg; count < BATCH && 
+						(msg = _mbox.peek(true)) != null; count++) {
+					if (!_controller.dispatch(msg)) {
+						return;
+					}
+				}
+				
+				if (count > 0) {
+					// a message arrived before the delay elapsed
+					_timeout = false;
+				}
+				else if (_timeout) {
+					_timeout = false;
+					if (!_controller.dispatch(null)) {
+						return;
+					}
+				}
+				alive = true;
+			}
+			finally {
+				if (alive) {
+					release();
+				}
+				else {
+					// the agent stays SCHEDULED, so it is never run again
+					_mbox.setSignal(null);
+					_agents.decrementAndGet();
+					_controller.terminate();
+				}
+			}
+		}
+		
+		
+		// let the agent become idle, after arming the timer
+		private void release() {
+			long delay = _controller.getDelay();
+			if (delay > 0) {
+				_deadline.set(_timer.getTick(delay));
+				if (_armed.compareAndSet(false, true)) {
+					_timer.add(this);
+				}
+			}
+			
+			_state.set(IDLE);
+			
+			// a writer may have seen the agent before it became idle
+			if (_mbox.size() > 0 || _timeout) {
+				schedule();
+			}
+		}
+	}
+	
+	
+	// The timer thread, which advances a hierarchical timing wheel. The
+	// wheel has LEVELS levels of SLOTS slots; a slot of level l contains
+	// the agents due within a span of SLOTS^l ticks, which are moved to
+	// the level below when the span begins. Except for the agents to be
+	// added, the wheel is only accessed by the timer thread.
+	private final class Timer extends Thread {
+		Timer(long tickNanos) {
+			super("AgentScheduler-timer");
+			setDaemon(true);
+			_tickNanos = tickNanos;
+			_origin = System.nanoTime();
+		}
+		
+		// the duration of a tick, and the time of tick 0
+		private final long _tickNanos;
+		private final long _origin;
+		
+		// the current tick
+		private long _tick = 0L;
+		
+		// the agents of the slots (Lists, or null), and their number
+		private final List[] _slots = new List[LEVELS * SLOTS];
+		private int _count = 0;
+		
+		// the agents to be added to the wheel
+		private final Queue _added = new ConcurrentLinkedQueue();
+		
+		// whether the timer waits for agents to be added, and whether it
+		// has been halted
+		private volatile boolean _idle = false;
+		private volatile boolean _halted = false;
+		
+		
+		// return the tick at which a delay (in milliseconds) elapses
+		long getTick(long delay) {
+			long t = System.nanoTime() + delay * 1000000L - _origin;
+			return (t + _tickNanos - 1) / _tickNanos;
+		}
+		
+		
+		// add an armed agent to the wheel
+		void add(Agent agent) {
+			_added.add(agent);
+			if (_idle) {
+				LockSupport.unpark(this);
+			}
+		}
+		
+		
+		// stop the timer
+		void halt() {
+			_halted = true;
+			LockSupport.unpark(this);
+		}
+		
+		
+		public void run() {
+			while (!_halted) {
+				long now = (System.nanoTime() - _origin) / _tickNanos;
+				if (_count == 0) {
+					// nothing can fire, so the empty ticks are skipped
+					_tick = Math.max(_tick, now);
+				}
+				for (Agent a; (a = (Agent)_added.poll()) != null; ) {
+					fire(a);
+				}
+				
+				if (_count == 0) {
+					_idle = true;
+					if (_added.isEmpty()) {
+						LockSupport.park(this);
+					}
+					_idle = false;
+					continue;
+				}
+				
+				while (_tick < now) {
+					advance();
+				}
+				LockSupport.parkNanos(this, 
+						_origin + (_tick + 1) * _tickNanos - System.nanoTime());
+			}
+		}
+		
+		
+		// move to the next tick, and fire the agents which are due
+		private void advance() {
+			_tick++;
+			
+			// cascade the slots of the levels whose spans begin, starting
+			// with the highest one
+			int level = 0;
+			while (level + 1 < LEVELS && 
+					(_tick & ((1L << (BITS * (level + 1))) - 1)) == 0) {
+				level++;
+			}
+			for (; level > 0; level--) {
+				List slot = take(level, _tick >> (BITS * level));
+				for (int i = 0, max = slot.size(); i < max; i++) {
+					insert((Agent)slot.get(i));
+				}
+			}
+			
+			List slot = take(0, _tick);
+			for (int i = 0, max = slot.size(); i < max; i++) {
+				fire((Agent)slot.get(i));
+			}
+		}
+		
+		
+		// handle an armed agent whose slot is due: time it out if its 
+		// deadline has been reached, and keep it in the wheel otherwise
+		private void fire(Agent agent) {
+			while (true) {
+				long deadline = agent._deadline.get();
+				if (deadline == 0L) {
+					// the agent was disarmed; it must be added again if
+					// it has been armed meanwhile
+					agent._armed.set(false);
+					if (agent._deadline.get() == 0L || 
+							!agent._armed.compareAndSet(false, true)) {
+						return;
+					}
+				}
+				else if (deadline > _tick) {
+					agent._due = deadline;
+					insert(agent);
+					return;
+				}
+				else if (agent._deadline.compareAndSet(deadline, 0L)) {
+					agent._timeout = true;
+					agent.schedule();
+				}
+			}
+		}
+		
+		
+		// insert an agent into the slot of its due tick
+		private void insert(Agent agent) {
+			long delta = agent._due - _tick;
+			if (delta <= 0) {
+				fire(agent);
+				return;
+			}
+			
+			int level = 0;
+			while (level + 1 < LEVELS && delta >= 1L << (BITS * (level + 1))) {
+				level++;
+			}
+			long due = level + 1 < LEVELS ? agent._due :
+					Math.min(agent._due, _tick + (1L << (BITS * LEVELS)) - 1);
+			int idx = level * SLOTS + (int)((due >> (BITS * level)) & (SLOTS - 1));
+			if (_slots[idx] == null) {
+				_slots[idx] = new ArrayList();
+			}
+			_slots[idx].add(agent);
+			_count++;
+		}
+		
+		
+		// remove and return the agents of a slot
+		private List take(int level, long index) {
+			int idx = level * SLOTS + (int)(index & (SLOTS - 1));
+			List result = _slots[idx];
+			if (result == null || result.isEmpty()) {
+				return Collections.EMPTY_LIST;
+			}
+			_slots[idx] = null;
+			_count -= result.size();
+			return result;
+		}
+	}
+}
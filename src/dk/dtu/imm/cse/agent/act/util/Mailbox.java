@@ -18,11 +18,28 @@
 package dk.dtu.imm.cse.agent.act.util;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 
 /**
  * The Mailbox allows buffering of messages and allows different threads
  * to read and write.
+ * <p>
+ * Any number of threads may add messages concurrently, but the messages
+ * must be retreived by a single thread at a time (normally the thread of
+ * a {@link MessageController}). The mailbox does not use locks: the
+ * messages are kept in a linked queue whose tail is swapped atomically
+ * by the writers, and the reader is parked while it waits for a message.
+ * <p>
+ * A mailbox may be bounded, in which case a policy determines what happens
+ *  when a message is added to a full mailbox: the writer may be suspended
+ *  until there is room ({@link #BLOCK}), the oldest message may be dropped
+ *  ({@link #DROP_OLDEST}), the new message may be rejected
+ *  ({@link #DROP_NEWEST}), or the new message may replace a buffered
+ *  message having the same value for a given key ({@link #COALESCE}).
+ *  Control messages, which must never be lost, are added by
+ *  {@link #force(Map)} and do not count against the capacity.
  *
  * @author  Henrik Lauritzen
  */
@@ -33,6 +50,51 @@ public class Mailbox {
 	// =======================================================================
 
 	// ------------------------------- public --------------------------------
+
+	/**
+	 * The policy of a bounded mailbox which suspends a writer until there
+	 *  is room for its message. <strong>N.B.</strong>: an agent which sends
+	 *  to a full mailbox blocks, even if its own mailbox needs attention.
+	 */
+	public final static int BLOCK = 0;
+	
+	/**
+	 * The policy of a bounded mailbox which drops the oldest buffered
+	 *  message to make room for a new one.
+	 */
+	public final static int DROP_OLDEST = 1;
+	
+	/**
+	 * The policy of a bounded mailbox which rejects a new message if the
+	 *  mailbox is full.
+	 */
+	public final static int DROP_NEWEST = 2;
+	
+	/**
+	 * The policy of a bounded mailbox which lets a new message replace a
+	 *  buffered message having the same (non-null) value for the key of the
+	 *  mailbox, keeping the position of the old message. Messages which
+	 *  do not replace another are added as for {@link #DROP_OLDEST}.
+	 */
+	public final static int COALESCE = 3;
+
+	
+	/**
+	 * The status returned when a message was added.
+	 */
+	public final static int ADDED = 0;
+	
+	/**
+	 * The status returned when a message was added, but another message
+	 *  was dropped or replaced to make room for it.
+	 */
+	public final static int REPLACED = 1;
+
+	/**
+	 * The status returned when a message was not added.
+	 */
+	public final static int REJECTED = 2;
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -51,9 +113,44 @@ public class Mailbox {
 	// ------------------------------- public --------------------------------
 
 	/**
-	 * Creates a new Mailbox.
+	 * Creates a new, unbounded Mailbox.
 	 */
 	public Mailbox() {
+		_capacity = 0;
+		_policy = DROP_NEWEST;
+		_key = null;
+	}
+	
+	
+	/**
+	 * Creates a new, bounded Mailbox.
+	 * @param capacity the maximal number of buffered messages
+	 * @param policy the policy used when the mailbox is full; either of
+	 *  {@link #BLOCK}, {@link #DROP_OLDEST} and {@link #DROP_NEWEST}.
+	 * @exception IllegalArgumentException if the capacity is not positive,
+	 *  or if the policy is invalid.
+	 */
+	public Mailbox(int capacity, int policy) throws IllegalArgumentException {
+		this(capacity, policy, null);
+	}
+
+	
+	/**
+	 * Creates a new, bounded Mailbox.
+	 * @param capacity the maximal number of buffered messages
+	 * @param policy the policy used when the mailbox is full.
+	 * @param key the key of the messages used by the {@link #COALESCE}
+	 *  policy; it is ignored by the other policies.
+	 * @exception IllegalArgumentException if the capacity is not positive,
+	 *  if the policy is invalid, or if the key of the {@link #COALESCE}
+	 *  policy is null.
+	 */
+	public Mailbox(int capacity, int policy, Object key) 
+			throws IllegalArgumentException {
+		checkBounds(capacity, policy, key);
+		_capacity = capacity;
+		_policy = policy;
+		_key = key;
 	}
 	
 	// ------------------------------ protected ------------------------------
@@ -71,26 +168,67 @@ public class Mailbox {
 	 * @return the current number of buffered messages
 	 */
 	public int size() {
-		synchronized (_buffer) {
-			return _buffer.size();
-		}
+		return _size.get() + _forced.get();
+	}
+	
+	
+	/**
+	 * @return the capacity of the mailbox, or 0 if it is unbounded
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+	
+	
+	/**
+	 * @return the policy used if the mailbox is bounded and full
+	 */
+	public int getPolicy() {
+		return _policy;
+	}
+	
+	
+	/**
+	 * @return the number of buffered messages which have been dropped or
+	 *  replaced to make room for new messages
+	 */
+	public long getDroppedCount() {
+		return _dropped.get();
+	}
+	
+	
+	/**
+	 * @return the number of new messages which have been rejected
+	 */
+	public long getRejectedCount() {
+		return _rejected.get();
 	}
 	
 	
 	/**
-	 * Places a new message into the message buffer.
+	 * Places a new message into the message buffer, subject to the policy
+	 *  of the mailbox if it is full.
 	 * @param msg the message
+	 * @return {@link #ADDED}, {@link #REPLACED} or {@link #REJECTED}
 	 * @exception NullPointerException if the message is null
 	 */
-	public void add(Map msg) throws NullPointerException {
+	public int add(Map msg) throws NullPointerException {
 		if (msg == null) {
 			throw new NullPointerException();
 		}
-		synchronized (_buffer) {
-			_buffer.addLast(msg);
-			if (_buffer.size() == 1) {
-				_buffer.notify();
-			}
+		
+		Node n = new Node(msg, false);
+		if (_capacity == 0) {
+			_size.incrementAndGet();
+			append(n, n);
+			return ADDED;
+		}
+		else if (_policy == COALESCE && coalesce(msg)) {
+			_dropped.incrementAndGet();
+			return REPLACED;
+		}
+		else {
+			return offer(n, n, 1);
 		}
 	}
 	
@@ -98,17 +236,24 @@ public class Mailbox {
 	/**
 	 * Places a collection of new messages into the message buffer at once.
 	 *  If the operation fails for either reason, the buffer will not be
-	 *  modified.
+	 *  modified. If the mailbox is bounded, the messages are subject
+	 *  to its policy as a whole; they are not coalesced, and the messages
+	 *  are rejected if they exceed the capacity.
 	 * @param msgs the messages
+	 * @return {@link #ADDED}, {@link #REPLACED} or {@link #REJECTED}
 	 * @exception NullPointerException if either message is null. 
 	 * @exception ClassCastException if either message is not a Map instance.
 	 */
-	public void add(Collection msgs) 
+	public int add(Collection msgs) 
 			throws ClassCastException, NullPointerException {
 		if (msgs.size() == 0) {
-			return;
+			return ADDED;
 		}
 		
+		// link the messages before they are appended as a whole
+		Node first = null;
+		Node last = null;
+		int count = 0;
 		for (Iterator i = msgs.iterator(); i.hasNext(); ) {
 			Object obj = i.next();
 			if (obj == null) {
@@ -117,15 +262,41 @@ public class Mailbox {
 			else if (!(obj instanceof Map)) {
 				throw new ClassCastException(obj.getClass().getName());
 			}
+			
+			Node n = new Node((Map)obj, false);
+			if (first == null) {
+				first = n;
+			}
+			else {
+				last._next = n;
+			}
+			last = n;
+			count++;
 		}
 		
-		synchronized (_buffer) {
-			boolean notify = _buffer.size() == 0;
-			_buffer.addAll(msgs);
-			if (notify) {
-				_buffer.notify();
-			}
+		if (_capacity == 0) {
+			_size.addAndGet(count);
+			append(first, last);
+			return ADDED;
 		}
+		return offer(first, last, count);
+	}
+	
+	
+	/**
+	 * Places a control message into the message buffer, regardless of the
+	 *  capacity of the mailbox. The message will not be dropped or
+	 *  replaced.
+	 * @param msg the message
+	 * @exception NullPointerException if the message is null
+	 */
+	public void force(Map msg) throws NullPointerException {
+		if (msg == null) {
+			throw new NullPointerException();
+		}
+		Node n = new Node(msg, true);
+		_forced.incrementAndGet();
+		append(n, n);
 	}
 
 	
@@ -136,12 +307,16 @@ public class Mailbox {
 	 *  will be returned.
 	 */
 	public Map peek(boolean extract) {
-		synchronized (_buffer) {
-			if (_buffer.size() == 0) {
-				return null;
+		if (extract) {
+			return poll();
+		}
+		for (Node n = first(); n != null; n = n._next) {
+			Map msg = (Map)n.get();
+			if (msg != null) {
+				return msg;
 			}
-			return (Map)(extract ? _buffer.removeFirst() :_buffer.get(0));
 		}
+		return null;
 	}
 	
 	
@@ -165,15 +340,46 @@ public class Mailbox {
 	 * operation is suspended.
 	 */
 	public Map get(long timeout) throws InterruptedException {
-		synchronized (_buffer) {			
-			while (_buffer.size() == 0) {
-				_buffer.wait(timeout);
+		Map result = poll();
+		if (result != null) {
+			return result;
+		}
+		
+		// parking is expensive, so give a writer which is about to add a
+		// message a chance first
+		Thread.yield();
+		if ((result = poll()) != null) {
+			return result;
+		}
+		
+		long deadline = timeout > 0 ? 
+				System.nanoTime() + timeout * 1000000L : 0L;
+		
+		// announce that the reader waits before checking the queue again,
+		// so that a writer either sees the reader or is seen by it
+		Thread reader = Thread.currentThread();
+		_reader.set(reader);
+		try {
+			while ((result = poll()) == null) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
 				if (timeout > 0) {
-					return _buffer.size() == 0 ? 
-							null : (Map)_buffer.removeFirst();
+					long left = deadline - System.nanoTime();
+					if (left <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, left);
 				}
+				else {
+					LockSupport.park(this);
+				}
+				_reader.set(reader);
 			}
-			return (Map)_buffer.removeFirst();
+			return result;
+		}
+		finally {
+			_reader.set(null);
 		}
 	}
 	
@@ -189,26 +395,26 @@ public class Mailbox {
 	 *  buffer.
 	 */
 	public Collection extract(int size, boolean remove) {
-		synchronized (_buffer) {
-			int avail = _buffer.size();
-			if (avail == 0 || size == 0) {
-				return Collections.EMPTY_LIST;
-			}
-			
-			if (size > avail || size < 0) {
-				size = avail;
+		if (first() == null || size == 0) {
+			return Collections.EMPTY_LIST;
+		}
+		
+		Collection result = new ArrayList(size > 0 ? size : size());
+		if (remove) {
+			for (Map msg; size != 0 && (msg = poll()) != null; size--) {
+				result.add(msg);
 			}
-			Collection result = new ArrayList(size);
-			Iterator it = _buffer.iterator();
-			for (int i = 0; i < size; i++) {
-				result.add(it.next());
-				if (remove) {
-					it.remove();
+		}
+		else {
+			for (Node n = first(); n != null && size != 0; n = n._next) {
+				Map msg = (Map)n.get();
+				if (msg != null) {
+					result.add(msg);
+					size--;
 				}
 			}
-			
-			return result;
 		}
+		return result;
 	}
 	
 	
@@ -244,9 +450,42 @@ public class Mailbox {
 	// ------------------------------- class -------------------------------
 	// ------------------------------ instance -----------------------------
 	
+	// the capacity (0 if unbounded), the policy, and the key of the
+	// COALESCE policy
+	private final int _capacity;
+	private final int _policy;
+	private final Object _key;
+	
 	// the buffered messages are added to tail and extracted from the 
-	// head
-	private LinkedList _buffer = new LinkedList();
+	// head. The head is a node whose message has been extracted (or a
+	// dummy node), and is only moved by the reader. Writers may take
+	// the message of a node when it is dropped or replaced.
+	private AtomicReference _head = new AtomicReference(new Node(null, false));
+	private AtomicReference _tail = new AtomicReference(_head.get());
+	
+	// the number of buffered messages, not counting the control messages
+	// which are counted separately
+	private AtomicInteger _size = new AtomicInteger();
+	private AtomicInteger _forced = new AtomicInteger();
+	
+	// the number of dropped (or replaced) and rejected messages
+	private AtomicLong _dropped = new AtomicLong();
+	private AtomicLong _rejected = new AtomicLong();
+	
+	// the thread waiting for a message in get(), if any. It is cleared by
+	// the writer which wakes it up.
+	private AtomicReference _reader = new AtomicReference();
+	
+	// the action performed when messages have been added, instead of
+	// waking up the reader, if the mailbox is read by an AgentScheduler
+	private volatile Runnable _signal = null;
+	
+	// the writers waiting for room when the BLOCK policy is used wait
+	// for this condition. Unlike a monitor, it lets a waiting virtual
+	// thread release its carrier thread.
+	private Lock _lock = new ReentrantLock();
+	private Condition _room = _lock.newCondition();
+	private volatile int _blocked = 0;
 	
 		
 	// =======================================================================
@@ -254,12 +493,220 @@ public class Mailbox {
 	// =======================================================================
 		
 	// ------------------------------- class -------------------------------
+
+	// check the parameters of a bounded mailbox
+	static void checkBounds(int capacity, int policy, Object key) 
+			throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		else if (policy < BLOCK || policy > COALESCE) {
+			throw new IllegalArgumentException("policy: " + policy);
+		}
+		else if (policy == COALESCE && key == null) {
+			throw new IllegalArgumentException("key: null");
+		}
+	}
+	
 	// ------------------------------ instance -----------------------------
 
+	// set the action performed when messages have been added; this is
+	// used by the AgentScheduler
+	void setSignal(Runnable signal) {
+		_signal = signal;
+	}
+	
+	
+	// return the node following the head, or null
+	private Node first() {
+		return ((Node)_head.get())._next;
+	}
+	
+	
+	// append a chain of linked nodes, which have been counted, and wake up
+	// the reader
+	private void append(Node first, Node last) {
+		Node prev = (Node)_tail.getAndSet(last);
+		
+		// until this is done, the reader sees the queue as ending at prev
+		prev._next = first;
+		
+		Runnable signal = _signal;
+		if (signal != null) {
+			signal.run();
+		}
+		else if (_reader.get() != null) {
+			Thread reader = (Thread)_reader.getAndSet(null);
+			if (reader != null) {
+				LockSupport.unpark(reader);
+			}
+		}
+	}
+	
+	
+	// append a chain of linked nodes to a bounded mailbox, applying the
+	// policy until there is room for them, and return the status
+	private int offer(Node first, Node last, int count) {
+		if (count > _capacity) {
+			_rejected.addAndGet(count);
+			return REJECTED;
+		}
+		
+		int result = ADDED;
+		while (!reserve(count)) {
+			if (_policy == DROP_NEWEST || (_policy == BLOCK && !await(count))) {
+				_rejected.addAndGet(count);
+				return REJECTED;
+			}
+			else if (_policy != BLOCK) {
+				if (drop()) {
+					_dropped.incrementAndGet();
+					result = REPLACED;
+				}
+				else {
+					// the messages taking up the room have not yet been
+					// linked by their writers
+					Thread.yield();
+				}
+			}
+		}
+		append(first, last);
+		return result;
+	}
+	
+	
+	// reserve room for a number of messages in a bounded mailbox
+	private boolean reserve(int count) {
+		for (;;) {
+			int size = _size.get();
+			if (size + count > _capacity) {
+				return false;
+			}
+			else if (_size.compareAndSet(size, size + count)) {
+				return true;
+			}
+		}
+	}
+	
+	
+	// wait until there might be room for a number of messages, and return
+	// false if the writer was interrupted
+	private boolean await(int count) {
+		_lock.lock();
+		try {
+			_blocked++;
+			while (_size.get() + count > _capacity) {
+				_room.await();
+			}
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		finally {
+			_blocked--;
+			_lock.unlock();
+		}
+	}
+	
+	
+	// drop the oldest message which is not a control message, and return
+	// false if no such message was found
+	private boolean drop() {
+		for (Node n = first(); n != null; n = n._next) {
+			Map msg = (Map)n.get();
+			if (msg != null && !n._forced && n.compareAndSet(msg, null)) {
+				release(n);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	// let a message replace the first message having the same value for 
+	// the key, and return false if no such message was found
+	private boolean coalesce(Map msg) {
+		Object value = msg.get(_key);
+		if (value == null) {
+			return false;
+		}
+		
+		for (Node n = first(); n != null; n = n._next) {
+			Map old = (Map)n.get();
+			if (old != null && !n._forced && value.equals(old.get(_key)) &&
+					n.compareAndSet(old, msg)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	// remove and return the first message, or return null
+	private Map poll() {
+		for (Node n; (n = first()) != null; ) {
+			// only the reader moves the head, so it needs no fence
+			_head.lazySet(n);
+			
+			// unless writers may drop or replace the message, it can be
+			// taken without an atomic operation
+			Map result;
+			if (_policy == DROP_OLDEST || _policy == COALESCE) {
+				result = (Map)n.getAndSet(null);
+			}
+			else {
+				result = (Map)n.get();
+				n.lazySet(null);
+			}
+			
+			if (result != null) {
+				release(n);
+				return result;
+			}
+		}
+		return null;
+	}
+	
+	
+	// uncount the message of a node which has been taken from the queue
+	private void release(Node n) {
+		if (n._forced) {
+			_forced.decrementAndGet();
+		}
+		else {
+			_size.decrementAndGet();
+			if (_blocked > 0) {
+				_lock.lock();
+				try {
+					_room.signalAll();
+				}
+				finally {
+					_lock.unlock();
+				}
+			}
+		}
+	}
+
 	// ***********************************************************************
 
 	// =======================================================================
 	// Inner classes
 	// =======================================================================
 	
-}
\ No newline at end of file
+	// a node of the linked queue, which refers to the message until it
+	// has been taken
+	private final static class Node extends AtomicReference {
+		Node(Map msg, boolean forced) {
+			super(msg);
+			_forced = forced;
+		}
+		
+		// whether the message is a control message
+		final boolean _forced;
+		
+		// the next node, which is set once
+		volatile Node _next;
+	}
+}
@@ -17,6 +17,7 @@
 */
 package dk.dtu.imm.cse.agent.act.util;
 
+import java.lang.reflect.Method;
 import java.util.*; 
 
 
@@ -25,6 +26,15 @@ import java.util.*;
  * constituent based on GMI messages. It delegates to the subclass to handle
  * messages which are received, but provides the functionality to suspend
  * execution and to generate events at a fixed rate in the absence of messages.
+ * <p>
+ * The controller normally executes in its own (platform) thread, but it may
+ *  also be started in a virtual thread, if the JVM supports these (see
+ *  {@link #start(Mailbox, boolean)}). A virtual thread which waits for
+ *  a message does not occupy a platform thread, so a simulation may use
+ *  a very large number of controllers. Alternatively, the controller may
+ *  be executed by an {@link AgentScheduler} (see 
+ *  {@link #start(Mailbox, AgentScheduler)}), which only runs it when it
+ *  has received a message or its delay has elapsed.
  *
  * @author  Henrik Lauritzen
  */
@@ -95,7 +105,7 @@ public abstract class MessageController extends Thread {
 			return false;
 		}
 		_delay = delay;
-		_mbox.add(START);
+		_mbox.force(START);
 		return true;
 	}
 	
@@ -110,7 +120,7 @@ public abstract class MessageController extends Thread {
 			return false;
 		}
 		_delay = 0L;
-		_mbox.add(STOP);
+		_mbox.force(STOP);
 		return true;
 	}
 	
@@ -119,7 +129,8 @@ public abstract class MessageController extends Thread {
 	 * Terminate the thread, i.e., ensure that no new messages are processed
 	 * by the thread. Any messages buffered before this method returns
 	 * will continue to be processed before the thread dies. 
-	 * Use {@link Thread#join()} to ensure that all messages have been processed.
+	 * Use {@link #awaitTermination()} to ensure that all messages have been
+	 * processed.
 	 * The method can be invoked multiple times, but only the first invocation
 	 * will have any effect.
 	 */
@@ -128,7 +139,7 @@ public abstract class MessageController extends Thread {
 			// already killed
 			return;
 		}
-		_mbox.add(TERMINATE);
+		_mbox.force(TERMINATE);
 		_finished = true;		
 	}
 	
@@ -147,14 +158,111 @@ public abstract class MessageController extends Thread {
 	 * @exception IllegalThreadStateException if the thread was already started
 	 * @see Thread#start()
 	 */
-	public synchronized void start(Mailbox mbox) 
+	public void start(Mailbox mbox) throws IllegalThreadStateException {
+		start(mbox, false);
+	}
+	
+	
+	/**
+	 * Starts the execution of the controller, either in this thread or in 
+	 *  a new virtual thread. In the latter case, this Thread object is not
+	 *  started, so {@link #awaitTermination()} must be used instead of
+	 *  {@link Thread#join()}.
+	 * @param mailbox the mailbox to be used to receive messages.
+	 * @param virtual whether the controller should execute in a virtual
+	 *  thread. This is ignored if {@link #isVirtualSupported() virtual 
+	 *  threads are not supported}.
+	 * @exception IllegalThreadStateException if the thread was already started
+	 */
+	public synchronized void start(Mailbox mbox, boolean virtual) 
 			throws IllegalThreadStateException {
 		if (_mbox != null) {
 			// the thread was already started
 			throw new IllegalThreadStateException();
 		}
 		_mbox = mbox == null ? new Mailbox() : mbox;
-		super.start();
+		
+		if (virtual && VIRTUAL != null) {
+			_runner = newVirtualThread();
+			_runner.start();
+		}
+		else {
+			_runner = this;
+			super.start();
+		}
+	}
+	
+	
+	/**
+	 * Starts the execution of the controller by a scheduler, instead of
+	 *  in a thread of its own. The Thread object is not started, so
+	 *  {@link #awaitTermination()} must be used instead of 
+	 *  {@link Thread#join()}.
+	 * @param mailbox the mailbox to be used to receive messages.
+	 * @param scheduler the scheduler
+	 * @exception IllegalThreadStateException if the thread was already started
+	 * @exception IllegalStateException if the scheduler has been shut down
+	 */
+	public synchronized void start(Mailbox mbox, AgentScheduler scheduler)
+			throws IllegalThreadStateException, IllegalStateException {
+		if (_mbox != null) {
+			// the thread was already started
+			throw new IllegalThreadStateException();
+		}
+		Mailbox box = mbox == null ? new Mailbox() : mbox;
+		
+		// the controller is marked as scheduled first, so that
+		// awaitTermination() waits even if it is called before this returns
+		synchronized (_lock) {
+			_scheduled = true;
+		}
+		try {
+			scheduler.start(this, box);
+		}
+		catch (RuntimeException e) {
+			synchronized (_lock) {
+				_scheduled = false;
+				_lock.notifyAll();
+			}
+			throw e;
+		}
+		
+		// a handler which uses the mailbox (e.g. by pause()) waits for
+		// this, since the controller is locked
+		_mbox = box;
+	}
+	
+	
+	/**
+	 * @return whether the controller has been started in a virtual thread.
+	 *  (This is not <code>Thread.isVirtual()</code>, which concerns this Thread
+	 *  object itself.)
+	 */
+	public synchronized boolean usesVirtualThread() {
+		return _runner != null && _runner != this;
+	}
+	
+	
+	/**
+	 * Blocks the calling thread until the controller has terminated. 
+	 *  If the controller has not been started, the method returns
+	 *  immediately.
+	 * @exception InterruptedException if the calling thread is interrupted
+	 *  while waiting.
+	 */
+	public void awaitTermination() throws InterruptedException {
+		synchronized (_lock) {
+			while (_scheduled && !_terminated) {
+				_lock.wait();
+			}
+		}
+		Thread runner;
+		synchronized (this) {
+			runner = _runner;
+		}
+		if (runner != null) {
+			runner.join();
+		}
 	}
 
 	
@@ -174,7 +282,7 @@ public abstract class MessageController extends Thread {
 				if (_finished) {
 					return;
 				}
-				_mbox.add(marker);
+				_mbox.force(marker);
 			}
 			marker.wait();
 		}
@@ -223,9 +331,6 @@ public abstract class MessageController extends Thread {
 	 * The main execution loop, which handles messages.
 	 */
 	public final void run() {
-		// whether the thread is paused
-		boolean paused = false;
-		
 		try {			
 			while (true) {
 				Map msg;
@@ -237,38 +342,14 @@ public abstract class MessageController extends Thread {
 					msg = null;
 				}
 
-				if (msg == TERMINATE) {
+				if (!dispatch(msg)) {
 					// stop executing
 					break;
 				}
-				else if (msg == STOP) {
-					paused = true;
-					paused();
-				}
-				else if (msg == START) {
-					paused = false;
-					unpaused();
-				}
-				else if (msg instanceof MarkerMessage) {
-					// wake up the waiting thread
-					synchronized (msg) {
-						msg.notify();
-					}
-				}
-				else {
-					// let the subclass determine how to handle the message
-					handleMessage(msg, paused);
-				}
 			}			
 		}
 		finally {
-			// ensure that the kill() method is invoked, even if 
-			// the thread dies as the result of an uncaught exception
-			// in a handler method
-			kill();
-			
-			// notify that the thread has been killed
-			killed();
+			terminate();
 		}
 	}
 	
@@ -294,6 +375,15 @@ public abstract class MessageController extends Thread {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * @return whether the JVM supports virtual threads
+	 * @see #start(Mailbox, boolean)
+	 */
+	public static boolean isVirtualSupported() {
+		return VIRTUAL != null;
+	}
+	
 	// ------------------------------ protected ------------------------------
 	
 	// ***********************************************************************
@@ -316,15 +406,57 @@ public abstract class MessageController extends Thread {
 	// the message used to indicate that the thread should be terminated
 	private final static Map TERMINATE = new HashMap(1);
 	
+	// the methods Thread.ofVirtual(), Thread.Builder.name(String) and
+	// Thread.Builder.unstarted(Runnable), or null if the JVM does not 
+	// support virtual threads. They are accessed by reflection, since 
+	// virtual threads are not available in all JVMs.
+	private final static Method[] VIRTUAL;
+	static {
+		Method[] methods;
+		try {
+			Class builder = Class.forName("java.lang.Thread$Builder");
+			methods = new Method[] {
+				Thread.class.getMethod("ofVirtual", new Class[0]),
+				builder.getMethod("name", new Class[] {String.class}),
+				builder.getMethod("unstarted", new Class[] {Runnable.class})
+			};
+			
+			// this fails if virtual threads are a disabled preview feature
+			methods[0].invoke(null, new Object[0]);
+		}
+		catch (Exception e) {
+			methods = null;
+		}
+		VIRTUAL = methods;
+	}
+	
 		
 	// ------------------------------ instance -----------------------------
 
-	// the mailbox used for messages
-	private Mailbox _mbox;
+	// the mailbox used for messages.
+	// NOTE: the value is declared volatile because it is read without
+	// locking the controller, e.g. by getMailbox().
+	private volatile Mailbox _mbox;
+	
+	// the thread executing the controller; either this thread or a
+	// virtual thread
+	private Thread _runner;
 
 	// whether execution has finished
 	private boolean _finished = false;
 	
+	// whether the controller is executed by a scheduler, and whether it
+	// has terminated in that case. These are guarded by _lock, which is
+	// also used to wait for the termination; the monitor of this Thread
+	// object is not, since Thread.join() waits on it.
+	private final Object _lock = new Object();
+	private boolean _scheduled = false;
+	private boolean _terminated = false;
+	
+	// whether the controller is paused. This is only accessed by the
+	// thread executing the controller.
+	private boolean _paused = false;
+	
 	// the timeout delay in the main loop.
 	// NOTE: the value is declared volatile because it is 
 	// concurrently updated and read by different threads.
@@ -337,6 +469,74 @@ public abstract class MessageController extends Thread {
 	// ------------------------------- class -------------------------------
 	// ------------------------------ instance -----------------------------
 	
+	// handle a message received from the mailbox, or null if the delay
+	// elapsed, and return false if the controller should terminate.
+	// This is also used by the AgentScheduler.
+	boolean dispatch(Map msg) {
+		if (msg == TERMINATE) {
+			return false;
+		}
+		else if (msg == STOP) {
+			_paused = true;
+			paused();
+		}
+		else if (msg == START) {
+			_paused = false;
+			unpaused();
+		}
+		else if (msg instanceof MarkerMessage) {
+			// wake up the waiting thread
+			synchronized (msg) {
+				msg.notify();
+			}
+		}
+		else {
+			// let the subclass determine how to handle the message
+			handleMessage(msg, _paused);
+		}
+		return true;
+	}
+	
+	
+	// finish the execution. This is also used by the AgentScheduler.
+	void terminate() {
+		try {
+			// ensure that the kill() method is invoked, even if 
+			// the thread dies as the result of an uncaught exception
+			// in a handler method
+			kill();
+			
+			// notify that the thread has been killed
+			killed();
+		}
+		finally {
+			synchronized (_lock) {
+				_terminated = true;
+				_lock.notifyAll();
+			}
+		}
+	}
+	
+	
+	// return the delay before an execution cycle is performed in the
+	// absence of messages, or 0. This is used by the AgentScheduler.
+	long getDelay() {
+		return _delay;
+	}
+	
+	
+	// create an unstarted virtual thread executing the controller
+	private Thread newVirtualThread() {
+		try {
+			Object builder = VIRTUAL[0].invoke(null, new Object[0]);
+			builder = VIRTUAL[1].invoke(builder, new Object[] {getName()});
+			return (Thread)VIRTUAL[2].invoke(builder, new Object[] {this});
+		}
+		catch (Exception e) {
+			throw new IllegalThreadStateException(e.toString());
+		}
+	}
+	
 	
 	// ***********************************************************************
 
@@ -18,11 +18,18 @@
 package dk.dtu.imm.cse.agent.act.util;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * The PostOffice maintains a collection of Mailboxes, and allows messages 
  * to be sent or broadcast to these.
+ * <p>
+ * Sending and broadcasting do not lock the post office: the mailboxes are
+ *  looked up in a concurrent map, and broadcasts use an immutable array
+ *  of the mailboxes. The array is discarded whenever an address is 
+ *  registered or unregistered, and is created again by the next broadcast,
+ *  so registering many addresses takes linear time.
  *
  * @author  Henrik Lauritzen
  */
@@ -35,6 +42,13 @@ public class PostOffice {
 	// =======================================================================
 	
 	// ------------------------------- public --------------------------------
+	
+	/**
+	 * The status returned by {@link #send(Map, Object)} when the receiver
+	 *  has not been registered.
+	 */
+	public final static int UNKNOWN_RECEIVER = -1;
+	
 	// ------------------------------ protected ------------------------------
 	
 	// =======================================================================
@@ -53,9 +67,31 @@ public class PostOffice {
 	// ------------------------------- public --------------------------------
 	
 	/**
-	 * Creates a new, initially empty post office.
+	 * Creates a new, initially empty post office, which creates unbounded
+	 *  mailboxes.
 	 */
 	public PostOffice() {
+		_capacity = 0;
+		_policy = Mailbox.DROP_NEWEST;
+		_key = null;
+	}
+	
+	
+	/**
+	 * Creates a new, initially empty post office, which creates bounded
+	 *  mailboxes.
+	 * @param capacity the capacity of the mailboxes
+	 * @param policy the policy of the mailboxes
+	 * @param key the key used by the {@link Mailbox#COALESCE} policy
+	 * @exception IllegalArgumentException if the parameters are invalid
+	 * @see Mailbox#Mailbox(int, int, Object)
+	 */
+	public PostOffice(int capacity, int policy, Object key) 
+			throws IllegalArgumentException {
+		Mailbox.checkBounds(capacity, policy, key);
+		_capacity = capacity;
+		_policy = policy;
+		_key = key;
 	}
 	
 	// ------------------------------ protected ------------------------------
@@ -77,11 +113,40 @@ public class PostOffice {
 	 * @return the Mailbox instance which will be used to buffer messages for
 	 *  the recipient.
 	 */
-	public synchronized Mailbox register(Object id) {
-		Mailbox result = (Mailbox)_boxes.get(id);
+	public Mailbox register(Object id) {
+		Object key = mask(id);
+		Mailbox result = (Mailbox)_boxes.get(key);
 		if (result == null) {
-			_boxes.put(id, result = new Mailbox());
+			synchronized (this) {
+				if ((result = (Mailbox)_boxes.get(key)) == null) {
+					result = _capacity == 0 ? new Mailbox() :
+							new Mailbox(_capacity, _policy, _key);
+					_boxes.put(key, result);
+					_routes = null;
+				}
+			}
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Registers an address with a given mailbox, e.g. one having another
+	 *  capacity or policy than the mailboxes created by the post office.
+	 * @param id the address
+	 * @param box the mailbox
+	 * @return null iff the address was not registered; otherwise, the
+	 *  mailbox which was replaced is returned.
+	 * @exception NullPointerException if the mailbox is null
+	 */
+	public synchronized Mailbox register(Object id, Mailbox box) 
+			throws NullPointerException {
+		if (box == null) {
+			throw new NullPointerException();
 		}
+		Object key = mask(id);
+		Mailbox result = (Mailbox)_boxes.put(key, box);
+		_routes = null;
 		return result;
 	}
 	
@@ -93,7 +158,12 @@ public class PostOffice {
 	 *  mailbox is returned
 	 */
 	public synchronized Mailbox unregister(Object id) {
-		return (Mailbox)_boxes.remove(id);
+		Object key = mask(id);
+		Mailbox result = (Mailbox)_boxes.remove(key);
+		if (result != null) {
+			_routes = null;
+		}
+		return result;
 	}
 	
 	
@@ -102,61 +172,69 @@ public class PostOffice {
 	 * @param id the address
 	 * @return null iff the user has not been registered
 	 */
-	public synchronized Mailbox getMailbox(Object id) {
-		return (Mailbox)_boxes.get(id);
+	public Mailbox getMailbox(Object id) {
+		return (Mailbox)_boxes.get(mask(id));
 	}
 	
 	
 	/**
 	 * @return a collection of all registered addresses.
 	 */
-	public synchronized Collection getAllUsers() {
-		return new ArrayList(_boxes.keySet());
+	public Collection getAllUsers() {
+		Object[] ids = getRoutes()._ids;
+		List result = new ArrayList(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			result.add(ids[i] == NULL_ID ? null : ids[i]);
+		}
+		return result;
 	}
 	
 	
 	/**
-	 * Sends a message to a single address.
+	 * Sends a message to a single address. The post office is not locked,
+	 *  so the senders do not wait for each other (unless the mailbox
+	 *  blocks them).
 	 * @param msg the message
 	 * @param receiver the receiver's address
-	 * @return true iff the user did exist
+	 * @return {@link #UNKNOWN_RECEIVER} iff the user did not exist;
+	 *  otherwise, the status returned by {@link Mailbox#add(Map)}.
 	 * @exception NullPointerException iff the message is null
 	 */
-	public synchronized boolean send(Map msg, Object receiver) {
-		Mailbox box = (Mailbox)_boxes.get(receiver);
-		if (box != null) {
-			box.add(msg);
-			return true;
-		}
-		else {
-			return false;
+	public int send(Map msg, Object receiver) {
+		if (msg == null) {
+			throw new NullPointerException();
 		}
+		Mailbox box = (Mailbox)_boxes.get(mask(receiver));
+		return box == null ? UNKNOWN_RECEIVER : box.add(msg);
 	}
 	
 	
 	/**
-	 * Broadcasts a message to all registered addresses.
+	 * Broadcasts a message to all registered addresses. The message is
+	 *  delivered to the addresses registered when the broadcast starts,
+	 *  without locking the post office.
 	 * @param msg the message
 	 * @param sender the sender's address; the message will not
 	 *  be broadcast to this address.
-	 * @return the number of receivers.
+	 * @return the number of receivers whose mailboxes accepted the message.
 	 * @exception NullPointerException iff the message is null
 	 */
-	public synchronized int broadcast(Map msg, Object sender) {
+	public int broadcast(Map msg, Object sender) {
 		if (msg == null) {
 			throw new NullPointerException();
 		}
 		
+		Routes routes = getRoutes();
+		Object[] ids = routes._ids;
+		Mailbox[] boxes = routes._boxes;
+		Object key = mask(sender);
+		
 		int result = 0;
-		for (Iterator i = _boxes.entrySet().iterator(); i.hasNext(); ) {
-			Map.Entry e = (Map.Entry)i.next();
-			if (sender == null ? e.getKey() == null : sender.equals(e.getKey())) {
-				continue;
+		for (int i = 0; i < ids.length; i++) {
+			if (!key.equals(ids[i]) && boxes[i].add(msg) != Mailbox.REJECTED) {
+				result++;
 			}
-			((Mailbox)e.getValue()).add(msg);
-			result++;
 		}
-		
 		return result;
 	}
 	
@@ -190,22 +268,77 @@ public class PostOffice {
 	// =======================================================================
 	
 	// ------------------------------- class -------------------------------
+	
+	// the key used for the null address, which the map does not allow
+	private final static Object NULL_ID = new Object();
+	
 	// ------------------------------ instance -----------------------------
 	
-	// Maps a user ID to the Mailbox instance registered for that user.
-	private Map _boxes = new HashMap();
+	// Maps a user ID (masked) to the Mailbox instance registered for that 
+	// user.
+	private Map _boxes = new ConcurrentHashMap();
+	
+	// the recipients of broadcasts, or null if they must be created
+	// again since the registrations have changed. The field is only
+	// modified while the post office is locked.
+	private volatile Routes _routes = null;
+	
+	// the capacity (0 if unbounded), policy and key of the new mailboxes
+	private final int _capacity;
+	private final int _policy;
+	private final Object _key;
 	
 	// =======================================================================
 	// Private methods
 	// =======================================================================
 	
 	// ------------------------------- class -------------------------------
+	
+	// return the key used for an address
+	private static Object mask(Object id) {
+		return id == null ? NULL_ID : id;
+	}
+	
 	// ------------------------------ instance -----------------------------
 	
+	// return the recipients of broadcasts, creating them if the 
+	// registrations have changed
+	private Routes getRoutes() {
+		Routes result = _routes;
+		if (result == null) {
+			synchronized (this) {
+				if ((result = _routes) == null) {
+					Object[] ids = new Object[_boxes.size()];
+					Mailbox[] boxes = new Mailbox[ids.length];
+					int n = 0;
+					for (Iterator i = _boxes.entrySet().iterator(); 
+							i.hasNext(); n++) {
+						Map.Entry e = (Map.Entry)i.next();
+						ids[n] = e.getKey();
+						boxes[n] = (Mailbox)e.getValue();
+					}
+					_routes = result = new Routes(ids, boxes);
+				}
+			}
+		}
+		return result;
+	}
+	
 	// ***********************************************************************
 	
 	// =======================================================================
 	// Inner classes
 	// =======================================================================
 	
+	// an immutable array of the registered addresses and their mailboxes
+	private final static class Routes {
+		Routes(Object[] ids, Mailbox[] boxes) {
+			_ids = ids;
+			_boxes = boxes;
+		}
+		
+		// the masked addresses, and the corresponding mailboxes
+		final Object[] _ids;
+		final Mailbox[] _boxes;
+	}
 }
\ No newline at end of file
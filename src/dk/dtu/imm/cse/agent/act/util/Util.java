@@ -156,6 +156,34 @@ public class Util {
 		return buf;
 	}
 	
+	
+	/**
+	 * Create a BitSet in which the given bits are set.
+	 * @param indices the indices of the bits to be set
+	 * @return the new BitSet
+	 */
+	public static BitSet toBitSet(int[] indices) {
+		BitSet result = new BitSet();
+		for (int i = 0; i < indices.length; i++) {
+			result.set(indices[i]);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Create a map from each of the given keys to its index.
+	 * @param keys the keys, which should be distinct
+	 * @return a new HashMap mapping each key to an Integer
+	 */
+	public static Map toIndexMap(Object[] keys) {
+		Map result = new HashMap(2 * keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			result.put(keys[i], Integer.valueOf(i));
+		}
+		return result;
+	}
+	
 
 
 	// ------------------------------ protected ------------------------------